@@ -5,7 +5,32 @@
 
 package com.amazonaws.codesamples;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.retry.RetryUtils;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
+import com.amazonaws.services.dynamodbv2.model.ProvisionedThroughputExceededException;
+import com.amazonaws.services.dynamodbv2.model.PutRequest;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
 import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
 import com.amazonaws.services.kinesis.clientlibrary.interfaces.v2.IRecordProcessor;
 import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
@@ -14,58 +39,329 @@ import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
 import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
 import com.amazonaws.services.kinesis.model.Record;
 
-import java.nio.charset.Charset;
-
+/**
+ * Replicates the changes of a DynamoDB stream to another table.
+ *
+ * The changes in each batch of records are first reduced to the last change of each item.
+ * The items are then spread over lanes by the hash of their key, and each lane writes its
+ * items with BatchWriteItem calls of up to 25 items. The lanes run in parallel, but an item
+ * always goes to the same lane and appears at most once in a batch, so the changes of one
+ * item are applied in stream order. The processor checkpoints only after every write of the
+ * batch has been confirmed.
+ *
+ * A batch that fails with a transient error, such as throttling, a server error or a network
+ * fault, is sent again in place with a backoff of up to MAX_BACKOFF_MILLIS. The next batch is
+ * not read until then, so changes are never applied out of order. Sending a batch again is safe
+ * because every item ends with its last change in the batch.
+ *
+ * Changes that can never be written, such as an item over the size limit or with a key that
+ * does not match the table, and batches that still fail after MAX_BATCH_ATTEMPTS attempts, are
+ * passed to the DeadLetterHandler. The processor then checkpoints and moves on, so that one
+ * bad change does not stop the shard.
+ */
 public class StreamsRecordProcessor implements IRecordProcessor {
-    private Integer checkpointCounter;
+    public static final int DEFAULT_LANES = 4;
+
+    private static final int MAX_BATCH_ITEMS = 25;
+    private static final long BASE_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    // BatchWriteItem calls for one group of items before the batch counts as failed.
+    private static final int MAX_BATCH_WRITE_ATTEMPTS = 8;
+    // Attempts to write a batch before its changes are dead-lettered.
+    private static final int MAX_BATCH_ATTEMPTS = 10;
+
+    /**
+     * Receives the changes that could not be written. Changes of the same item can arrive more
+     * than once, and the handler is called from several threads at once.
+     */
+    public interface DeadLetterHandler {
+        void deadLetter(List<WriteRequest> changes, Exception cause);
+    }
+
+    // Logs the dead-lettered changes, so that they can be written again by hand.
+    private static final DeadLetterHandler LOG_DEAD_LETTERS = new DeadLetterHandler() {
+        @Override
+        public void deadLetter(List<WriteRequest> changes, Exception cause) {
+            System.err.println("Could not replicate " + changes.size() + " changes: " + cause);
+            for (WriteRequest change : changes) {
+                System.err.println("  " + change);
+            }
+        }
+    };
 
     private final AmazonDynamoDB dynamoDBClient;
     private final String tableName;
+    private final int laneCount;
+    private final DeadLetterHandler deadLetterHandler;
+    private final ExecutorService lanes;
+    private final Random random = new Random();
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong writtenItems = new AtomicLong();
+    private final AtomicLong batchWriteCalls = new AtomicLong();
+    private final AtomicLong checkpoints = new AtomicLong();
+    private final AtomicLong lagSamples = new AtomicLong();
+    private final AtomicLong totalLagMillis = new AtomicLong();
+    private final AtomicLong maxLagMillis = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong deadLetteredChanges = new AtomicLong();
 
     public StreamsRecordProcessor(AmazonDynamoDB dynamoDBClient2, String tableName) {
-        this.dynamoDBClient = dynamoDBClient2;
+        this(dynamoDBClient2, tableName, DEFAULT_LANES);
+    }
+
+    public StreamsRecordProcessor(AmazonDynamoDB dynamoDBClient, String tableName, int laneCount) {
+        this(dynamoDBClient, tableName, laneCount, LOG_DEAD_LETTERS);
+    }
+
+    public StreamsRecordProcessor(AmazonDynamoDB dynamoDBClient, String tableName, int laneCount,
+            DeadLetterHandler deadLetterHandler) {
+        this.dynamoDBClient = dynamoDBClient;
         this.tableName = tableName;
+        this.laneCount = laneCount;
+        this.deadLetterHandler = deadLetterHandler;
+        this.lanes = Executors.newFixedThreadPool(laneCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "streams-replication-lane");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     @Override
     public void initialize(InitializationInput initializationInput) {
-        checkpointCounter = 0;
     }
 
     @Override
     public void processRecords(ProcessRecordsInput processRecordsInput) {
+        // The last change of each item wins. The map keeps the items in stream order.
+        Map<Map<String, AttributeValue>, WriteRequest> changes = new LinkedHashMap<Map<String, AttributeValue>, WriteRequest>();
+        List<StreamRecord> changed = new ArrayList<StreamRecord>();
         for (Record record : processRecordsInput.getRecords()) {
-            String data = new String(record.getData().array(), Charset.forName("UTF-8"));
-            System.out.println(data);
-            if (record instanceof RecordAdapter) {
-                com.amazonaws.services.dynamodbv2.model.Record streamRecord = ((RecordAdapter) record)
-                        .getInternalObject();
-
-                switch (streamRecord.getEventName()) {
-                    case "INSERT":
-                    case "MODIFY":
-                        StreamsAdapterDemoHelper.putItem(dynamoDBClient, tableName,
-                                streamRecord.getDynamodb().getNewImage());
-                        break;
-                    case "REMOVE":
-                        StreamsAdapterDemoHelper.deleteItem(dynamoDBClient, tableName,
-                                streamRecord.getDynamodb().getKeys().get("Id").getN());
-                }
+            if (!(record instanceof RecordAdapter)) {
+                continue;
             }
-            checkpointCounter += 1;
-            if (checkpointCounter % 10 == 0) {
+            com.amazonaws.services.dynamodbv2.model.Record streamRecord = ((RecordAdapter) record)
+                    .getInternalObject();
+            Map<String, AttributeValue> key = streamRecord.getDynamodb().getKeys();
+
+            // Remove the earlier change first so that the item moves to its latest position.
+            changes.remove(key);
+            if ("REMOVE".equals(streamRecord.getEventName())) {
+                changes.put(key, new WriteRequest().withDeleteRequest(new DeleteRequest().withKey(key)));
+            } else {
+                changes.put(key, new WriteRequest()
+                        .withPutRequest(new PutRequest().withItem(streamRecord.getDynamodb().getNewImage())));
+            }
+            changed.add(streamRecord.getDynamodb());
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                write(changes);
+                break;
+            } catch (InterruptedException e) {
+                // The worker is stopping. The batch is not checkpointed, so it is read again.
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failedAttempts.incrementAndGet();
+                if (!isTransient(e) || attempt == MAX_BATCH_ATTEMPTS) {
+                    // Give up on the batch, so that the shard is not stuck behind it.
+                    deadLetter(new ArrayList<WriteRequest>(changes.values()), e);
+                    break;
+                }
+                long backoff = backoff(attempt);
+                System.err.println("Failed to replicate a batch of " + processRecordsInput.getRecords().size()
+                        + " records, retrying in " + backoff + " ms: " + e);
                 try {
-                    processRecordsInput.getCheckpointer().checkpoint();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
                 }
             }
         }
 
+        long now = System.currentTimeMillis();
+        for (StreamRecord streamRecord : changed) {
+            if (streamRecord.getApproximateCreationDateTime() != null) {
+                long lag = Math.max(0, now - streamRecord.getApproximateCreationDateTime().getTime());
+                lagSamples.incrementAndGet();
+                totalLagMillis.addAndGet(lag);
+                updateMax(maxLagMillis, lag);
+            }
+        }
+        records.addAndGet(processRecordsInput.getRecords().size());
+
+        try {
+            processRecordsInput.getCheckpointer().checkpoint();
+            checkpoints.incrementAndGet();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Writes the changes on parallel lanes and waits until every lane is done.
+    private void write(Map<Map<String, AttributeValue>, WriteRequest> changes) throws Exception {
+        List<List<WriteRequest>> laneRequests = new ArrayList<List<WriteRequest>>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            laneRequests.add(new ArrayList<WriteRequest>());
+        }
+        for (Map.Entry<Map<String, AttributeValue>, WriteRequest> change : changes.entrySet()) {
+            int lane = (change.getKey().hashCode() & Integer.MAX_VALUE) % laneCount;
+            laneRequests.get(lane).add(change.getValue());
+        }
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(laneCount);
+        for (final List<WriteRequest> requests : laneRequests) {
+            if (!requests.isEmpty()) {
+                futures.add(lanes.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int start = 0; start < requests.size(); start += MAX_BATCH_ITEMS) {
+                            writeBatch(requests.subList(start, Math.min(requests.size(), start + MAX_BATCH_ITEMS)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        Exception error = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // Sends one BatchWriteItem call and retries the unprocessed items and transient errors with
+    // jittered backoff, up to MAX_BATCH_WRITE_ATTEMPTS calls. A group that DynamoDB rejects for
+    // good is dead-lettered, and the other groups of the lane are still written.
+    private void writeBatch(List<WriteRequest> requests) throws InterruptedException {
+        Map<String, List<WriteRequest>> requestItems = new LinkedHashMap<String, List<WriteRequest>>();
+        requestItems.put(tableName, new ArrayList<WriteRequest>(requests));
+        int attempt = 0;
+        AmazonClientException lastError = null;
+        while (!requestItems.isEmpty()) {
+            if (attempt == MAX_BATCH_WRITE_ATTEMPTS) {
+                throw new AmazonClientException(requestItems.get(tableName).size() + " of " + requests.size()
+                        + " items were not written after " + attempt + " BatchWriteItem calls", lastError);
+            }
+            if (attempt > 0) {
+                Thread.sleep(backoff(attempt));
+            }
+            attempt++;
+            try {
+                batchWriteCalls.incrementAndGet();
+                BatchWriteItemResult result = dynamoDBClient
+                        .batchWriteItem(new BatchWriteItemRequest().withRequestItems(requestItems));
+                List<WriteRequest> unprocessed = result.getUnprocessedItems().get(tableName);
+                int sent = requestItems.get(tableName).size();
+                writtenItems.addAndGet(sent - (unprocessed == null ? 0 : unprocessed.size()));
+                requestItems = result.getUnprocessedItems();
+            } catch (AmazonClientException e) {
+                if (!isTransient(e)) {
+                    deadLetter(requestItems.get(tableName), e);
+                    return;
+                }
+                // Every item was rejected. Send them again after the backoff.
+                lastError = e;
+            }
+        }
+    }
+
+    // Throttling, server errors and errors on the client side, such as a timeout, can pass.
+    // Any other error from DynamoDB, such as a ValidationException, fails every time.
+    private static boolean isTransient(Exception e) {
+        if (e instanceof AmazonServiceException) {
+            AmazonServiceException serviceException = (AmazonServiceException) e;
+            return serviceException instanceof ProvisionedThroughputExceededException
+                    || RetryUtils.isThrottlingException(serviceException)
+                    || serviceException.getStatusCode() >= 500;
+        }
+        return e instanceof AmazonClientException;
+    }
+
+    private void deadLetter(List<WriteRequest> changes, Exception cause) {
+        deadLetteredChanges.addAndGet(changes.size());
+        deadLetterHandler.deadLetter(changes, cause);
+    }
+
+    // Full jitter: a random time up to BASE_BACKOFF_MILLIS * 2^attempt, capped at MAX_BACKOFF_MILLIS.
+    private long backoff(int attempt) {
+        return nextRandom(Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16)) + 1);
+    }
+
+    private long nextRandom(long bound) {
+        synchronized (random) {
+            return (long) (random.nextDouble() * bound);
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    // Stream records that were replicated and checkpointed.
+    public long getRecords() {
+        return records.get();
+    }
+
+    // Items written to the table after the changes of each batch were combined.
+    public long getWrittenItems() {
+        return writtenItems.get();
+    }
+
+    public long getBatchWriteCalls() {
+        return batchWriteCalls.get();
+    }
+
+    public long getCheckpoints() {
+        return checkpoints.get();
+    }
+
+    // The time from a change in the source table to the confirmed write of its batch.
+    public long getAverageLagMillis() {
+        long count = lagSamples.get();
+        return count == 0 ? 0 : totalLagMillis.get() / count;
+    }
+
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+
+    // Attempts to write a batch that failed and were retried.
+    public long getFailedAttempts() {
+        return failedAttempts.get();
+    }
+
+    // Changes that were passed to the DeadLetterHandler instead of being written.
+    public long getDeadLetteredChanges() {
+        return deadLetteredChanges.get();
     }
 
     @Override
     public void shutdown(ShutdownInput shutdownInput) {
+        lanes.shutdown();
+        try {
+            lanes.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         if (shutdownInput.getShutdownReason() == ShutdownReason.TERMINATE) {
             try {
                 shutdownInput.getCheckpointer().checkpoint();
@@ -0,0 +1,182 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.amazonaws.codesamples;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDB;
+import com.amazonaws.services.dynamodbv2.local.embedded.DynamoDBEmbedded;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ScanRequest;
+import com.amazonaws.services.dynamodbv2.model.ScanResult;
+import com.amazonaws.services.dynamodbv2.model.StreamRecord;
+import com.amazonaws.services.dynamodbv2.streamsadapter.model.RecordAdapter;
+import com.amazonaws.services.kinesis.clientlibrary.interfaces.IRecordProcessorCheckpointer;
+import com.amazonaws.services.kinesis.clientlibrary.lib.worker.ShutdownReason;
+import com.amazonaws.services.kinesis.clientlibrary.types.InitializationInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ProcessRecordsInput;
+import com.amazonaws.services.kinesis.clientlibrary.types.ShutdownInput;
+import com.amazonaws.services.kinesis.model.Record;
+
+/**
+ * Measures the replication lag and throughput of StreamsRecordProcessor against an in-process
+ * instance of DynamoDB Local.
+ *
+ * A producer writes stream records for a fixed set of items at a steady rate, and a consumer
+ * hands them to the processor in batches of up to 1,000 records, as the worker in
+ * StreamsAdapterDemo does. At the end the destination table is compared with the last change
+ * of every item.
+ */
+public class StreamsReplicationBenchmark {
+    private static final String TABLE_NAME = "KCL-Demo-dest";
+    private static final int ITEMS = 2000;
+    private static final int RECORDS_PER_SECOND = 5000;
+    private static final int SECONDS = 20;
+    private static final int MAX_RECORDS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        AmazonDynamoDB dynamodb = null;
+        try {
+            dynamodb = DynamoDBEmbedded.create();
+            StreamsAdapterDemoHelper.createTable(dynamodb, TABLE_NAME);
+
+            final StreamsRecordProcessor processor = new StreamsRecordProcessor(dynamodb, TABLE_NAME);
+            final AtomicInteger checkpointCalls = new AtomicInteger();
+            final IRecordProcessorCheckpointer checkpointer = (IRecordProcessorCheckpointer) Proxy.newProxyInstance(
+                    IRecordProcessorCheckpointer.class.getClassLoader(),
+                    new Class<?>[] { IRecordProcessorCheckpointer.class }, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] methodArgs) {
+                            if (method.getName().equals("checkpoint")) {
+                                checkpointCalls.incrementAndGet();
+                            }
+                            return null;
+                        }
+                    });
+            processor.initialize(new InitializationInput().withShardId("shardId-000000000000"));
+
+            final BlockingQueue<Record> stream = new LinkedBlockingQueue<Record>();
+            final boolean[] producerDone = { false };
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        List<Record> batch = new ArrayList<Record>();
+                        try {
+                            Record first = stream.poll(500, TimeUnit.MILLISECONDS);
+                            if (first == null) {
+                                synchronized (producerDone) {
+                                    if (producerDone[0] && stream.isEmpty()) {
+                                        return;
+                                    }
+                                }
+                                continue;
+                            }
+                            batch.add(first);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        stream.drainTo(batch, MAX_RECORDS - 1);
+                        processor.processRecords(new ProcessRecordsInput().withRecords(batch)
+                                .withCheckpointer(checkpointer));
+                    }
+                }
+            }, "streams-consumer");
+            consumer.start();
+
+            // The last change of each item. A removed item maps to null.
+            Map<String, String> expected = new HashMap<String, String>();
+            Random random = new Random(42);
+            long start = System.nanoTime();
+            int total = RECORDS_PER_SECOND * SECONDS;
+            for (int i = 0; i < total; i++) {
+                // Keep to the rate: record i is due i / rate seconds after the start.
+                long due = start + TimeUnit.SECONDS.toNanos(i) / RECORDS_PER_SECOND;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+
+                String id = Integer.toString(random.nextInt(ITEMS));
+                Map<String, AttributeValue> key = new HashMap<String, AttributeValue>();
+                key.put("Id", new AttributeValue().withN(id));
+                StreamRecord change = new StreamRecord().withKeys(key)
+                        .withApproximateCreationDateTime(new Date())
+                        .withSequenceNumber(Integer.toString(i));
+                String eventName;
+                if (random.nextInt(10) == 0) {
+                    eventName = "REMOVE";
+                    expected.put(id, null);
+                } else {
+                    String value = "value-" + i;
+                    Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(key);
+                    item.put("attribute-1", new AttributeValue().withS(value));
+                    change.withNewImage(item);
+                    eventName = expected.containsKey(id) && expected.get(id) != null ? "MODIFY" : "INSERT";
+                    expected.put(id, value);
+                }
+                stream.add(new RecordAdapter(new com.amazonaws.services.dynamodbv2.model.Record()
+                        .withEventName(eventName).withDynamodb(change)));
+            }
+            synchronized (producerDone) {
+                producerDone[0] = true;
+            }
+            consumer.join();
+            long elapsedNanos = System.nanoTime() - start;
+            processor.shutdown(new ShutdownInput().withShutdownReason(ShutdownReason.ZOMBIE)
+                    .withCheckpointer(checkpointer));
+
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("Replicated %d records in %.1f s (%.0f records/s, offered %d records/s)%n",
+                    processor.getRecords(), seconds, processor.getRecords() / seconds, RECORDS_PER_SECOND);
+            System.out.printf("Wrote %d items with %d BatchWriteItem calls; %d checkpoints (%d checkpoint calls)%n",
+                    processor.getWrittenItems(), processor.getBatchWriteCalls(), processor.getCheckpoints(),
+                    checkpointCalls.get());
+            System.out.printf("Replication lag: average %d ms, max %d ms; %d failed batch attempts, %d changes dead-lettered%n",
+                    processor.getAverageLagMillis(), processor.getMaxLagMillis(), processor.getFailedAttempts(),
+                    processor.getDeadLetteredChanges());
+
+            Map<String, String> replicated = scan(dynamodb);
+            int mismatches = 0;
+            for (Map.Entry<String, String> entry : expected.entrySet()) {
+                String actual = replicated.get(entry.getKey());
+                if (entry.getValue() == null ? actual != null : !entry.getValue().equals(actual)) {
+                    mismatches++;
+                }
+            }
+            System.out.println(mismatches == 0 ? "Destination table matches the source."
+                    : mismatches + " items differ from the source!");
+        } finally {
+            if (dynamodb != null) {
+                dynamodb.shutdown();
+            }
+        }
+    }
+
+    private static Map<String, String> scan(AmazonDynamoDB dynamodb) {
+        Map<String, String> items = new HashMap<String, String>();
+        Map<String, AttributeValue> startKey = null;
+        do {
+            ScanResult result = dynamodb.scan(new ScanRequest().withTableName(TABLE_NAME)
+                    .withExclusiveStartKey(startKey));
+            for (Map<String, AttributeValue> item : result.getItems()) {
+                items.put(item.get("Id").getN(), item.get("attribute-1").getS());
+            }
+            startKey = result.getLastEvaluatedKey();
+        } while (startKey != null);
+        return items;
+    }
+}
@@ -16,6 +16,7 @@ public class ExampleConstants {
     public static final String ATHENA_SAMPLE_QUERY = "SELECT * FROM scott2;"; // change the Query statement to match
                                                                               // your environment
     public static final long SLEEP_AMOUNT_IN_MS = 1000;
+    public static final long MIN_SLEEP_AMOUNT_IN_MS = 50;
     public static final String ATHENA_DEFAULT_DATABASE = "mydatabase"; // change the database to match your database
 
 }
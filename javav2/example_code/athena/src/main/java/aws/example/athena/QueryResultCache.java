@@ -0,0 +1,226 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package aws.example.athena;
+
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.athena.AthenaClient;
+import software.amazon.awssdk.services.athena.model.QueryExecutionContext;
+import software.amazon.awssdk.services.athena.model.ResultConfiguration;
+import software.amazon.awssdk.services.athena.model.StartQueryExecutionRequest;
+import software.amazon.awssdk.services.s3.S3Client;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs Amazon Athena queries and remembers the execution of each one, so that a repeated
+ * query, such as the query behind a dashboard panel, reuses the results of the earlier run
+ * instead of running again.
+ *
+ * A query is identified by its normalized SQL and a data snapshot. The snapshot is any string
+ * that changes when the data that the query reads changes, such as an Apache Iceberg snapshot
+ * ID, the newest partition, or the time of the last load. Results are reused for at most
+ * maxAge, which should be shorter than the lifetime of the files in the output location.
+ * Callers that ask for the same query while it runs wait for the same execution.
+ */
+public class QueryResultCache {
+    private final AthenaClient athenaClient;
+    private final String database;
+    private final String outputLocation;
+    private final Duration maxAge;
+    private final Map<String, CachedQuery> queries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder executions = new LongAdder();
+
+    public QueryResultCache(AthenaClient athenaClient, String database, String outputLocation, Duration maxAge) {
+        this.athenaClient = athenaClient;
+        this.database = database;
+        this.outputLocation = outputLocation;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Returns the ID of a successful execution of the query on the given data snapshot, and
+     * runs the query first if there is none.
+     */
+    public String getQueryExecutionId(String sql, String snapshot) throws InterruptedException {
+        String key = key(sql, snapshot);
+        while (true) {
+            long now = System.nanoTime();
+            CachedQuery created = new CachedQuery(now);
+            CachedQuery existing = queries.putIfAbsent(key, created);
+            if (existing != null && existing.isExpired(now, maxAge)) {
+                if (!queries.replace(key, existing, created)) {
+                    continue;
+                }
+                existing = null;
+            }
+            if (existing != null) {
+                try {
+                    String queryExecutionId = existing.queryExecutionId.join();
+                    hits.increment();
+                    return queryExecutionId;
+                } catch (CompletionException e) {
+                    if (!(e.getCause() instanceof InterruptedException)) {
+                        throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                    }
+                    // The caller that ran the query was interrupted. Run it again.
+                    queries.remove(key, existing);
+                    continue;
+                }
+            }
+
+            queries.values().removeIf(query -> query.isExpired(now, maxAge));
+            try {
+                String queryExecutionId = startQuery(sql);
+                StartQueryExample.waitForQueryToComplete(athenaClient, queryExecutionId);
+                created.queryExecutionId.complete(queryExecutionId);
+                return queryExecutionId;
+            } catch (RuntimeException | InterruptedException e) {
+                queries.remove(key, created);
+                created.queryExecutionId.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    // Queries that reused an earlier or a running execution.
+    public long getHits() {
+        return hits.sum();
+    }
+
+    // Queries that were sent to Athena.
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    /**
+     * Returns the SQL with comments removed, runs of white space replaced by one space, a
+     * trailing semicolon removed, and everything outside quotes in lowercase. Athena does not
+     * tell keywords and identifiers apart by case, so the result runs the same query.
+     */
+    public static String normalize(String sql) {
+        StringBuilder normalized = new StringBuilder(sql.length());
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '-' && sql.startsWith("--", i)) {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? sql.length() : end;
+                pendingSpace = true;
+            } else if (c == '/' && sql.startsWith("/*", i)) {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? sql.length() : end + 2;
+                pendingSpace = true;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+                pendingSpace = true;
+            } else {
+                if (pendingSpace && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                pendingSpace = false;
+                if (c == '\'' || c == '"') {
+                    // Copy a string literal or a quoted identifier as it is. A doubled quote
+                    // inside it is copied as two quotes.
+                    int end = i + 1;
+                    while (end < sql.length()) {
+                        if (sql.charAt(end) == c) {
+                            if (end + 1 < sql.length() && sql.charAt(end + 1) == c) {
+                                end += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        end++;
+                    }
+                    end = Math.min(end + 1, sql.length());
+                    normalized.append(sql, i, end);
+                    i = end;
+                } else {
+                    normalized.append(Character.toLowerCase(c));
+                    i++;
+                }
+            }
+        }
+        int length = normalized.length();
+        while (length > 0 && (normalized.charAt(length - 1) == ';' || normalized.charAt(length - 1) == ' ')) {
+            length--;
+        }
+        normalized.setLength(length);
+        return normalized.toString();
+    }
+
+    private String startQuery(String sql) {
+        executions.increment();
+        StartQueryExecutionRequest request = StartQueryExecutionRequest.builder()
+                .queryString(sql)
+                .queryExecutionContext(QueryExecutionContext.builder()
+                        .database(database)
+                        .build())
+                .resultConfiguration(ResultConfiguration.builder()
+                        .outputLocation(outputLocation)
+                        .build())
+                .build();
+        return athenaClient.startQueryExecution(request).queryExecutionId();
+    }
+
+    private String key(String sql, String snapshot) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((database + "\n" + snapshot + "\n").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest(normalize(sql).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CachedQuery {
+        private final long startedNanos;
+        private final CompletableFuture<String> queryExecutionId = new CompletableFuture<>();
+
+        CachedQuery(long startedNanos) {
+            this.startedNanos = startedNanos;
+        }
+
+        // A running query never expires, so that its callers keep sharing it.
+        boolean isExpired(long now, Duration maxAge) {
+            return queryExecutionId.isDone() && now - startedNanos > maxAge.toNanos();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        AthenaClient athenaClient = AthenaClient.builder()
+                .region(Region.US_WEST_2)
+                .build();
+        S3Client s3Client = S3Client.builder()
+                .region(Region.US_WEST_2)
+                .build();
+
+        QueryResultCache cache = new QueryResultCache(athenaClient, ExampleConstants.ATHENA_DEFAULT_DATABASE,
+                ExampleConstants.ATHENA_OUTPUT_BUCKET, Duration.ofMinutes(15));
+        try (S3ResultReader reader = new S3ResultReader(athenaClient, s3Client)) {
+            // The second run finds the results of the first one.
+            for (int run = 1; run <= 2; run++) {
+                long start = System.nanoTime();
+                String queryExecutionId = cache.getQueryExecutionId(ExampleConstants.ATHENA_SAMPLE_QUERY, "1");
+                long rows = reader.readResults(queryExecutionId, batch -> {
+                });
+                System.out.printf("Run %d read %d rows of %s in %d ms%n", run, rows, queryExecutionId,
+                        Duration.ofNanos(System.nanoTime() - start).toMillis());
+            }
+        }
+        System.out.println("Queries sent to Athena: " + cache.getExecutions());
+        athenaClient.close();
+        s3Client.close();
+    }
+}
@@ -0,0 +1,136 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package aws.example.athena;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * A batch of query result rows, stored by column. Integer columns are kept as longs,
+ * floating-point columns as doubles and boolean columns as booleans, so reading them needs
+ * no parsing. Decimal columns are kept as BigDecimal values and every other type, such as
+ * varchar, date and timestamp, as the text that Amazon Athena wrote.
+ */
+public class ResultBatch {
+
+    public enum ColumnType {
+        LONG, DOUBLE, BOOLEAN, DECIMAL, STRING;
+
+        // Maps an Athena column type, such as "bigint" or "varchar", to the way it is stored.
+        static ColumnType of(String athenaType) {
+            return switch (athenaType.toLowerCase()) {
+                case "tinyint", "smallint", "integer", "int", "bigint" -> LONG;
+                case "float", "real", "double" -> DOUBLE;
+                case "boolean" -> BOOLEAN;
+                case "decimal" -> DECIMAL;
+                default -> STRING;
+            };
+        }
+    }
+
+    private final String[] names;
+    private final ColumnType[] types;
+    private final long[][] longs;
+    private final double[][] doubles;
+    private final boolean[][] booleans;
+    private final Object[][] objects;
+    private final boolean[][] nulls;
+    private final int capacity;
+    private int rowCount;
+
+    ResultBatch(List<ColumnInfo> columns, int capacity) {
+        int count = columns.size();
+        this.capacity = capacity;
+        names = new String[count];
+        types = new ColumnType[count];
+        longs = new long[count][];
+        doubles = new double[count][];
+        booleans = new boolean[count][];
+        objects = new Object[count][];
+        nulls = new boolean[count][capacity];
+        for (int i = 0; i < count; i++) {
+            names[i] = columns.get(i).name();
+            types[i] = ColumnType.of(columns.get(i).type());
+            switch (types[i]) {
+                case LONG -> longs[i] = new long[capacity];
+                case DOUBLE -> doubles[i] = new double[capacity];
+                case BOOLEAN -> booleans[i] = new boolean[capacity];
+                default -> objects[i] = new Object[capacity];
+            }
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    public ColumnType getColumnType(int column) {
+        return types[column];
+    }
+
+    public boolean isNull(int column, int row) {
+        return nulls[column][row];
+    }
+
+    public long getLong(int column, int row) {
+        return longs[column][row];
+    }
+
+    public double getDouble(int column, int row) {
+        return doubles[column][row];
+    }
+
+    public boolean getBoolean(int column, int row) {
+        return booleans[column][row];
+    }
+
+    public BigDecimal getDecimal(int column, int row) {
+        return (BigDecimal) objects[column][row];
+    }
+
+    public String getString(int column, int row) {
+        if (nulls[column][row]) {
+            return null;
+        }
+        return switch (types[column]) {
+            case LONG -> Long.toString(longs[column][row]);
+            case DOUBLE -> Double.toString(doubles[column][row]);
+            case BOOLEAN -> Boolean.toString(booleans[column][row]);
+            default -> objects[column][row].toString();
+        };
+    }
+
+    boolean isFull() {
+        return rowCount == capacity;
+    }
+
+    // Stores one field of the row that is being added. A null value is an empty, unquoted field.
+    void set(int column, String value) {
+        int row = rowCount;
+        if (value == null) {
+            nulls[column][row] = true;
+            return;
+        }
+        switch (types[column]) {
+            case LONG -> longs[column][row] = Long.parseLong(value);
+            case DOUBLE -> doubles[column][row] = Double.parseDouble(value);
+            case BOOLEAN -> booleans[column][row] = Boolean.parseBoolean(value);
+            case DECIMAL -> objects[column][row] = new BigDecimal(value);
+            default -> objects[column][row] = value;
+        }
+    }
+
+    void endRow() {
+        rowCount++;
+    }
+}
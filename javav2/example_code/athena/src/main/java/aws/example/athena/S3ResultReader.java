@@ -0,0 +1,277 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package aws.example.athena;
+
+import software.amazon.awssdk.services.athena.AthenaClient;
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+import software.amazon.awssdk.services.athena.model.GetQueryExecutionRequest;
+import software.amazon.awssdk.services.athena.model.GetQueryResultsRequest;
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Reads the results of an Amazon Athena query straight from the CSV file that Athena writes
+ * to the output location of the query, instead of paging through GetQueryResults.
+ *
+ * The file is downloaded with parallel ranged GET requests. The parts are handed to the
+ * parser in file order while the next parts download, so at most parallelism x partSize bytes
+ * are held in memory. Every request is made with the ETag of the file, so a file that is
+ * replaced during the read fails the read instead of mixing two versions. The rows are
+ * parsed as they arrive into ResultBatch objects of typed columns.
+ *
+ * Only queries that write a CSV file, such as SELECT, can be read this way.
+ */
+public class S3ResultReader implements AutoCloseable {
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_BATCH_ROWS = 4096;
+
+    private final AthenaClient athenaClient;
+    private final S3Client s3Client;
+    private final int partSize;
+    private final int parallelism;
+    private final ExecutorService downloads;
+
+    public S3ResultReader(AthenaClient athenaClient, S3Client s3Client) {
+        this(athenaClient, s3Client, DEFAULT_PART_SIZE, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public S3ResultReader(AthenaClient athenaClient, S3Client s3Client, int partSize, int parallelism) {
+        this.athenaClient = athenaClient;
+        this.s3Client = s3Client;
+        this.partSize = partSize;
+        this.parallelism = parallelism;
+        this.downloads = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "athena-result-download");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reads the results of a query that has succeeded and passes them to the consumer in
+     * batches of rows.
+     *
+     * @return the number of rows that were read
+     */
+    public long readResults(String queryExecutionId, Consumer<ResultBatch> consumer) {
+        QueryExecution execution = athenaClient.getQueryExecution(GetQueryExecutionRequest.builder()
+                .queryExecutionId(queryExecutionId)
+                .build())
+                .queryExecution();
+
+        // The column types are not in the CSV file. A single row of GetQueryResults carries them.
+        List<ColumnInfo> columns = athenaClient.getQueryResults(GetQueryResultsRequest.builder()
+                .queryExecutionId(queryExecutionId)
+                .maxResults(1)
+                .build())
+                .resultSet().resultSetMetadata().columnInfo();
+
+        URI location = URI.create(execution.resultConfiguration().outputLocation());
+        String bucket = location.getHost();
+        String key = location.getPath().substring(1);
+
+        try (InputStream input = new RangedObjectInputStream(bucket, key);
+                Reader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), 64 * 1024)) {
+            return parse(reader, columns, consumer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Parses RFC 4180 CSV as Athena writes it: a header row, then one row per record. Every
+    // value is in double quotes, and a null value is an empty field without quotes.
+    static long parse(Reader reader, List<ColumnInfo> columns, Consumer<ResultBatch> consumer) throws IOException {
+        StringBuilder field = new StringBuilder();
+        ResultBatch batch = new ResultBatch(columns, DEFAULT_BATCH_ROWS);
+        long rows = 0;
+        boolean header = true;
+        int column = 0;
+        int c = reader.read();
+        while (c != -1) {
+            String value;
+            if (c == '"') {
+                field.setLength(0);
+                while (true) {
+                    c = reader.read();
+                    if (c == -1) {
+                        throw new IOException("The result file ends inside a quoted value");
+                    }
+                    if (c == '"') {
+                        c = reader.read();
+                        if (c != '"') {
+                            break;
+                        }
+                    }
+                    field.append((char) c);
+                }
+                value = field.toString();
+            } else {
+                field.setLength(0);
+                while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                    field.append((char) c);
+                    c = reader.read();
+                }
+                value = field.length() == 0 ? null : field.toString();
+            }
+
+            if (!header) {
+                if (column >= columns.size()) {
+                    throw new IOException("Row " + (rows + 1) + " has more than " + columns.size() + " columns");
+                }
+                batch.set(column, value);
+            }
+            column++;
+
+            if (c == ',') {
+                c = reader.read();
+                continue;
+            }
+            if (c == '\r') {
+                c = reader.read();
+                if (c == '\n') {
+                    c = reader.read();
+                }
+            } else if (c == '\n') {
+                c = reader.read();
+            } else if (c != -1) {
+                throw new IOException("Unexpected character '" + (char) c + "' after a quoted value");
+            }
+
+            // The end of a row.
+            if (header) {
+                header = false;
+            } else {
+                if (column != columns.size()) {
+                    throw new IOException("Row " + (rows + 1) + " has " + column + " columns instead of "
+                            + columns.size());
+                }
+                batch.endRow();
+                rows++;
+                if (batch.isFull()) {
+                    consumer.accept(batch);
+                    batch = new ResultBatch(columns, DEFAULT_BATCH_ROWS);
+                }
+            }
+            column = 0;
+        }
+        if (batch.getRowCount() > 0) {
+            consumer.accept(batch);
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() {
+        downloads.shutdownNow();
+    }
+
+    // Downloads the parts of an object ahead of the reader and returns them in order.
+    private class RangedObjectInputStream extends InputStream {
+        private final String bucket;
+        private final String key;
+        private final String eTag;
+        private final long size;
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        private long nextOffset;
+        private byte[] part = new byte[0];
+        private int position;
+
+        RangedObjectInputStream(String bucket, String key) {
+            this.bucket = bucket;
+            this.key = key;
+            HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+                    .bucket(bucket)
+                    .key(key)
+                    .build());
+            this.eTag = head.eTag();
+            this.size = head.contentLength();
+            fill();
+        }
+
+        private void fill() {
+            while (pending.size() < parallelism && nextOffset < size) {
+                long start = nextOffset;
+                long end = Math.min(size, start + partSize) - 1;
+                pending.add(downloads.submit(() -> s3Client.getObjectAsBytes(GetObjectRequest.builder()
+                        .bucket(bucket)
+                        .key(key)
+                        .range("bytes=" + start + "-" + end)
+                        .ifMatch(eTag)
+                        .build())
+                        .asByteArray()));
+                nextOffset = end + 1;
+            }
+        }
+
+        // Moves to the next part. Returns false at the end of the object.
+        private boolean nextPart() throws IOException {
+            while (position == part.length) {
+                Future<byte[]> next = pending.poll();
+                if (next == null) {
+                    return false;
+                }
+                try {
+                    part = next.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while downloading s3://" + bucket + "/" + key, e);
+                } catch (ExecutionException | CancellationException e) {
+                    throw new IOException("Failed to download s3://" + bucket + "/" + key, e);
+                }
+                position = 0;
+                fill();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextPart()) {
+                return -1;
+            }
+            return part[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!nextPart()) {
+                return -1;
+            }
+            int count = Math.min(length, part.length - position);
+            System.arraycopy(part, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+        }
+    }
+}
@@ -87,6 +87,7 @@ public class StartQueryExample {
 
         GetQueryExecutionResponse getQueryExecutionResponse;
         boolean isQueryStillRunning = true;
+        long sleepAmount = ExampleConstants.MIN_SLEEP_AMOUNT_IN_MS;
         while (isQueryStillRunning) {
             getQueryExecutionResponse = athenaClient.getQueryExecution(getQueryExecutionRequest);
             String queryState = getQueryExecutionResponse.queryExecution().status().state().toString();
@@ -99,8 +100,10 @@ public class StartQueryExample {
             } else if (queryState.equals(QueryExecutionState.SUCCEEDED.toString())) {
                 isQueryStillRunning = false;
             } else {
-                // Sleep an amount of time before retrying again.
-                Thread.sleep(ExampleConstants.SLEEP_AMOUNT_IN_MS);
+                // Sleep an amount of time before retrying again. Short queries are polled
+                // often, and the sleep doubles up to SLEEP_AMOUNT_IN_MS for longer ones.
+                Thread.sleep(sleepAmount);
+                sleepAmount = Math.min(ExampleConstants.SLEEP_AMOUNT_IN_MS, sleepAmount * 2);
             }
             System.out.println("The current status is: " + queryState);
         }
@@ -0,0 +1,300 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import aws.example.athena.QueryResultCache;
+import aws.example.athena.ResultBatch;
+import aws.example.athena.S3ResultReader;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.athena.AthenaClient;
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+import software.amazon.awssdk.services.athena.model.Datum;
+import software.amazon.awssdk.services.athena.model.GetQueryExecutionRequest;
+import software.amazon.awssdk.services.athena.model.GetQueryExecutionResponse;
+import software.amazon.awssdk.services.athena.model.GetQueryResultsRequest;
+import software.amazon.awssdk.services.athena.model.GetQueryResultsResponse;
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+import software.amazon.awssdk.services.athena.model.QueryExecutionState;
+import software.amazon.awssdk.services.athena.model.QueryExecutionStatus;
+import software.amazon.awssdk.services.athena.model.ResultConfiguration;
+import software.amazon.awssdk.services.athena.model.ResultSet;
+import software.amazon.awssdk.services.athena.model.ResultSetMetadata;
+import software.amazon.awssdk.services.athena.model.Row;
+import software.amazon.awssdk.services.athena.model.StartQueryExecutionRequest;
+import software.amazon.awssdk.services.athena.model.StartQueryExecutionResponse;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class S3ResultReaderTest {
+    // Long enough for the ranged reads to overlap.
+    private static final int LATENCY_MILLIS = 5;
+    private static final int ROWS = 100_000;
+    private static final List<ColumnInfo> COLUMNS = List.of(
+            ColumnInfo.builder().name("id").type("bigint").build(),
+            ColumnInfo.builder().name("price").type("double").build(),
+            ColumnInfo.builder().name("active").type("boolean").build(),
+            ColumnInfo.builder().name("amount").type("decimal").build(),
+            ColumnInfo.builder().name("name").type("varchar").build(),
+            ColumnInfo.builder().name("note").type("varchar").build());
+
+    @Test
+    public void testReadsEveryRowFromS3WithItsType() {
+        StubAthena athena = new StubAthena(0);
+        StubS3 s3 = new StubS3();
+
+        AtomicInteger wrongRows = new AtomicInteger();
+        long[] sum = new long[1];
+        long rows;
+        try (S3ResultReader reader = new S3ResultReader(athena, s3, 256 * 1024, 8)) {
+            rows = reader.readResults("q-1", batch -> {
+                for (int row = 0; row < batch.getRowCount(); row++) {
+                    int id = (int) batch.getLong(0, row);
+                    sum[0] += id;
+                    if (batch.getDouble(1, row) != id * 0.5
+                            || batch.getBoolean(2, row) != (id % 2 == 0)
+                            || !batch.getDecimal(3, row).equals(BigDecimal.valueOf(id, 2))
+                            || !batch.getString(4, row).equals(name(id))
+                            || batch.isNull(5, row) != (id % 7 == 0)
+                            || (id % 7 != 0 && !batch.getString(5, row).equals(""))) {
+                        wrongRows.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        assertEquals(ROWS, rows);
+        assertEquals(0, wrongRows.get());
+        assertEquals((long) ROWS * (ROWS - 1) / 2, sum[0]);
+        // GetQueryResults is called once for the column types, and the rows come from ranged
+        // reads of the CSV file.
+        assertEquals(1, athena.resultCalls.get());
+        assertTrue(s3.getCalls.get() >= s3.csv.length / (256 * 1024));
+        assertTrue(s3.maxInFlight.get() > 1);
+        assertTrue(s3.maxInFlight.get() <= 8);
+    }
+
+    @Test
+    public void testChangedFileFailsTheRead() {
+        StubAthena athena = new StubAthena(0);
+        StubS3 s3 = new StubS3();
+        s3.eTag = "\"changed\"";
+        try (S3ResultReader reader = new S3ResultReader(athena, s3, 256 * 1024, 4)) {
+            // The stub reports the new ETag on HEAD but serves the parts only for the old one.
+            s3.serveETag = "\"original\"";
+            assertThrows(RuntimeException.class, () -> reader.readResults("q-1", batch -> {
+            }));
+        }
+    }
+
+    @Test
+    public void testRepeatedQueriesReuseTheExecution() throws Exception {
+        StubAthena athena = new StubAthena(3);
+        QueryResultCache cache = new QueryResultCache(athena, "mydatabase", "s3://results/",
+                Duration.ofMinutes(5));
+
+        String first = cache.getQueryExecutionId("SELECT *\n  FROM Sales\nWHERE region = 'EU';", "snapshot-1");
+        String same = cache.getQueryExecutionId("select * from sales -- revenue panel\n where REGION = 'EU'",
+                "snapshot-1");
+        assertEquals(first, same);
+        assertEquals(1, cache.getExecutions());
+        assertEquals(1, cache.getHits());
+
+        // A string literal keeps its case, and new data needs a new run.
+        assertNotEquals(first, cache.getQueryExecutionId("SELECT * FROM sales WHERE region = 'eu'", "snapshot-1"));
+        assertNotEquals(first, cache.getQueryExecutionId("SELECT * FROM sales WHERE region = 'EU'", "snapshot-2"));
+        assertEquals(3, cache.getExecutions());
+
+        // Callers that ask while the query runs share the execution.
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        List<Future<String>> ids = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            ids.add(callers.submit(() -> cache.getQueryExecutionId("SELECT count(*) FROM sales", "snapshot-2")));
+        }
+        for (Future<String> id : ids) {
+            assertEquals(ids.get(0).get(), id.get());
+        }
+        callers.shutdown();
+        assertEquals(4, cache.getExecutions());
+        assertEquals(4, athena.startCalls.get());
+    }
+
+    private static String name(int id) {
+        return "item " + id + ", \"quoted\"" + (id % 10 == 0 ? "\nsecond line" : "") + " éè";
+    }
+
+    private static byte[] csv() {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < COLUMNS.size(); i++) {
+            csv.append(i == 0 ? "" : ",").append('"').append(COLUMNS.get(i).name()).append('"');
+        }
+        csv.append('\n');
+        for (int id = 0; id < ROWS; id++) {
+            csv.append('"').append(id).append("\",\"").append(id * 0.5).append("\",\"").append(id % 2 == 0)
+                    .append("\",\"").append(BigDecimal.valueOf(id, 2)).append("\",\"")
+                    .append(name(id).replace("\"", "\"\"")).append("\",")
+                    .append(id % 7 == 0 ? "" : "\"\"").append('\n');
+        }
+        return csv.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(LATENCY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs every query in runningPolls polls and pages the sample rows 1,000 at a time.
+    private static class StubAthena implements AthenaClient {
+        private final int runningPolls;
+        private final AtomicInteger startCalls = new AtomicInteger();
+        private final AtomicInteger resultCalls = new AtomicInteger();
+        private final Map<String, AtomicInteger> polls = new ConcurrentHashMap<>();
+
+        StubAthena(int runningPolls) {
+            this.runningPolls = runningPolls;
+        }
+
+        @Override
+        public StartQueryExecutionResponse startQueryExecution(StartQueryExecutionRequest request) {
+            sleep();
+            return StartQueryExecutionResponse.builder()
+                    .queryExecutionId("q-" + startCalls.incrementAndGet())
+                    .build();
+        }
+
+        @Override
+        public GetQueryExecutionResponse getQueryExecution(GetQueryExecutionRequest request) {
+            sleep();
+            int poll = polls.computeIfAbsent(request.queryExecutionId(), id -> new AtomicInteger()).incrementAndGet();
+            QueryExecutionState state = poll > runningPolls ? QueryExecutionState.SUCCEEDED
+                    : QueryExecutionState.RUNNING;
+            return GetQueryExecutionResponse.builder()
+                    .queryExecution(QueryExecution.builder()
+                            .queryExecutionId(request.queryExecutionId())
+                            .status(QueryExecutionStatus.builder().state(state).build())
+                            .resultConfiguration(ResultConfiguration.builder()
+                                    .outputLocation("s3://results/" + request.queryExecutionId() + ".csv")
+                                    .build())
+                            .build())
+                    .build();
+        }
+
+        @Override
+        public GetQueryResultsResponse getQueryResults(GetQueryResultsRequest request) {
+            sleep();
+            resultCalls.incrementAndGet();
+            int first = request.nextToken() == null ? 0 : Integer.parseInt(request.nextToken());
+            int count = request.maxResults() == null ? 1000 : request.maxResults();
+            List<Row> rows = new ArrayList<>();
+            for (int index = first; index < Math.min(ROWS + 1, first + count); index++) {
+                List<Datum> data = new ArrayList<>();
+                for (int column = 0; column < COLUMNS.size(); column++) {
+                    data.add(Datum.builder().varCharValue(index == 0 ? COLUMNS.get(column).name()
+                            : Integer.toString(index - 1)).build());
+                }
+                rows.add(Row.builder().data(data).build());
+            }
+            int next = first + count;
+            return GetQueryResultsResponse.builder()
+                    .resultSet(ResultSet.builder()
+                            .resultSetMetadata(ResultSetMetadata.builder().columnInfo(COLUMNS).build())
+                            .rows(rows)
+                            .build())
+                    .nextToken(next <= ROWS ? Integer.toString(next) : null)
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "athena";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Serves the sample CSV file with ranged GET requests.
+    private static class StubS3 implements S3Client {
+        private final byte[] csv = csv();
+        private final AtomicInteger getCalls = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private volatile String eTag = "\"original\"";
+        private volatile String serveETag;
+
+        @Override
+        public HeadObjectResponse headObject(HeadObjectRequest request) {
+            sleep();
+            return HeadObjectResponse.builder()
+                    .contentLength((long) csv.length)
+                    .eTag(eTag)
+                    .build();
+        }
+
+        @Override
+        public <ReturnT> ReturnT getObject(GetObjectRequest request,
+                ResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+            getCalls.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                sleep();
+                String current = serveETag != null ? serveETag : eTag;
+                if (!current.equals(request.ifMatch())) {
+                    throw S3Exception.builder().message("Precondition Failed").statusCode(412).build();
+                }
+                String[] range = request.range().substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(range[0]);
+                int end = Math.min(csv.length - 1, Integer.parseInt(range[1]));
+                GetObjectResponse response = GetObjectResponse.builder()
+                        .contentLength((long) (end - start + 1))
+                        .eTag(current)
+                        .build();
+                return transformer.transform(response, AbortableInputStream.create(
+                        new ByteArrayInputStream(csv, start, end - start + 1)));
+            } catch (S3Exception e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,284 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.bedrockruntime.models.amazonTitanTextEmbeddings;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.ThrottlingException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Creates embeddings with Amazon Titan Text Embeddings V2 for many texts at a time.
+ * <p>
+ * One Bedrock Runtime client is shared by a fixed number of worker threads, and the requests
+ * they send are spaced out to stay under a requests-per-second limit. Each vector is stored in
+ * a {@link VectorStore} under the SHA-256 hash of the model settings and the text, so a text
+ * that was embedded before, also by an earlier run, is read from the store instead of sent to
+ * the model. Identical texts that are embedded at the same time share one request.
+ */
+public class EmbeddingService implements AutoCloseable {
+    private static final int MAX_THROTTLING_RETRIES = 5;
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+
+    private final BedrockRuntimeClient client;
+    private final String modelId;
+    private final int dimensions;
+    private final boolean normalize;
+    private final VectorStore store;
+    private final ExecutorService workers;
+    private final RateLimiter rateLimiter;
+    private final Map<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder modelCalls = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder duplicateInputs = new LongAdder();
+    private final LongAdder throttledCalls = new LongAdder();
+
+    /**
+     * @param client            the client that sends every request. The caller closes it.
+     * @param modelId           a Titan Text Embeddings V2 model ID
+     * @param dimensions        the size of the vectors: 256, 512 or 1024
+     * @param normalize         whether the model normalizes the vectors
+     * @param storeFile         the file that keeps the vectors between runs
+     * @param requestsPerSecond the most requests to send to the model in a second
+     * @param concurrency       the most requests to wait for at the same time
+     */
+    public EmbeddingService(BedrockRuntimeClient client, String modelId, int dimensions, boolean normalize,
+                            Path storeFile, double requestsPerSecond, int concurrency) throws IOException {
+        this.client = client;
+        this.modelId = modelId;
+        this.dimensions = dimensions;
+        this.normalize = normalize;
+        this.store = new VectorStore(storeFile, dimensions);
+        this.rateLimiter = new RateLimiter(requestsPerSecond);
+        this.workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            var thread = new Thread(runnable, "titan-embeddings");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the embedding of one text.
+     */
+    public float[] embed(String text) {
+        return join(embedAsync(text));
+    }
+
+    /**
+     * Returns the embeddings of the texts, in the same order as the texts.
+     */
+    public List<float[]> embedAll(List<String> texts) {
+        var futures = new ArrayList<CompletableFuture<float[]>>(texts.size());
+        for (String text : texts) {
+            futures.add(embedAsync(text));
+        }
+        var vectors = new ArrayList<float[]>(texts.size());
+        for (CompletableFuture<float[]> future : futures) {
+            vectors.add(join(future));
+        }
+        return vectors;
+    }
+
+    /**
+     * Returns the embedding of one text without waiting for the model.
+     */
+    public CompletableFuture<float[]> embedAsync(String text) {
+        var key = key(text);
+        var cached = store.get(key);
+        if (cached != null) {
+            cacheHits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        var hex = HexFormat.of().formatHex(key);
+        var created = new CompletableFuture<float[]>();
+        var existing = inFlight.putIfAbsent(hex, created);
+        if (existing != null) {
+            duplicateInputs.increment();
+            return existing;
+        }
+
+        // A request for the same text may have finished between the lookup and putIfAbsent.
+        cached = store.get(key);
+        if (cached != null) {
+            inFlight.remove(hex, created);
+            cacheHits.increment();
+            created.complete(cached);
+            return created;
+        }
+
+        workers.execute(() -> {
+            try {
+                var vector = invokeModel(text);
+                store.put(key, vector);
+                created.complete(vector);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                created.completeExceptionally(e);
+            } catch (Exception e) {
+                created.completeExceptionally(e);
+            } finally {
+                inFlight.remove(hex, created);
+            }
+        });
+        return created;
+    }
+
+    // Requests sent to the model, including retries after throttling.
+    public long getModelCalls() {
+        return modelCalls.sum();
+    }
+
+    // Texts that were read from the vector store.
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    // Texts that shared the request of an identical text.
+    public long getDuplicateInputs() {
+        return duplicateInputs.sum();
+    }
+
+    public long getThrottledCalls() {
+        return throttledCalls.sum();
+    }
+
+    public int getStoredVectors() {
+        return store.size();
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        store.close();
+    }
+
+    private float[] invokeModel(String text) throws InterruptedException {
+        var nativeRequest = new JSONObject()
+                .put("inputText", text)
+                .put("dimensions", dimensions)
+                .put("normalize", normalize)
+                .toString();
+
+        for (int attempt = 0; ; attempt++) {
+            rateLimiter.acquire();
+            modelCalls.increment();
+            try {
+                var response = client.invokeModel(request -> request
+                        .body(SdkBytes.fromUtf8String(nativeRequest))
+                        .modelId(modelId)
+                );
+                JSONArray embedding = new JSONObject(response.body().asUtf8String()).getJSONArray("embedding");
+                var vector = new float[embedding.length()];
+                for (int i = 0; i < vector.length; i++) {
+                    vector[i] = embedding.getFloat(i);
+                }
+                return vector;
+            } catch (ThrottlingException e) {
+                if (attempt >= MAX_THROTTLING_RETRIES) {
+                    throw e;
+                }
+                throttledCalls.increment();
+                // Full jitter: a random time up to the exponential backoff.
+                long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+            }
+        }
+    }
+
+    private byte[] key(String text) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            digest.update((modelId + "\n" + dimensions + "\n" + normalize + "\n").getBytes(StandardCharsets.UTF_8));
+            return digest.digest(text.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static float[] join(CompletableFuture<float[]> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            }
+            throw e;
+        }
+    }
+
+    // Hands out evenly spaced send times. A caller waits until the next free time.
+    private static class RateLimiter {
+        private final long intervalNanos;
+        private long nextFreeNanos = System.nanoTime();
+
+        RateLimiter(double permitsPerSecond) {
+            this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        }
+
+        void acquire() throws InterruptedException {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                long slot = Math.max(now, nextFreeNanos);
+                nextFreeNanos = slot + intervalNanos;
+                waitNanos = slot - now;
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var texts = List.of(
+                "Please recommend books with a theme similar to the movie 'Inception'.",
+                "Please recommend books with a theme similar to the movie 'Interstellar'.",
+                "Please recommend books with a theme similar to the movie 'Inception'."
+        );
+
+        // Replace the DefaultCredentialsProvider with your preferred credentials provider.
+        try (var client = BedrockRuntimeClient.builder()
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .region(Region.US_EAST_1)
+                .build();
+             var service = new EmbeddingService(client, "amazon.titan-embed-text-v2:0", 256, true,
+                     Path.of("titan-embeddings.vec"), 10, 4)) {
+
+            var vectors = service.embedAll(texts);
+            for (int i = 0; i < texts.size(); i++) {
+                System.out.printf("%s -> %d dimensions%n", texts.get(i), vectors.get(i).length);
+            }
+            System.out.printf("Model calls: %d, cache hits: %d, duplicates: %d%n",
+                    service.getModelCalls(), service.getCacheHits(), service.getDuplicateInputs());
+        }
+    }
+}
@@ -31,13 +31,12 @@ public class InvokeModel {
         // The InvokeModel API uses the model's native payload.
         // Learn more about the available inference parameters and response fields at:
         // https://docs.aws.amazon.com/bedrock/latest/userguide/model-parameters-titan-embed-text.html
-        var nativeRequestTemplate = "{ \"inputText\": \"{{inputText}}\" }";
-
         // The text to convert into an embedding.
         var inputText = "Please recommend books with a theme similar to the movie 'Inception'.";
 
-        // Embed the prompt in the model's native request payload.
-        String nativeRequest = nativeRequestTemplate.replace("{{inputText}}", inputText);
+        // Embed the prompt in the model's native request payload. JSONObject escapes
+        // quotes and other special characters in the text.
+        String nativeRequest = new JSONObject().put("inputText", inputText).toString();
 
         try {
             // Encode and send the request to the Bedrock Runtime.
@@ -0,0 +1,134 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.bedrockruntime.models.amazonTitanTextEmbeddings;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * Stores embedding vectors in a memory-mapped file, keyed by a 32-byte content hash.
+ * <p>
+ * The file starts with a header of a magic number, the number of dimensions and the number
+ * of vectors. Each record holds a key followed by its floats. A record is written before the
+ * count in the header is raised, so a record that was cut off by a crash is ignored on the
+ * next open. The file is mapped in growing regions, and the index from key to record is
+ * rebuilt from the file when it is opened.
+ */
+public class VectorStore implements AutoCloseable {
+    public static final int KEY_BYTES = 32;
+
+    private static final int MAGIC = 0x56454331;
+    private static final int HEADER_BYTES = 16;
+    private static final int COUNT_OFFSET = 8;
+
+    private final FileChannel channel;
+    private final int dimensions;
+    private final int recordBytes;
+    private final Map<String, Integer> index = new HashMap<>();
+    private MappedByteBuffer mapped;
+    private int count;
+
+    public VectorStore(Path file, int dimensions) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.dimensions = dimensions;
+        this.recordBytes = KEY_BYTES + Float.BYTES * dimensions;
+
+        if (channel.size() == 0) {
+            map(1024);
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, dimensions);
+            mapped.putLong(COUNT_OFFSET, 0);
+        } else {
+            map(Math.max(1024, (int) ((channel.size() - HEADER_BYTES) / recordBytes)));
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != dimensions) {
+                channel.close();
+                throw new IOException(file + " is not a vector store with " + dimensions + " dimensions");
+            }
+            count = (int) mapped.getLong(COUNT_OFFSET);
+            byte[] key = new byte[KEY_BYTES];
+            for (int slot = 0; slot < count; slot++) {
+                mapped.get(offset(slot), key);
+                index.put(HexFormat.of().formatHex(key), slot);
+            }
+        }
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the vector stored for the key, or null if there is none.
+     */
+    public synchronized float[] get(byte[] key) {
+        Integer slot = index.get(HexFormat.of().formatHex(key));
+        if (slot == null) {
+            return null;
+        }
+        var vector = new float[dimensions];
+        mapped.slice(offset(slot) + KEY_BYTES, Float.BYTES * dimensions).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * Stores the vector for the key unless the key is already stored.
+     */
+    public synchronized void put(byte[] key, float[] vector) throws IOException {
+        if (key.length != KEY_BYTES || vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected a " + KEY_BYTES + "-byte key and " + dimensions
+                    + " dimensions, but got " + key.length + " and " + vector.length);
+        }
+        var hex = HexFormat.of().formatHex(key);
+        if (index.containsKey(hex)) {
+            return;
+        }
+        if (offset(count + 1) > mapped.capacity()) {
+            map(count * 2);
+        }
+        mapped.put(offset(count), key);
+        mapped.slice(offset(count) + KEY_BYTES, Float.BYTES * dimensions).asFloatBuffer().put(vector);
+        index.put(hex, count);
+        count++;
+        mapped.putLong(COUNT_OFFSET, count);
+    }
+
+    // Writes the mapped records to the file.
+    public synchronized void flush() {
+        mapped.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped.force();
+        channel.truncate(offset(count));
+        channel.close();
+    }
+
+    private int offset(int slot) {
+        return HEADER_BYTES + slot * recordBytes;
+    }
+
+    // Maps room for the given number of records. Mapping past the end of the file extends it.
+    private void map(int records) throws IOException {
+        long bytes = (long) HEADER_BYTES + (long) records * recordBytes;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("The vector store is limited to 2 GB");
+        }
+        if (mapped != null) {
+            mapped.force();
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+    }
+}
@@ -0,0 +1,144 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package actions;
+
+import com.example.bedrockruntime.models.amazonTitanTextEmbeddings.EmbeddingService;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelResponse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput and the cache hits of embedding a corpus with Amazon Titan Text
+ * Embeddings. The stand-in for the model answers every request after 20 ms with a vector
+ * derived from the text, so no AWS resources are needed. Three runs are compared:
+ *
+ *   one at a time   what InvokeModel.invokeModel does: one request per text, in order,
+ *                   including the texts that repeat
+ *   first run       EmbeddingService with an empty store: identical texts are sent once,
+ *                   with up to 8 requests in flight under a limit of 200 requests/s
+ *   second run      EmbeddingService over the same corpus and 5% new texts, reading the
+ *                   other vectors from the store that the first run wrote
+ *
+ * The arguments are the number of texts in the corpus and the number of different texts.
+ * Both are optional; the default is 1,000 texts of which 600 are different.
+ */
+public class EmbeddingServiceBenchmark {
+    private static final String MODEL_ID = "amazon.titan-embed-text-v2:0";
+    private static final int DIMENSIONS = 256;
+    private static final int LATENCY_MILLIS = 20;
+    private static final double REQUESTS_PER_SECOND = 200;
+    private static final int MAX_CONCURRENCY = 8;
+
+    public static void main(String[] args) throws Exception {
+        int texts = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int different = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+
+        var corpus = new ArrayList<String>();
+        for (int i = 0; i < texts; i++) {
+            corpus.add("Document " + (i % different) + " about embeddings.");
+        }
+        System.out.printf("%,d texts, %,d different, %d ms per model call%n", texts,
+                new HashSet<>(corpus).size(), LATENCY_MILLIS);
+
+        var model = new StubModel();
+        long start = System.nanoTime();
+        for (String text : corpus) {
+            model.invokeModel(InvokeModelRequest.builder()
+                    .modelId(MODEL_ID)
+                    .body(SdkBytes.fromUtf8String(new JSONObject()
+                            .put("inputText", text)
+                            .put("dimensions", DIMENSIONS)
+                            .put("normalize", true)
+                            .toString()))
+                    .build());
+        }
+        report("one at a time", texts, model.calls.get(), 0, 0, System.nanoTime() - start);
+
+        Path storeFile = Files.createTempFile("EmbeddingServiceBenchmark", ".vec");
+        Files.delete(storeFile);
+        try {
+            model = new StubModel();
+            start = System.nanoTime();
+            try (var service = new EmbeddingService(model, MODEL_ID, DIMENSIONS, true, storeFile,
+                    REQUESTS_PER_SECOND, MAX_CONCURRENCY)) {
+                service.embedAll(corpus);
+                report("first run", texts, service.getModelCalls(), service.getDuplicateInputs(),
+                        service.getCacheHits(), System.nanoTime() - start);
+            }
+
+            var grown = new ArrayList<>(corpus);
+            for (int i = 0; i < texts / 20; i++) {
+                grown.add("New document " + i + " about embeddings.");
+            }
+            start = System.nanoTime();
+            try (var service = new EmbeddingService(model, MODEL_ID, DIMENSIONS, true, storeFile,
+                    REQUESTS_PER_SECOND, MAX_CONCURRENCY)) {
+                service.embedAll(grown);
+                report("second run", grown.size(), service.getModelCalls(), service.getDuplicateInputs(),
+                        service.getCacheHits(), System.nanoTime() - start);
+            }
+        } finally {
+            Files.deleteIfExists(storeFile);
+        }
+    }
+
+    private static void report(String mode, int texts, long modelCalls, long duplicates, long cacheHits, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-14s %,7d texts  %,7d model calls  %,7d duplicates  %,7d cache hits (%5.1f%%)  "
+                        + "%7.2f s  %,8.0f texts/s%n", mode, texts, modelCalls, duplicates, cacheHits,
+                100.0 * cacheHits / texts, seconds, texts / seconds);
+    }
+
+    private static float[] vectorFor(String text) {
+        var random = new Random(text.hashCode());
+        var vector = new float[DIMENSIONS];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = random.nextFloat();
+        }
+        return vector;
+    }
+
+    // Answers InvokeModel with the vector of the input text after a fixed latency.
+    private static class StubModel implements BedrockRuntimeClient {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public InvokeModelResponse invokeModel(InvokeModelRequest request) {
+            calls.incrementAndGet();
+            try {
+                var nativeRequest = new JSONObject(request.body().asUtf8String());
+                Thread.sleep(LATENCY_MILLIS);
+                var body = new JSONObject()
+                        .put("embedding", new JSONArray(vectorFor(nativeRequest.getString("inputText"))))
+                        .put("inputTextTokenCount", 10);
+                return InvokeModelResponse.builder()
+                        .contentType("application/json")
+                        .body(SdkBytes.fromUtf8String(body.toString()))
+                        .build();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String serviceName() {
+            return "bedrock";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
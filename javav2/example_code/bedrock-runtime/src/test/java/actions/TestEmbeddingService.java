@@ -0,0 +1,152 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package actions;
+
+import com.example.bedrockruntime.models.amazonTitanTextEmbeddings.EmbeddingService;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.bedrockruntime.BedrockRuntimeClient;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelRequest;
+import software.amazon.awssdk.services.bedrockruntime.model.InvokeModelResponse;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class TestEmbeddingService {
+    private static final int DIMENSIONS = 256;
+    // Long enough for the calls to overlap while the limiter spaces them out.
+    private static final int LATENCY_MILLIS = 10;
+    private static final double REQUESTS_PER_SECOND = 1_000;
+
+    @TempDir
+    Path storeDirectory;
+
+    @Test
+    void testEmbedCorpusThenReadFromStore() throws Exception {
+        // 1,000 texts, of which 600 are different.
+        var corpus = new ArrayList<String>();
+        for (int i = 0; i < 1_000; i++) {
+            corpus.add("Document " + (i % 600) + " about \"quoted\" text and a \\ backslash.");
+        }
+        int unique = new HashSet<>(corpus).size();
+        var storeFile = storeDirectory.resolve("embeddings.vec");
+        var model = new StubModel();
+
+        long start = System.nanoTime();
+        List<float[]> vectors;
+        try (var service = new EmbeddingService(model, "amazon.titan-embed-text-v2:0", DIMENSIONS, true,
+                storeFile, REQUESTS_PER_SECOND, 8)) {
+            vectors = service.embedAll(corpus);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals(unique, model.calls.get());
+            assertEquals(unique, service.getModelCalls());
+            assertEquals(corpus.size() - unique, service.getDuplicateInputs() + service.getCacheHits());
+            assertEquals(unique, service.getStoredVectors());
+            assertTrue(model.maxInFlight.get() > 1);
+            assertTrue(model.maxInFlight.get() <= 8);
+            // The limiter spaces the calls out, so they take at least (calls - 1) / rate seconds.
+            assertTrue(elapsedMillis >= (long) ((unique - 1) * 1000 / REQUESTS_PER_SECOND));
+        }
+        for (int i = 0; i < corpus.size(); i++) {
+            assertArrayEquals(vectorFor(corpus.get(i)), vectors.get(i));
+        }
+
+        // A new run over the same corpus and 50 new texts only sends the new texts.
+        var grown = new ArrayList<>(corpus);
+        for (int i = 0; i < 50; i++) {
+            grown.add("New document " + i);
+        }
+        try (var service = new EmbeddingService(model, "amazon.titan-embed-text-v2:0", DIMENSIONS, true,
+                storeFile, REQUESTS_PER_SECOND, 8)) {
+            vectors = service.embedAll(grown);
+
+            assertEquals(50, service.getModelCalls());
+            assertEquals(corpus.size(), service.getCacheHits());
+            assertEquals(unique + 50, service.getStoredVectors());
+        }
+        assertEquals(unique + 50, model.calls.get());
+        for (int i = 0; i < grown.size(); i++) {
+            assertArrayEquals(vectorFor(grown.get(i)), vectors.get(i));
+        }
+    }
+
+    @Test
+    void testOtherSettingsAreNotReadFromStore() throws Exception {
+        var storeFile = storeDirectory.resolve("settings.vec");
+        var model = new StubModel();
+        try (var service = new EmbeddingService(model, "amazon.titan-embed-text-v2:0", DIMENSIONS, true,
+                storeFile, REQUESTS_PER_SECOND, 2)) {
+            service.embed("The same text");
+        }
+        try (var service = new EmbeddingService(model, "amazon.titan-embed-text-v2:0", DIMENSIONS, false,
+                storeFile, REQUESTS_PER_SECOND, 2)) {
+            service.embed("The same text");
+            assertEquals(1, service.getModelCalls());
+            assertEquals(2, service.getStoredVectors());
+        }
+    }
+
+    private static float[] vectorFor(String text) {
+        var random = new Random(text.hashCode());
+        var vector = new float[DIMENSIONS];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = random.nextFloat();
+        }
+        return vector;
+    }
+
+    // Answers InvokeModel with the vector of the input text after a fixed latency.
+    private static class StubModel implements BedrockRuntimeClient {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        public InvokeModelResponse invokeModel(InvokeModelRequest request) {
+            calls.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                var nativeRequest = new JSONObject(request.body().asUtf8String());
+                Thread.sleep(LATENCY_MILLIS);
+                var body = new JSONObject()
+                        .put("embedding", new JSONArray(vectorFor(nativeRequest.getString("inputText"))))
+                        .put("inputTextTokenCount", 10);
+                return InvokeModelResponse.builder()
+                        .contentType("application/json")
+                        .body(SdkBytes.fromUtf8String(body.toString()))
+                        .build();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public String serviceName() {
+            return "bedrock";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -6,9 +6,10 @@ package com.example.cloudwatch;
 // snippet-start:[cloudwatch.java2.get_logs.main]
 // snippet-start:[cloudwatch.java2.get_logs.import]
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.cloudwatch.model.CloudWatchException;
 import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.CloudWatchLogsException;
 import software.amazon.awssdk.services.cloudwatchlogs.model.GetLogEventsRequest;
+import software.amazon.awssdk.services.cloudwatchlogs.model.GetLogEventsResponse;
 // snippet-end:[cloudwatch.java2.get_logs.import]
 
 /**
@@ -58,14 +59,25 @@ public class GetLogEvents {
                     .startFromHead(true)
                     .build();
 
-            int logLimit = cloudWatchLogsClient.getLogEvents(getLogEventsRequest).events().size();
-            for (int c = 0; c < logLimit; c++) {
-                System.out.println(cloudWatchLogsClient.getLogEvents(getLogEventsRequest).events().get(c).message());
+            // Print every page once. The end of the stream is reached when the
+            // forward token no longer changes.
+            String previousToken = null;
+            while (true) {
+                GetLogEventsResponse response = cloudWatchLogsClient.getLogEvents(getLogEventsRequest);
+                response.events().forEach(event -> System.out.println(event.message()));
+                String nextToken = response.nextForwardToken();
+                if (nextToken == null || nextToken.equals(previousToken)) {
+                    break;
+                }
+                previousToken = nextToken;
+                getLogEventsRequest = getLogEventsRequest.toBuilder()
+                        .nextToken(nextToken)
+                        .build();
             }
 
             System.out.println("Successfully got CloudWatch log events!");
 
-        } catch (CloudWatchException e) {
+        } catch (CloudWatchLogsException e) {
             System.err.println(e.awsErrorDetails().errorMessage());
             System.exit(1);
         }
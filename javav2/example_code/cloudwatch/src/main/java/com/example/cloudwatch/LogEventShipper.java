@@ -0,0 +1,384 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.cloudwatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.CloudWatchLogsException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsResponse;
+import software.amazon.awssdk.services.cloudwatchlogs.model.RejectedLogEventsInfo;
+import software.amazon.awssdk.services.cloudwatchlogs.model.ServiceUnavailableException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ships log events to a CloudWatch Logs log stream in PutLogEvents batches.
+ *
+ * Events are queued in a bounded buffer and sent by a background thread, so the threads
+ * that log never wait for CloudWatch Logs. A batch is sent when it reaches 10,000 events
+ * or 1 MB, or when the first event in it has waited for the linger time. The events of a
+ * batch are sorted by timestamp, and a batch never spans more than 24 hours. Throttled
+ * requests are sent again after a backoff with full jitter. When the buffer is full, the
+ * overflow policy decides whether log() waits for room or drops the event.
+ *
+ * If the background thread stops because of an unexpected error, the events it still holds
+ * are counted as failed, and log(), flush() and close() throw an IllegalStateException with
+ * that error as the cause instead of waiting for a thread that no longer runs.
+ *
+ * Sequence tokens are not used, because PutLogEvents no longer requires them.
+ */
+public class LogEventShipper implements AutoCloseable {
+    public static final int MAX_EVENTS_PER_REQUEST = 10_000;
+    public static final int MAX_BYTES_PER_REQUEST = 1_048_576;
+    // CloudWatch Logs counts 26 bytes for every event on top of its message.
+    public static final int EVENT_OVERHEAD_BYTES = 26;
+    public static final int MAX_BYTES_PER_EVENT = 256 * 1024 - EVENT_OVERHEAD_BYTES;
+    private static final long MAX_BATCH_SPAN_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final Logger logger = LoggerFactory.getLogger(LogEventShipper.class);
+
+    /**
+     * What log() does when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP
+    }
+
+    private final CloudWatchLogsClient logsClient;
+    private final String logGroupName;
+    private final String logStreamName;
+    private final BlockingQueue<PendingEvent> buffer;
+    private final long lingerNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread sender;
+    private final AtomicLong outstanding = new AtomicLong();
+    private final Object flushLock = new Object();
+    private final LongAdder eventsSent = new LongAdder();
+    private final LongAdder requestsSent = new LongAdder();
+    private final LongAdder requestsThrottled = new LongAdder();
+    private final LongAdder eventsDropped = new LongAdder();
+    private final LongAdder eventsRejected = new LongAdder();
+    private final LongAdder eventsFailed = new LongAdder();
+    private int maxAttempts = 8;
+    private long baseBackoffMillis = 200;
+    private long maxBackoffMillis = 10_000;
+    private volatile boolean flushRequested;
+    private volatile boolean closed;
+    private volatile Throwable senderFailure;
+
+    public LogEventShipper(CloudWatchLogsClient logsClient, String logGroupName, String logStreamName) {
+        this(logsClient, logGroupName, logStreamName, 50_000, Duration.ofSeconds(1), OverflowPolicy.DROP);
+    }
+
+    public LogEventShipper(CloudWatchLogsClient logsClient, String logGroupName, String logStreamName,
+                           int bufferCapacity, Duration linger, OverflowPolicy overflowPolicy) {
+        this.logsClient = logsClient;
+        this.logGroupName = logGroupName;
+        this.logStreamName = logStreamName;
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+        this.lingerNanos = linger.toNanos();
+        this.overflowPolicy = overflowPolicy;
+        this.sender = new Thread(this::runSender, "log-shipper-" + logStreamName);
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    // Sets how often throttled requests are sent again, and the backoff between attempts.
+    public LogEventShipper withRetries(int maxAttempts, Duration baseBackoff, Duration maxBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        return this;
+    }
+
+    public boolean log(String message) throws InterruptedException {
+        return log(System.currentTimeMillis(), message);
+    }
+
+    /**
+     * Queues an event. Returns false if the buffer was full and the overflow policy is DROP.
+     * With the BLOCK policy, waits until there is room in the buffer.
+     */
+    public boolean log(long timestamp, String message) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("The shipper is closed");
+        }
+        checkSender();
+        int size = message.getBytes(StandardCharsets.UTF_8).length;
+        if (size > MAX_BYTES_PER_EVENT) {
+            throw new IllegalArgumentException("A log event cannot be larger than " + MAX_BYTES_PER_EVENT + " bytes");
+        }
+
+        PendingEvent event = new PendingEvent(timestamp, message, size + EVENT_OVERHEAD_BYTES);
+        outstanding.incrementAndGet();
+        boolean queued = false;
+        try {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                // Waits in steps, so that a sender that stops while the buffer is full
+                // does not leave this thread waiting forever.
+                while (!buffer.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                    checkSender();
+                }
+                queued = true;
+            } else {
+                queued = buffer.offer(event);
+                if (!queued) {
+                    eventsDropped.increment();
+                }
+            }
+        } finally {
+            if (!queued) {
+                done(1);
+            }
+        }
+
+        // The sender fails the events that are left in the buffer when it stops. An event
+        // that was queued after that is failed here.
+        if (queued && senderFailure != null && buffer.remove(event)) {
+            eventsFailed.increment();
+            done(1);
+            checkSender();
+        }
+        return queued;
+    }
+
+    // Sends the buffered events without waiting for the linger time and waits until
+    // every event that was queued has either been sent or has failed.
+    public void flush() throws InterruptedException {
+        flushRequested = true;
+        try {
+            synchronized (flushLock) {
+                while (outstanding.get() > 0) {
+                    flushLock.wait(100);
+                }
+            }
+        } finally {
+            flushRequested = false;
+        }
+        checkSender();
+    }
+
+    public long getEventsSent() {
+        return eventsSent.sum();
+    }
+
+    public long getRequestsSent() {
+        return requestsSent.sum();
+    }
+
+    public long getRequestsThrottled() {
+        return requestsThrottled.sum();
+    }
+
+    public long getEventsDropped() {
+        return eventsDropped.sum();
+    }
+
+    // Events that CloudWatch Logs accepted the request for but did not store,
+    // because they were too old, too new or older than the log group retention.
+    public long getEventsRejected() {
+        return eventsRejected.sum();
+    }
+
+    public long getEventsFailed() {
+        return eventsFailed.sum();
+    }
+
+    // Groups the buffered events into batches and sends them one after the other.
+    private void runSender() {
+        PendingEvent carry = null;
+        try {
+            while (!closed || carry != null || outstanding.get() > 0) {
+                PendingEvent first = carry != null ? carry : buffer.poll(100, TimeUnit.MILLISECONDS);
+                carry = null;
+                if (first == null) {
+                    continue;
+                }
+
+                List<PendingEvent> batch = new ArrayList<>();
+                batch.add(first);
+                try {
+                    long bytes = first.size;
+                    long deadline = System.nanoTime() + lingerNanos;
+                    while (batch.size() < MAX_EVENTS_PER_REQUEST) {
+                        long remaining = deadline - System.nanoTime();
+                        PendingEvent next = flushRequested || closed || remaining <= 0
+                                ? buffer.poll()
+                                : buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        if (bytes + next.size > MAX_BYTES_PER_REQUEST) {
+                            carry = next;
+                            break;
+                        }
+                        batch.add(next);
+                        bytes += next.size;
+                    }
+                    sendBatch(batch);
+                } finally {
+                    done(batch.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stop(e, carry);
+        } catch (Throwable e) {
+            logger.error("The log shipper for {} stopped: {}", logStreamName, e.getMessage(), e);
+            stop(e, carry);
+        }
+    }
+
+    // Sorts a batch by timestamp and sends it in requests that span less than 24 hours.
+    // Events that are not sent because this thread stops are counted as failed.
+    private void sendBatch(List<PendingEvent> batch) throws InterruptedException {
+        batch.sort(Comparator.comparingLong(event -> event.timestamp));
+        int from = 0;
+        try {
+            for (int i = 1; i <= batch.size(); i++) {
+                if (i == batch.size() || batch.get(i).timestamp - batch.get(from).timestamp >= MAX_BATCH_SPAN_MILLIS) {
+                    send(batch.subList(from, i));
+                    from = i;
+                }
+            }
+        } finally {
+            eventsFailed.add(batch.size() - from);
+        }
+    }
+
+    // Sends a batch, sending it again after a backoff while the request is throttled.
+    private void send(List<PendingEvent> batch) throws InterruptedException {
+        List<InputLogEvent> events = new ArrayList<>(batch.size());
+        for (PendingEvent event : batch) {
+            events.add(InputLogEvent.builder()
+                    .timestamp(event.timestamp)
+                    .message(event.message)
+                    .build());
+        }
+        PutLogEventsRequest request = PutLogEventsRequest.builder()
+                .logGroupName(logGroupName)
+                .logStreamName(logStreamName)
+                .logEvents(events)
+                .build();
+
+        Exception lastError = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (attempt > 1) {
+                long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 2, 20));
+                Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            }
+
+            try {
+                PutLogEventsResponse response = logsClient.putLogEvents(request);
+                requestsSent.increment();
+                int rejected = countRejected(response.rejectedLogEventsInfo(), batch.size());
+                eventsRejected.add(rejected);
+                eventsSent.add(batch.size() - rejected);
+                return;
+            } catch (CloudWatchLogsException e) {
+                requestsSent.increment();
+                lastError = e;
+                if (!isRetryable(e)) {
+                    break;
+                }
+                requestsThrottled.increment();
+            } catch (SdkClientException e) {
+                lastError = e;
+            } catch (RuntimeException e) {
+                // Anything else, such as an error in a custom HTTP client, fails only this batch.
+                lastError = e;
+                break;
+            }
+        }
+
+        logger.error("Could not put {} log events to {}: {}", batch.size(), logStreamName, lastError.getMessage(),
+                lastError);
+        eventsFailed.add(batch.size());
+    }
+
+    private static boolean isRetryable(CloudWatchLogsException e) {
+        return e.isThrottlingException() || e instanceof ServiceUnavailableException || e.statusCode() >= 500;
+    }
+
+    // The indexes in RejectedLogEventsInfo refer to the sorted events of the request.
+    private static int countRejected(RejectedLogEventsInfo info, int batchSize) {
+        if (info == null) {
+            return 0;
+        }
+        int rejected = 0;
+        if (info.tooOldLogEventEndIndex() != null) {
+            rejected += info.tooOldLogEventEndIndex();
+        }
+        if (info.expiredLogEventEndIndex() != null) {
+            rejected = Math.max(rejected, info.expiredLogEventEndIndex());
+        }
+        if (info.tooNewLogEventStartIndex() != null) {
+            rejected += batchSize - info.tooNewLogEventStartIndex();
+        }
+        return Math.min(rejected, batchSize);
+    }
+
+    // Fails the events that the sender still holds, so that flush() and close() return, and
+    // makes log() throw from now on.
+    private void stop(Throwable cause, PendingEvent carry) {
+        senderFailure = cause;
+        int failed = carry != null ? 1 : 0;
+        while (buffer.poll() != null) {
+            failed++;
+        }
+        eventsFailed.add(failed);
+        done(failed);
+    }
+
+    private void checkSender() {
+        Throwable failure = senderFailure;
+        if (failure != null) {
+            throw new IllegalStateException("The log shipper for " + logStreamName + " stopped", failure);
+        }
+    }
+
+    private void done(int events) {
+        if (outstanding.addAndGet(-events) == 0) {
+            synchronized (flushLock) {
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    // Sends the remaining events and stops the shipper.
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        try {
+            flush();
+        } finally {
+            sender.join();
+        }
+    }
+
+    private static class PendingEvent {
+        private final long timestamp;
+        private final String message;
+        private final int size;
+
+        PendingEvent(long timestamp, String message, int size) {
+            this.timestamp = timestamp;
+            this.message = message;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.cloudwatch;
+
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.CloudWatchLogsException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.FilterLogEventsRequest;
+import software.amazon.awssdk.services.cloudwatchlogs.model.FilterLogEventsResponse;
+import software.amazon.awssdk.services.cloudwatchlogs.model.FilteredLogEvent;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * Searches a CloudWatch Logs log group with several FilterLogEvents calls at once.
+ *
+ * The search is split into slices, either consecutive parts of the time range or log stream
+ * name prefixes. The events of the slices are merged in timestamp order with a priority queue
+ * that holds one event per slice, and are passed to the caller as soon as they can be placed
+ * in order, so the results are never collected in memory.
+ *
+ * Each slice holds the page that the merge is reading and fetches its next page ahead. The
+ * fetches run on a small fixed pool, because FilterLogEvents allows only a few requests per
+ * second in an account and Region, so the number of slices does not change how many requests
+ * are sent at once. A throttled request is sent again after a backoff with full jitter.
+ */
+public class ParallelLogSearch {
+    private static final Comparator<Head> ORDER = Comparator
+            .comparingLong((Head head) -> head.event.timestamp())
+            .thenComparingInt(head -> head.slice);
+
+    private final CloudWatchLogsClient logsClient;
+    private final int maxConcurrentRequests;
+    private int maxAttempts = 5;
+    private long baseBackoffMillis = 200;
+    private long maxBackoffMillis = 5_000;
+
+    public ParallelLogSearch(CloudWatchLogsClient logsClient) {
+        this(logsClient, 4);
+    }
+
+    public ParallelLogSearch(CloudWatchLogsClient logsClient, int maxConcurrentRequests) {
+        this.logsClient = logsClient;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    // Sets how often a throttled request is sent, and the backoff between attempts.
+    public ParallelLogSearch withRetries(int maxAttempts, Duration baseBackoff, Duration maxBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        return this;
+    }
+
+    /**
+     * Splits the time range into the given number of equal slices and searches them at once.
+     * Both startTime and endTime are inclusive, as in FilterLogEvents.
+     *
+     * @param filterPattern the filter pattern, or null to return all events
+     * @return the number of events that were passed to the consumer
+     */
+    public long searchByTime(String logGroupName, String filterPattern, long startTime, long endTime, int slices,
+                             Consumer<FilteredLogEvent> consumer) throws InterruptedException {
+        long span = endTime - startTime + 1;
+        int count = (int) Math.max(1, Math.min(slices, span));
+        List<FilterLogEventsRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long sliceStart = startTime + span * i / count;
+            long sliceEnd = startTime + span * (i + 1) / count - 1;
+            requests.add(request(logGroupName, filterPattern, sliceStart, sliceEnd).build());
+        }
+        return search(requests, consumer);
+    }
+
+    /**
+     * Searches the log streams whose names start with each of the given prefixes at once.
+     * The prefixes should not overlap, or events are passed to the consumer more than once.
+     *
+     * @param filterPattern the filter pattern, or null to return all events
+     * @return the number of events that were passed to the consumer
+     */
+    public long searchByStreamPrefix(String logGroupName, String filterPattern, long startTime, long endTime,
+                                     List<String> streamPrefixes, Consumer<FilteredLogEvent> consumer)
+            throws InterruptedException {
+        List<FilterLogEventsRequest> requests = new ArrayList<>(streamPrefixes.size());
+        for (String prefix : streamPrefixes) {
+            requests.add(request(logGroupName, filterPattern, startTime, endTime)
+                    .logStreamNamePrefix(prefix)
+                    .build());
+        }
+        return search(requests, consumer);
+    }
+
+    private static FilterLogEventsRequest.Builder request(String logGroupName, String filterPattern,
+                                                          long startTime, long endTime) {
+        return FilterLogEventsRequest.builder()
+                .logGroupName(logGroupName)
+                .filterPattern(filterPattern)
+                .startTime(startTime)
+                .endTime(endTime);
+    }
+
+    private long search(List<FilterLogEventsRequest> requests, Consumer<FilteredLogEvent> consumer)
+            throws InterruptedException {
+        // A fetch never waits for the merge, so slices can share fewer threads than there are slices.
+        ExecutorService fetchers = Executors.newFixedThreadPool(Math.min(maxConcurrentRequests, requests.size()));
+        try {
+            List<Slice> slices = new ArrayList<>(requests.size());
+            for (FilterLogEventsRequest request : requests) {
+                slices.add(new Slice(request, fetchers));
+            }
+
+            PriorityQueue<Head> heads = new PriorityQueue<>(requests.size(), ORDER);
+            for (int i = 0; i < slices.size(); i++) {
+                takeNext(i, slices, heads);
+            }
+            long delivered = 0;
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                consumer.accept(head.event);
+                delivered++;
+                takeNext(head.slice, slices, heads);
+            }
+            return delivered;
+        } finally {
+            fetchers.shutdownNow();
+        }
+    }
+
+    // Adds the next event of a slice to the merge, or nothing if the slice has ended.
+    private static void takeNext(int slice, List<Slice> slices, PriorityQueue<Head> heads)
+            throws InterruptedException {
+        FilteredLogEvent event = slices.get(slice).next();
+        if (event != null) {
+            heads.add(new Head(event, slice));
+        }
+    }
+
+    // Sends a request, sending it again after a backoff while it is throttled.
+    private FilterLogEventsResponse fetch(FilterLogEventsRequest request) throws InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return logsClient.filterLogEvents(request);
+            } catch (CloudWatchLogsException e) {
+                if (!e.isThrottlingException() || attempt >= maxAttempts) {
+                    throw e;
+                }
+                long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+                Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            }
+        }
+    }
+
+    // The pages of one slice. The next page is fetched while the merge reads the current one.
+    private class Slice {
+        private final FilterLogEventsRequest request;
+        private final ExecutorService fetchers;
+        private Iterator<FilteredLogEvent> page = List.<FilteredLogEvent>of().iterator();
+        private Future<FilterLogEventsResponse> nextPage;
+
+        Slice(FilterLogEventsRequest request, ExecutorService fetchers) {
+            this.request = request;
+            this.fetchers = fetchers;
+            this.nextPage = fetchers.submit(() -> fetch(request));
+        }
+
+        // Returns the next event, or null when the slice has ended.
+        FilteredLogEvent next() throws InterruptedException {
+            while (!page.hasNext()) {
+                if (nextPage == null) {
+                    return null;
+                }
+                FilterLogEventsResponse response = await(nextPage);
+                String nextToken = response.nextToken();
+                // A page can be empty and still have a next token.
+                nextPage = nextToken == null ? null
+                        : fetchers.submit(() -> fetch(request.toBuilder().nextToken(nextToken).build()));
+                page = response.events().iterator();
+            }
+            return page.next();
+        }
+
+        private FilterLogEventsResponse await(Future<FilterLogEventsResponse> future) throws InterruptedException {
+            try {
+                return future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IllegalStateException("The search of a slice failed", e.getCause());
+            }
+        }
+    }
+
+    private static class Head {
+        private final FilteredLogEvent event;
+        private final int slice;
+
+        Head(FilteredLogEvent event, int slice) {
+            this.event = event;
+            this.slice = slice;
+        }
+    }
+}
@@ -1075,6 +1075,29 @@ public class CloudWatchActions {
         });
     }
 
+    // snippet-start:[cloudwatch.java2.scenario.metric.publisher.main]
+    /**
+     * Creates a publisher that aggregates metric values in memory and sends them with batched
+     * PutMetricData calls, instead of one call for every value as in createNewCustomMetricAsync.
+     *
+     * <pre>{@code
+     * try (MetricPublisher publisher = actions.createMetricPublisher("SITE/TRAFFIC", Duration.ofSeconds(60))) {
+     *     MetricPublisher.Metric pagesVisited = publisher.metric("PAGES_VISITED", StandardUnit.NONE,
+     *         MetricPublisher.Aggregation.STATISTIC_SET,
+     *         Dimension.builder().name("UNIQUE_PAGES").value("URLS").build());
+     *     pagesVisited.record(dataPoint);
+     * }
+     * }</pre>
+     *
+     * @param namespace     the namespace of the metrics
+     * @param flushInterval how often the aggregated values are sent
+     * @return the publisher, which sends the remaining values when it is closed
+     */
+    public MetricPublisher createMetricPublisher(String namespace, Duration flushInterval) {
+        return new MetricPublisher(getAsyncClient(), namespace, flushInterval);
+    }
+    // snippet-end:[cloudwatch.java2.scenario.metric.publisher.main]
+
     public static String readFileAsString(String file) throws IOException {
         return new String(Files.readAllBytes(Paths.get(file)));
     }
@@ -0,0 +1,473 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.cloudwatch.scenario;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDatum;
+import software.amazon.awssdk.services.cloudwatch.model.PutMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.StandardUnit;
+import software.amazon.awssdk.services.cloudwatch.model.StatisticSet;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates metric values in memory and publishes them to Amazon CloudWatch with batched
+ * PutMetricData calls.
+ *
+ * Values are not sent one by one. Each metric (name, unit and dimensions) has an accumulator,
+ * and on every flush the accumulated values become one datum per metric:
+ * <ul>
+ *     <li>{@link Aggregation#STATISTIC_SET} keeps the count, sum, minimum and maximum.</li>
+ *     <li>{@link Aggregation#VALUES} keeps how often each distinct value was recorded, so that
+ *     CloudWatch can still compute percentiles. A datum holds up to 150 values.</li>
+ * </ul>
+ * The accumulators are built on LongAdder, DoubleAdder and DoubleAccumulator, which spread
+ * concurrent updates over several cells, so threads that record values never take a lock.
+ * Datums are sent on a timer in requests of up to 1,000 datums and about 1 MB, the
+ * PutMetricData limits. The size of a request is estimated from its datums.
+ */
+public class MetricPublisher implements AutoCloseable {
+    public static final int MAX_DATUMS_PER_REQUEST = 1000;
+    public static final int MAX_VALUES_PER_DATUM = 150;
+    public static final int MAX_BYTES_PER_REQUEST = 1_000_000;
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricPublisher.class);
+
+    /**
+     * How the values of a metric are summarized in the datums that are sent.
+     */
+    public enum Aggregation {
+        STATISTIC_SET,
+        VALUES
+    }
+
+    private final CloudWatchAsyncClient cloudWatchAsyncClient;
+    private final String namespace;
+    private final Map<MetricKey, Accumulator> accumulators = new ConcurrentHashMap<>();
+    // The statistic set metrics that record(String, ...) has used, by name, so that it does not
+    // build a MetricKey for every value.
+    private final Map<String, CachedMetric[]> recordedMetrics = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final Object flushLock = new Object();
+    private final LongAdder valuesRecorded = new LongAdder();
+    private final LongAdder datumsSent = new LongAdder();
+    private final LongAdder requestsSent = new LongAdder();
+    private final LongAdder requestsFailed = new LongAdder();
+    private int maxDatumsPerRequest = MAX_DATUMS_PER_REQUEST;
+    private volatile boolean closed;
+
+    public MetricPublisher(CloudWatchAsyncClient cloudWatchAsyncClient, String namespace) {
+        this(cloudWatchAsyncClient, namespace, Duration.ofSeconds(60));
+    }
+
+    public MetricPublisher(CloudWatchAsyncClient cloudWatchAsyncClient, String namespace, Duration flushInterval) {
+        this.cloudWatchAsyncClient = cloudWatchAsyncClient;
+        this.namespace = namespace;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metric-publisher-" + namespace);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = flushInterval.toMillis();
+        this.timer.scheduleAtFixedRate(this::flushOnTimer, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Sets how many datums are sent in one PutMetricData request.
+    public MetricPublisher withMaxDatumsPerRequest(int maxDatumsPerRequest) {
+        if (maxDatumsPerRequest < 1 || maxDatumsPerRequest > MAX_DATUMS_PER_REQUEST) {
+            throw new IllegalArgumentException("maxDatumsPerRequest must be between 1 and " + MAX_DATUMS_PER_REQUEST);
+        }
+        this.maxDatumsPerRequest = maxDatumsPerRequest;
+        return this;
+    }
+
+    /**
+     * Returns the handle of a metric. Recording through a handle skips the lookup of the
+     * accumulator, so code that records the same metric often should keep the handle.
+     */
+    public Metric metric(String metricName, StandardUnit unit, Aggregation aggregation, Dimension... dimensions) {
+        MetricKey key = new MetricKey(metricName, unit, dimensions);
+        Accumulator accumulator = accumulators.computeIfAbsent(key, k -> {
+            Accumulator created = aggregation == Aggregation.VALUES
+                ? new ValuesAccumulator(k)
+                : new StatisticSetAccumulator(k);
+            created.metric = new Metric(created);
+            return created;
+        });
+        if (accumulator.aggregation() != aggregation) {
+            throw new IllegalArgumentException("Metric " + metricName + " is already aggregated as " + accumulator.aggregation());
+        }
+        return accumulator.metric;
+    }
+
+    // Records a value of a metric that is summarized as a statistic set. After the first value
+    // of a metric, the handle is found by comparing the name, unit and dimensions as they were
+    // passed, without building a key.
+    public void record(String metricName, double value, StandardUnit unit, Dimension... dimensions) {
+        CachedMetric[] cached = recordedMetrics.get(metricName);
+        if (cached != null) {
+            for (CachedMetric entry : cached) {
+                if (entry.unit == unit && Arrays.equals(entry.dimensions, dimensions)) {
+                    entry.metric.record(value);
+                    return;
+                }
+            }
+        }
+        Metric metric = metric(metricName, unit, Aggregation.STATISTIC_SET, dimensions);
+        CachedMetric entry = new CachedMetric(unit, dimensions.clone(), metric);
+        recordedMetrics.merge(metricName, new CachedMetric[] { entry }, (existing, added) -> {
+            CachedMetric[] grown = Arrays.copyOf(existing, existing.length + 1);
+            grown[existing.length] = entry;
+            return grown;
+        });
+        metric.record(value);
+    }
+
+    /**
+     * Sends the values recorded so far. The returned future completes when every request
+     * of this flush has finished. Failed requests are logged and counted, not retried,
+     * because the client already retries throttled and failed calls.
+     */
+    public CompletableFuture<Void> flush() {
+        List<MetricDatum> datums = new ArrayList<>();
+        synchronized (flushLock) {
+            Instant timestamp = Instant.now();
+            for (Accumulator accumulator : accumulators.values()) {
+                accumulator.drainTo(datums, timestamp);
+            }
+        }
+
+        List<CompletableFuture<?>> requests = new ArrayList<>();
+        int from = 0;
+        int bytes = 0;
+        for (int i = 0; i < datums.size(); i++) {
+            int datumBytes = estimatedSize(datums.get(i));
+            if (i > from && (i - from == maxDatumsPerRequest || bytes + datumBytes > MAX_BYTES_PER_REQUEST)) {
+                requests.add(send(datums.subList(from, i)));
+                from = i;
+                bytes = 0;
+            }
+            bytes += datumBytes;
+        }
+        if (from < datums.size()) {
+            requests.add(send(datums.subList(from, datums.size())));
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Estimates how many bytes a datum adds to a PutMetricData request. Every field is sent as
+     * a form parameter whose name holds the member indexes, such as
+     * MetricData.member.1000.Dimensions.member.30.Value, and text can triple in size when it
+     * is URL encoded, so the estimate is on the high side.
+     */
+    static int estimatedSize(MetricDatum datum) {
+        int size = 200 + 3 * datum.metricName().length();
+        for (Dimension dimension : datum.dimensions()) {
+            size += 100 + 3 * (dimension.name().length() + dimension.value().length());
+        }
+        if (datum.statisticValues() != null) {
+            size += 4 * 70;
+        }
+        size += (datum.values().size() + datum.counts().size()) * 70;
+        return size;
+    }
+
+    public long getValuesRecorded() {
+        return valuesRecorded.sum();
+    }
+
+    public long getDatumsSent() {
+        return datumsSent.sum();
+    }
+
+    public long getRequestsSent() {
+        return requestsSent.sum();
+    }
+
+    public long getRequestsFailed() {
+        return requestsFailed.sum();
+    }
+
+    private CompletableFuture<Void> send(List<MetricDatum> batch) {
+        PutMetricDataRequest request = PutMetricDataRequest.builder()
+            .namespace(namespace)
+            .metricData(batch)
+            .build();
+
+        return cloudWatchAsyncClient.putMetricData(request)
+            .handle((response, exception) -> {
+                requestsSent.increment();
+                if (exception != null) {
+                    requestsFailed.increment();
+                    logger.error("Failed to put {} metric datums: {}", batch.size(), exception.getMessage(), exception);
+                } else {
+                    datumsSent.add(batch.size());
+                }
+                return null;
+            });
+    }
+
+    private void flushOnTimer() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            logger.error("Failed to flush metrics: {}", e.getMessage(), e);
+        }
+    }
+
+    // Stops the timer and sends the values that were recorded since the last flush.
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        timer.shutdown();
+        try {
+            timer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush().join();
+    }
+
+    /**
+     * A metric that values can be recorded for.
+     */
+    public final class Metric {
+        private final Accumulator accumulator;
+
+        private Metric(Accumulator accumulator) {
+            this.accumulator = accumulator;
+        }
+
+        public void record(double value) {
+            if (closed) {
+                throw new IllegalStateException("The publisher is closed");
+            }
+            accumulator.record(value);
+            valuesRecorded.increment();
+        }
+    }
+
+    // Identifies a metric by its name, unit and dimensions. The dimensions are sorted by name
+    // so that the order they were passed in does not create a second metric.
+    private static final class MetricKey {
+        private final String metricName;
+        private final StandardUnit unit;
+        private final List<Dimension> dimensions;
+        private final int hash;
+
+        MetricKey(String metricName, StandardUnit unit, Dimension[] dimensions) {
+            Dimension[] sorted = dimensions.clone();
+            Arrays.sort(sorted, Comparator.comparing(Dimension::name));
+            this.metricName = metricName;
+            this.unit = unit;
+            this.dimensions = List.of(sorted);
+            this.hash = Objects.hash(metricName, unit, this.dimensions);
+        }
+
+        MetricDatum.Builder datum(Instant timestamp) {
+            return MetricDatum.builder()
+                .metricName(metricName)
+                .unit(unit)
+                .dimensions(dimensions)
+                .timestamp(timestamp);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof MetricKey key)) {
+                return false;
+            }
+            return metricName.equals(key.metricName) && unit == key.unit && dimensions.equals(key.dimensions);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class CachedMetric {
+        private final StandardUnit unit;
+        private final Dimension[] dimensions;
+        private final Metric metric;
+
+        CachedMetric(StandardUnit unit, Dimension[] dimensions, Metric metric) {
+            this.unit = unit;
+            this.dimensions = dimensions;
+            this.metric = metric;
+        }
+    }
+
+    private abstract static class Accumulator {
+        final MetricKey key;
+        // The handle of this metric, set when the accumulator is created.
+        Metric metric;
+
+        Accumulator(MetricKey key) {
+            this.key = key;
+        }
+
+        abstract Aggregation aggregation();
+
+        abstract void record(double value);
+
+        // Adds the datums for the values recorded since the last drain and resets the accumulator.
+        abstract void drainTo(List<MetricDatum> datums, Instant timestamp);
+    }
+
+    // Records into a Statistics object that the drain swaps for a fresh one, so that every value
+    // is counted in exactly one flush with all four of its statistics.
+    private static final class StatisticSetAccumulator extends Accumulator {
+        private final AtomicReference<Statistics> current = new AtomicReference<>(new Statistics());
+
+        StatisticSetAccumulator(MetricKey key) {
+            super(key);
+        }
+
+        @Override
+        Aggregation aggregation() {
+            return Aggregation.STATISTIC_SET;
+        }
+
+        @Override
+        void record(double value) {
+            while (true) {
+                Statistics statistics = current.get();
+                // A writer that is registered before the swap is waited for by the drain.
+                // One that registers after the swap sees the new object and records there.
+                statistics.writers.incrementAndGet();
+                try {
+                    if (current.get() == statistics) {
+                        statistics.record(value);
+                        return;
+                    }
+                } finally {
+                    statistics.writers.decrementAndGet();
+                }
+            }
+        }
+
+        @Override
+        void drainTo(List<MetricDatum> datums, Instant timestamp) {
+            if (current.get().count.sum() == 0) {
+                return;
+            }
+            Statistics drained = current.getAndSet(new Statistics());
+            while (drained.writers.get() != 0) {
+                Thread.onSpinWait();
+            }
+            long sampleCount = drained.count.sum();
+            if (sampleCount == 0) {
+                return;
+            }
+
+            datums.add(key.datum(timestamp)
+                .statisticValues(StatisticSet.builder()
+                    .sampleCount((double) sampleCount)
+                    .sum(drained.sum.sum())
+                    .minimum(drained.min.get())
+                    .maximum(drained.max.get())
+                    .build())
+                .build());
+        }
+    }
+
+    private static final class Statistics {
+        private final AtomicInteger writers = new AtomicInteger();
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+        private final DoubleAccumulator min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+        private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+        void record(double value) {
+            sum.add(value);
+            min.accumulate(value);
+            max.accumulate(value);
+            count.increment();
+        }
+    }
+
+    private static final class ValuesAccumulator extends Accumulator {
+        private final ConcurrentHashMap<Double, LongAdder> counts = new ConcurrentHashMap<>();
+
+        ValuesAccumulator(MetricKey key) {
+            super(key);
+        }
+
+        @Override
+        Aggregation aggregation() {
+            return Aggregation.VALUES;
+        }
+
+        @Override
+        void record(double value) {
+            LongAdder adder = counts.get(value);
+            if (adder == null) {
+                adder = counts.computeIfAbsent(value, v -> new LongAdder());
+            }
+            adder.increment();
+
+            // The drain removes counters that stayed at zero for a whole interval. If this counter
+            // was removed while it was being incremented, move the count to the current counter.
+            if (counts.get(value) != adder) {
+                long moved = adder.sumThenReset();
+                if (moved > 0) {
+                    counts.computeIfAbsent(value, v -> new LongAdder()).add(moved);
+                }
+            }
+        }
+
+        @Override
+        void drainTo(List<MetricDatum> datums, Instant timestamp) {
+            List<Double> values = new ArrayList<>();
+            List<Double> valueCounts = new ArrayList<>();
+            for (Map.Entry<Double, LongAdder> entry : counts.entrySet()) {
+                long n = entry.getValue().sumThenReset();
+                if (n == 0 && counts.remove(entry.getKey(), entry.getValue())) {
+                    // Pick up an increment that landed between the reset and the removal.
+                    n = entry.getValue().sumThenReset();
+                }
+                if (n > 0) {
+                    values.add(entry.getKey());
+                    valueCounts.add((double) n);
+                }
+            }
+
+            for (int from = 0; from < values.size(); from += MAX_VALUES_PER_DATUM) {
+                int to = Math.min(from + MAX_VALUES_PER_DATUM, values.size());
+                datums.add(key.datum(timestamp)
+                    .values(values.subList(from, to))
+                    .counts(valueCounts.subList(from, to))
+                    .build());
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.cloudwatch.LogEventShipper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.CloudWatchLogsException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.InputLogEvent;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsRequest;
+import software.amazon.awssdk.services.cloudwatchlogs.model.PutLogEventsResponse;
+import software.amazon.awssdk.services.cloudwatchlogs.model.ResourceNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class LogEventShipperTest {
+
+    @Test
+    public void testBatchesStayWithinLimitsAndThrottledRequestsAreRetried() throws Exception {
+        // Every third request is throttled.
+        AtomicInteger calls = new AtomicInteger();
+        StubLogs logs = new StubLogs(() -> calls.incrementAndGet() % 3 == 0 ? throttled() : null);
+        int count = 25_000;
+        String message = "x".repeat(100);
+
+        try (LogEventShipper shipper = new LogEventShipper(logs, "group", "stream", count,
+                Duration.ofMillis(50), LogEventShipper.OverflowPolicy.BLOCK)
+                .withRetries(10, Duration.ofMillis(1), Duration.ofMillis(5))) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                // Out of order, as events from several threads arrive.
+                assertTrue(shipper.log(now - (i % 7), message));
+            }
+            shipper.flush();
+
+            assertEquals(count, shipper.getEventsSent());
+            assertEquals(0, shipper.getEventsFailed());
+            assertTrue(shipper.getRequestsThrottled() > 0);
+        }
+
+        assertEquals(count, logs.eventsWritten.get());
+        assertFalse(logs.invalidBatch.get());
+        assertTrue(logs.maxEventsPerRequest.get() <= LogEventShipper.MAX_EVENTS_PER_REQUEST);
+        assertTrue(logs.maxBytesPerRequest.get() <= LogEventShipper.MAX_BYTES_PER_REQUEST);
+    }
+
+    @Test
+    public void testDropPolicyDropsWhenTheBufferIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubLogs logs = new StubLogs(() -> {
+            await(release);
+            return null;
+        });
+        try (LogEventShipper shipper = new LogEventShipper(logs, "group", "stream", 10,
+                Duration.ofMillis(1), LogEventShipper.OverflowPolicy.DROP)) {
+            // The sender waits in the stub with its first batch, so the buffer fills up.
+            int accepted = 0;
+            for (int i = 0; i < 100; i++) {
+                if (shipper.log("event " + i)) {
+                    accepted++;
+                }
+            }
+            release.countDown();
+            shipper.flush();
+
+            assertTrue(shipper.getEventsDropped() > 0);
+            assertEquals(100 - accepted, shipper.getEventsDropped());
+            assertEquals(accepted, shipper.getEventsSent());
+        }
+    }
+
+    @Test
+    public void testBatchesDoNotSpanMoreThanADay() throws Exception {
+        StubLogs logs = new StubLogs(() -> null);
+        long now = System.currentTimeMillis();
+        try (LogEventShipper shipper = new LogEventShipper(logs, "group", "stream", 100,
+                Duration.ofSeconds(1), LogEventShipper.OverflowPolicy.BLOCK)) {
+            shipper.log(now, "today");
+            shipper.log(now - TimeUnit.HOURS.toMillis(30), "yesterday");
+            shipper.log(now - 1, "today");
+            shipper.flush();
+        }
+        assertEquals(2, logs.requests.get());
+        assertEquals(3, logs.eventsWritten.get());
+        assertFalse(logs.invalidBatch.get());
+    }
+
+    @Test
+    public void testMissingStreamFailsWithoutRetrying() throws Exception {
+        StubLogs logs = new StubLogs(() -> null);
+        try (LogEventShipper shipper = new LogEventShipper(logs, "group", "missing", 100,
+                Duration.ofMillis(1), LogEventShipper.OverflowPolicy.BLOCK)) {
+            shipper.log("lost");
+            shipper.flush();
+            assertEquals(1, shipper.getEventsFailed());
+            assertEquals(1, shipper.getRequestsSent());
+        }
+    }
+
+    @Test
+    public void testUnexpectedExceptionFailsOnlyThatBatch() throws Exception {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        StubLogs logs = new StubLogs(() -> fail.getAndSet(false) ? new IllegalStateException("broken") : null);
+        try (LogEventShipper shipper = new LogEventShipper(logs, "group", "stream", 100,
+                Duration.ofMillis(1), LogEventShipper.OverflowPolicy.BLOCK)) {
+            shipper.log("first");
+            shipper.flush();
+            shipper.log("second");
+            shipper.flush();
+
+            assertEquals(1, shipper.getEventsFailed());
+            assertEquals(1, shipper.getEventsSent());
+        }
+    }
+
+    @Test
+    public void testStoppedSenderFailsWaitersInsteadOfHanging() throws Exception {
+        Error error = new OutOfMemoryError("simulated");
+        StubLogs logs = new StubLogs(() -> error);
+        LogEventShipper shipper = new LogEventShipper(logs, "group", "stream", 5,
+                Duration.ofMillis(1), LogEventShipper.OverflowPolicy.BLOCK);
+        shipper.log("first");
+
+        IllegalStateException flushFailure = assertThrows(IllegalStateException.class, shipper::flush);
+        assertSame(error, flushFailure.getCause());
+        assertEquals(1, shipper.getEventsFailed());
+
+        // With the BLOCK policy, log() throws instead of waiting for room that never comes.
+        assertThrows(IllegalStateException.class, () -> {
+            for (int i = 0; i < 10; i++) {
+                shipper.log("more");
+            }
+        });
+        assertThrows(IllegalStateException.class, shipper::close);
+    }
+
+    private static CloudWatchLogsException throttled() {
+        return (CloudWatchLogsException) CloudWatchLogsException.builder()
+                .message("Rate exceeded")
+                .statusCode(400)
+                .awsErrorDetails(AwsErrorDetails.builder()
+                        .errorCode("ThrottlingException")
+                        .build())
+                .build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Accepts PutLogEvents requests unless the failure supplier returns something to throw,
+    // and notes batches that are not sorted or that span more than 24 hours.
+    private static class StubLogs implements CloudWatchLogsClient {
+        private final Supplier<Throwable> failures;
+        private final AtomicLong eventsWritten = new AtomicLong();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger maxEventsPerRequest = new AtomicInteger();
+        private final AtomicLong maxBytesPerRequest = new AtomicLong();
+        private final AtomicBoolean invalidBatch = new AtomicBoolean();
+
+        StubLogs(Supplier<Throwable> failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public PutLogEventsResponse putLogEvents(PutLogEventsRequest request) {
+            if (!"stream".equals(request.logStreamName())) {
+                throw ResourceNotFoundException.builder().message("The specified log stream does not exist.").build();
+            }
+            Throwable failure = failures.get();
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+
+            List<InputLogEvent> events = request.logEvents();
+            long bytes = 0;
+            for (int i = 0; i < events.size(); i++) {
+                bytes += events.get(i).message().getBytes(StandardCharsets.UTF_8).length
+                        + LogEventShipper.EVENT_OVERHEAD_BYTES;
+                if (i > 0 && events.get(i).timestamp() < events.get(i - 1).timestamp()) {
+                    invalidBatch.set(true);
+                }
+            }
+            if (events.get(events.size() - 1).timestamp() - events.get(0).timestamp() > TimeUnit.HOURS.toMillis(24)) {
+                invalidBatch.set(true);
+            }
+            requests.incrementAndGet();
+            eventsWritten.addAndGet(events.size());
+            maxEventsPerRequest.accumulateAndGet(events.size(), Math::max);
+            maxBytesPerRequest.accumulateAndGet(bytes, Math::max);
+            return PutLogEventsResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "logs";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,145 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.cloudwatch.scenario.MetricPublisher;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDatum;
+import software.amazon.awssdk.services.cloudwatch.model.PutMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.PutMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.StandardUnit;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many values per second application threads can record, and how many
+ * PutMetricData requests they cost. The stand-in for CloudWatch answers each request after
+ * 5 ms, so no AWS resources are needed. Three ways of recording are compared:
+ *
+ *   per-value requests   what CloudWatchActions does: one PutMetricData request with one
+ *                        datum for every value
+ *   publisher, handle    MetricPublisher with a Metric handle taken once per thread
+ *   publisher, by name   MetricPublisher.record with the name, unit and dimensions
+ *
+ * The publisher aggregates into statistic sets and flushes every 50 ms. The arguments are
+ * the number of threads and the number of values each thread records. Both are optional.
+ * The per-value run records a hundredth of the values, because every value is a request.
+ */
+public class MetricPublisherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int valuesPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+
+        System.out.printf("%d threads, %,d values each%n", threads, valuesPerThread);
+        perValueRequests(threads, valuesPerThread / 100);
+        publisher("publisher, handle", threads, valuesPerThread, true);
+        publisher("publisher, by name", threads, valuesPerThread, false);
+    }
+
+    private static void perValueRequests(int threads, int valuesPerThread) throws InterruptedException {
+        StubCloudWatch cloudWatch = new StubCloudWatch(5);
+        long start = System.nanoTime();
+        run(threads, t -> {
+            Dimension page = page(t);
+            CompletableFuture<?>[] sent = new CompletableFuture<?>[valuesPerThread];
+            for (int i = 0; i < valuesPerThread; i++) {
+                MetricDatum datum = MetricDatum.builder()
+                        .metricName("LATENCY")
+                        .unit(StandardUnit.MILLISECONDS)
+                        .value((double) (i % 100))
+                        .dimensions(page)
+                        .build();
+                sent[i] = cloudWatch.putMetricData(PutMetricDataRequest.builder()
+                        .namespace("SITE/TRAFFIC")
+                        .metricData(datum)
+                        .build());
+            }
+            CompletableFuture.allOf(sent).join();
+        });
+        report("per-value requests", (long) threads * valuesPerThread, System.nanoTime() - start,
+                cloudWatch.requests.get());
+    }
+
+    private static void publisher(String mode, int threads, int valuesPerThread, boolean handle)
+            throws InterruptedException {
+        StubCloudWatch cloudWatch = new StubCloudWatch(5);
+        long start = System.nanoTime();
+        try (MetricPublisher publisher = new MetricPublisher(cloudWatch, "SITE/TRAFFIC", Duration.ofMillis(50))) {
+            run(threads, t -> {
+                Dimension page = page(t);
+                if (handle) {
+                    MetricPublisher.Metric latency = publisher.metric("LATENCY", StandardUnit.MILLISECONDS,
+                            MetricPublisher.Aggregation.STATISTIC_SET, page);
+                    for (int i = 0; i < valuesPerThread; i++) {
+                        latency.record(i % 100);
+                    }
+                } else {
+                    for (int i = 0; i < valuesPerThread; i++) {
+                        publisher.record("LATENCY", i % 100, StandardUnit.MILLISECONDS, page);
+                    }
+                }
+            });
+            // The values are recorded once the threads return; the time does not include the last flush.
+            report(mode, publisher.getValuesRecorded(), System.nanoTime() - start, cloudWatch.requests.get());
+        }
+    }
+
+    private interface Worker {
+        void run(int thread);
+    }
+
+    private static void run(int threads, Worker worker) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            new Thread(() -> {
+                try {
+                    worker.run(thread);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+    }
+
+    private static Dimension page(int thread) {
+        return Dimension.builder().name("PAGE").value("page-" + (thread % 4)).build();
+    }
+
+    private static void report(String mode, long values, long nanos, long requests) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-20s %,14d values  %6.2f s  %,14.0f values/s  %,9d requests%n",
+                mode, values, seconds, values / seconds, requests);
+    }
+
+    // Accepts PutMetricData requests after a fixed latency.
+    private static class StubCloudWatch implements CloudWatchAsyncClient {
+        private final Executor executor;
+        private final AtomicLong requests = new AtomicLong();
+
+        StubCloudWatch(long latencyMillis) {
+            this.executor = CompletableFuture.delayedExecutor(latencyMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public CompletableFuture<PutMetricDataResponse> putMetricData(PutMetricDataRequest request) {
+            requests.incrementAndGet();
+            return CompletableFuture.supplyAsync(() -> PutMetricDataResponse.builder().build(), executor);
+        }
+
+        @Override
+        public String serviceName() {
+            return "monitoring";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,183 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.cloudwatch.scenario.MetricPublisher;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import software.amazon.awssdk.services.cloudwatch.CloudWatchAsyncClient;
+import software.amazon.awssdk.services.cloudwatch.model.Dimension;
+import software.amazon.awssdk.services.cloudwatch.model.MetricDatum;
+import software.amazon.awssdk.services.cloudwatch.model.PutMetricDataRequest;
+import software.amazon.awssdk.services.cloudwatch.model.PutMetricDataResponse;
+import software.amazon.awssdk.services.cloudwatch.model.StandardUnit;
+import software.amazon.awssdk.services.cloudwatch.model.StatisticSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class MetricPublisherTest {
+
+    @Test
+    public void testValuesRecordedDuringFlushesAreCountedOnce() throws Exception {
+        StubCloudWatch cloudWatch = new StubCloudWatch();
+        int threads = 8;
+        int valuesPerThread = 200_000;
+        CountDownLatch done = new CountDownLatch(threads);
+
+        try (MetricPublisher publisher = new MetricPublisher(cloudWatch, "SITE/TRAFFIC", Duration.ofHours(1))) {
+            Dimension page = Dimension.builder().name("PAGE").value("home").build();
+            for (int t = 0; t < threads; t++) {
+                new Thread(() -> {
+                    for (int i = 0; i < valuesPerThread; i++) {
+                        publisher.record("LATENCY", 1 + i % 100, StandardUnit.MILLISECONDS, page);
+                    }
+                    done.countDown();
+                }).start();
+            }
+            // Flush while the threads record, so that values arrive during the drains.
+            while (done.getCount() > 0) {
+                publisher.flush().join();
+            }
+            assertEquals((long) threads * valuesPerThread, publisher.getValuesRecorded());
+        }
+
+        long total = (long) threads * valuesPerThread;
+        assertEquals(total, cloudWatch.sampleCount.get());
+        assertEquals(total / 100 * 5050.0, cloudWatch.sum.sum(), 1e-3);
+        assertEquals(1.0, cloudWatch.minimum.get());
+        assertEquals(100.0, cloudWatch.maximum.get());
+        assertEquals(0, cloudWatch.invalidStatisticSets.get());
+    }
+
+    @Test
+    public void testRequestsAreSplitBySize() {
+        StubCloudWatch cloudWatch = new StubCloudWatch();
+        // 30 dimensions with 255 character values make each datum about 8 KB before encoding.
+        String padding = "x".repeat(250);
+        try (MetricPublisher publisher = new MetricPublisher(cloudWatch, "SITE/TRAFFIC", Duration.ofHours(1))) {
+            for (int m = 0; m < MetricPublisher.MAX_DATUMS_PER_REQUEST; m++) {
+                Dimension[] dimensions = new Dimension[30];
+                for (int d = 0; d < dimensions.length; d++) {
+                    dimensions[d] = Dimension.builder().name("D" + d).value(padding + m).build();
+                }
+                publisher.record("PAGES_VISITED", 1, StandardUnit.COUNT, dimensions);
+            }
+            publisher.flush().join();
+        }
+
+        assertEquals(MetricPublisher.MAX_DATUMS_PER_REQUEST, cloudWatch.datums.get());
+        assertTrue(cloudWatch.requests.get() >= 8);
+        assertTrue(cloudWatch.maxRequestBytes.get() < MetricPublisher.MAX_BYTES_PER_REQUEST);
+    }
+
+    @Test
+    public void testValuesAreSplitIntoDatumsAndRequests() {
+        StubCloudWatch cloudWatch = new StubCloudWatch();
+        MetricPublisher publisher = new MetricPublisher(cloudWatch, "SITE/TRAFFIC", Duration.ofHours(1))
+            .withMaxDatumsPerRequest(2);
+        MetricPublisher.Metric size = publisher.metric("RESPONSE_SIZE", StandardUnit.BYTES,
+            MetricPublisher.Aggregation.VALUES);
+        for (int i = 0; i < 400; i++) {
+            size.record(i);
+            size.record(i);
+        }
+        publisher.flush().join();
+
+        // 400 distinct values make three datums of at most 150 values, sent in two requests.
+        assertEquals(3, cloudWatch.datums.get());
+        assertEquals(2, cloudWatch.requests.get());
+        assertEquals(800, cloudWatch.sampleCount.get());
+        assertTrue(cloudWatch.maxValuesPerDatum.get() <= MetricPublisher.MAX_VALUES_PER_DATUM);
+
+        // Nothing was recorded since the last flush, so nothing is sent.
+        publisher.flush().join();
+        assertEquals(2, cloudWatch.requests.get());
+        publisher.close();
+        assertThrows(IllegalStateException.class, () -> size.record(1));
+    }
+
+    @Test
+    public void testDimensionOrderDoesNotCreateANewMetric() {
+        StubCloudWatch cloudWatch = new StubCloudWatch();
+        Dimension a = Dimension.builder().name("A").value("1").build();
+        Dimension b = Dimension.builder().name("B").value("2").build();
+        try (MetricPublisher publisher = new MetricPublisher(cloudWatch, "SITE/TRAFFIC", Duration.ofHours(1))) {
+            publisher.record("PAGES_VISITED", 1, StandardUnit.NONE, a, b);
+            publisher.record("PAGES_VISITED", 3, StandardUnit.NONE, b, a);
+            assertThrows(IllegalArgumentException.class, () -> publisher.metric("PAGES_VISITED",
+                StandardUnit.NONE, MetricPublisher.Aggregation.VALUES, a, b));
+        }
+        assertEquals(1, cloudWatch.datums.get());
+        assertEquals(2, cloudWatch.sampleCount.get());
+        assertEquals(4.0, cloudWatch.sum.sum());
+    }
+
+    // Accepts PutMetricData requests and adds up what was sent. The size of a request is
+    // counted as the characters of its names and dimensions, before they are encoded.
+    private static class StubCloudWatch implements CloudWatchAsyncClient {
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger datums = new AtomicInteger();
+        private final AtomicInteger maxValuesPerDatum = new AtomicInteger();
+        private final AtomicInteger maxRequestBytes = new AtomicInteger();
+        private final AtomicInteger invalidStatisticSets = new AtomicInteger();
+        private final AtomicLong sampleCount = new AtomicLong();
+        private final DoubleAdder sum = new DoubleAdder();
+        private final DoubleAccumulator minimum = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+        private final DoubleAccumulator maximum = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+        @Override
+        public CompletableFuture<PutMetricDataResponse> putMetricData(PutMetricDataRequest request) {
+            assertTrue(request.metricData().size() <= MetricPublisher.MAX_DATUMS_PER_REQUEST);
+            requests.incrementAndGet();
+            int requestBytes = 0;
+            for (MetricDatum datum : request.metricData()) {
+                datums.incrementAndGet();
+                requestBytes += datum.metricName().length();
+                for (Dimension dimension : datum.dimensions()) {
+                    requestBytes += dimension.name().length() + dimension.value().length();
+                }
+                StatisticSet statistics = datum.statisticValues();
+                if (statistics != null) {
+                    sampleCount.addAndGet(statistics.sampleCount().longValue());
+                    sum.add(statistics.sum());
+                    minimum.accumulate(statistics.minimum());
+                    maximum.accumulate(statistics.maximum());
+                    double average = statistics.sum() / statistics.sampleCount();
+                    if (statistics.minimum() > average || statistics.maximum() < average) {
+                        invalidStatisticSets.incrementAndGet();
+                    }
+                } else {
+                    List<Double> counts = new ArrayList<>(datum.counts());
+                    maxValuesPerDatum.accumulateAndGet(datum.values().size(), Math::max);
+                    for (int i = 0; i < counts.size(); i++) {
+                        sampleCount.addAndGet(counts.get(i).longValue());
+                        sum.add(datum.values().get(i) * counts.get(i));
+                    }
+                }
+            }
+            maxRequestBytes.accumulateAndGet(requestBytes, Math::max);
+            return CompletableFuture.completedFuture(PutMetricDataResponse.builder().build());
+        }
+
+        @Override
+        public String serviceName() {
+            return "monitoring";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,154 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.cloudwatch.ParallelLogSearch;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.cloudwatchlogs.CloudWatchLogsClient;
+import software.amazon.awssdk.services.cloudwatchlogs.model.CloudWatchLogsException;
+import software.amazon.awssdk.services.cloudwatchlogs.model.FilterLogEventsRequest;
+import software.amazon.awssdk.services.cloudwatchlogs.model.FilterLogEventsResponse;
+import software.amazon.awssdk.services.cloudwatchlogs.model.FilteredLogEvent;
+import software.amazon.awssdk.services.cloudwatchlogs.model.ResourceNotFoundException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class ParallelLogSearchTest {
+    private static final List<String> STREAMS = List.of("app-a", "app-b", "web-a", "web-b");
+
+    @Test
+    public void testTimeSlicesAreMergedInOrderWithBoundedRequests() throws Exception {
+        StubLogs logs = new StubLogs(1, 0);
+        // More slices than requests at once.
+        ParallelLogSearch search = new ParallelLogSearch(logs, 2);
+        AtomicLong last = new AtomicLong(Long.MIN_VALUE);
+        AtomicInteger outOfOrder = new AtomicInteger();
+
+        long count = search.searchByTime("group", null, 0, 999_999, 8, event -> {
+            if (event.timestamp() < last.getAndSet(event.timestamp())) {
+                outOfOrder.incrementAndGet();
+            }
+        });
+
+        // 1,000 seconds in four streams, with both ends of the range included.
+        assertEquals(4_000, count);
+        assertEquals(0, outOfOrder.get());
+        assertTrue(logs.maxConcurrentCalls.get() <= 2);
+    }
+
+    @Test
+    public void testThrottledRequestsAreSentAgain() throws Exception {
+        StubLogs logs = new StubLogs(0, 3);
+        ParallelLogSearch search = new ParallelLogSearch(logs, 2)
+                .withRetries(5, Duration.ofMillis(1), Duration.ofMillis(2));
+
+        long count = search.searchByTime("group", null, 0, 99_999, 4, event -> { });
+
+        assertEquals(400, count);
+        assertEquals(3, logs.throttled.get());
+    }
+
+    @Test
+    public void testStreamPrefixesAreMergedInOrder() throws Exception {
+        StubLogs logs = new StubLogs(0, 0);
+        ParallelLogSearch search = new ParallelLogSearch(logs, 1);
+        List<FilteredLogEvent> events = new ArrayList<>();
+
+        long count = search.searchByStreamPrefix("group", null, 0, 99_999, List.of("app-", "web-"), events::add);
+
+        assertEquals(400, count);
+        for (int i = 1; i < events.size(); i++) {
+            assertTrue(events.get(i - 1).timestamp() <= events.get(i).timestamp());
+        }
+    }
+
+    @Test
+    public void testFailedSliceStopsTheSearch() {
+        StubLogs logs = new StubLogs(0, 0);
+        ParallelLogSearch search = new ParallelLogSearch(logs, 2);
+        assertThrows(ResourceNotFoundException.class,
+                () -> search.searchByTime("missing", null, 0, 99_999, 4, event -> { }));
+    }
+
+    // Returns one event per second in each stream whose name matches the prefix, in pages of 100.
+    // The first throttledCalls calls are throttled.
+    private static class StubLogs implements CloudWatchLogsClient {
+        private final long latencyMillis;
+        private final int throttledCalls;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger throttled = new AtomicInteger();
+        private final AtomicInteger concurrentCalls = new AtomicInteger();
+        private final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+
+        StubLogs(long latencyMillis, int throttledCalls) {
+            this.latencyMillis = latencyMillis;
+            this.throttledCalls = throttledCalls;
+        }
+
+        @Override
+        public FilterLogEventsResponse filterLogEvents(FilterLogEventsRequest request) {
+            if (!"group".equals(request.logGroupName())) {
+                throw ResourceNotFoundException.builder().message("The specified log group does not exist.").build();
+            }
+            if (calls.incrementAndGet() <= throttledCalls) {
+                throttled.incrementAndGet();
+                throw (CloudWatchLogsException) CloudWatchLogsException.builder()
+                        .message("Rate exceeded")
+                        .statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder()
+                                .errorCode("ThrottlingException")
+                                .build())
+                        .build();
+            }
+            maxConcurrentCalls.accumulateAndGet(concurrentCalls.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            List<String> streams = new ArrayList<>();
+            for (String stream : STREAMS) {
+                if (request.logStreamNamePrefix() == null || stream.startsWith(request.logStreamNamePrefix())) {
+                    streams.add(stream);
+                }
+            }
+            // The token is the index of the first event of the page within the time range.
+            long first = request.nextToken() == null ? 0 : Long.parseLong(request.nextToken());
+            long firstSecond = (request.startTime() + 999) / 1000;
+            long total = (request.endTime() / 1000 - firstSecond + 1) * streams.size();
+            List<FilteredLogEvent> events = new ArrayList<>();
+            for (long i = first; i < Math.min(first + 100, total); i++) {
+                events.add(FilteredLogEvent.builder()
+                        .logStreamName(streams.get((int) (i % streams.size())))
+                        .timestamp((firstSecond + i / streams.size()) * 1000)
+                        .message("event " + i)
+                        .build());
+            }
+            concurrentCalls.decrementAndGet();
+            return FilterLogEventsResponse.builder()
+                    .events(events)
+                    .nextToken(first + 100 < total ? Long.toString(first + 100) : null)
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "logs";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
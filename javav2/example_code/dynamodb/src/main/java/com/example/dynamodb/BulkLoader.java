@@ -0,0 +1,288 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.dynamodb;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Loads a JSON array of items into an Amazon DynamoDB table.
+ *
+ * The file is read one object at a time with the Jackson streaming parser, so only the
+ * batches that are waiting to be written are held in memory. Items are grouped into
+ * BatchWriteItem calls of up to 25 items that a number of writer threads send in parallel.
+ * Unprocessed items are sent again after a backoff with full jitter.
+ *
+ * Each item goes to the writer that the hash of its key selects, and a writer sends its
+ * batches one after the other, so the writes of a key reach the table in the order they
+ * appear in the file and the last one wins.
+ */
+public class BulkLoader<T> {
+    public static final int MAX_BATCH_SIZE = 25;
+    private static final List<WriteRequest> END_OF_BATCHES = new ArrayList<>(0);
+
+    private final DynamoDbClient ddb;
+    private final String tableName;
+    private final TableSchema<T> schema;
+    private final Collection<String> keyAttributes;
+    private final int writers;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private long baseBackoffMillis = 50;
+    private long maxBackoffMillis = 5_000;
+    private int maxAttempts = 10;
+
+    public BulkLoader(DynamoDbClient ddb, String tableName, TableSchema<T> schema, int writers) {
+        if (writers < 1) {
+            throw new IllegalArgumentException("At least one writer is required");
+        }
+        this.ddb = ddb;
+        this.tableName = tableName;
+        this.schema = schema;
+        this.keyAttributes = schema.tableMetadata().primaryKeys();
+        this.writers = writers;
+    }
+
+    // Sets the backoff that is used between attempts to write unprocessed items,
+    // and the number of attempts after which the load fails.
+    public BulkLoader<T> withRetries(Duration baseBackoff, Duration maxBackoff, int maxAttempts) {
+        this.baseBackoffMillis = baseBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public Stats load(File file, Function<JsonNode, T> converter) throws IOException {
+        return load(file, converter, Long.MAX_VALUE, null, null);
+    }
+
+    /**
+     * Loads up to maxItems items from the JSON array in the file. When a progress consumer is
+     * given, it receives the running totals at the given interval while the load is in progress.
+     */
+    public Stats load(File file, Function<JsonNode, T> converter, long maxItems,
+                      Duration progressInterval, Consumer<Stats> progress) throws IOException {
+        Stats stats = new Stats();
+        List<BlockingQueue<List<WriteRequest>>> queues = new ArrayList<>(writers);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ExecutorService writerPool = Executors.newFixedThreadPool(writers);
+        ScheduledExecutorService reporter = null;
+        if (progress != null) {
+            reporter = Executors.newSingleThreadScheduledExecutor();
+            long intervalMillis = progressInterval.toMillis();
+            reporter.scheduleAtFixedRate(() -> progress.accept(stats), intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+
+        try {
+            for (int i = 0; i < writers; i++) {
+                BlockingQueue<List<WriteRequest>> queue = new ArrayBlockingQueue<>(2);
+                queues.add(queue);
+                writerPool.execute(() -> write(queue, failure, stats));
+            }
+
+            try (JsonParser parser = mapper.getFactory().createParser(file)) {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IOException("Expected a JSON array in " + file);
+                }
+
+                // The batch that is being filled for each writer, and the keys in it.
+                List<List<WriteRequest>> batches = new ArrayList<>(writers);
+                List<Set<Map<String, AttributeValue>>> batchKeys = new ArrayList<>(writers);
+                for (int i = 0; i < writers; i++) {
+                    batches.add(new ArrayList<>(MAX_BATCH_SIZE));
+                    batchKeys.add(new HashSet<>());
+                }
+
+                long count = 0;
+                while (count < maxItems && parser.nextToken() == JsonToken.START_OBJECT) {
+                    JsonNode node = parser.readValueAsTree();
+                    Map<String, AttributeValue> item = schema.itemToMap(converter.apply(node), true);
+                    Map<String, AttributeValue> key = keyOf(item);
+                    int writer = Math.floorMod(key.hashCode(), writers);
+
+                    // A batch cannot contain two writes for the same key, so a duplicate starts a new batch.
+                    List<WriteRequest> batch = batches.get(writer);
+                    if (batch.size() == MAX_BATCH_SIZE || batchKeys.get(writer).contains(key)) {
+                        submit(queues.get(writer), batch, failure);
+                        batch = new ArrayList<>(MAX_BATCH_SIZE);
+                        batches.set(writer, batch);
+                        batchKeys.get(writer).clear();
+                    }
+                    batch.add(WriteRequest.builder()
+                            .putRequest(PutRequest.builder().item(item).build())
+                            .build());
+                    batchKeys.get(writer).add(key);
+                    count++;
+                }
+
+                for (int i = 0; i < writers; i++) {
+                    if (!batches.get(i).isEmpty()) {
+                        submit(queues.get(i), batches.get(i), failure);
+                    }
+                }
+            }
+
+            for (BlockingQueue<List<WriteRequest>> queue : queues) {
+                submit(queue, END_OF_BATCHES, failure);
+            }
+            writerPool.shutdown();
+            while (!writerPool.awaitTermination(1, TimeUnit.SECONDS)) {
+                throwIfFailed(failure);
+            }
+            throwIfFailed(failure);
+            return stats.finish();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + file, e);
+        } finally {
+            writerPool.shutdownNow();
+            if (reporter != null) {
+                reporter.shutdownNow();
+            }
+        }
+    }
+
+    private void write(BlockingQueue<List<WriteRequest>> batches, AtomicReference<RuntimeException> failure, Stats stats) {
+        try {
+            List<WriteRequest> batch;
+            while ((batch = batches.take()) != END_OF_BATCHES) {
+                writeBatch(batch, stats);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+    }
+
+    // Writes one batch, sending any unprocessed items again until they are all written.
+    private void writeBatch(List<WriteRequest> batch, Stats stats) throws InterruptedException {
+        List<WriteRequest> pending = batch;
+        for (int attempt = 1; ; attempt++) {
+            BatchWriteItemRequest request = BatchWriteItemRequest.builder()
+                    .requestItems(Map.of(tableName, pending))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                    .build();
+
+            BatchWriteItemResponse response = ddb.batchWriteItem(request);
+            for (ConsumedCapacity capacity : response.consumedCapacity()) {
+                if (capacity.capacityUnits() != null) {
+                    stats.consumedWcu.add(capacity.capacityUnits());
+                }
+            }
+
+            List<WriteRequest> unprocessed = response.unprocessedItems().getOrDefault(tableName, List.of());
+            stats.items.add(pending.size() - unprocessed.size());
+            if (unprocessed.isEmpty()) {
+                return;
+            }
+            if (attempt == maxAttempts) {
+                throw new IllegalStateException(unprocessed.size() + " items were not written to "
+                        + tableName + " after " + maxAttempts + " attempts");
+            }
+
+            stats.retries.increment();
+            long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            pending = unprocessed;
+        }
+    }
+
+    private void submit(BlockingQueue<List<WriteRequest>> batches, List<WriteRequest> batch,
+                        AtomicReference<RuntimeException> failure) throws InterruptedException {
+        while (!batches.offer(batch, 1, TimeUnit.SECONDS)) {
+            throwIfFailed(failure);
+        }
+    }
+
+    private static void throwIfFailed(AtomicReference<RuntimeException> failure) {
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private Map<String, AttributeValue> keyOf(Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        for (String attribute : keyAttributes) {
+            key.put(attribute, item.get(attribute));
+        }
+        return key;
+    }
+
+    // Running totals for a load. The values can be read while the load is in progress.
+    public static class Stats {
+        private final long startNanos = System.nanoTime();
+        private final LongAdder items = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final DoubleAdder consumedWcu = new DoubleAdder();
+        private volatile long endNanos;
+
+        public long getItems() {
+            return items.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        public double getConsumedWcu() {
+            return consumedWcu.sum();
+        }
+
+        public Duration getElapsed() {
+            long end = endNanos != 0 ? endNanos : System.nanoTime();
+            return Duration.ofNanos(end - startNanos);
+        }
+
+        public double getItemsPerSecond() {
+            double seconds = getElapsed().toNanos() / 1e9;
+            return seconds == 0 ? 0 : getItems() / seconds;
+        }
+
+        private Stats finish() {
+            endNanos = System.nanoTime();
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d items in %.1f s (%.0f items/sec, %.1f WCU consumed, %d retries)",
+                    getItems(), getElapsed().toNanos() / 1e9, getItemsPerSecond(), getConsumedWcu(), getRetries());
+        }
+    }
+}
@@ -30,12 +30,9 @@ import software.amazon.awssdk.services.dynamodb.model.AttributeAction;
 import software.amazon.awssdk.services.dynamodb.model.DeleteTableRequest;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.waiters.DynamoDbWaiter;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.HashMap;
@@ -257,35 +254,28 @@ public class Scenario {
     // snippet-start:[dynamodb.java2.scenario.populate_table.main]
     // Load data into the table.
     public static void loadData(DynamoDbClient ddb, String tableName, String fileName) throws IOException {
-        DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-                .dynamoDbClient(ddb)
-                .build();
+        loadData(ddb, tableName, fileName, 4);
+    }
 
-        DynamoDbTable<Movies> mappedTable = enhancedClient.table("Movies", TableSchema.fromBean(Movies.class));
-        JsonParser parser = new JsonFactory().createParser(new File(fileName));
-        com.fasterxml.jackson.databind.JsonNode rootNode = new ObjectMapper().readTree(parser);
-        Iterator<JsonNode> iter = rootNode.iterator();
-        ObjectNode currentNode;
-        int t = 0;
-        while (iter.hasNext()) {
-            // Only add 200 Movies to the table.
-            if (t == 200)
-                break;
-            currentNode = (ObjectNode) iter.next();
-
-            int year = currentNode.path("year").asInt();
-            String title = currentNode.path("title").asText();
-            String info = currentNode.path("info").toString();
-
-            Movies movies = new Movies();
-            movies.setYear(year);
-            movies.setTitle(title);
-            movies.setInfo(info);
-
-            // Put the data into the Amazon DynamoDB Movie table.
-            mappedTable.putItem(movies);
-            t++;
-        }
+    // Load data into the table with the given number of parallel writers. BulkLoader reads the
+    // file one movie at a time and writes the movies in BatchWriteItem calls of up to 25 items.
+    // It sends the items that DynamoDB did not process again after a backoff with full jitter.
+    public static void loadData(DynamoDbClient ddb, String tableName, String fileName, int writers)
+            throws IOException {
+        BulkLoader<Movies> loader = new BulkLoader<>(ddb, tableName, TableSchema.fromBean(Movies.class), writers);
+
+        // Only add 200 Movies to the table.
+        BulkLoader.Stats stats = loader.load(new File(fileName), Scenario::toMovie, 200,
+                Duration.ofSeconds(5), progress -> System.out.println("Loading movies: " + progress));
+        System.out.println("Added " + stats + " to the " + tableName + " table.");
+    }
+
+    private static Movies toMovie(JsonNode currentNode) {
+        Movies movies = new Movies();
+        movies.setYear(currentNode.path("year").asInt());
+        movies.setTitle(currentNode.path("title").asText());
+        movies.setInfo(currentNode.path("info").toString());
+        return movies;
     }
     // snippet-end:[dynamodb.java2.scenario.populate_table.main]
 
@@ -0,0 +1,172 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.dynamodb.BulkLoader;
+import com.example.dynamodb.Movies;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class BulkLoaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testLoadWritesEveryItemOnce() throws IOException {
+        File file = writeMovies(10_000, 0);
+        InMemoryTable table = new InMemoryTable(0.2);
+        BulkLoader<Movies> loader = new BulkLoader<>(table, "Movies", TableSchema.fromBean(Movies.class), 4)
+                .withRetries(Duration.ofMillis(1), Duration.ofMillis(10), 50);
+
+        BulkLoader.Stats stats = loader.load(file, BulkLoaderTest::toMovie);
+
+        assertEquals(10_000, stats.getItems());
+        assertEquals(10_000, table.items.size());
+        assertEquals(10_000, stats.getConsumedWcu(), 0.001);
+        assertTrue(stats.getRetries() > 0);
+        assertTrue(table.maxBatchSize.get() <= BulkLoader.MAX_BATCH_SIZE);
+    }
+
+    @Test
+    public void testDuplicateKeysAreNotSentInOneBatch() throws IOException {
+        // Every movie appears twice in a row in this file.
+        File file = writeMovies(1_000, 1);
+        InMemoryTable table = new InMemoryTable(0);
+        BulkLoader<Movies> loader = new BulkLoader<>(table, "Movies", TableSchema.fromBean(Movies.class), 2);
+
+        BulkLoader.Stats stats = loader.load(file, BulkLoaderTest::toMovie, 500, null, null);
+
+        assertEquals(500, stats.getItems());
+        assertEquals(250, table.items.size());
+    }
+
+    @Test
+    public void testLastWriteOfAKeyWins() throws IOException {
+        // The file holds three versions of each movie, far apart, so that they land in
+        // different batches, and a share of every batch is left unprocessed.
+        int movies = 2_000;
+        File file = tempDir.resolve("versions.json").toFile();
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("[");
+            for (int version = 0; version < 3; version++) {
+                for (int i = 0; i < movies; i++) {
+                    writer.print(version == 0 && i == 0 ? "" : ",\n");
+                    writer.print("{\"year\": " + (1900 + i % 120) + ", \"title\": \"Movie " + i
+                            + "\", \"info\": {\"version\": " + version + "}}");
+                }
+            }
+            writer.println("\n]");
+        }
+        InMemoryTable table = new InMemoryTable(0.3);
+        BulkLoader<Movies> loader = new BulkLoader<>(table, "Movies", TableSchema.fromBean(Movies.class), 4)
+                .withRetries(Duration.ofMillis(1), Duration.ofMillis(5), 50);
+
+        BulkLoader.Stats stats = loader.load(file, BulkLoaderTest::toMovie);
+
+        assertEquals(3 * movies, stats.getItems());
+        assertEquals(movies, table.items.size());
+        for (Map<String, AttributeValue> item : table.items.values()) {
+            assertEquals("{\"version\":2}", item.get("info").s());
+        }
+    }
+
+    private File writeMovies(int count, int duplicates) throws IOException {
+        File file = tempDir.resolve("movies.json").toFile();
+        try (PrintWriter writer = new PrintWriter(file)) {
+            writer.println("[");
+            for (int i = 0; i < count; i++) {
+                for (int d = 0; d <= duplicates; d++) {
+                    writer.print(i == 0 && d == 0 ? "" : ",\n");
+                    writer.print("{\"year\": " + (1900 + i % 120) + ", \"title\": \"Movie " + i
+                            + "\", \"info\": {\"rating\": 7.5, \"genres\": [\"Drama\"]}}");
+                }
+            }
+            writer.println("\n]");
+        }
+        return file;
+    }
+
+    private static Movies toMovie(com.fasterxml.jackson.databind.JsonNode node) {
+        Movies movies = new Movies();
+        movies.setYear(node.path("year").asInt());
+        movies.setTitle(node.path("title").asText());
+        movies.setInfo(node.path("info").toString());
+        return movies;
+    }
+
+    // Stores the items in a map and leaves a share of each batch unprocessed.
+    private static class InMemoryTable implements DynamoDbClient {
+        private final double unprocessedShare;
+        private final Map<Map<String, AttributeValue>, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+        private final AtomicInteger maxBatchSize = new AtomicInteger();
+
+        InMemoryTable(double unprocessedShare) {
+            this.unprocessedShare = unprocessedShare;
+        }
+
+        @Override
+        public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+            String tableName = request.requestItems().keySet().iterator().next();
+            List<WriteRequest> writes = request.requestItems().get(tableName);
+            maxBatchSize.accumulateAndGet(writes.size(), Math::max);
+
+            Set<Map<String, AttributeValue>> keys = new HashSet<>();
+            List<WriteRequest> unprocessed = new ArrayList<>();
+            for (WriteRequest write : writes) {
+                Map<String, AttributeValue> item = write.putRequest().item();
+                Map<String, AttributeValue> key = Map.of("year", item.get("year"), "title", item.get("title"));
+                if (!keys.add(key)) {
+                    throw new IllegalArgumentException("Provided list of item keys contains duplicates");
+                }
+                if (ThreadLocalRandom.current().nextDouble() < unprocessedShare) {
+                    unprocessed.add(write);
+                } else {
+                    items.put(key, item);
+                }
+            }
+
+            return BatchWriteItemResponse.builder()
+                    .unprocessedItems(unprocessed.isEmpty() ? Map.of() : Map.of(tableName, unprocessed))
+                    .consumedCapacity(ConsumedCapacity.builder()
+                            .tableName(tableName)
+                            .capacityUnits((double) (writes.size() - unprocessed.size()))
+                            .build())
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,285 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.firehose;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.firehose.FirehoseClient;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchRequest;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchResponse;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchResponseEntry;
+import software.amazon.awssdk.services.firehose.model.Record;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends records to an Amazon Data Firehose delivery stream in PutRecordBatch batches.
+ *
+ * A fixed number of sender threads take records from one shared buffer. Each sender sends a
+ * batch when it reaches 500 records or 4 MiB (the limits of PutRecordBatch), or when the first
+ * record in the batch has waited for the linger time, so there are never more requests in
+ * flight than senders. Records that fail within a batch (for example, because the delivery
+ * stream was throttled) are sent again after a backoff with full jitter. Firehose does not
+ * keep records in order, so the senders do not coordinate. When the buffer is full, put()
+ * blocks until there is room again.
+ */
+public class FirehoseBatchProducer implements AutoCloseable {
+    public static final int MAX_RECORDS_PER_REQUEST = 500;
+    public static final int MAX_BYTES_PER_REQUEST = 4 * 1024 * 1024;
+    public static final int MAX_BYTES_PER_RECORD = 1000 * 1024;
+
+    private final FirehoseClient firehoseClient;
+    private final String streamName;
+    private final BlockingQueue<PendingRecord> buffer;
+    private final List<Thread> senders = new ArrayList<>();
+    private final long lingerNanos;
+    private final AtomicLong outstanding = new AtomicLong();
+    private final Object flushLock = new Object();
+    private final LongAdder recordsSent = new LongAdder();
+    private final LongAdder requestsSent = new LongAdder();
+    private final LongAdder recordsRetried = new LongAdder();
+    private final LongAdder recordsFailed = new LongAdder();
+    private int maxAttempts = 5;
+    private long baseBackoffMillis = 100;
+    private long maxBackoffMillis = 5_000;
+    private volatile boolean flushRequested;
+    private volatile boolean closed;
+
+    public FirehoseBatchProducer(FirehoseClient firehoseClient, String streamName) {
+        this(firehoseClient, streamName, 10_000, Duration.ofMillis(100), 4);
+    }
+
+    /**
+     * @param bufferCapacity the number of records that can wait to be sent
+     * @param maxConcurrentRequests the number of sender threads, each with one request in flight at most
+     */
+    public FirehoseBatchProducer(FirehoseClient firehoseClient, String streamName, int bufferCapacity,
+                                 Duration linger, int maxConcurrentRequests) {
+        this.firehoseClient = firehoseClient;
+        this.streamName = streamName;
+        this.buffer = new ArrayBlockingQueue<>(bufferCapacity);
+        this.lingerNanos = linger.toNanos();
+        for (int i = 0; i < maxConcurrentRequests; i++) {
+            Thread sender = new Thread(this::runSender, "firehose-producer-" + streamName + "-" + i);
+            sender.setDaemon(true);
+            senders.add(sender);
+        }
+        senders.forEach(Thread::start);
+    }
+
+    // Sets how often records that fail are sent again, and the backoff between attempts.
+    public FirehoseBatchProducer withRetries(int maxAttempts, Duration baseBackoff, Duration maxBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        return this;
+    }
+
+    /**
+     * Adds a record to the buffer, waiting for room if the buffer is full. The returned future
+     * completes with the ID of the record once it has been written, or completes exceptionally
+     * if the record could not be written after all attempts.
+     */
+    public CompletableFuture<PutRecordBatchResponseEntry> put(byte[] data) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("The producer is closed");
+        }
+        if (data.length > MAX_BYTES_PER_RECORD) {
+            throw new IllegalArgumentException("A record cannot be larger than " + MAX_BYTES_PER_RECORD + " bytes");
+        }
+
+        Record entry = Record.builder()
+                .data(SdkBytes.fromByteArray(data))
+                .build();
+        PendingRecord record = new PendingRecord(entry, data.length);
+        outstanding.incrementAndGet();
+        try {
+            buffer.put(record);
+        } catch (InterruptedException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+        return record.future;
+    }
+
+    // Sends the buffered records without waiting for the linger time and waits until
+    // every record that was added has either been written or has failed.
+    public void flush() throws InterruptedException {
+        flushRequested = true;
+        try {
+            synchronized (flushLock) {
+                while (outstanding.get() > 0) {
+                    flushLock.wait(100);
+                }
+            }
+        } finally {
+            flushRequested = false;
+        }
+    }
+
+    public long getRecordsSent() {
+        return recordsSent.sum();
+    }
+
+    public long getRequestsSent() {
+        return requestsSent.sum();
+    }
+
+    public long getRecordsRetried() {
+        return recordsRetried.sum();
+    }
+
+    public long getRecordsFailed() {
+        return recordsFailed.sum();
+    }
+
+    // Takes records from the buffer, groups them into batches and sends them one after the other.
+    private void runSender() {
+        PendingRecord carry = null;
+        try {
+            while (!closed || carry != null || outstanding.get() > 0) {
+                PendingRecord first = carry != null ? carry : buffer.poll(100, TimeUnit.MILLISECONDS);
+                carry = null;
+                if (first == null) {
+                    continue;
+                }
+
+                List<PendingRecord> batch = new ArrayList<>();
+                batch.add(first);
+                long bytes = first.size;
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < MAX_RECORDS_PER_REQUEST) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRecord next = flushRequested || closed || remaining <= 0
+                            ? buffer.poll()
+                            : buffer.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    if (bytes + next.size > MAX_BYTES_PER_REQUEST) {
+                        carry = next;
+                        break;
+                    }
+                    batch.add(next);
+                    bytes += next.size;
+                }
+
+                try {
+                    send(batch);
+                } catch (RuntimeException | Error e) {
+                    // Fails the records of the batch that are not complete yet, and keeps the sender
+                    // running, so that flush() returns.
+                    // Only this thread completes the records of the batch, and the count is raised
+                    // first, so that it is up to date when flush() returns.
+                    for (PendingRecord record : batch) {
+                        if (!record.future.isDone()) {
+                            recordsFailed.increment();
+                            complete(record, null, e);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Sends a batch, sending the records that failed again until all are written or the attempts run out.
+    private void send(List<PendingRecord> batch) {
+        List<PendingRecord> pending = batch;
+        String lastError = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (attempt > 1) {
+                recordsRetried.add(pending.size());
+                long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 2, 20));
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            List<Record> entries = new ArrayList<>(pending.size());
+            pending.forEach(record -> entries.add(record.entry));
+            PutRecordBatchRequest request = PutRecordBatchRequest.builder()
+                    .deliveryStreamName(streamName)
+                    .records(entries)
+                    .build();
+
+            PutRecordBatchResponse response;
+            try {
+                response = firehoseClient.putRecordBatch(request);
+                requestsSent.increment();
+            } catch (SdkException e) {
+                lastError = e.getMessage();
+                continue;
+            }
+
+            // The results are in the same order as the records in the request.
+            List<PendingRecord> failed = new ArrayList<>();
+            List<PutRecordBatchResponseEntry> results = response.requestResponses();
+            for (int i = 0; i < results.size(); i++) {
+                PutRecordBatchResponseEntry result = results.get(i);
+                if (result.errorCode() == null) {
+                    recordsSent.increment();
+                    complete(pending.get(i), result, null);
+                } else {
+                    failed.add(pending.get(i));
+                    lastError = result.errorCode() + ": " + result.errorMessage();
+                }
+            }
+            if (failed.isEmpty()) {
+                return;
+            }
+            pending = failed;
+        }
+
+        String message = "Could not write the record to " + streamName + " after " + maxAttempts + " attempts: " + lastError;
+        for (PendingRecord record : pending) {
+            recordsFailed.increment();
+            complete(record, null, new IllegalStateException(message));
+        }
+    }
+
+    private void complete(PendingRecord record, PutRecordBatchResponseEntry result, Throwable error) {
+        boolean completed = error == null
+                ? record.future.complete(result)
+                : record.future.completeExceptionally(error);
+        if (completed && outstanding.decrementAndGet() == 0) {
+            synchronized (flushLock) {
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    // Sends the remaining records and stops the producer.
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        flush();
+        for (Thread sender : senders) {
+            sender.join();
+        }
+    }
+
+    private static class PendingRecord {
+        private final Record entry;
+        private final int size;
+        private final CompletableFuture<PutRecordBatchResponseEntry> future = new CompletableFuture<>();
+
+        PendingRecord(Record entry, int size) {
+            this.entry = entry;
+            this.size = size;
+        }
+    }
+}
@@ -7,14 +7,11 @@ package com.example.firehose;
 // snippet-start:[firehose.java2.put_batch_records.import]
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.firehose.FirehoseClient;
-import software.amazon.awssdk.services.firehose.model.Record;
-import software.amazon.awssdk.services.firehose.model.PutRecordBatchRequest;
-import software.amazon.awssdk.services.firehose.model.PutRecordBatchResponse;
-import software.amazon.awssdk.services.firehose.model.FirehoseException;
 import software.amazon.awssdk.services.firehose.model.PutRecordBatchResponseEntry;
-import software.amazon.awssdk.core.SdkBytes;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 // snippet-end:[firehose.java2.put_batch_records.import]
 
 /**
@@ -54,51 +51,36 @@ public class PutBatchRecords {
     }
 
     public static void addStockTradeData(FirehoseClient firehoseClient, String streamName) {
-        List<Record> recordList = new ArrayList<>();
-        try {
-            // Repeatedly send stock trades with a 100 milliseconds wait in between.
-            StockTradeGenerator stockTradeGenerator = new StockTradeGenerator();
-            int index = 100;
+        StockTradeGenerator stockTradeGenerator = new StockTradeGenerator();
+        int index = 100;
 
-            // Populate the list with StockTrade data.
+        // The producer sends the trades in PutRecordBatch requests of up to 500 records and
+        // 4 MiB, and sends the records that fail again.
+        try (FirehoseBatchProducer producer = new FirehoseBatchProducer(firehoseClient, streamName)) {
+            List<CompletableFuture<PutRecordBatchResponseEntry>> results = new ArrayList<>();
             for (int x = 0; x < index; x++) {
                 StockTrade trade = stockTradeGenerator.getRandomTrade();
                 byte[] bytes = trade.toJsonAsBytes();
-
-                Record myRecord = Record.builder()
-                        .data(SdkBytes.fromByteArray(bytes))
-                        .build();
+                if (bytes == null) {
+                    System.out.println("Could not get JSON bytes for stock trade");
+                    continue;
+                }
 
                 System.out.println("Adding trade: " + trade.toString());
-                recordList.add(myRecord);
-                Thread.sleep(100);
+                results.add(producer.put(bytes));
             }
+            producer.flush();
 
-            PutRecordBatchRequest recordBatchRequest = PutRecordBatchRequest.builder()
-                    .deliveryStreamName(streamName)
-                    .records(recordList)
-                    .build();
-
-            PutRecordBatchResponse recordResponse = firehoseClient.putRecordBatch(recordBatchRequest);
-            System.out.println("The number of records added is: " + recordResponse.requestResponses().size());
-
-            // Check the details of all records in this batch operation.
-            String errorMsg = "";
-            String errorCode = "";
-            List<PutRecordBatchResponseEntry> results = recordResponse.requestResponses();
-            for (PutRecordBatchResponseEntry result : results) {
-
-                // Returns null if there is no error.
-                errorCode = result.errorCode();
-                if (errorCode == null) {
-                    System.out.println("Record " + result.recordId() + " was successfully added!");
-                } else {
-                    errorMsg = result.errorMessage();
-                    System.out.println("Error code for record ID : " + result.recordId() + " is " + errorMsg);
+            for (CompletableFuture<PutRecordBatchResponseEntry> result : results) {
+                try {
+                    System.out.println("Record " + result.join().recordId() + " was successfully added!");
+                } catch (CompletionException e) {
+                    System.out.println(e.getCause().getMessage());
                 }
             }
+            System.out.println("The number of records that failed is: " + producer.getRecordsFailed());
 
-        } catch (FirehoseException | InterruptedException e) {
+        } catch (InterruptedException e) {
             System.out.println(e.getLocalizedMessage());
             System.exit(1);
         }
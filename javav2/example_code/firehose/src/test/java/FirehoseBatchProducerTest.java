@@ -0,0 +1,143 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.firehose.FirehoseBatchProducer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import software.amazon.awssdk.services.firehose.FirehoseClient;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchRequest;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchResponse;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchResponseEntry;
+import software.amazon.awssdk.services.firehose.model.Record;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class FirehoseBatchProducerTest {
+
+    @Test
+    public void testThrottledRecordsAreSentAgain() throws Exception {
+        // Every tenth record fails the first time it is sent.
+        StubDeliveryStream stream = new StubDeliveryStream(10);
+        int count = 20_000;
+        List<CompletableFuture<PutRecordBatchResponseEntry>> futures = new ArrayList<>(count);
+
+        try (FirehoseBatchProducer producer = new FirehoseBatchProducer(stream, "StockTradeStream", 2_000,
+                Duration.ofMillis(5), 4).withRetries(10, Duration.ofMillis(1), Duration.ofMillis(2))) {
+            for (int i = 0; i < count; i++) {
+                futures.add(producer.put(ByteBuffer.allocate(4).putInt(i).array()));
+            }
+            producer.flush();
+
+            assertEquals(count, producer.getRecordsSent());
+            assertEquals(0, producer.getRecordsFailed());
+            assertTrue(producer.getRecordsRetried() > 0);
+        }
+
+        assertEquals(count, stream.recordsWritten.get());
+        assertTrue(stream.maxRecordsPerRequest.get() <= FirehoseBatchProducer.MAX_RECORDS_PER_REQUEST);
+        for (CompletableFuture<PutRecordBatchResponseEntry> future : futures) {
+            assertTrue(future.isDone() && !future.isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void testBatchesStayUnderByteLimit() throws Exception {
+        StubDeliveryStream stream = new StubDeliveryStream(0);
+        byte[] data = new byte[100 * 1024];
+        try (FirehoseBatchProducer producer = new FirehoseBatchProducer(stream, "StockTradeStream")) {
+            for (int i = 0; i < 200; i++) {
+                producer.put(data);
+            }
+            producer.flush();
+        }
+
+        assertEquals(200, stream.recordsWritten.get());
+        assertTrue(stream.maxBytesPerRequest.get() <= FirehoseBatchProducer.MAX_BYTES_PER_REQUEST);
+    }
+
+    @Test
+    public void testUnexpectedExceptionFailsTheBatchAndFlushReturns() throws Exception {
+        FirehoseClient broken = new StubDeliveryStream(0) {
+            @Override
+            public PutRecordBatchResponse putRecordBatch(PutRecordBatchRequest request) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        CompletableFuture<PutRecordBatchResponseEntry> future;
+        try (FirehoseBatchProducer producer = new FirehoseBatchProducer(broken, "StockTradeStream", 10,
+                Duration.ofMillis(1), 2)) {
+            future = producer.put(new byte[] { 1 });
+            producer.flush();
+            assertEquals(1, producer.getRecordsFailed());
+        }
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertEquals("broken", e.getCause().getMessage());
+    }
+
+    // Accepts PutRecordBatch requests, and fails every throttleEvery-th record the first time it arrives.
+    private static class StubDeliveryStream implements FirehoseClient {
+        private final int throttleEvery;
+        private final Set<Integer> throttledBefore = ConcurrentHashMap.newKeySet();
+        private final AtomicLong recordsWritten = new AtomicLong();
+        private final AtomicInteger recordIds = new AtomicInteger();
+        private final AtomicInteger maxRecordsPerRequest = new AtomicInteger();
+        private final AtomicLong maxBytesPerRequest = new AtomicLong();
+
+        StubDeliveryStream(int throttleEvery) {
+            this.throttleEvery = throttleEvery;
+        }
+
+        @Override
+        public PutRecordBatchResponse putRecordBatch(PutRecordBatchRequest request) {
+            long bytes = 0;
+            int failed = 0;
+            List<PutRecordBatchResponseEntry> results = new ArrayList<>();
+            for (Record record : request.records()) {
+                byte[] data = record.data().asByteArray();
+                bytes += data.length;
+                int value = data.length == 4 ? ByteBuffer.wrap(data).getInt() : -1;
+                if (throttleEvery > 0 && value % throttleEvery == 0 && throttledBefore.add(value)) {
+                    failed++;
+                    results.add(PutRecordBatchResponseEntry.builder()
+                            .errorCode("ServiceUnavailableException")
+                            .errorMessage("Slow down.")
+                            .build());
+                } else {
+                    recordsWritten.incrementAndGet();
+                    results.add(PutRecordBatchResponseEntry.builder()
+                            .recordId(Integer.toString(recordIds.incrementAndGet()))
+                            .build());
+                }
+            }
+            maxRecordsPerRequest.accumulateAndGet(request.records().size(), Math::max);
+            maxBytesPerRequest.accumulateAndGet(bytes, Math::max);
+            return PutRecordBatchResponse.builder()
+                    .failedPutCount(failed)
+                    .requestResponses(results)
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "firehose";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
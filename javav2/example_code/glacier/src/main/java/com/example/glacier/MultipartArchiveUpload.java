@@ -0,0 +1,332 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.glacier;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.glacier.GlacierClient;
+import software.amazon.awssdk.services.glacier.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.glacier.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.glacier.model.InitiateMultipartUploadRequest;
+import software.amazon.awssdk.services.glacier.model.InitiateMultipartUploadResponse;
+import software.amazon.awssdk.services.glacier.model.ListPartsRequest;
+import software.amazon.awssdk.services.glacier.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.glacier.model.UploadMultipartPartRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads a large archive to an Amazon S3 Glacier vault with a multipart upload.
+ *
+ * The leaf hashes of the file are computed once with TreeHash. The tree hash of every part
+ * and of the whole archive are folded from them, so the file is only read once for hashing.
+ * Several parts are uploaded at once, each from a memory-mapped region of the file.
+ *
+ * The upload ID and the parts that have been uploaded are written to a manifest file next
+ * to the archive after every part. If the upload is interrupted, running it again with the
+ * same manifest only uploads the parts that are missing. Amazon S3 Glacier drops an upload
+ * after 24 hours without activity; a manifest whose upload no longer exists is replaced by a
+ * new upload. The manifest is deleted once the upload is complete.
+ */
+public class MultipartArchiveUpload {
+    // A part must be 1 MB times a power of two, up to 4 GB, and an upload has at most 10,000 parts.
+    public static final long MAX_PART_SIZE = 4096L * TreeHash.ONE_MB;
+    public static final int MAX_PARTS = 10_000;
+    public static final long MAX_ARCHIVE_SIZE = MAX_PARTS * MAX_PART_SIZE;
+    // A mapped region must fit in one buffer, so larger parts are mapped in several regions.
+    private static final long MAX_REGION_SIZE = 1024L * TreeHash.ONE_MB;
+
+    private final GlacierClient glacier;
+    private final String vaultName;
+    private final int concurrentParts;
+    private long partSize = 64L * TreeHash.ONE_MB;
+
+    public MultipartArchiveUpload(GlacierClient glacier, String vaultName) {
+        this(glacier, vaultName, 4);
+    }
+
+    public MultipartArchiveUpload(GlacierClient glacier, String vaultName, int concurrentParts) {
+        this.glacier = glacier;
+        this.vaultName = vaultName;
+        this.concurrentParts = concurrentParts;
+    }
+
+    // Sets the size of the parts. Larger files use larger parts so that there are at most 10,000.
+    public MultipartArchiveUpload withPartSize(long partSize) {
+        if (partSize < TreeHash.ONE_MB || partSize > MAX_PART_SIZE || Long.bitCount(partSize) != 1) {
+            throw new IllegalArgumentException("The part size must be 1 MB times a power of two, up to " + MAX_PART_SIZE);
+        }
+        this.partSize = partSize;
+        return this;
+    }
+
+    public static Path manifestFor(Path file) {
+        return file.resolveSibling(file.getFileName() + ".upload");
+    }
+
+    /**
+     * Uploads the file, or the parts that are missing if a manifest of an earlier attempt
+     * exists, and returns the archive ID.
+     */
+    public String upload(Path file) throws IOException, InterruptedException {
+        long size = Files.size(file);
+        if (size == 0) {
+            throw new IllegalArgumentException("An empty archive cannot be uploaded in parts: " + file);
+        }
+        if (size > MAX_ARCHIVE_SIZE) {
+            throw new IllegalArgumentException("The archive is " + size + " bytes, but " + MAX_PARTS
+                    + " parts of " + MAX_PART_SIZE + " bytes hold at most " + MAX_ARCHIVE_SIZE + ": " + file);
+        }
+        byte[][] leaves = TreeHash.leafHashes(file);
+        String checksum = UploadArchive.toHex(TreeHash.treeHash(leaves));
+
+        Path manifestPath = manifestFor(file);
+        Manifest manifest = Manifest.read(manifestPath);
+        if (manifest != null && (manifest.archiveSize != size || !manifest.checksum.equals(checksum)
+                || !exists(manifest.uploadId))) {
+            manifest = null;
+        }
+        if (manifest == null) {
+            // The size was checked above, so doubling always reaches a part size that needs at most 10,000 parts.
+            long chosenPartSize = partSize;
+            while ((size + chosenPartSize - 1) / chosenPartSize > MAX_PARTS) {
+                chosenPartSize *= 2;
+            }
+            InitiateMultipartUploadResponse response = glacier.initiateMultipartUpload(
+                    InitiateMultipartUploadRequest.builder()
+                            .vaultName(vaultName)
+                            .archiveDescription(file.getFileName().toString())
+                            .partSize(Long.toString(chosenPartSize))
+                            .build());
+            manifest = new Manifest(response.uploadId(), size, chosenPartSize, checksum);
+            manifest.write(manifestPath);
+        }
+
+        uploadMissingParts(file, leaves, manifest, manifestPath);
+
+        CompleteMultipartUploadResponse response = glacier.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                .vaultName(vaultName)
+                .uploadId(manifest.uploadId)
+                .archiveSize(Long.toString(size))
+                .checksum(checksum)
+                .build());
+        Files.deleteIfExists(manifestPath);
+        return response.archiveId();
+    }
+
+    // Returns false if the upload has expired or was aborted.
+    private boolean exists(String uploadId) {
+        try {
+            glacier.listParts(ListPartsRequest.builder()
+                    .vaultName(vaultName)
+                    .uploadId(uploadId)
+                    .limit("1")
+                    .build());
+            return true;
+        } catch (ResourceNotFoundException e) {
+            return false;
+        }
+    }
+
+    private void uploadMissingParts(Path file, byte[][] leaves, Manifest manifest, Path manifestPath)
+            throws IOException, InterruptedException {
+        int parts = (int) ((manifest.archiveSize + manifest.partSize - 1) / manifest.partSize);
+        int leavesPerPart = (int) (manifest.partSize / TreeHash.ONE_MB);
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrentParts);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Future<?>> uploads = new ArrayList<>();
+            for (int part = 0; part < parts; part++) {
+                if (manifest.isUploaded(part)) {
+                    continue;
+                }
+                int index = part;
+                uploads.add(executor.submit(() -> {
+                    long start = index * manifest.partSize;
+                    long length = Math.min(manifest.partSize, manifest.archiveSize - start);
+                    int firstLeaf = index * leavesPerPart;
+                    int lastLeaf = Math.min(leaves.length, firstLeaf + leavesPerPart);
+                    String partChecksum = UploadArchive.toHex(TreeHash.treeHash(leaves, firstLeaf, lastLeaf));
+                    ByteBuffer[] body = map(channel, start, length);
+
+                    glacier.uploadMultipartPart(UploadMultipartPartRequest.builder()
+                            .vaultName(vaultName)
+                            .uploadId(manifest.uploadId)
+                            .range("bytes " + start + "-" + (start + length - 1) + "/*")
+                            .checksum(partChecksum)
+                            .build(), RequestBody.fromContentProvider(() -> new ByteBufferInputStream(body),
+                            length, "application/octet-stream"));
+                    manifest.markUploaded(index, manifestPath);
+                    return null;
+                }));
+            }
+
+            // Wait for every part, so that the manifest lists all parts that made it before a failure.
+            ExecutionException failure = null;
+            for (Future<?> upload : uploads) {
+                try {
+                    upload.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                Throwable cause = failure.getCause();
+                if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                if (cause instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IllegalStateException("A part could not be uploaded", cause);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ByteBuffer[] map(FileChannel channel, long start, long length) throws IOException {
+        ByteBuffer[] regions = new ByteBuffer[(int) ((length + MAX_REGION_SIZE - 1) / MAX_REGION_SIZE)];
+        for (int i = 0; i < regions.length; i++) {
+            long offset = i * MAX_REGION_SIZE;
+            regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + offset,
+                    Math.min(MAX_REGION_SIZE, length - offset));
+        }
+        return regions;
+    }
+
+    // The state of an upload, stored as a properties file.
+    private static class Manifest {
+        private final String uploadId;
+        private final long archiveSize;
+        private final long partSize;
+        private final String checksum;
+        private final List<Integer> uploadedParts = new ArrayList<>();
+
+        Manifest(String uploadId, long archiveSize, long partSize, String checksum) {
+            this.uploadId = uploadId;
+            this.archiveSize = archiveSize;
+            this.partSize = partSize;
+            this.checksum = checksum;
+        }
+
+        static Manifest read(Path path) throws IOException {
+            if (!Files.exists(path)) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(path)) {
+                properties.load(reader);
+            }
+            Manifest manifest = new Manifest(properties.getProperty("uploadId"),
+                    Long.parseLong(properties.getProperty("archiveSize")),
+                    Long.parseLong(properties.getProperty("partSize")),
+                    properties.getProperty("checksum"));
+            String parts = properties.getProperty("uploadedParts", "");
+            for (String part : parts.split(",")) {
+                if (!part.isEmpty()) {
+                    manifest.uploadedParts.add(Integer.parseInt(part));
+                }
+            }
+            return manifest;
+        }
+
+        synchronized boolean isUploaded(int part) {
+            return uploadedParts.contains(part);
+        }
+
+        synchronized void markUploaded(int part, Path path) {
+            uploadedParts.add(part);
+            try {
+                write(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Writes to a temporary file first, so that a crash never leaves half a manifest behind.
+        synchronized void write(Path path) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("uploadId", uploadId);
+            properties.setProperty("archiveSize", Long.toString(archiveSize));
+            properties.setProperty("partSize", Long.toString(partSize));
+            properties.setProperty("checksum", checksum);
+            StringBuilder parts = new StringBuilder();
+            for (Integer part : uploadedParts) {
+                if (parts.length() > 0) {
+                    parts.append(',');
+                }
+                parts.append(part);
+            }
+            properties.setProperty("uploadedParts", parts.toString());
+
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary)) {
+                properties.store(writer, "Multipart upload to Amazon S3 Glacier");
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    // Reads a part from its mapped regions without copying it to the heap first.
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer[] buffers;
+        private int current;
+
+        ByteBufferInputStream(ByteBuffer[] regions) {
+            buffers = new ByteBuffer[regions.length];
+            for (int i = 0; i < regions.length; i++) {
+                buffers[i] = regions[i].duplicate();
+            }
+        }
+
+        // Returns the region that is being read, or null at the end of the part.
+        private ByteBuffer buffer() {
+            while (current < buffers.length && !buffers[current].hasRemaining()) {
+                current++;
+            }
+            return current < buffers.length ? buffers[current] : null;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer buffer = buffer();
+            return buffer == null ? -1 : buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            ByteBuffer buffer = buffer();
+            if (buffer == null) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            ByteBuffer buffer = buffer();
+            return buffer == null ? 0 : buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.glacier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes the SHA-256 tree hash that Amazon S3 Glacier expects for archives and parts.
+ *
+ * The 1 MB leaf hashes are computed in parallel on a fork/join pool. Each task maps its
+ * part of the file with a FileChannel, so the file is read by the operating system page
+ * cache and not copied through a buffer on the heap. The tree is folded with fork/join
+ * too: the tree hash of n leaves is the hash of the tree of the first 2^k leaves (the
+ * largest power of two below n) followed by the tree of the rest, and the two halves are
+ * independent. This gives the same result as the level-by-level fold in
+ * UploadArchive.computeSHA256TreeHash.
+ */
+public class TreeHash {
+    public static final int ONE_MB = 1024 * 1024;
+    // The number of 1 MB chunks that one task maps and hashes.
+    private static final int CHUNKS_PER_TASK = 16;
+    // Below this number of leaves, a subtree is folded on the current thread.
+    private static final int LEAVES_PER_FOLD_TASK = 4096;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot locate MessageDigest algorithm for SHA-256", e);
+        }
+    });
+
+    private TreeHash() {
+    }
+
+    // Returns the tree hash of a whole file.
+    public static byte[] treeHash(Path file) throws IOException {
+        return treeHash(leafHashes(file));
+    }
+
+    /**
+     * Computes the SHA-256 hash of every 1 MB chunk of the file, including the last chunk even
+     * if it is smaller than 1 MB. An empty file has one leaf, the hash of no bytes.
+     */
+    public static byte[][] leafHashes(Path file) throws IOException {
+        return leafHashes(file, ForkJoinPool.commonPool());
+    }
+
+    public static byte[][] leafHashes(Path file, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunks = (size + ONE_MB - 1) / ONE_MB;
+            if (chunks == 0) {
+                return new byte[][] { DIGEST.get().digest() };
+            }
+            if (chunks > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("The file is too large to hash: " + file);
+            }
+
+            byte[][] leaves = new byte[(int) chunks][];
+            try {
+                pool.invoke(new LeafTask(channel, size, leaves, 0, leaves.length));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return leaves;
+        }
+    }
+
+    // Folds all leaf hashes into the tree hash.
+    public static byte[] treeHash(byte[][] leaves) {
+        return treeHash(leaves, 0, leaves.length);
+    }
+
+    /**
+     * Folds the leaf hashes from index from (inclusive) to to (exclusive). When the range starts
+     * at a multiple of a power of two and covers that many leaves, as the parts of a multipart
+     * upload do, the result is the tree hash of that part.
+     */
+    public static byte[] treeHash(byte[][] leaves, int from, int to) {
+        if (to <= from) {
+            throw new IllegalArgumentException("At least one leaf hash is needed");
+        }
+        return ForkJoinPool.commonPool().invoke(new FoldTask(leaves, from, to));
+    }
+
+    // Folds a range of leaves on the current thread.
+    private static byte[] fold(byte[][] leaves, int from, int to) {
+        int count = to - from;
+        if (count == 1) {
+            return leaves[from];
+        }
+        int left = Integer.highestOneBit(count - 1);
+        return combine(fold(leaves, from, from + left), fold(leaves, from + left, to));
+    }
+
+    private static byte[] combine(byte[] left, byte[] right) {
+        MessageDigest md = DIGEST.get();
+        md.reset();
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    private static class LeafTask extends RecursiveAction {
+        private final FileChannel channel;
+        private final long fileSize;
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+
+        LeafTask(FileChannel channel, long fileSize, byte[][] leaves, int from, int to) {
+            this.channel = channel;
+            this.fileSize = fileSize;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CHUNKS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LeafTask(channel, fileSize, leaves, from, middle),
+                        new LeafTask(channel, fileSize, leaves, middle, to));
+                return;
+            }
+
+            long start = (long) from * ONE_MB;
+            long length = Math.min(fileSize, (long) to * ONE_MB) - start;
+            MappedByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            MessageDigest md = DIGEST.get();
+            for (int i = from; i < to; i++) {
+                int offset = (i - from) * ONE_MB;
+                buffer.limit((int) Math.min(length, offset + (long) ONE_MB));
+                buffer.position(offset);
+                md.reset();
+                md.update(buffer);
+                leaves[i] = md.digest();
+            }
+        }
+    }
+
+    private static class FoldTask extends RecursiveTask<byte[]> {
+        private final byte[][] leaves;
+        private final int from;
+        private final int to;
+
+        FoldTask(byte[][] leaves, int from, int to) {
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected byte[] compute() {
+            int count = to - from;
+            if (count <= LEAVES_PER_FOLD_TASK) {
+                return fold(leaves, from, to);
+            }
+            int left = Integer.highestOneBit(count - 1);
+            FoldTask leftTask = new FoldTask(leaves, from, from + left);
+            leftTask.fork();
+            byte[] right = new FoldTask(leaves, from + left, to).compute();
+            return combine(leftTask.join(), right);
+        }
+    }
+}
@@ -30,6 +30,8 @@ import java.security.NoSuchAlgorithmException;
 public class UploadArchive {
 
     static final int ONE_MB = 1024 * 1024;
+    // Archives larger than this are uploaded in parts.
+    static final long MULTIPART_THRESHOLD = 100L * ONE_MB;
 
     public static void main(String[] args) {
         final String usage = """
@@ -60,6 +62,10 @@ public class UploadArchive {
     }
 
     public static String uploadContent(GlacierClient glacier, Path path, String vaultName, File myFile) {
+        if (myFile.length() > MULTIPART_THRESHOLD) {
+            return uploadContentInParts(glacier, path, vaultName);
+        }
+
         // Get an SHA-256 tree hash value.
         String checkVal = computeSHA256(myFile);
         try {
@@ -78,23 +84,44 @@ public class UploadArchive {
         return "";
     }
 
+    /**
+     * Uploads a large archive in parts, several at once. If an earlier attempt was
+     * interrupted, only the parts that are missing are uploaded.
+     */
+    public static String uploadContentInParts(GlacierClient glacier, Path path, String vaultName) {
+        try {
+            return new MultipartArchiveUpload(glacier, vaultName).upload(path);
+
+        } catch (GlacierException e) {
+            System.err.println(e.awsErrorDetails().errorMessage());
+            System.err.println("Run the upload again to upload the missing parts.");
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.format("Exception when reading from file %s: %s", path, e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "";
+    }
+
     private static String computeSHA256(File inputFile) {
         try {
-            byte[] treeHash = computeSHA256TreeHash(inputFile);
+            byte[] treeHash = TreeHash.treeHash(inputFile.toPath());
             System.out.printf("SHA-256 tree hash = %s\n", toHex(treeHash));
             return toHex(treeHash);
 
         } catch (IOException ioe) {
             System.err.format("Exception when reading from file %s: %s", inputFile, ioe.getMessage());
             System.exit(-1);
-
-        } catch (NoSuchAlgorithmException nsae) {
-            System.err.format("Cannot locate MessageDigest algorithm for SHA-256: %s", nsae.getMessage());
-            System.exit(-1);
         }
         return "";
     }
 
+    /**
+     * Computes the tree hash by reading the file on one thread. TreeHash gives the same
+     * result in parallel and is used for uploads. This version is kept as a reference.
+     */
     public static byte[] computeSHA256TreeHash(File inputFile) throws IOException,
             NoSuchAlgorithmException {
 
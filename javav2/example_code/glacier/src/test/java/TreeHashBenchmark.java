@@ -0,0 +1,88 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.glacier.TreeHash;
+import com.example.glacier.UploadArchive;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures the hashing throughput of the SHA-256 tree hash that Amazon S3 Glacier needs for
+ * every archive and part. Two implementations are compared:
+ *
+ *   serial     UploadArchive.computeSHA256TreeHash: reads the file through a FileInputStream
+ *              into a 1 MB buffer and hashes one chunk after the other
+ *   parallel   TreeHash.treeHash: hashes the 1 MB leaves of a memory-mapped file on a
+ *              fork/join pool and folds the tree in parallel
+ *
+ * Each implementation hashes the file once to warm up the page cache and the JIT, and then
+ * several times; the best pass is reported. The argument is either the size in MB of a
+ * random file to create, or the path of an existing file. It is optional; the default is a
+ * 512 MB random file, which is deleted afterwards.
+ */
+public class TreeHashBenchmark {
+    private static final int PASSES = 3;
+
+    public static void main(String[] args) throws Exception {
+        String arg = args.length > 0 ? args[0] : "512";
+        Path file;
+        boolean created = arg.chars().allMatch(Character::isDigit);
+        if (created) {
+            file = createFile(Long.parseLong(arg) * TreeHash.ONE_MB);
+        } else {
+            file = Paths.get(arg);
+        }
+
+        try {
+            double megabytes = Files.size(file) / (double) TreeHash.ONE_MB;
+            System.out.printf("%.0f MB on %d processors%n", megabytes, Runtime.getRuntime().availableProcessors());
+
+            byte[] serial = UploadArchive.computeSHA256TreeHash(file.toFile());
+            long serialNanos = Long.MAX_VALUE;
+            for (int pass = 0; pass < PASSES; pass++) {
+                long start = System.nanoTime();
+                UploadArchive.computeSHA256TreeHash(file.toFile());
+                serialNanos = Math.min(serialNanos, System.nanoTime() - start);
+            }
+            report("serial", megabytes, serialNanos);
+
+            byte[] parallel = TreeHash.treeHash(file);
+            long parallelNanos = Long.MAX_VALUE;
+            for (int pass = 0; pass < PASSES; pass++) {
+                long start = System.nanoTime();
+                TreeHash.treeHash(file);
+                parallelNanos = Math.min(parallelNanos, System.nanoTime() - start);
+            }
+            report("parallel", megabytes, parallelNanos);
+
+            System.out.printf("Checksums %s: %s%n", Arrays.equals(serial, parallel) ? "match" : "DIFFER",
+                    UploadArchive.toHex(parallel));
+        } finally {
+            if (created) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static Path createFile(long size) throws Exception {
+        Path file = Files.createTempFile("TreeHashBenchmark", ".bin");
+        Random random = new Random(size);
+        byte[] block = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    private static void report(String mode, double megabytes, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-9s %7.3f s  %,8.0f MB/s%n", mode, seconds, megabytes / seconds);
+    }
+}
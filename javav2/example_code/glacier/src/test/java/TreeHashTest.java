@@ -0,0 +1,193 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.glacier.MultipartArchiveUpload;
+import com.example.glacier.TreeHash;
+import com.example.glacier.UploadArchive;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.glacier.GlacierClient;
+import software.amazon.awssdk.services.glacier.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.glacier.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.glacier.model.GlacierException;
+import software.amazon.awssdk.services.glacier.model.InitiateMultipartUploadRequest;
+import software.amazon.awssdk.services.glacier.model.InitiateMultipartUploadResponse;
+import software.amazon.awssdk.services.glacier.model.ListPartsRequest;
+import software.amazon.awssdk.services.glacier.model.ListPartsResponse;
+import software.amazon.awssdk.services.glacier.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.glacier.model.UploadMultipartPartRequest;
+import software.amazon.awssdk.services.glacier.model.UploadMultipartPartResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(60)
+public class TreeHashTest {
+    private static final int ONE_MB = TreeHash.ONE_MB;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testParallelHashMatchesSerialHash() throws Exception {
+        long[] sizes = { 0, 1, ONE_MB - 1, ONE_MB, ONE_MB + 1, 3L * ONE_MB, 5L * ONE_MB + 7, 33L * ONE_MB + 100 };
+        for (long size : sizes) {
+            Path file = createFile("archive-" + size, size);
+            assertArrayEquals(UploadArchive.computeSHA256TreeHash(file.toFile()), TreeHash.treeHash(file),
+                    "Tree hash of " + size + " bytes");
+        }
+    }
+
+    @Test
+    public void testMultipartUploadResumesFromManifest() throws Exception {
+        Path file = createFile("multipart", 10L * ONE_MB + 4321);
+        String expectedChecksum = UploadArchive.toHex(UploadArchive.computeSHA256TreeHash(file.toFile()));
+        StubVault vault = new StubVault(3);
+        MultipartArchiveUpload upload = new MultipartArchiveUpload(vault, "vault", 4).withPartSize(2L * ONE_MB);
+
+        // The fourth part fails on the first attempt, so the manifest lists the other five.
+        assertThrows(GlacierException.class, () -> upload.upload(file));
+        assertTrue(Files.exists(MultipartArchiveUpload.manifestFor(file)));
+        assertEquals(5, vault.partsReceived.get());
+
+        String archiveId = upload.upload(file);
+        assertEquals("archive-" + expectedChecksum, archiveId);
+        assertEquals(6, vault.partsReceived.get());
+        assertEquals(1, vault.uploadsInitiated.get());
+        assertFalse(Files.exists(MultipartArchiveUpload.manifestFor(file)));
+    }
+
+    @Test
+    public void testExpiredUploadIsStartedAgain() throws Exception {
+        Path file = createFile("expired", 10L * ONE_MB + 4321);
+        String expectedChecksum = UploadArchive.toHex(UploadArchive.computeSHA256TreeHash(file.toFile()));
+        StubVault vault = new StubVault(3);
+        MultipartArchiveUpload upload = new MultipartArchiveUpload(vault, "vault", 4).withPartSize(2L * ONE_MB);
+
+        assertThrows(GlacierException.class, () -> upload.upload(file));
+        assertEquals(5, vault.partsReceived.get());
+
+        // The upload in the manifest expires, so every part is sent again to a new upload.
+        vault.expireUpload();
+        String archiveId = upload.upload(file);
+        assertEquals("archive-" + expectedChecksum, archiveId);
+        assertEquals(11, vault.partsReceived.get());
+        assertEquals(2, vault.uploadsInitiated.get());
+        assertFalse(Files.exists(MultipartArchiveUpload.manifestFor(file)));
+    }
+
+    private Path createFile(String name, long size) throws IOException {
+        Path file = directory.resolve(name);
+        Random random = new Random(size);
+        byte[] block = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    // Checks the range and tree hash of every part, and fails one part the first time it arrives.
+    // Only the upload that was initiated last exists, until it is expired.
+    private static class StubVault implements GlacierClient {
+        private final int failingPart;
+        private final Set<Integer> failedOnce = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger partsReceived = new AtomicInteger();
+        private final AtomicInteger uploadsInitiated = new AtomicInteger();
+        private volatile long partSize;
+        private volatile String uploadId;
+
+        StubVault(int failingPart) {
+            this.failingPart = failingPart;
+        }
+
+        @Override
+        public InitiateMultipartUploadResponse initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+            partSize = Long.parseLong(request.partSize());
+            uploadId = "upload-" + uploadsInitiated.incrementAndGet();
+            return InitiateMultipartUploadResponse.builder().uploadId(uploadId).build();
+        }
+
+        void expireUpload() {
+            uploadId = null;
+        }
+
+        @Override
+        public ListPartsResponse listParts(ListPartsRequest request) {
+            if (!request.uploadId().equals(uploadId)) {
+                throw ResourceNotFoundException.builder().message("The upload ID was not found").statusCode(404).build();
+            }
+            return ListPartsResponse.builder().uploadId(uploadId).build();
+        }
+
+        @Override
+        public UploadMultipartPartResponse uploadMultipartPart(UploadMultipartPartRequest request, RequestBody body) {
+            assertEquals(uploadId, request.uploadId());
+            String[] range = request.range().substring("bytes ".length(), request.range().length() - 2).split("-");
+            long start = Long.parseLong(range[0]);
+            long end = Long.parseLong(range[1]);
+            assertEquals(0, start % partSize);
+            int part = (int) (start / partSize);
+            if (part == failingPart && failedOnce.add(part)) {
+                throw GlacierException.builder().message("Request timed out").statusCode(408).build();
+            }
+
+            byte[] data;
+            try (InputStream in = body.contentStreamProvider().newStream()) {
+                data = in.readAllBytes();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            assertEquals(end - start + 1, data.length);
+            assertEquals(request.checksum(), UploadArchive.toHex(treeHash(data)));
+            partsReceived.incrementAndGet();
+            return UploadMultipartPartResponse.builder().checksum(request.checksum()).build();
+        }
+
+        @Override
+        public CompleteMultipartUploadResponse completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            return CompleteMultipartUploadResponse.builder().archiveId("archive-" + request.checksum()).build();
+        }
+
+        private static byte[] treeHash(byte[] data) {
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                byte[][] leaves = new byte[(data.length + ONE_MB - 1) / ONE_MB][];
+                for (int i = 0; i < leaves.length; i++) {
+                    leaves[i] = md.digest(Arrays.copyOfRange(data, i * ONE_MB, Math.min(data.length, (i + 1) * ONE_MB)));
+                }
+                return UploadArchive.computeSHA256TreeHash(leaves);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String serviceName() {
+            return "glacier";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
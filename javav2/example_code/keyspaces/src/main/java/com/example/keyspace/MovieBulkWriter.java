@@ -0,0 +1,177 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.keyspace;
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
+import com.datastax.oss.driver.api.core.cql.BoundStatement;
+import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.datastax.oss.driver.api.core.cql.Statement;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads movies from a JSON file into the Movie table of a keyspace.
+ *
+ * The insert is prepared once, and the rows are written with executeAsync. A semaphore
+ * limits how many requests are in flight. The JSON file is read one movie at a time, so the
+ * rows in memory are at most the group window and the rows of the requests in flight.
+ *
+ * Rows are grouped by their routing key, which the driver derives from the partition key
+ * of the prepared statement. Rows that share a partition are sent as one UNLOGGED batch of
+ * up to 30 statements, the batch limit of Amazon Keyspaces. A batch that only touches one
+ * partition is sent to a replica of that partition just like a single insert, so the
+ * token-aware routing of the driver is kept.
+ *
+ * A writer can load several files, one after the other. Call load from one thread at a time.
+ */
+public class MovieBulkWriter {
+    public static final int MAX_STATEMENTS_PER_BATCH = 30;
+
+    private final CqlSession session;
+    private final PreparedStatement insert;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final int groupWindow;
+    // The counts of the most recent call of load.
+    private volatile Counts lastLoad = new Counts();
+
+    public MovieBulkWriter(CqlSession session, String keySpace) {
+        this(session, keySpace, 256, 1_000);
+    }
+
+    /**
+     * @param maxInFlight the number of requests that can be in flight at once
+     * @param groupWindow the number of rows that are read before they are grouped by partition and sent
+     */
+    public MovieBulkWriter(CqlSession session, String keySpace, int maxInFlight, int groupWindow) {
+        this.session = session;
+        this.insert = session.prepare("INSERT INTO \"" + keySpace + "\".\"Movie\" (title, year, plot) values (:k0, :k1, :k2)");
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.groupWindow = groupWindow;
+    }
+
+    /**
+     * Reads up to limit movies from the JSON array in the file and writes them. Returns when
+     * every row has been written. Throws if any row could not be written.
+     *
+     * @param limit the largest number of movies to load, or a negative number to load all movies
+     * @return the number of rows that were written by this call
+     */
+    public long load(File file, int limit) throws IOException, InterruptedException {
+        Counts counts = new Counts();
+        lastLoad = counts;
+        ObjectMapper mapper = new ObjectMapper();
+        long read = 0;
+        Map<ByteBuffer, List<BoundStatement>> groups = new LinkedHashMap<>();
+        int grouped = 0;
+        try (JsonParser parser = mapper.getFactory().createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array of movies in " + file);
+            }
+            while ((limit < 0 || read < limit) && parser.nextToken() == JsonToken.START_OBJECT) {
+                JsonNode movie = mapper.readTree(parser);
+                BoundStatement row = insert.boundStatementBuilder()
+                        .setString("k0", movie.path("title").asText())
+                        .setInt("k1", movie.path("year").asInt())
+                        .setString("k2", movie.path("info").path("plot").toString())
+                        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM)
+                        .build();
+                read++;
+
+                ByteBuffer routingKey = row.getRoutingKey();
+                if (routingKey == null) {
+                    send(row, 1, counts);
+                    continue;
+                }
+                groups.computeIfAbsent(routingKey, key -> new ArrayList<>()).add(row);
+                if (++grouped >= groupWindow) {
+                    sendGroups(groups, counts);
+                    grouped = 0;
+                }
+            }
+        }
+        sendGroups(groups, counts);
+
+        // Wait until every request has finished by taking all permits.
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+
+        if (counts.rowsFailed.sum() > 0) {
+            throw new IllegalStateException(counts.rowsFailed.sum() + " of " + read + " rows could not be written",
+                    counts.firstFailure.get());
+        }
+        return counts.rowsWritten.sum();
+    }
+
+    // The rows written by the most recent call of load, also while it is in progress.
+    public long getRowsWritten() {
+        return lastLoad.rowsWritten.sum();
+    }
+
+    public long getRowsFailed() {
+        return lastLoad.rowsFailed.sum();
+    }
+
+    public long getRequestsSent() {
+        return lastLoad.requestsSent.sum();
+    }
+
+    private void sendGroups(Map<ByteBuffer, List<BoundStatement>> groups, Counts counts) throws InterruptedException {
+        for (List<BoundStatement> rows : groups.values()) {
+            for (int from = 0; from < rows.size(); from += MAX_STATEMENTS_PER_BATCH) {
+                List<BoundStatement> chunk = rows.subList(from, Math.min(from + MAX_STATEMENTS_PER_BATCH, rows.size()));
+                if (chunk.size() == 1) {
+                    send(chunk.get(0), 1, counts);
+                    continue;
+                }
+                BatchStatementBuilder batch = BatchStatement.builder(DefaultBatchType.UNLOGGED)
+                        .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
+                for (BoundStatement row : chunk) {
+                    batch.addStatement(row);
+                }
+                send(batch.build(), chunk.size(), counts);
+            }
+        }
+        groups.clear();
+    }
+
+    // Sends a statement once a slot in the window is free.
+    private void send(Statement<?> statement, int rows, Counts counts) throws InterruptedException {
+        inFlight.acquire();
+        counts.requestsSent.increment();
+        session.executeAsync(statement).whenComplete((result, error) -> {
+            if (error == null) {
+                counts.rowsWritten.add(rows);
+            } else {
+                counts.rowsFailed.add(rows);
+                counts.firstFailure.compareAndSet(null, error);
+            }
+            inFlight.release();
+        });
+    }
+
+    private static class Counts {
+        private final LongAdder rowsWritten = new LongAdder();
+        private final LongAdder rowsFailed = new LongAdder();
+        private final LongAdder requestsSent = new LongAdder();
+        private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+    }
+}
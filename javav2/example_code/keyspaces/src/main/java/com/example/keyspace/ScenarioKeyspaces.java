@@ -11,11 +11,6 @@ import com.datastax.oss.driver.api.core.cql.BatchStatementBuilder;
 import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
 import com.datastax.oss.driver.api.core.cql.PreparedStatement;
 import com.datastax.oss.driver.api.core.cql.ResultSet;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.keyspaces.KeyspacesClient;
 import software.amazon.awssdk.services.keyspaces.model.ColumnDefinition;
@@ -49,7 +44,6 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 
 // snippet-start:[keyspace.java2.scenario.main]
@@ -410,40 +404,19 @@ public class ScenarioKeyspaces {
     }
 
     // Load data into the table.
-    public static void loadData(CqlSession session, String fileName, String keySpace) throws IOException {
-        String sqlStatement = "INSERT INTO \"" + keySpace + "\".\"Movie\" (title, year, plot) values (:k0, :k1, :k2)";
-        JsonParser parser = new JsonFactory().createParser(new File(fileName));
-        com.fasterxml.jackson.databind.JsonNode rootNode = new ObjectMapper().readTree(parser);
-        Iterator<JsonNode> iter = rootNode.iterator();
-        ObjectNode currentNode;
-        int t = 0;
-        while (iter.hasNext()) {
-
-            // Add 20 movies to the table.
-            if (t == 20)
-                break;
-            currentNode = (ObjectNode) iter.next();
-
-            int year = currentNode.path("year").asInt();
-            String title = currentNode.path("title").asText();
-            String plot = currentNode.path("info").path("plot").toString();
-
-            // Insert the data into the Amazon Keyspaces table.
-            BatchStatementBuilder builder = BatchStatement.builder(DefaultBatchType.UNLOGGED);
-            builder.setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM);
-            PreparedStatement preparedStatement = session.prepare(sqlStatement);
-            builder.addStatement(preparedStatement.boundStatementBuilder()
-                    .setString("k0", title)
-                    .setInt("k1", year)
-                    .setString("k2", plot)
-                    .build());
-
-            BatchStatement batchStatement = builder.build();
-            session.execute(batchStatement);
-            t++;
-        }
-
-        System.out.println("You have added " + t + " records successfully!");
+    public static void loadData(CqlSession session, String fileName, String keySpace)
+            throws IOException, InterruptedException {
+        // The writer prepares the insert once, reads the movies one at a time, and sends the
+        // inserts with executeAsync, with a limit on the requests in flight. Rows of the same
+        // partition are sent together in an UNLOGGED batch.
+        MovieBulkWriter writer = new MovieBulkWriter(session, keySpace);
+
+        // Add 20 movies to the table. load() throws if any of them could not be written.
+        long start = System.nanoTime();
+        long rows = writer.load(new File(fileName), 20);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("You have added %d records successfully in %d requests (%.0f writes/sec).%n",
+                rows, writer.getRequestsSent(), rows / seconds);
     }
 
     // snippet-start:[keyspace.java2.scenario.list.tables.main]
@@ -0,0 +1,102 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.datastax.oss.driver.api.core.ConsistencyLevel;
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.datastax.oss.driver.api.core.cql.BatchStatement;
+import com.datastax.oss.driver.api.core.cql.DefaultBatchType;
+import com.datastax.oss.driver.api.core.cql.PreparedStatement;
+import com.example.keyspace.MovieBulkWriter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+
+/**
+ * Measures sustained writes/sec of loading the movie file into a Cassandra-compatible node,
+ * for example one started with "docker run -p 9042:9042 cassandra". Two ways of loading
+ * are compared:
+ *
+ *   per-row synchronous   what loadData did before: a prepare, an UNLOGGED batch with one
+ *                         insert, and a synchronous execute for every movie
+ *   bulk writer           MovieBulkWriter: one prepare, executeAsync with a bounded window,
+ *                         and batches of rows that share a partition
+ *
+ * Each way loads the whole file several times, and the writes/sec are taken over all passes.
+ * The arguments are the host, port and data center of the node, and the movie file. All
+ * are optional.
+ */
+public class MovieBulkWriterBenchmark {
+    private static final String KEYSPACE = "bulk_load_benchmark";
+    private static final int PASSES = 5;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "127.0.0.1";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 9042;
+        String dataCenter = args.length > 2 ? args[2] : "datacenter1";
+        File movies = new File(args.length > 3 ? args[3] : "../../../resources/sample_files/movies.json");
+
+        try (CqlSession session = CqlSession.builder()
+                .addContactPoint(new InetSocketAddress(host, port))
+                .withLocalDatacenter(dataCenter)
+                .build()) {
+            session.execute("CREATE KEYSPACE IF NOT EXISTS " + KEYSPACE
+                    + " WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1}");
+
+            resetTable(session);
+            long start = System.nanoTime();
+            long rows = 0;
+            for (int pass = 0; pass < PASSES; pass++) {
+                rows += loadRowByRow(session, movies);
+            }
+            report("per-row synchronous", rows, rows, System.nanoTime() - start);
+
+            resetTable(session);
+            MovieBulkWriter writer = new MovieBulkWriter(session, KEYSPACE);
+            start = System.nanoTime();
+            rows = 0;
+            long requests = 0;
+            for (int pass = 0; pass < PASSES; pass++) {
+                rows += writer.load(movies, -1);
+                requests += writer.getRequestsSent();
+            }
+            report("bulk writer", rows, requests, System.nanoTime() - start);
+        }
+    }
+
+    // What loadData did before it used MovieBulkWriter.
+    private static long loadRowByRow(CqlSession session, File movies) throws Exception {
+        JsonNode rootNode = new ObjectMapper().readTree(movies);
+        Iterator<JsonNode> iter = rootNode.iterator();
+        long rows = 0;
+        while (iter.hasNext()) {
+            JsonNode currentNode = iter.next();
+            PreparedStatement preparedStatement = session.prepare(
+                    "INSERT INTO " + KEYSPACE + ".\"Movie\" (title, year, plot) values (:k0, :k1, :k2)");
+            BatchStatement batch = BatchStatement.builder(DefaultBatchType.UNLOGGED)
+                    .setConsistencyLevel(ConsistencyLevel.LOCAL_QUORUM)
+                    .addStatement(preparedStatement.boundStatementBuilder()
+                            .setString("k0", currentNode.path("title").asText())
+                            .setInt("k1", currentNode.path("year").asInt())
+                            .setString("k2", currentNode.path("info").path("plot").toString())
+                            .build())
+                    .build();
+            session.execute(batch);
+            rows++;
+        }
+        return rows;
+    }
+
+    private static void resetTable(CqlSession session) {
+        session.execute("DROP TABLE IF EXISTS " + KEYSPACE + ".\"Movie\"");
+        session.execute("CREATE TABLE " + KEYSPACE + ".\"Movie\" (year int, title text, release_date timestamp, "
+                + "plot text, PRIMARY KEY ((year, title)))");
+    }
+
+    private static void report(String mode, long rows, long requests, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%-20s %8d rows  %8d requests  %7.2f s  %8.0f writes/sec%n", mode, rows, requests,
+                seconds, rows / seconds);
+    }
+}
@@ -0,0 +1,58 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.datastax.oss.driver.api.core.CqlSession;
+import com.example.keyspace.MovieBulkWriter;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.net.InetSocketAddress;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Needs a Cassandra-compatible node, set with the cassandra.host, cassandra.port and
+// cassandra.datacenter system properties. The test is skipped when no node is reachable.
+public class MovieBulkWriterTest {
+    private static final String KEYSPACE = "bulk_load";
+    private static final int MOVIES = 500;
+
+    @Test
+    @Tag("IntegrationTest")
+    public void testEachLoadReportsItsOwnRows() throws Exception {
+        File movies = new File(System.getProperty("movies.file", "../../../resources/sample_files/movies.json"));
+        CqlSession session;
+        try {
+            session = CqlSession.builder()
+                    .addContactPoint(new InetSocketAddress(System.getProperty("cassandra.host", "127.0.0.1"),
+                            Integer.getInteger("cassandra.port", 9042)))
+                    .withLocalDatacenter(System.getProperty("cassandra.datacenter", "datacenter1"))
+                    .build();
+        } catch (RuntimeException e) {
+            Assumptions.abort("No Cassandra-compatible node is reachable: " + e.getMessage());
+            return;
+        }
+
+        try (session) {
+            session.execute("CREATE KEYSPACE IF NOT EXISTS " + KEYSPACE
+                    + " WITH replication = {'class': 'SimpleStrategy', 'replication_factor': 1}");
+            session.execute("DROP TABLE IF EXISTS " + KEYSPACE + ".\"Movie\"");
+            session.execute("CREATE TABLE " + KEYSPACE + ".\"Movie\" (year int, title text, release_date timestamp, "
+                    + "plot text, PRIMARY KEY ((year, title)))");
+
+            MovieBulkWriter writer = new MovieBulkWriter(session, KEYSPACE);
+            assertEquals(MOVIES, writer.load(movies, MOVIES));
+            long firstRequests = writer.getRequestsSent();
+            assertTrue(firstRequests > 0 && firstRequests <= MOVIES);
+
+            // A second load of the same rows reports only its own rows and requests.
+            assertEquals(MOVIES, writer.load(movies, MOVIES));
+            assertEquals(MOVIES, writer.getRowsWritten());
+            assertEquals(0, writer.getRowsFailed());
+            assertEquals(firstRequests, writer.getRequestsSent());
+
+            long stored = session.execute("SELECT COUNT(*) FROM " + KEYSPACE + ".\"Movie\"").one().getLong(0);
+            assertEquals(MOVIES, stored);
+        }
+    }
+}
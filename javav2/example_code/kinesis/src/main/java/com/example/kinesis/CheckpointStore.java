@@ -0,0 +1,37 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.kinesis;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores the sequence number of the last record that was processed for each shard,
+ * so that a consumer can resume where it stopped. A shard that has been read to
+ * the end is marked with SHARD_END, which lets the consumer start its child shards.
+ */
+public interface CheckpointStore {
+    String SHARD_END = "SHARD_END";
+
+    // Returns the checkpoint for the shard, or null if the shard has not been read yet.
+    String get(String shardId);
+
+    void put(String shardId, String checkpoint);
+
+    // Returns a store that keeps the checkpoints in memory only.
+    static CheckpointStore inMemory() {
+        Map<String, String> checkpoints = new ConcurrentHashMap<>();
+        return new CheckpointStore() {
+            @Override
+            public String get(String shardId) {
+                return checkpoints.get(shardId);
+            }
+
+            @Override
+            public void put(String shardId, String checkpoint) {
+                checkpoints.put(shardId, checkpoint);
+            }
+        };
+    }
+}
@@ -0,0 +1,58 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.kinesis;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import java.util.Map;
+
+/**
+ * Keeps shard checkpoints in an Amazon DynamoDB table, so that consumers on
+ * different hosts can resume from the same position. The table must have a
+ * string partition key named leaseKey. Each item holds the checkpoint of one
+ * shard of one stream.
+ */
+public class DynamoDbCheckpointStore implements CheckpointStore {
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
+    private final String streamName;
+
+    public DynamoDbCheckpointStore(DynamoDbClient dynamoDbClient, String tableName, String streamName) {
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
+        this.streamName = streamName;
+    }
+
+    @Override
+    public String get(String shardId) {
+        GetItemRequest request = GetItemRequest.builder()
+                .tableName(tableName)
+                .key(Map.of("leaseKey", AttributeValue.builder().s(leaseKey(shardId)).build()))
+                .consistentRead(true)
+                .build();
+
+        GetItemResponse response = dynamoDbClient.getItem(request);
+        AttributeValue checkpoint = response.hasItem() ? response.item().get("checkpoint") : null;
+        return checkpoint != null ? checkpoint.s() : null;
+    }
+
+    @Override
+    public void put(String shardId, String checkpoint) {
+        PutItemRequest request = PutItemRequest.builder()
+                .tableName(tableName)
+                .item(Map.of(
+                        "leaseKey", AttributeValue.builder().s(leaseKey(shardId)).build(),
+                        "checkpoint", AttributeValue.builder().s(checkpoint).build()))
+                .build();
+
+        dynamoDbClient.putItem(request);
+    }
+
+    private String leaseKey(String shardId) {
+        return streamName + "/" + shardId;
+    }
+}
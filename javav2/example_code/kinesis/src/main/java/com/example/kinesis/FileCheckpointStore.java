@@ -0,0 +1,53 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.kinesis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Keeps shard checkpoints in a local properties file. Every update writes the
+ * whole file to a temporary file and moves it into place, so a crash never
+ * leaves a partly written checkpoint file behind.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+    private final Path file;
+    private final Properties checkpoints = new Properties();
+
+    public FileCheckpointStore(Path file) {
+        this.file = file;
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                checkpoints.load(in);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read checkpoints from " + file, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String get(String shardId) {
+        return checkpoints.getProperty(shardId);
+    }
+
+    @Override
+    public synchronized void put(String shardId, String checkpoint) {
+        checkpoints.setProperty(shardId, checkpoint);
+        try {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                checkpoints.store(out, "Kinesis shard checkpoints");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write checkpoints to " + file, e);
+        }
+    }
+}
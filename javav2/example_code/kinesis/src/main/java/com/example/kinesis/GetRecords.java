@@ -5,19 +5,10 @@ package com.example.kinesis;
 
 // snippet-start:[kinesis.java2.getrecord.main]
 // snippet-start:[kinesis.java2.getrecord.import]
-import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.kinesis.KinesisClient;
-import software.amazon.awssdk.services.kinesis.model.DescribeStreamResponse;
-import software.amazon.awssdk.services.kinesis.model.DescribeStreamRequest;
-import software.amazon.awssdk.services.kinesis.model.Shard;
-import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
-import software.amazon.awssdk.services.kinesis.model.GetShardIteratorResponse;
-import software.amazon.awssdk.services.kinesis.model.Record;
-import software.amazon.awssdk.services.kinesis.model.GetRecordsRequest;
-import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.Paths;
+import java.time.Duration;
 // snippet-end:[kinesis.java2.getrecord.import]
 
 /**
@@ -29,17 +20,20 @@ import java.util.List;
  * https://docs.aws.amazon.com/sdk-for-java/latest/developer-guide/get-started.html
  */
 public class GetRecords {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         final String usage = """
 
                 Usage:
-                    <streamName>
+                    <streamName> [checkpointFile]
 
                 Where:
                     streamName - The Amazon Kinesis data stream to read from (for example, StockTradeStream).
+                    checkpointFile - (Optional) A local file to save the position in each shard to.
+                        When it is set, the stream is read until you stop the program, and reading
+                        resumes from the saved position the next time the program runs.
                 """;
 
-        if (args.length != 1) {
+        if (args.length < 1 || args.length > 2) {
             System.out.println(usage);
             System.exit(1);
         }
@@ -50,56 +44,40 @@ public class GetRecords {
                 .region(region)
                 .build();
 
-        getStockTrades(kinesisClient, streamName);
+        if (args.length == 2) {
+            consumeStockTrades(kinesisClient, streamName, new FileCheckpointStore(Paths.get(args[1])));
+        } else {
+            getStockTrades(kinesisClient, streamName);
+        }
         kinesisClient.close();
     }
 
+    // Reads the stock trades from all shards of the stream until every shard has caught up.
     public static void getStockTrades(KinesisClient kinesisClient, String streamName) {
-        String shardIterator;
-        String lastShardId = null;
-        DescribeStreamRequest describeStreamRequest = DescribeStreamRequest.builder()
-                .streamName(streamName)
-                .build();
-
-        List<Shard> shards = new ArrayList<>();
-        DescribeStreamResponse streamRes;
-        do {
-            streamRes = kinesisClient.describeStream(describeStreamRequest);
-            shards.addAll(streamRes.streamDescription().shards());
-
-            if (shards.size() > 0) {
-                lastShardId = shards.get(shards.size() - 1).shardId();
+        try (StockTradeConsumer consumer = new StockTradeConsumer(kinesisClient, streamName,
+                CheckpointStore.inMemory(), trade -> System.out.println("Trade: " + trade))) {
+            consumer.start();
+            if (!consumer.awaitCaughtUp(Duration.ofMinutes(1))) {
+                System.out.println("Not all shards caught up within one minute.");
             }
-        } while (streamRes.streamDescription().hasMoreShards());
-
-        GetShardIteratorRequest itReq = GetShardIteratorRequest.builder()
-                .streamName(streamName)
-                .shardIteratorType("TRIM_HORIZON")
-                .shardId(lastShardId)
-                .build();
-
-        GetShardIteratorResponse shardIteratorResult = kinesisClient.getShardIterator(itReq);
-        shardIterator = shardIteratorResult.shardIterator();
+            consumer.getShardMetrics().values().forEach(System.out::println);
 
-        // Continuously read data records from shard.
-        List<Record> records;
-
-        // Create new GetRecordsRequest with existing shardIterator.
-        // Set maximum records to return to 1000.
-        GetRecordsRequest recordsRequest = GetRecordsRequest.builder()
-                .shardIterator(shardIterator)
-                .limit(1000)
-                .build();
-
-        GetRecordsResponse result = kinesisClient.getRecords(recordsRequest);
-
-        // Put result into record list. Result may be empty.
-        records = result.records();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        // Print records
-        for (Record record : records) {
-            SdkBytes byteBuffer = record.data();
-            System.out.printf("Seq No: %s - %s%n", record.sequenceNumber(), new String(byteBuffer.asByteArray()));
+    // Reads the stock trades from all shards of the stream until the program is stopped,
+    // printing the lag of each shard every 10 seconds.
+    public static void consumeStockTrades(KinesisClient kinesisClient, String streamName, CheckpointStore checkpoints)
+            throws InterruptedException {
+        StockTradeConsumer consumer = new StockTradeConsumer(kinesisClient, streamName, checkpoints,
+                trade -> System.out.println("Trade: " + trade));
+        Runtime.getRuntime().addShutdownHook(new Thread(consumer::close));
+        consumer.start();
+        while (true) {
+            Thread.sleep(10_000);
+            consumer.getShardMetrics().values().forEach(System.out::println);
         }
     }
 }
@@ -0,0 +1,328 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.kinesis;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends records to an Amazon Kinesis data stream in PutRecords batches.
+ *
+ * Records are spread over a fixed number of lanes by the hash of their partition key, so
+ * all records with the same key go through the same lane. Each lane has its own buffer and
+ * its own sender thread, which sends a batch when it reaches 500 records or 5 MB, or when
+ * the first record in the batch has waited for the linger time. A lane sends one batch at a
+ * time: records that fail within a batch (for example, because the shard was throttled) are
+ * sent again after a backoff with full jitter, before the lane sends any newer record.
+ *
+ * Kinesis can reject one record of a request and accept a later one, so a batch holds at most
+ * one record of each partition key. A later record of a key that is already in the batch waits
+ * for the next batch, with the records of its key that follow it. Together with the retries,
+ * this keeps the records of a key in the order they were put. When the buffer of a lane is
+ * full, put() blocks until there is room again.
+ */
+public class KinesisBatchProducer implements AutoCloseable {
+    public static final int MAX_RECORDS_PER_REQUEST = 500;
+    public static final int MAX_BYTES_PER_REQUEST = 5 * 1024 * 1024;
+    public static final int MAX_BYTES_PER_RECORD = 1024 * 1024;
+
+    private final KinesisClient kinesisClient;
+    private final String streamName;
+    private final List<BlockingQueue<PendingRecord>> lanes = new ArrayList<>();
+    private final List<Thread> senders = new ArrayList<>();
+    private final long lingerNanos;
+    private final AtomicLong outstanding = new AtomicLong();
+    private final Object flushLock = new Object();
+    private final LongAdder recordsSent = new LongAdder();
+    private final LongAdder requestsSent = new LongAdder();
+    private final LongAdder recordsRetried = new LongAdder();
+    private final LongAdder recordsFailed = new LongAdder();
+    private int maxAttempts = 5;
+    private long baseBackoffMillis = 100;
+    private long maxBackoffMillis = 5_000;
+    private volatile boolean flushRequested;
+    private volatile boolean closed;
+
+    public KinesisBatchProducer(KinesisClient kinesisClient, String streamName) {
+        this(kinesisClient, streamName, 10_000, Duration.ofMillis(100), 4);
+    }
+
+    /**
+     * @param bufferCapacity the number of records that can wait, split evenly over the lanes
+     * @param maxConcurrentRequests the number of lanes, each with one request in flight at most
+     */
+    public KinesisBatchProducer(KinesisClient kinesisClient, String streamName, int bufferCapacity,
+                                Duration linger, int maxConcurrentRequests) {
+        this.kinesisClient = kinesisClient;
+        this.streamName = streamName;
+        this.lingerNanos = linger.toNanos();
+        for (int i = 0; i < maxConcurrentRequests; i++) {
+            BlockingQueue<PendingRecord> lane = new ArrayBlockingQueue<>(
+                    Math.max(1, bufferCapacity / maxConcurrentRequests));
+            Thread sender = new Thread(() -> runLane(lane), "kinesis-producer-" + streamName + "-" + i);
+            sender.setDaemon(true);
+            lanes.add(lane);
+            senders.add(sender);
+        }
+        senders.forEach(Thread::start);
+    }
+
+    // Sets how often records that fail are sent again, and the backoff between attempts.
+    public KinesisBatchProducer withRetries(int maxAttempts, Duration baseBackoff, Duration maxBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        return this;
+    }
+
+    /**
+     * Adds a record to the buffer of its lane, waiting for room if it is full. The returned future
+     * completes with the shard and sequence number of the record once it has been written, or
+     * completes exceptionally if the record could not be written after all attempts.
+     */
+    public CompletableFuture<PutRecordsResultEntry> put(String partitionKey, byte[] data) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("The producer is closed");
+        }
+        int size = data.length + partitionKey.getBytes(StandardCharsets.UTF_8).length;
+        if (size > MAX_BYTES_PER_RECORD) {
+            throw new IllegalArgumentException("A record cannot be larger than " + MAX_BYTES_PER_RECORD + " bytes");
+        }
+
+        PutRecordsRequestEntry entry = PutRecordsRequestEntry.builder()
+                .partitionKey(partitionKey)
+                .data(SdkBytes.fromByteArray(data))
+                .build();
+        PendingRecord record = new PendingRecord(entry, size);
+        BlockingQueue<PendingRecord> lane = lanes.get(Math.floorMod(partitionKey.hashCode(), lanes.size()));
+        outstanding.incrementAndGet();
+        try {
+            lane.put(record);
+        } catch (InterruptedException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+        return record.future;
+    }
+
+    // Sends the buffered records without waiting for the linger time and waits until
+    // every record that was added has either been written or has failed.
+    public void flush() throws InterruptedException {
+        flushRequested = true;
+        try {
+            synchronized (flushLock) {
+                while (outstanding.get() > 0) {
+                    flushLock.wait(100);
+                }
+            }
+        } finally {
+            flushRequested = false;
+        }
+    }
+
+    public long getRecordsSent() {
+        return recordsSent.sum();
+    }
+
+    public long getRequestsSent() {
+        return requestsSent.sum();
+    }
+
+    public long getRecordsRetried() {
+        return recordsRetried.sum();
+    }
+
+    public long getRecordsFailed() {
+        return recordsFailed.sum();
+    }
+
+    // Groups the records of a lane into batches and sends them one after the other.
+    private void runLane(BlockingQueue<PendingRecord> lane) {
+        // Records taken from the lane that did not fit into an earlier batch, in the order they were put.
+        Deque<PendingRecord> held = new ArrayDeque<>();
+        try {
+            while (!closed || !held.isEmpty() || outstanding.get() > 0) {
+                Batch batch = new Batch();
+                for (Iterator<PendingRecord> records = held.iterator(); records.hasNext() && !batch.isFull(); ) {
+                    if (batch.offer(records.next())) {
+                        records.remove();
+                    }
+                }
+                if (batch.records.isEmpty()) {
+                    PendingRecord first = lane.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.offer(first);
+                }
+
+                // Stop taking records once a full batch is held back, so that put() still blocks.
+                long deadline = System.nanoTime() + lingerNanos;
+                while (!batch.isFull() && held.size() < MAX_RECORDS_PER_REQUEST) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingRecord next = flushRequested || closed || remaining <= 0
+                            ? lane.poll()
+                            : lane.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    if (!batch.offer(next)) {
+                        held.add(next);
+                    }
+                }
+
+                try {
+                    send(batch.records);
+                } catch (RuntimeException | Error e) {
+                    // Fails the records of the batch that are not complete yet, and keeps the lane
+                    // running, so that flush() returns and put() does not wait for a lane that stopped.
+                    // Only this thread completes the records of the batch, and the count is raised
+                    // first, so that it is up to date when flush() returns.
+                    for (PendingRecord record : batch.records) {
+                        if (!record.future.isDone()) {
+                            recordsFailed.increment();
+                            complete(record, null, e);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Sends a batch, sending the records that failed again until all are written or the attempts run out.
+    private void send(List<PendingRecord> batch) {
+        List<PendingRecord> pending = batch;
+        String lastError = null;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            if (attempt > 1) {
+                recordsRetried.add(pending.size());
+                long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 2, 20));
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            List<PutRecordsRequestEntry> entries = new ArrayList<>(pending.size());
+            pending.forEach(record -> entries.add(record.entry));
+            PutRecordsRequest request = PutRecordsRequest.builder()
+                    .streamName(streamName)
+                    .records(entries)
+                    .build();
+
+            PutRecordsResponse response;
+            try {
+                response = kinesisClient.putRecords(request);
+                requestsSent.increment();
+            } catch (SdkException e) {
+                lastError = e.getMessage();
+                continue;
+            }
+
+            // The results are in the same order as the records in the request.
+            List<PendingRecord> failed = new ArrayList<>();
+            List<PutRecordsResultEntry> results = response.records();
+            for (int i = 0; i < results.size(); i++) {
+                PutRecordsResultEntry result = results.get(i);
+                if (result.errorCode() == null) {
+                    recordsSent.increment();
+                    complete(pending.get(i), result, null);
+                } else {
+                    failed.add(pending.get(i));
+                    lastError = result.errorCode() + ": " + result.errorMessage();
+                }
+            }
+            if (failed.isEmpty()) {
+                return;
+            }
+            pending = failed;
+        }
+
+        String message = "Could not write the record to " + streamName + " after " + maxAttempts + " attempts: " + lastError;
+        for (PendingRecord record : pending) {
+            recordsFailed.increment();
+            complete(record, null, new IllegalStateException(message));
+        }
+    }
+
+    private void complete(PendingRecord record, PutRecordsResultEntry result, Throwable error) {
+        boolean completed = error == null
+                ? record.future.complete(result)
+                : record.future.completeExceptionally(error);
+        if (completed && outstanding.decrementAndGet() == 0) {
+            synchronized (flushLock) {
+                flushLock.notifyAll();
+            }
+        }
+    }
+
+    // Sends the remaining records and stops the producer.
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        flush();
+        for (Thread sender : senders) {
+            sender.join();
+        }
+    }
+
+    private static class Batch {
+        private final List<PendingRecord> records = new ArrayList<>();
+        // The keys of the records in the batch and of the records that were held back from it.
+        private final Set<String> keys = new HashSet<>();
+        private long bytes;
+
+        boolean isFull() {
+            return records.size() == MAX_RECORDS_PER_REQUEST;
+        }
+
+        // Adds the record if no record of its key is in the batch or held back, and if it fits.
+        // A record that is not added holds back the later records of its key as well.
+        boolean offer(PendingRecord record) {
+            boolean fits = !isFull() && bytes + record.size <= MAX_BYTES_PER_REQUEST;
+            if (!keys.add(record.entry.partitionKey()) || !fits) {
+                return false;
+            }
+            records.add(record);
+            bytes += record.size;
+            return true;
+        }
+    }
+
+    private static class PendingRecord {
+        private final PutRecordsRequestEntry entry;
+        private final int size;
+        private final CompletableFuture<PutRecordsResultEntry> future = new CompletableFuture<>();
+
+        PendingRecord(PutRecordsRequestEntry entry, int size) {
+            this.entry = entry;
+            this.size = size;
+        }
+    }
+}
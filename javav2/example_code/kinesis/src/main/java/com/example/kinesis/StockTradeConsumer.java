@@ -0,0 +1,293 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.kinesis;
+
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.ExpiredIteratorException;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsResponse;
+import software.amazon.awssdk.services.kinesis.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+import software.amazon.awssdk.services.kinesis.model.ShardIteratorType;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Reads stock trades from every shard of an Amazon Kinesis data stream.
+ *
+ * Each open shard is read by its own worker thread, which keeps calling GetRecords with the
+ * NextShardIterator and saves a checkpoint after each batch. When a worker has caught up
+ * (MillisBehindLatest is 0), it waits longer between calls. After a shard is split or merged,
+ * its worker reads the parent shard to the end, and the child shards are started once all of
+ * their parents are finished, so trades with the same ticker symbol are processed in order.
+ */
+public class StockTradeConsumer implements AutoCloseable {
+    private final KinesisClient kinesisClient;
+    private final String streamName;
+    private final CheckpointStore checkpoints;
+    private final Consumer<StockTrade> processor;
+    private final Map<String, ShardMetrics> running = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final ScheduledExecutorService discovery;
+    private ShardIteratorType initialPosition = ShardIteratorType.TRIM_HORIZON;
+    private long pollIntervalMillis = 200;
+    private long idleBackoffMillis = 1_000;
+    private long maxBackoffMillis = 10_000;
+    private long discoveryIntervalMillis = 10_000;
+    private volatile boolean discovered;
+    private volatile boolean stopped;
+
+    public StockTradeConsumer(KinesisClient kinesisClient, String streamName, CheckpointStore checkpoints,
+                              Consumer<StockTrade> processor) {
+        this.kinesisClient = kinesisClient;
+        this.streamName = streamName;
+        this.checkpoints = checkpoints;
+        this.processor = processor;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "kinesis-shard-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.discovery = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kinesis-shard-discovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Sets where a shard without a checkpoint is read from. The default is TRIM_HORIZON.
+    public StockTradeConsumer withInitialPosition(ShardIteratorType initialPosition) {
+        this.initialPosition = initialPosition;
+        return this;
+    }
+
+    // Sets the wait between GetRecords calls while a shard is behind, the wait once it has
+    // caught up, and how often the stream is checked for new shards.
+    public StockTradeConsumer withPolling(Duration pollInterval, Duration idleBackoff, Duration discoveryInterval) {
+        this.pollIntervalMillis = pollInterval.toMillis();
+        this.idleBackoffMillis = idleBackoff.toMillis();
+        this.discoveryIntervalMillis = discoveryInterval.toMillis();
+        return this;
+    }
+
+    public void start() {
+        discovery.scheduleWithFixedDelay(() -> {
+            try {
+                discoverShards();
+            } catch (RuntimeException e) {
+                System.err.println("Could not list the shards of " + streamName + ": " + e.getMessage());
+            }
+        }, 0, discoveryIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Waits until every shard that is being read has caught up with the tip of the stream.
+    // Returns false if that did not happen within the timeout, which includes the case where
+    // no shard is being read, for example because the workers stopped on errors.
+    public boolean awaitCaughtUp(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (discovered && !running.isEmpty() && running.values().stream().allMatch(ShardMetrics::isCaughtUp)) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    // Returns the metrics of the shards that are being read, ordered by shard ID.
+    public Map<String, ShardMetrics> getShardMetrics() {
+        return new TreeMap<>(running);
+    }
+
+    // Starts a worker for every shard that is not finished and whose parents are finished.
+    private synchronized void discoverShards() {
+        if (stopped) {
+            return;
+        }
+
+        List<Shard> shards = new ArrayList<>();
+        ListShardsRequest request = ListShardsRequest.builder()
+                .streamName(streamName)
+                .build();
+        ListShardsResponse response;
+        do {
+            response = kinesisClient.listShards(request);
+            shards.addAll(response.shards());
+            request = ListShardsRequest.builder()
+                    .nextToken(response.nextToken())
+                    .build();
+        } while (response.nextToken() != null);
+
+        Set<String> shardIds = new HashSet<>();
+        shards.forEach(shard -> shardIds.add(shard.shardId()));
+
+        for (Shard shard : shards) {
+            String shardId = shard.shardId();
+            if (running.containsKey(shardId) || CheckpointStore.SHARD_END.equals(checkpoints.get(shardId))) {
+                continue;
+            }
+            if (isFinished(shard.parentShardId(), shardIds) && isFinished(shard.adjacentParentShardId(), shardIds)) {
+                ShardMetrics metrics = new ShardMetrics(shardId);
+                running.put(shardId, metrics);
+                workers.execute(() -> readShard(metrics));
+            }
+        }
+        discovered = true;
+    }
+
+    // A parent shard is finished when it has been read to the end or has expired from the stream.
+    private boolean isFinished(String parentShardId, Set<String> shardIds) {
+        return parentShardId == null
+                || !shardIds.contains(parentShardId)
+                || CheckpointStore.SHARD_END.equals(checkpoints.get(parentShardId));
+    }
+
+    private void readShard(ShardMetrics metrics) {
+        String shardId = metrics.shardId;
+        try {
+            String shardIterator = getShardIterator(shardId);
+            long backoff = pollIntervalMillis;
+            while (!stopped) {
+                GetRecordsResponse response;
+                try {
+                    GetRecordsRequest recordsRequest = GetRecordsRequest.builder()
+                            .shardIterator(shardIterator)
+                            .limit(1000)
+                            .build();
+                    response = kinesisClient.getRecords(recordsRequest);
+                } catch (ExpiredIteratorException e) {
+                    shardIterator = getShardIterator(shardId);
+                    continue;
+                } catch (ProvisionedThroughputExceededException e) {
+                    Thread.sleep(backoff);
+                    backoff = Math.min(maxBackoffMillis, backoff * 2);
+                    continue;
+                }
+                backoff = pollIntervalMillis;
+
+                List<Record> records = response.records();
+                for (Record record : records) {
+                    StockTrade trade = StockTrade.fromJsonAsBytes(record.data().asByteArray());
+                    if (trade == null) {
+                        metrics.recordsSkipped++;
+                    } else {
+                        processor.accept(trade);
+                        metrics.recordsProcessed++;
+                    }
+                }
+                if (!records.isEmpty()) {
+                    metrics.lastSequenceNumber = records.get(records.size() - 1).sequenceNumber();
+                    checkpoints.put(shardId, metrics.lastSequenceNumber);
+                }
+                metrics.lastPollMillis = System.currentTimeMillis();
+
+                shardIterator = response.nextShardIterator();
+                if (shardIterator == null) {
+                    // The shard was split or merged and has been read to the end, so its children can start.
+                    checkpoints.put(shardId, CheckpointStore.SHARD_END);
+                    discoverShards();
+                    return;
+                }
+                metrics.millisBehindLatest = response.millisBehindLatest() != null ? response.millisBehindLatest() : 0;
+                Thread.sleep(metrics.millisBehindLatest == 0 ? idleBackoffMillis : pollIntervalMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // The shard is picked up again the next time the stream is checked for shards.
+            System.err.println("Stopped reading shard " + shardId + ": " + e.getMessage());
+        } finally {
+            running.remove(shardId);
+        }
+    }
+
+    private String getShardIterator(String shardId) {
+        String checkpoint = checkpoints.get(shardId);
+        GetShardIteratorRequest.Builder itReq = GetShardIteratorRequest.builder()
+                .streamName(streamName)
+                .shardId(shardId);
+        if (checkpoint != null) {
+            itReq.shardIteratorType(ShardIteratorType.AFTER_SEQUENCE_NUMBER)
+                    .startingSequenceNumber(checkpoint);
+        } else {
+            itReq.shardIteratorType(initialPosition);
+        }
+        return kinesisClient.getShardIterator(itReq.build()).shardIterator();
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+        discovery.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    // Progress of one shard. The values are updated by the shard's worker thread.
+    public static class ShardMetrics {
+        private final String shardId;
+        private volatile long millisBehindLatest = -1;
+        private volatile long recordsProcessed;
+        private volatile long recordsSkipped;
+        private volatile String lastSequenceNumber;
+        private volatile long lastPollMillis;
+
+        ShardMetrics(String shardId) {
+            this.shardId = shardId;
+        }
+
+        public String getShardId() {
+            return shardId;
+        }
+
+        // How far the last GetRecords call was behind the tip of the stream, or -1 before the first call.
+        public long getMillisBehindLatest() {
+            return millisBehindLatest;
+        }
+
+        public boolean isCaughtUp() {
+            return millisBehindLatest == 0;
+        }
+
+        public long getRecordsProcessed() {
+            return recordsProcessed;
+        }
+
+        // Records that could not be decoded as stock trades.
+        public long getRecordsSkipped() {
+            return recordsSkipped;
+        }
+
+        public String getLastSequenceNumber() {
+            return lastSequenceNumber;
+        }
+
+        public long getLastPollMillis() {
+            return lastPollMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d ms behind, %d trades processed, %d records skipped",
+                    shardId, millisBehindLatest, recordsProcessed, recordsSkipped);
+        }
+    }
+}
@@ -5,13 +5,16 @@ package com.example.kinesis;
 
 // snippet-start:[kinesis.java2.putrecord.main]
 // snippet-start:[kinesis.java2.putrecord.import]
-import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.kinesis.KinesisClient;
-import software.amazon.awssdk.services.kinesis.model.PutRecordRequest;
 import software.amazon.awssdk.services.kinesis.model.KinesisException;
 import software.amazon.awssdk.services.kinesis.model.DescribeStreamRequest;
 import software.amazon.awssdk.services.kinesis.model.DescribeStreamResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 // snippet-end:[kinesis.java2.putrecord.import]
 
 /**
@@ -51,51 +54,51 @@ public class StockTradesWriter {
     }
 
     public static void setStockData(KinesisClient kinesisClient, String streamName) {
-        try {
-            // Repeatedly send stock trades with a 100 milliseconds wait in between.
-            StockTradeGenerator stockTradeGenerator = new StockTradeGenerator();
+        StockTradeGenerator stockTradeGenerator = new StockTradeGenerator();
+
+        // The producer sends the trades in PutRecords requests of up to 500 records instead of one
+        // request per trade. It sends failed trades again and keeps the trades of each ticker symbol
+        // in order.
+        try (KinesisBatchProducer producer = new KinesisBatchProducer(kinesisClient, streamName)) {
+            List<CompletableFuture<PutRecordsResultEntry>> results = new ArrayList<>();
 
             // Put in 50 Records for this example.
             int index = 50;
             for (int x = 0; x < index; x++) {
                 StockTrade trade = stockTradeGenerator.getRandomTrade();
-                sendStockTrade(trade, kinesisClient, streamName);
-                Thread.sleep(100);
+                byte[] bytes = trade.toJsonAsBytes();
+
+                // The bytes could be null if there is an issue with the JSON serialization by
+                // the Jackson JSON library.
+                if (bytes == null) {
+                    System.out.println("Could not get JSON bytes for stock trade");
+                    continue;
+                }
+
+                System.out.println("Putting trade: " + trade);
+                // We use the ticker symbol as the partition key, explained in the Supplemental
+                // Information section below.
+                results.add(producer.put(trade.getTickerSymbol(), bytes));
             }
+            producer.flush();
+
+            for (CompletableFuture<PutRecordsResultEntry> result : results) {
+                try {
+                    result.join();
+                } catch (CompletionException e) {
+                    System.err.println(e.getCause().getMessage());
+                }
+            }
+            System.out.println("Put " + producer.getRecordsSent() + " records in "
+                    + producer.getRequestsSent() + " requests");
 
-        } catch (KinesisException | InterruptedException e) {
+        } catch (InterruptedException e) {
             System.err.println(e.getMessage());
             System.exit(1);
         }
         System.out.println("Done");
     }
 
-    private static void sendStockTrade(StockTrade trade, KinesisClient kinesisClient,
-            String streamName) {
-        byte[] bytes = trade.toJsonAsBytes();
-
-        // The bytes could be null if there is an issue with the JSON serialization by
-        // the Jackson JSON library.
-        if (bytes == null) {
-            System.out.println("Could not get JSON bytes for stock trade");
-            return;
-        }
-
-        System.out.println("Putting trade: " + trade);
-        PutRecordRequest request = PutRecordRequest.builder()
-                .partitionKey(trade.getTickerSymbol()) // We use the ticker symbol as the partition key, explained in
-                                                       // the Supplemental Information section below.
-                .streamName(streamName)
-                .data(SdkBytes.fromByteArray(bytes))
-                .build();
-
-        try {
-            kinesisClient.putRecord(request);
-        } catch (KinesisException e) {
-            System.err.println(e.getMessage());
-        }
-    }
-
     private static void validateStream(KinesisClient kinesisClient, String streamName) {
         try {
             DescribeStreamRequest describeStreamRequest = DescribeStreamRequest.builder()
@@ -0,0 +1,182 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.kinesis.KinesisBatchProducer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class KinesisBatchProducerTest {
+    private static final List<String> KEYS = List.of("AMZN", "AAPL", "MSFT", "GOOG", "NFLX", "TSLA", "META");
+
+    @Test
+    public void testRecordsOfAKeyStayInOrderAcrossRetries() throws Exception {
+        // Every fourth request throttles its first record, as a busy shard does.
+        StubStream stream = new StubStream(request -> request % 4 == 0, true);
+        int count = 20_000;
+        List<CompletableFuture<PutRecordsResultEntry>> futures = new ArrayList<>(count);
+
+        try (KinesisBatchProducer producer = new KinesisBatchProducer(stream, "StockTradeStream", 2_000,
+                Duration.ofMillis(5), 4).withRetries(20, Duration.ofMillis(1), Duration.ofMillis(2))) {
+            for (int i = 0; i < count; i++) {
+                futures.add(producer.put(KEYS.get(i % KEYS.size()), ByteBuffer.allocate(4).putInt(i).array()));
+            }
+            producer.flush();
+
+            assertEquals(count, producer.getRecordsSent());
+            assertEquals(0, producer.getRecordsFailed());
+            assertTrue(producer.getRecordsRetried() > 0);
+        }
+
+        assertEquals(count, stream.recordsWritten.get());
+        assertTrue(stream.maxRecordsPerRequest.get() <= KinesisBatchProducer.MAX_RECORDS_PER_REQUEST);
+        assertEquals(0, stream.requestsWithRepeatedKey.get());
+        for (String key : KEYS) {
+            List<Integer> written = stream.writtenByKey.get(key);
+            for (int i = 1; i < written.size(); i++) {
+                assertTrue(written.get(i - 1) < written.get(i), "Records of " + key + " are out of order");
+            }
+        }
+        for (CompletableFuture<PutRecordsResultEntry> future : futures) {
+            assertTrue(future.isDone() && !future.isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void testRecordFailsAfterLastAttempt() throws Exception {
+        StubStream stream = new StubStream(request -> true, false);
+        CompletableFuture<PutRecordsResultEntry> future;
+        try (KinesisBatchProducer producer = new KinesisBatchProducer(stream, "StockTradeStream", 10,
+                Duration.ofMillis(1), 1).withRetries(3, Duration.ofMillis(1), Duration.ofMillis(1))) {
+            future = producer.put("AMZN", new byte[] { 1 });
+            producer.flush();
+            assertEquals(1, producer.getRecordsFailed());
+            assertEquals(2, producer.getRecordsRetried());
+        }
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause().getMessage().contains("ProvisionedThroughputExceededException"));
+    }
+
+    @Test
+    public void testUnexpectedExceptionFailsTheBatchAndFlushReturns() throws Exception {
+        KinesisClient broken = new StubStream(request -> false, false) {
+            @Override
+            public PutRecordsResponse putRecords(PutRecordsRequest request) {
+                throw new IllegalStateException("broken");
+            }
+        };
+        CompletableFuture<PutRecordsResultEntry> future;
+        try (KinesisBatchProducer producer = new KinesisBatchProducer(broken, "StockTradeStream", 10,
+                Duration.ofMillis(1), 2)) {
+            future = producer.put("AMZN", new byte[] { 1 });
+            producer.flush();
+            assertEquals(1, producer.getRecordsFailed());
+        }
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertEquals("broken", e.getCause().getMessage());
+    }
+
+    @Test
+    public void testRecordLargerThanLimitIsRejected() throws Exception {
+        try (KinesisBatchProducer producer = new KinesisBatchProducer(new StubStream(request -> false, false),
+                "StockTradeStream")) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> producer.put("AMZN", new byte[KinesisBatchProducer.MAX_BYTES_PER_RECORD]));
+        }
+    }
+
+    // Writes the records of a request in order. When a request is throttled, its first record
+    // fails and the records after it are still written, even those with the same key, as
+    // Kinesis does. With throttleOnce, a record is written when it is sent again.
+    private static class StubStream implements KinesisClient {
+        private final IntPredicate throttled;
+        private final boolean throttleOnce;
+        private final Set<SdkBytes> throttledBefore = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicLong recordsWritten = new AtomicLong();
+        private final AtomicInteger maxRecordsPerRequest = new AtomicInteger();
+        private final AtomicInteger requestsWithRepeatedKey = new AtomicInteger();
+        private final AtomicLong sequenceNumber = new AtomicLong();
+        private final Map<String, List<Integer>> writtenByKey = new ConcurrentHashMap<>();
+
+        StubStream(IntPredicate throttled, boolean throttleOnce) {
+            this.throttled = throttled;
+            this.throttleOnce = throttleOnce;
+        }
+
+        @Override
+        public PutRecordsResponse putRecords(PutRecordsRequest request) {
+            PutRecordsRequestEntry first = request.records().get(0);
+            boolean throttleFirst = throttled.test(requests.incrementAndGet())
+                    && (!throttleOnce || throttledBefore.add(first.data()));
+            Set<String> keys = new HashSet<>();
+            for (PutRecordsRequestEntry entry : request.records()) {
+                if (!keys.add(entry.partitionKey())) {
+                    requestsWithRepeatedKey.incrementAndGet();
+                    break;
+                }
+            }
+
+            int failed = 0;
+            List<PutRecordsResultEntry> results = new ArrayList<>();
+            for (PutRecordsRequestEntry entry : request.records()) {
+                if (throttleFirst && entry == first) {
+                    failed++;
+                    results.add(PutRecordsResultEntry.builder()
+                            .errorCode("ProvisionedThroughputExceededException")
+                            .errorMessage("Rate exceeded for shard shardId-000000000000")
+                            .build());
+                } else {
+                    recordsWritten.incrementAndGet();
+                    List<Integer> written = writtenByKey.computeIfAbsent(entry.partitionKey(),
+                            key -> new ArrayList<>());
+                    synchronized (written) {
+                        written.add(entry.data().asByteBuffer().getInt());
+                    }
+                    results.add(PutRecordsResultEntry.builder()
+                            .shardId("shardId-000000000000")
+                            .sequenceNumber(Long.toString(sequenceNumber.incrementAndGet()))
+                            .build());
+                }
+            }
+            maxRecordsPerRequest.accumulateAndGet(request.records().size(), Math::max);
+            return PutRecordsResponse.builder()
+                    .failedRecordCount(failed)
+                    .records(results)
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "kinesis";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,182 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.kinesis.CheckpointStore;
+import com.example.kinesis.FileCheckpointStore;
+import com.example.kinesis.StockTrade;
+import com.example.kinesis.StockTradeConsumer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.kinesis.KinesisClient;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.GetRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorRequest;
+import software.amazon.awssdk.services.kinesis.model.GetShardIteratorResponse;
+import software.amazon.awssdk.services.kinesis.model.KinesisException;
+import software.amazon.awssdk.services.kinesis.model.ListShardsRequest;
+import software.amazon.awssdk.services.kinesis.model.ListShardsResponse;
+import software.amazon.awssdk.services.kinesis.model.Record;
+import software.amazon.awssdk.services.kinesis.model.Shard;
+import software.amazon.awssdk.services.kinesis.model.ShardIteratorType;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class StockTradeConsumerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testReadsParentBeforeChildren() throws InterruptedException {
+        InMemoryStream stream = new InMemoryStream();
+        stream.addShard("shard-0", null, 250, true);
+        stream.addShard("shard-1", "shard-0", 100, false);
+        stream.addShard("shard-2", "shard-0", 100, false);
+
+        List<Long> ids = Collections.synchronizedList(new ArrayList<>());
+        CheckpointStore checkpoints = CheckpointStore.inMemory();
+        try (StockTradeConsumer consumer = newConsumer(stream, checkpoints, ids)) {
+            consumer.start();
+            assertTrue(consumer.awaitCaughtUp(Duration.ofSeconds(10)));
+            assertEquals(2, consumer.getShardMetrics().size());
+        }
+
+        assertEquals(450, ids.size());
+        // Every trade of the parent shard comes before the trades of its children.
+        for (int i = 0; i < 250; i++) {
+            assertTrue(ids.get(i) < 1000);
+        }
+        assertEquals(CheckpointStore.SHARD_END, checkpoints.get("shard-0"));
+        assertEquals("shard-1-99", checkpoints.get("shard-1"));
+    }
+
+    @Test
+    public void testResumesFromFileCheckpoint() throws InterruptedException {
+        InMemoryStream stream = new InMemoryStream();
+        stream.addShard("shard-0", null, 100, false);
+        Path file = tempDir.resolve("checkpoints.properties");
+
+        List<Long> firstRun = Collections.synchronizedList(new ArrayList<>());
+        try (StockTradeConsumer consumer = newConsumer(stream, new FileCheckpointStore(file), firstRun)) {
+            consumer.start();
+            assertTrue(consumer.awaitCaughtUp(Duration.ofSeconds(10)));
+        }
+
+        stream.addRecords("shard-0", 50);
+        List<Long> secondRun = Collections.synchronizedList(new ArrayList<>());
+        try (StockTradeConsumer consumer = newConsumer(stream, new FileCheckpointStore(file), secondRun)) {
+            consumer.start();
+            assertTrue(consumer.awaitCaughtUp(Duration.ofSeconds(10)));
+        }
+
+        assertEquals(100, firstRun.size());
+        assertEquals(50, secondRun.size());
+    }
+
+    @Test
+    public void testNotCaughtUpWhenNoShardIsRead() throws InterruptedException {
+        // Every worker stops because its shard iterator cannot be read.
+        InMemoryStream stream = new InMemoryStream() {
+            @Override
+            public synchronized GetShardIteratorResponse getShardIterator(GetShardIteratorRequest request) {
+                throw KinesisException.builder().message("Access denied").build();
+            }
+        };
+        stream.addShard("shard-0", null, 10, false);
+
+        List<Long> ids = Collections.synchronizedList(new ArrayList<>());
+        try (StockTradeConsumer consumer = newConsumer(stream, CheckpointStore.inMemory(), ids)) {
+            consumer.start();
+            assertFalse(consumer.awaitCaughtUp(Duration.ofMillis(500)));
+            assertTrue(consumer.getShardMetrics().isEmpty());
+        }
+        assertTrue(ids.isEmpty());
+    }
+
+    private StockTradeConsumer newConsumer(InMemoryStream stream, CheckpointStore checkpoints, List<Long> ids) {
+        return new StockTradeConsumer(stream, "StockTradeStream", checkpoints, trade -> ids.add(trade.getId()))
+                .withPolling(Duration.ofMillis(1), Duration.ofMillis(10), Duration.ofSeconds(1));
+    }
+
+    // Serves GetRecords from lists of records. An iterator is "<shardId>:<position>",
+    // and a closed shard returns no NextShardIterator after its last record.
+    private static class InMemoryStream implements KinesisClient {
+        private final Map<String, Shard> shards = new LinkedHashMap<>();
+        private final Map<String, List<Record>> records = new LinkedHashMap<>();
+        private final Map<String, Boolean> closed = new LinkedHashMap<>();
+
+        synchronized void addShard(String shardId, String parentShardId, int count, boolean isClosed) {
+            shards.put(shardId, Shard.builder().shardId(shardId).parentShardId(parentShardId).build());
+            records.put(shardId, new ArrayList<>());
+            closed.put(shardId, isClosed);
+            addRecords(shardId, count);
+        }
+
+        synchronized void addRecords(String shardId, int count) {
+            List<Record> shardRecords = records.get(shardId);
+            long idBase = Long.parseLong(shardId.substring(shardId.indexOf('-') + 1)) * 1000;
+            for (int i = 0; i < count; i++) {
+                int position = shardRecords.size();
+                StockTrade trade = new StockTrade("AMZN", StockTrade.TradeType.BUY, 100, 1, idBase + position);
+                shardRecords.add(Record.builder()
+                        .sequenceNumber(shardId + "-" + position)
+                        .partitionKey("AMZN")
+                        .data(SdkBytes.fromByteArray(trade.toJsonAsBytes()))
+                        .build());
+            }
+        }
+
+        @Override
+        public synchronized ListShardsResponse listShards(ListShardsRequest request) {
+            return ListShardsResponse.builder().shards(new ArrayList<>(shards.values())).build();
+        }
+
+        @Override
+        public synchronized GetShardIteratorResponse getShardIterator(GetShardIteratorRequest request) {
+            int position = 0;
+            if (request.shardIteratorType() == ShardIteratorType.AFTER_SEQUENCE_NUMBER) {
+                String sequenceNumber = request.startingSequenceNumber();
+                position = Integer.parseInt(sequenceNumber.substring(sequenceNumber.lastIndexOf('-') + 1)) + 1;
+            }
+            return GetShardIteratorResponse.builder().shardIterator(request.shardId() + ":" + position).build();
+        }
+
+        @Override
+        public synchronized GetRecordsResponse getRecords(GetRecordsRequest request) {
+            String[] iterator = request.shardIterator().split(":");
+            String shardId = iterator[0];
+            int position = Integer.parseInt(iterator[1]);
+            List<Record> shardRecords = records.get(shardId);
+            int end = Math.min(shardRecords.size(), position + Math.min(request.limit(), 40));
+
+            boolean atEnd = end == shardRecords.size();
+            return GetRecordsResponse.builder()
+                    .records(new ArrayList<>(shardRecords.subList(position, end)))
+                    .millisBehindLatest(atEnd ? 0L : 1000L)
+                    .nextShardIterator(atEnd && closed.get(shardId) ? null : shardId + ":" + end)
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "kinesis";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -9,12 +9,15 @@ package com.example.medicalimaging;
 
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.medicalimaging.MedicalImagingAsyncClient;
 import software.amazon.awssdk.services.medicalimaging.MedicalImagingClient;
 import software.amazon.awssdk.services.medicalimaging.model.GetImageFrameRequest;
 import software.amazon.awssdk.services.medicalimaging.model.ImageFrameInformation;
 import software.amazon.awssdk.services.medicalimaging.model.MedicalImagingException;
 
+import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.util.concurrent.CompletionException;
 
 /**
  * Before running this Java V2 code example, set up your development
@@ -83,4 +86,43 @@ public class GetImageFrame {
                 }
         }
         // snippet-end:[medicalimaging.java2.get_image_frame.main]
+
+        /**
+         * Fetches all frames of an image set with the async client and caches them in
+         * cacheDirectory. A viewer calls ImageFrameFetcher.getFrame for the frame on screen,
+         * which is served from the cache once the frame has arrived.
+         */
+        public static ImageFrameFetcher.StudyLoad getMedicalImageSetFrames(
+                        MedicalImagingAsyncClient medicalImagingAsyncClient,
+                        String cacheDirectory,
+                        String datastoreId,
+                        String imagesetId) {
+
+                try (ImageFrameFetcher fetcher = new ImageFrameFetcher(medicalImagingAsyncClient,
+                                FileSystems.getDefault().getPath(cacheDirectory))) {
+                        ImageFrameFetcher.StudyLoad load = fetcher
+                                        .loadImageSet(datastoreId, imagesetId, (frameId, frame) -> {
+                                        })
+                                        .join();
+                        System.out.printf("Loaded %d frames (%d bytes, %d failed). First frame after %d ms, "
+                                        + "all frames after %d ms.%n", load.getFrameCount(), load.getBytes(),
+                                        load.getFailedFrames(),
+                                        load.getTimeToFirstFrame() == null ? -1 : load.getTimeToFirstFrame().toMillis(),
+                                        load.getLoadTime().toMillis());
+                        return load;
+                } catch (CompletionException e) {
+                        if (e.getCause() instanceof MedicalImagingException) {
+                                System.err.println(((MedicalImagingException) e.getCause()).awsErrorDetails().errorMessage());
+                        } else {
+                                System.err.println(e.getMessage());
+                        }
+                        System.exit(1);
+                } catch (IOException e) {
+                        System.err.println("Could not open the frame cache: " + e.getMessage());
+                        System.exit(1);
+                } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                }
+                return null;
+        }
 }
@@ -0,0 +1,501 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.medicalimaging;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.medicalimaging.MedicalImagingAsyncClient;
+import software.amazon.awssdk.services.medicalimaging.model.GetImageFrameRequest;
+import software.amazon.awssdk.services.medicalimaging.model.GetImageSetMetadataRequest;
+import software.amazon.awssdk.services.medicalimaging.model.GetImageSetMetadataResponse;
+import software.amazon.awssdk.services.medicalimaging.model.ImageFrameInformation;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Loads the image frames of AWS HealthImaging image sets for a viewer.
+ *
+ * The metadata of an image set is read once, and all of its frames are fetched with the
+ * async client, at most maxConcurrentRequests at a time for each image set that is loaded.
+ * Frames are kept in two LRU caches with byte budgets, one in memory and one in a directory
+ * on disk. A frame that is requested again is served from memory or from disk, and
+ * concurrent requests for the same frame share one GetImageFrame call.
+ *
+ * The frames are cached as GetImageFrame returns them, HTJ2K encoded. Decoding them is
+ * left to the viewer.
+ */
+public class ImageFrameFetcher implements AutoCloseable {
+    private static final String FRAME_SUFFIX = ".frame";
+
+    private final MedicalImagingAsyncClient client;
+    private final Path cacheDirectory;
+    private final int maxConcurrentRequests;
+    private final long memoryBudgetBytes;
+    private final long diskBudgetBytes;
+    private final ExecutorService diskExecutor;
+    // Both caches are in access order, so the first entry is the least recently used one.
+    private final LinkedHashMap<String, byte[]> memoryCache = new LinkedHashMap<>(256, 0.75f, true);
+    private final LinkedHashMap<String, Long> diskIndex = new LinkedHashMap<>(256, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+    private final ConcurrentMap<String, CompletableFuture<byte[]>> framesInFlight = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<List<String>>> frameIdsByImageSet = new ConcurrentHashMap<>();
+    private final LongAdder framesFetched = new LongAdder();
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+
+    public ImageFrameFetcher(MedicalImagingAsyncClient client, Path cacheDirectory) throws IOException {
+        this(client, cacheDirectory, 16, 256L * 1024 * 1024, 2L * 1024 * 1024 * 1024);
+    }
+
+    /**
+     * @param maxConcurrentRequests the number of GetImageFrame calls in flight for each image set that is loaded
+     * @param memoryBudgetBytes the largest number of frame bytes kept in memory
+     * @param diskBudgetBytes the largest number of frame bytes kept in the cache directory
+     */
+    public ImageFrameFetcher(MedicalImagingAsyncClient client, Path cacheDirectory, int maxConcurrentRequests,
+                             long memoryBudgetBytes, long diskBudgetBytes) throws IOException {
+        this.client = client;
+        this.cacheDirectory = Files.createDirectories(cacheDirectory);
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.diskBudgetBytes = diskBudgetBytes;
+        this.diskExecutor = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "image-frame-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+        indexCacheDirectory();
+    }
+
+    /**
+     * Reads the frame IDs of an image set and fetches all frames. Each frame is passed to the
+     * frame consumer as soon as it arrives, in no particular order. The returned future
+     * completes when every frame has arrived or failed.
+     */
+    public CompletableFuture<StudyLoad> loadImageSet(String datastoreId, String imageSetId,
+                                                     BiConsumer<String, byte[]> frameConsumer) {
+        long start = System.nanoTime();
+        return getFrameIds(datastoreId, imageSetId)
+                .thenCompose(frameIds -> new StudyLoader(datastoreId, imageSetId, frameIds, frameConsumer, start).start());
+    }
+
+    /**
+     * Returns the frame IDs of an image set in the order of its series and instances. The
+     * metadata is read once for each image set.
+     */
+    public CompletableFuture<List<String>> getFrameIds(String datastoreId, String imageSetId) {
+        return shared(frameIdsByImageSet, datastoreId + "_" + imageSetId, true, () -> {
+            GetImageSetMetadataRequest request = GetImageSetMetadataRequest.builder()
+                    .datastoreId(datastoreId)
+                    .imageSetId(imageSetId)
+                    .build();
+            return client.getImageSetMetadata(request, AsyncResponseTransformer.toBytes())
+                    .thenApply(ImageFrameFetcher::parseFrameIds);
+        });
+    }
+
+    /**
+     * Returns a frame from memory, from disk, or from a GetImageFrame call, in that order.
+     */
+    public CompletableFuture<byte[]> getFrame(String datastoreId, String imageSetId, String frameId) {
+        String key = cacheKey(datastoreId + "_" + imageSetId + "_" + frameId);
+        byte[] cached;
+        synchronized (memoryCache) {
+            cached = memoryCache.get(key);
+        }
+        if (cached != null) {
+            memoryHits.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        return shared(framesInFlight, key, false, () -> {
+            boolean onDisk;
+            synchronized (diskIndex) {
+                onDisk = diskIndex.containsKey(key);
+            }
+            if (!onDisk) {
+                return fetch(datastoreId, imageSetId, frameId, key);
+            }
+            // The file can be evicted before it is read. Fetch the frame again in that case.
+            return CompletableFuture.supplyAsync(() -> readFromDisk(key), diskExecutor)
+                    .thenApply(frame -> {
+                        diskHits.increment();
+                        putInMemory(key, frame);
+                        return frame;
+                    })
+                    .exceptionallyCompose(e -> fetch(datastoreId, imageSetId, frameId, key));
+        });
+    }
+
+    public long getFramesFetched() {
+        return framesFetched.sum();
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.sum();
+    }
+
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    public long getMemoryBytes() {
+        synchronized (memoryCache) {
+            return memoryBytes;
+        }
+    }
+
+    public long getDiskBytes() {
+        synchronized (diskIndex) {
+            return diskBytes;
+        }
+    }
+
+    /**
+     * Returns the IDs of all image frames in gzip-compressed or plain image set metadata.
+     */
+    public static List<String> frameIds(InputStream metadata) throws IOException {
+        List<String> frameIds = new ArrayList<>();
+        try (Reader reader = new InputStreamReader(metadata, StandardCharsets.UTF_8)) {
+            JsonObject study = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonObject("Study");
+            if (study == null || !study.has("Series")) {
+                return frameIds;
+            }
+            for (Map.Entry<String, JsonElement> series : study.getAsJsonObject("Series").entrySet()) {
+                JsonObject instances = series.getValue().getAsJsonObject().getAsJsonObject("Instances");
+                if (instances == null) {
+                    continue;
+                }
+                for (Map.Entry<String, JsonElement> instance : instances.entrySet()) {
+                    JsonArray frames = instance.getValue().getAsJsonObject().getAsJsonArray("ImageFrames");
+                    if (frames == null) {
+                        continue;
+                    }
+                    for (JsonElement frame : frames) {
+                        frameIds.add(frame.getAsJsonObject().get("ID").getAsString());
+                    }
+                }
+            }
+        }
+        return frameIds;
+    }
+
+    private static List<String> parseFrameIds(ResponseBytes<GetImageSetMetadataResponse> metadata) {
+        try {
+            InputStream in = metadata.asInputStream();
+            if ("gzip".equalsIgnoreCase(metadata.response().contentEncoding())) {
+                in = new GZIPInputStream(in);
+            }
+            return frameIds(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private CompletableFuture<byte[]> fetch(String datastoreId, String imageSetId, String frameId, String key) {
+        GetImageFrameRequest request = GetImageFrameRequest.builder()
+                .datastoreId(datastoreId)
+                .imageSetId(imageSetId)
+                .imageFrameInformation(ImageFrameInformation.builder()
+                        .imageFrameId(frameId)
+                        .build())
+                .build();
+        return client.getImageFrame(request, AsyncResponseTransformer.toBytes())
+                .thenApply(response -> {
+                    byte[] frame = response.asByteArrayUnsafe();
+                    framesFetched.increment();
+                    putInMemory(key, frame);
+                    diskExecutor.execute(() -> writeToDisk(key, frame));
+                    return frame;
+                });
+    }
+
+    // Returns the future in the map for the key, or starts a new one. A failed future is
+    // removed so that the next call tries again, and so is a completed one unless keep is set.
+    private static <T> CompletableFuture<T> shared(ConcurrentMap<String, CompletableFuture<T>> map, String key,
+                                                   boolean keep, Supplier<CompletableFuture<T>> loader) {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> existing = map.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<T> loading;
+        try {
+            loading = loader.get();
+        } catch (RuntimeException e) {
+            loading = CompletableFuture.failedFuture(e);
+        }
+        loading.whenComplete((value, error) -> {
+            if (error != null || !keep) {
+                map.remove(key, created);
+            }
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(value);
+            }
+        });
+        return created;
+    }
+
+    private void putInMemory(String key, byte[] frame) {
+        if (frame.length > memoryBudgetBytes) {
+            return;
+        }
+        synchronized (memoryCache) {
+            byte[] previous = memoryCache.put(key, frame);
+            memoryBytes += frame.length - (previous == null ? 0 : previous.length);
+            Iterator<byte[]> eldest = memoryCache.values().iterator();
+            while (memoryBytes > memoryBudgetBytes && eldest.hasNext()) {
+                memoryBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private byte[] readFromDisk(String key) {
+        try {
+            return Files.readAllBytes(cacheDirectory.resolve(key + FRAME_SUFFIX));
+        } catch (IOException e) {
+            synchronized (diskIndex) {
+                Long size = diskIndex.remove(key);
+                diskBytes -= size == null ? 0 : size;
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes the frame to a temporary file and moves it into place, so a reader never sees part of a frame.
+    private void writeToDisk(String key, byte[] frame) {
+        if (frame.length > diskBudgetBytes) {
+            return;
+        }
+        Path file = cacheDirectory.resolve(key + FRAME_SUFFIX);
+        try {
+            Path temporary = Files.createTempFile(cacheDirectory, key, ".tmp");
+            Files.write(temporary, frame);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not cache frame " + key + ": " + e.getMessage());
+            return;
+        }
+        addToDiskIndex(key, frame.length);
+    }
+
+    private void addToDiskIndex(String key, long size) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (diskIndex) {
+            Long previous = diskIndex.put(key, size);
+            diskBytes += size - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> eldest = diskIndex.entrySet().iterator();
+            while (diskBytes > diskBudgetBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                diskBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String evictedKey : evicted) {
+            try {
+                Files.deleteIfExists(cacheDirectory.resolve(evictedKey + FRAME_SUFFIX));
+            } catch (IOException e) {
+                System.err.println("Could not delete cached frame " + evictedKey + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Adds the frames that an earlier run left in the cache directory, oldest first.
+    private void indexCacheDirectory() {
+        File[] files = cacheDirectory.toFile().listFiles((dir, name) -> name.endsWith(FRAME_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            String name = file.getName();
+            addToDiskIndex(name.substring(0, name.length() - FRAME_SUFFIX.length()), file.length());
+        }
+    }
+
+    private static String cacheKey(String id) {
+        return id.replaceAll("[^A-Za-z0-9_-]", "-");
+    }
+
+    // Waits for the frames that are being written to the cache directory.
+    @Override
+    public void close() throws InterruptedException {
+        diskExecutor.shutdown();
+        diskExecutor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * The result of loading all frames of an image set.
+     */
+    public static class StudyLoad {
+        private final int frameCount;
+        private final int failedFrames;
+        private final long bytes;
+        private final Duration timeToFirstFrame;
+        private final Duration loadTime;
+        private final Throwable firstFailure;
+
+        StudyLoad(int frameCount, int failedFrames, long bytes, Duration timeToFirstFrame, Duration loadTime,
+                  Throwable firstFailure) {
+            this.frameCount = frameCount;
+            this.failedFrames = failedFrames;
+            this.bytes = bytes;
+            this.timeToFirstFrame = timeToFirstFrame;
+            this.loadTime = loadTime;
+            this.firstFailure = firstFailure;
+        }
+
+        public int getFrameCount() {
+            return frameCount;
+        }
+
+        public int getFailedFrames() {
+            return failedFrames;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        // The time from the start of the load, including the metadata call, to the first frame.
+        public Duration getTimeToFirstFrame() {
+            return timeToFirstFrame;
+        }
+
+        // The time from the start of the load to the last frame.
+        public Duration getLoadTime() {
+            return loadTime;
+        }
+
+        public Throwable getFirstFailure() {
+            return firstFailure;
+        }
+    }
+
+    // Fetches the frames of one image set in a fixed number of lanes. A lane starts the next
+    // frame when its current frame has arrived, so no thread waits for a permit.
+    private class StudyLoader {
+        private final String datastoreId;
+        private final String imageSetId;
+        private final List<String> frameIds;
+        private final BiConsumer<String, byte[]> frameConsumer;
+        private final long start;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong firstFrameNanos = new AtomicLong();
+        private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        private final CompletableFuture<StudyLoad> done = new CompletableFuture<>();
+
+        StudyLoader(String datastoreId, String imageSetId, List<String> frameIds,
+                    BiConsumer<String, byte[]> frameConsumer, long start) {
+            this.datastoreId = datastoreId;
+            this.imageSetId = imageSetId;
+            this.frameIds = frameIds;
+            this.frameConsumer = frameConsumer;
+            this.start = start;
+            this.remaining = new AtomicInteger(frameIds.size());
+        }
+
+        CompletableFuture<StudyLoad> start() {
+            if (frameIds.isEmpty()) {
+                complete();
+            }
+            for (int lane = 0; lane < Math.min(maxConcurrentRequests, frameIds.size()); lane++) {
+                fetchNext();
+            }
+            return done;
+        }
+
+        // Frames from memory complete at once, so they are handled in this loop instead of by recursion.
+        private void fetchNext() {
+            while (true) {
+                int index = next.getAndIncrement();
+                if (index >= frameIds.size()) {
+                    return;
+                }
+                String frameId = frameIds.get(index);
+                CompletableFuture<byte[]> frame = getFrame(datastoreId, imageSetId, frameId);
+                if (!frame.isDone()) {
+                    frame.whenComplete((result, error) -> {
+                        frameDone(frameId, result, error);
+                        fetchNext();
+                    });
+                    return;
+                }
+                try {
+                    frameDone(frameId, frame.join(), null);
+                } catch (CompletionException e) {
+                    frameDone(frameId, null, e.getCause());
+                }
+            }
+        }
+
+        private void frameDone(String frameId, byte[] frame, Throwable error) {
+            if (error != null) {
+                failed.incrementAndGet();
+                firstFailure.compareAndSet(null, error);
+            } else {
+                firstFrameNanos.compareAndSet(0, System.nanoTime());
+                bytes.addAndGet(frame.length);
+                try {
+                    frameConsumer.accept(frameId, frame);
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    firstFailure.compareAndSet(null, e);
+                }
+            }
+            if (remaining.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        private void complete() {
+            long now = System.nanoTime();
+            long first = firstFrameNanos.get();
+            done.complete(new StudyLoad(frameIds.size(), failed.get(), bytes.get(),
+                    first == 0 ? null : Duration.ofNanos(first - start), Duration.ofNanos(now - start),
+                    firstFailure.get()));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.medicalimaging.ImageFrameFetcher;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.medicalimaging.MedicalImagingAsyncClient;
+import software.amazon.awssdk.services.medicalimaging.model.GetImageFrameRequest;
+import software.amazon.awssdk.services.medicalimaging.model.GetImageFrameResponse;
+import software.amazon.awssdk.services.medicalimaging.model.GetImageSetMetadataRequest;
+import software.amazon.awssdk.services.medicalimaging.model.GetImageSetMetadataResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(60)
+public class ImageFrameFetcherTest {
+    private static final int FRAME_BYTES = 64 * 1024;
+    // Long enough for the frame requests to overlap.
+    private static final int LATENCY_MILLIS = 10;
+
+    @TempDir
+    Path cacheDirectory;
+
+    @Test
+    public void testLoadImageSetThenServeFromCache() throws Exception {
+        int frames = 300;
+        StubImagingService service = new StubImagingService(3, frames / 3);
+        ImageFrameFetcher fetcher = new ImageFrameFetcher(service, cacheDirectory, 16,
+                8L * 1024 * 1024, 64L * 1024 * 1024);
+
+        AtomicInteger wrongFrames = new AtomicInteger();
+        ImageFrameFetcher.StudyLoad first = fetcher.loadImageSet("datastore", "imageset", (frameId, frame) -> {
+            if (!Arrays.equals(frameBytes(frameId), frame)) {
+                wrongFrames.incrementAndGet();
+            }
+        }).get(30, TimeUnit.SECONDS);
+        assertEquals(frames, first.getFrameCount());
+        assertEquals(0, first.getFailedFrames());
+        assertEquals((long) frames * FRAME_BYTES, first.getBytes());
+        assertEquals(1, service.metadataCalls.get());
+        assertEquals(frames, service.frameCalls.get());
+        assertTrue(service.maxInFlight.get() > 1);
+        assertTrue(service.maxInFlight.get() <= 16);
+        assertTrue(first.getTimeToFirstFrame().compareTo(first.getLoadTime()) < 0);
+
+        // Wait until every frame has been written to the cache directory.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (fetcher.getDiskBytes() < (long) frames * FRAME_BYTES && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        ImageFrameFetcher.StudyLoad second = fetcher.loadImageSet("datastore", "imageset", (frameId, frame) -> {
+            if (!Arrays.equals(frameBytes(frameId), frame)) {
+                wrongFrames.incrementAndGet();
+            }
+        }).get(30, TimeUnit.SECONDS);
+        assertEquals(0, second.getFailedFrames());
+        assertEquals(1, service.metadataCalls.get());
+        assertEquals(frames, service.frameCalls.get());
+        assertEquals(frames, fetcher.getMemoryHits() + fetcher.getDiskHits());
+        assertTrue(fetcher.getDiskHits() > 0);
+        assertTrue(fetcher.getMemoryBytes() <= 8L * 1024 * 1024);
+        assertEquals(0, wrongFrames.get());
+        fetcher.close();
+    }
+
+    @Test
+    public void testDiskBudgetEvictsLeastRecentlyUsedFrames() throws Exception {
+        StubImagingService service = new StubImagingService(1, 50);
+        long diskBudget = 16L * FRAME_BYTES;
+        ImageFrameFetcher fetcher = new ImageFrameFetcher(service, cacheDirectory, 4, 0, diskBudget);
+        fetcher.loadImageSet("datastore", "imageset", (frameId, frame) -> {
+        }).get(30, TimeUnit.SECONDS);
+        fetcher.close();
+
+        assertEquals(diskBudget, cachedBytes());
+        assertEquals(diskBudget, fetcher.getDiskBytes());
+
+        // A new fetcher with room for all frames finds the cached frames of the earlier one.
+        ImageFrameFetcher reopened = new ImageFrameFetcher(service, cacheDirectory, 4, 0, 4 * diskBudget);
+        assertEquals(diskBudget, reopened.getDiskBytes());
+        ImageFrameFetcher.StudyLoad load = reopened.loadImageSet("datastore", "imageset", (frameId, frame) -> {
+        }).get(30, TimeUnit.SECONDS);
+        reopened.close();
+        assertEquals(0, load.getFailedFrames());
+        assertEquals(16, reopened.getDiskHits());
+        assertEquals(50 + (50 - 16), service.frameCalls.get());
+        assertEquals(2, service.metadataCalls.get());
+    }
+
+    private long cachedBytes() throws IOException {
+        try (Stream<Path> files = Files.list(cacheDirectory)) {
+            return files.filter(file -> file.toString().endsWith(".frame")).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    private static byte[] frameBytes(String frameId) {
+        byte[] frame = new byte[FRAME_BYTES];
+        new Random(frameId.hashCode()).nextBytes(frame);
+        return frame;
+    }
+
+    // Answers GetImageSetMetadata with gzip-compressed metadata of series x instances frames,
+    // and GetImageFrame with the bytes of the frame, each after a fixed latency.
+    private static class StubImagingService implements MedicalImagingAsyncClient {
+        private final byte[] metadata;
+        private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(4, runnable -> {
+            Thread thread = new Thread(runnable, "stub-imaging-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final AtomicInteger metadataCalls = new AtomicInteger();
+        private final AtomicInteger frameCalls = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        StubImagingService(int seriesCount, int instancesPerSeries) throws IOException {
+            JsonObject series = new JsonObject();
+            for (int s = 0; s < seriesCount; s++) {
+                JsonObject instances = new JsonObject();
+                for (int i = 0; i < instancesPerSeries; i++) {
+                    JsonObject frame = new JsonObject();
+                    frame.addProperty("ID", String.format("%032x", s * 100_000L + i));
+                    JsonArray frames = new JsonArray();
+                    frames.add(frame);
+                    JsonObject instance = new JsonObject();
+                    instance.add("ImageFrames", frames);
+                    instances.add("1.2.840." + s + "." + i, instance);
+                }
+                JsonObject seriesObject = new JsonObject();
+                seriesObject.add("Instances", instances);
+                series.add("1.2.840." + s, seriesObject);
+            }
+            JsonObject study = new JsonObject();
+            study.add("Series", series);
+            JsonObject root = new JsonObject();
+            root.add("Study", study);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(root.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            metadata = bytes.toByteArray();
+        }
+
+        @Override
+        public <ReturnT> CompletableFuture<ReturnT> getImageSetMetadata(GetImageSetMetadataRequest request,
+                AsyncResponseTransformer<GetImageSetMetadataResponse, ReturnT> transformer) {
+            metadataCalls.incrementAndGet();
+            GetImageSetMetadataResponse response = GetImageSetMetadataResponse.builder()
+                    .contentType("application/json")
+                    .contentEncoding("gzip")
+                    .build();
+            return respond(response, metadata, transformer);
+        }
+
+        @Override
+        public <ReturnT> CompletableFuture<ReturnT> getImageFrame(GetImageFrameRequest request,
+                AsyncResponseTransformer<GetImageFrameResponse, ReturnT> transformer) {
+            frameCalls.incrementAndGet();
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            GetImageFrameResponse response = GetImageFrameResponse.builder()
+                    .contentType("application/octet-stream")
+                    .build();
+            return respond(response, frameBytes(request.imageFrameInformation().imageFrameId()), transformer)
+                    .whenComplete((result, error) -> inFlight.decrementAndGet());
+        }
+
+        // Feeds the response and its body to the transformer after the latency.
+        private <ResponseT, ReturnT> CompletableFuture<ReturnT> respond(ResponseT response, byte[] body,
+                AsyncResponseTransformer<ResponseT, ReturnT> transformer) {
+            CompletableFuture<ReturnT> result = new CompletableFuture<>();
+            scheduler.schedule(() -> {
+                CompletableFuture<ReturnT> transformed = transformer.prepare();
+                transformer.onResponse(response);
+                transformer.onStream(AsyncRequestBody.fromBytes(body));
+                transformed.whenComplete((value, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            }, LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+            return result;
+        }
+
+        @Override
+        public String serviceName() {
+            return "medical-imaging";
+        }
+
+        @Override
+        public void close() {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -19,7 +19,6 @@ import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
 import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
 import software.amazon.awssdk.services.sqs.model.ListQueuesResponse;
 import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
-import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
 
 import java.io.IOException;
@@ -28,10 +27,12 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.Duration;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ProcessS3EventNotification {
     static final CloudFormationAsyncClient cfClient = CloudFormationAsyncClient.create();
@@ -39,6 +40,9 @@ public class ProcessS3EventNotification {
     static final S3AsyncClient s3Client = S3AsyncClient.create();
     static final S3TransferManager transferManager = S3TransferManager.create();
     static final String STACK_NAME = "direct-target";
+    static final int RECEIVERS = 4;
+    static final int HANDLER_THREADS = 4;
+    static final int WAIT_TIME_SECONDS = 20;
     private static final Logger logger = LoggerFactory.getLogger(ProcessS3EventNotification.class);
 
     public static void main(String[] args) {
@@ -76,75 +80,90 @@ public class ProcessS3EventNotification {
      * Note: The S3EventNotification class does not work with messages routed through AWS EventBridge.
      */
     static void processS3Events(String bucketName, String queueUrl, String queueArn) {
-        try {
-            // Configure the bucket to send Object Created and Object Tagging notifications to an existing SQS queue.
-            s3Client.putBucketNotificationConfiguration(b -> b
-                    .notificationConfiguration(ncb -> ncb
-                            .queueConfigurations(qcb -> qcb
-                                    .events(Event.S3_OBJECT_CREATED, Event.S3_OBJECT_TAGGING)
-                                    .queueArn(queueArn)))
-                            .bucket(bucketName)
-            ).join();
-
-            triggerS3EventNotifications(bucketName);
-            // Wait for event notifications to propagate.
-            Thread.sleep(Duration.ofSeconds(5).toMillis());
+        // Configure the bucket to send Object Created and Object Tagging notifications to an existing SQS queue.
+        s3Client.putBucketNotificationConfiguration(b -> b
+                .notificationConfiguration(ncb -> ncb
+                        .queueConfigurations(qcb -> qcb
+                                .events(Event.S3_OBJECT_CREATED, Event.S3_OBJECT_TAGGING)
+                                .queueArn(queueArn)))
+                        .bucket(bucketName)
+        ).join();
 
-            boolean didReceiveMessages = true;
-            while (didReceiveMessages) {
-                // Display the number of messages that are available in the queue.
-                sqsClient.getQueueAttributes(b -> b
-                                .queueUrl(queueUrl)
-                                .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES)
-                        ).thenAccept(attributeResponse ->
-                                logger.info("Approximate number of messages in the queue: {}",
-                                        attributeResponse.attributes().get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES)))
-                        .join();
+        triggerS3EventNotifications(bucketName);
 
-                // Receive the messages.
-                ReceiveMessageResponse response = sqsClient.receiveMessage(b -> b
+        // Display the number of messages that are available in the queue.
+        sqsClient.getQueueAttributes(b -> b
                         .queueUrl(queueUrl)
-                ).get();
-                logger.info("Count of received messages: {}", response.messages().size());
-                didReceiveMessages = !response.messages().isEmpty();
+                        .attributeNames(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES)
+                ).thenAccept(attributeResponse ->
+                        logger.info("Approximate number of messages in the queue: {}",
+                                attributeResponse.attributes().get(QueueAttributeName.APPROXIMATE_NUMBER_OF_MESSAGES)))
+                .join();
 
-                // Create a collection to hold the received message for deletion
-                // after we log the messages.
-                HashSet<DeleteMessageBatchRequestEntry> messagesToDelete = new HashSet<>();
-                // Process each message.
-                response.messages().forEach(message -> {
-                    logger.info("Message id: {}", message.messageId());
-                    // Deserialize JSON message body to a S3EventNotification object
-                    // to access messages in an object-oriented way.
-                    S3EventNotification event = S3EventNotification.fromJson(message.body());
+        // Several receivers long-poll the queue at the same time, so there is no need to sleep
+        // while the event notifications propagate. The messages are handled on a separate pool
+        // so that the threads of the SQS client are free to receive more messages.
+        ExecutorService handlerPool = Executors.newFixedThreadPool(HANDLER_THREADS);
+        try {
+            CompletableFuture<?>[] receivers = new CompletableFuture<?>[RECEIVERS];
+            for (int i = 0; i < RECEIVERS; i++) {
+                receivers[i] = receiveUntilEmpty(queueUrl, handlerPool);
+            }
+            CompletableFuture.allOf(receivers).join();
+        } finally {
+            handlerPool.shutdown();
+        }
+    }
 
-                    // Log the S3 event notification record details.
-                    if (event.getRecords() != null) {
-                        event.getRecords().forEach(record -> {
-                            String eventName = record.getEventName();
-                            String key = record.getS3().getObject().getKey();
-                            logger.info(record.toString());
-                            logger.info("Event name is {} and key is {}", eventName, key);
-                        });
+    // Receives, handles and deletes batches of up to 10 messages until a long poll returns no messages.
+    static CompletableFuture<Void> receiveUntilEmpty(String queueUrl, ExecutorService handlerPool) {
+        return sqsClient.receiveMessage(b -> b
+                        .queueUrl(queueUrl)
+                        .maxNumberOfMessages(10)
+                        .waitTimeSeconds(WAIT_TIME_SECONDS))
+                .thenComposeAsync(response -> {
+                    logger.info("Count of received messages: {}", response.messages().size());
+                    if (response.messages().isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
                     }
-                    // Add logged messages to collection for batch deletion.
-                    messagesToDelete.add(DeleteMessageBatchRequestEntry.builder()
-                            .id(message.messageId())
-                            .receiptHandle(message.receiptHandle())
-                            .build());
-                });
-                // Delete messages.
-                if (!messagesToDelete.isEmpty()) {
-                    sqsClient.deleteMessageBatch(DeleteMessageBatchRequest.builder()
-                            .queueUrl(queueUrl)
-                            .entries(messagesToDelete)
-                            .build()
-                    ).join();
-                }
-            } // End of while block.
-        } catch (InterruptedException | ExecutionException e) {
-            throw new RuntimeException(e);
-        }
+
+                    // Create a collection to hold the received message for deletion
+                    // after we log the messages.
+                    List<DeleteMessageBatchRequestEntry> messagesToDelete = new ArrayList<>();
+                    // Process each message.
+                    response.messages().forEach(message -> {
+                        logger.info("Message id: {}", message.messageId());
+                        // Deserialize JSON message body to a S3EventNotification object
+                        // to access messages in an object-oriented way.
+                        S3EventNotification event = S3EventNotification.fromJson(message.body());
+
+                        // Log the S3 event notification record details.
+                        if (event.getRecords() != null) {
+                            event.getRecords().forEach(record -> {
+                                String eventName = record.getEventName();
+                                String key = record.getS3().getObject().getKey();
+                                logger.info(record.toString());
+                                logger.info("Event name is {} and key is {}", eventName, key);
+                            });
+                        }
+                        // Add logged messages to collection for batch deletion.
+                        messagesToDelete.add(DeleteMessageBatchRequestEntry.builder()
+                                .id(message.messageId())
+                                .receiptHandle(message.receiptHandle())
+                                .build());
+                    });
+
+                    // Delete the messages in one request, and receive the next batch.
+                    return sqsClient.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                                    .queueUrl(queueUrl)
+                                    .entries(messagesToDelete)
+                                    .build())
+                            .thenCompose(deleteResponse -> {
+                                deleteResponse.failed().forEach(failure ->
+                                        logger.error("Failed to delete message {}: {}", failure.id(), failure.message()));
+                                return receiveUntilEmpty(queueUrl, handlerPool);
+                            });
+                }, handlerPool);
     }
 
     // snippet-end:[s3.java2.process_s3_event_notifications]
@@ -172,11 +191,6 @@ public class ProcessS3EventNotification {
                                     failedUpload.exception().getMessage())
                     );
                 }).join();
-        try {
-            Thread.sleep(Duration.ofSeconds(1).toMillis());
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
 
         try (S3AsyncClient s3Client = S3AsyncClient.create()) {
             s3Client.listObjects(b -> b.bucket(bucketName))
@@ -3,23 +3,18 @@
 
 package com.example.s3;
 
-import software.amazon.awssdk.core.ResponseBytes;
-import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.model.GetObjectResponse;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Duration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CompletionException;
 
 /**
  * Before running this Java V2 code example, set up your development
@@ -50,67 +45,37 @@ public class S3ZipExample {
         String keys = args[1];
         String[] imageKeys = keys.split("[,]", 0);
         Region region = Region.US_EAST_1;
-        S3Client s3 = S3Client.builder()
+        S3AsyncClient s3AsyncClient = S3AsyncClient.builder()
             .region(region)
             .build();
 
-        createZIPFile(s3, bucketName, imageKeys);
+        createZIPFile(s3AsyncClient, bucketName, imageKeys);
+        s3AsyncClient.close();
     }
 
     /**
      * Creates a ZIP file containing the specified image keys from an S3 bucket and uploads it to S3.
+     * <p>
+     * The objects are streamed through {@link StreamingZipBundler}, so the archive is never held in memory
+     * and is uploaded as a multipart upload while it is being written.
      *
-     * @param s3 the S3Client instance to use for interacting with S3
+     * @param s3AsyncClient the S3AsyncClient instance to use for interacting with S3
      * @param bucketName the name of the S3 bucket to use
      * @param imageKeys an array of image keys to include in the ZIP file
      */
-    public static void createZIPFile(S3Client s3, String bucketName, String[] imageKeys) {
+    public static void createZIPFile(S3AsyncClient s3AsyncClient, String bucketName, String[] imageKeys) {
         String uuid = java.util.UUID.randomUUID().toString();
         String zipName = uuid + ".zip";
-        // Create a ByteArrayOutputStream to write the ZIP file to.
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+        StreamingZipBundler bundler = new StreamingZipBundler(s3AsyncClient);
 
         try {
-            for (String imageKey : imageKeys) {
-                GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(imageKey)
-                    .build();
-                ResponseBytes<GetObjectResponse> responseBytes = s3.getObjectAsBytes(getObjectRequest);
-
-                // Create a ZipEntry for the object and add it to the ZipOutputStream.
-                ZipEntry zipEntry = new ZipEntry(imageKey);
-                zipOutputStream.putNextEntry(zipEntry);
-
-                // Write the data to the ZipOutputStream.
-                zipOutputStream.write(responseBytes.asByteArray(), 0, responseBytes.asByteArray().length);
-
-                // Close the ZipEntry.
-                zipOutputStream.closeEntry();
-            }
-
-            // Close the ZipOutputStream.
-            zipOutputStream.close();
-
-            // Upload the ZIP file to S3.
-            PutObjectRequest putObjectRequest = PutObjectRequest.builder()
-                .bucket(bucketName)
-                .key(zipName)
-                .build();
-            s3.putObject(putObjectRequest, RequestBody.fromBytes(outputStream.toByteArray()));
+            bundler.bundle(bucketName, Arrays.asList(imageKeys), bucketName, zipName);
             String preSignUrl = signObjectToDownload(bucketName, zipName);
             System.out.println("The Presigned URL is " + preSignUrl);
 
-        } catch (S3Exception | IOException e) {
+        } catch (S3Exception | UncheckedIOException | CompletionException e) {
             System.err.println(e.getMessage());
             e.printStackTrace();
-        } finally {
-            try {
-                outputStream.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
         }
     }
 
@@ -0,0 +1,334 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds a ZIP archive from a set of Amazon S3 objects and uploads it back to Amazon S3 without
+ * holding the archive in memory.
+ * <p>
+ * Source objects are fetched concurrently with the {@link S3AsyncClient} (a bounded window of
+ * downloads runs ahead of the entry that is being written), copied through a {@link ZipOutputStream}
+ * in fixed-size chunks, and the compressed bytes are cut into parts of a multipart upload. At most
+ * {@code maxPartsInFlight} parts are uploaded at the same time, so heap use is bounded by roughly
+ * {@code partSize * (maxPartsInFlight + 1)} regardless of the size of the archive.
+ * <p>
+ * A multipart upload has at most {@link #MAX_PARTS} parts, so an archive can be at most
+ * {@code partSize * MAX_PARTS} bytes; choose a larger part size for larger archives.
+ */
+public class StreamingZipBundler {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingZipBundler.class);
+
+    // Amazon S3 requires every part except the last one to be at least 5 MiB.
+    public static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    // Amazon S3 accepts at most 10,000 parts in a multipart upload.
+    public static final int MAX_PARTS = 10_000;
+    public static final int DEFAULT_PART_SIZE = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_PARTS_IN_FLIGHT = 4;
+    public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+
+    private final S3AsyncClient s3AsyncClient;
+    private final int partSize;
+    private final int maxPartsInFlight;
+    private final int maxConcurrentDownloads;
+
+    public StreamingZipBundler(S3AsyncClient s3AsyncClient) {
+        this(s3AsyncClient, DEFAULT_PART_SIZE, DEFAULT_MAX_PARTS_IN_FLIGHT, DEFAULT_MAX_CONCURRENT_DOWNLOADS);
+    }
+
+    /**
+     * @param s3AsyncClient          the client used to download the source objects and upload the archive
+     * @param partSize               the size in bytes of each uploaded part (at least {@link #MIN_PART_SIZE})
+     * @param maxPartsInFlight       the maximum number of parts that are uploaded at the same time
+     * @param maxConcurrentDownloads the maximum number of source objects that are fetched ahead of the ZIP writer
+     */
+    public StreamingZipBundler(S3AsyncClient s3AsyncClient, int partSize, int maxPartsInFlight, int maxConcurrentDownloads) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("partSize must be at least " + MIN_PART_SIZE + " bytes");
+        }
+        if (maxPartsInFlight < 1 || maxConcurrentDownloads < 1) {
+            throw new IllegalArgumentException("maxPartsInFlight and maxConcurrentDownloads must be positive");
+        }
+        this.s3AsyncClient = s3AsyncClient;
+        this.partSize = partSize;
+        this.maxPartsInFlight = maxPartsInFlight;
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+    }
+
+    /**
+     * Creates a ZIP archive that contains the specified objects and uploads it as a multipart upload.
+     * If any download or part upload fails, or the archive needs more than {@link #MAX_PARTS} parts,
+     * the multipart upload is aborted and the failure is rethrown.
+     *
+     * @param sourceBucket the bucket that contains the objects to archive
+     * @param keys         the keys of the objects to archive; each key becomes one ZIP entry
+     * @param targetBucket the bucket that receives the archive
+     * @param zipKey       the key of the archive
+     * @return the response of the CompleteMultipartUpload operation
+     */
+    public CompleteMultipartUploadResponse bundle(String sourceBucket, List<String> keys, String targetBucket, String zipKey) {
+        String uploadId = s3AsyncClient.createMultipartUpload(CreateMultipartUploadRequest.builder()
+                .bucket(targetBucket)
+                .key(zipKey)
+                .contentType("application/zip")
+                .build())
+            .join()
+            .uploadId();
+
+        Deque<CompletableFuture<ResponseInputStream<GetObjectResponse>>> downloads = new ArrayDeque<>();
+        PartUploadingOutputStream partStream = new PartUploadingOutputStream(targetBucket, zipKey, uploadId);
+        ZipOutputStream zipOutputStream = new ZipOutputStream(partStream);
+        try {
+            int nextToFetch = 0;
+            while (nextToFetch < keys.size() && downloads.size() < maxConcurrentDownloads) {
+                downloads.add(fetch(sourceBucket, keys.get(nextToFetch++)));
+            }
+
+            byte[] chunk = new byte[COPY_CHUNK_SIZE];
+            for (String key : keys) {
+                // The download stays in the window until its stream is closed, so a failure at any
+                // point below still closes it.
+                CompletableFuture<ResponseInputStream<GetObjectResponse>> download = downloads.peek();
+                try (InputStream objectStream = download.join()) {
+                    zipOutputStream.putNextEntry(new ZipEntry(key));
+                    int read;
+                    while ((read = objectStream.read(chunk)) != -1) {
+                        zipOutputStream.write(chunk, 0, read);
+                    }
+                    zipOutputStream.closeEntry();
+                }
+                downloads.remove();
+                if (nextToFetch < keys.size()) {
+                    downloads.add(fetch(sourceBucket, keys.get(nextToFetch++)));
+                }
+            }
+            // Writes the central directory and uploads the last part.
+            zipOutputStream.close();
+
+            List<CompletedPart> parts = partStream.completedParts();
+            logger.info("Uploaded {} parts for {} entries to s3://{}/{}", parts.size(), keys.size(), targetBucket, zipKey);
+            return s3AsyncClient.completeMultipartUpload(CompleteMultipartUploadRequest.builder()
+                    .bucket(targetBucket)
+                    .key(zipKey)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build())
+                    .build())
+                .join();
+
+        } catch (IOException | RuntimeException e) {
+            downloads.forEach(download -> download.thenAccept(StreamingZipBundler::closeQuietly));
+            // Abandon the part stream first, so that closing the ZIP stream does not upload a last part.
+            partStream.abandon();
+            closeQuietly(zipOutputStream);
+            s3AsyncClient.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(targetBucket)
+                    .key(zipKey)
+                    .uploadId(uploadId)
+                    .build())
+                .exceptionally(abortError -> {
+                    logger.error("Could not abort multipart upload {}: {}", uploadId, abortError.getMessage());
+                    return null;
+                })
+                .join();
+            if (e instanceof IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    private CompletableFuture<ResponseInputStream<GetObjectResponse>> fetch(String bucket, String key) {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+            .bucket(bucket)
+            .key(key)
+            .build();
+        // The blocking input stream only requests more data from the connection as it is read,
+        // so a prefetched object does not accumulate in memory while it waits for its turn.
+        return s3AsyncClient.getObject(getObjectRequest, AsyncResponseTransformer.toBlockingInputStream());
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            logger.debug("Could not close stream: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * An {@link OutputStream} that cuts the bytes written to it into parts of a multipart upload.
+     * Part buffers are recycled once their upload completes. Once the stream is abandoned, the
+     * bytes written to it are discarded and no more parts are uploaded.
+     */
+    private final class PartUploadingOutputStream extends OutputStream {
+        private final String bucket;
+        private final String key;
+        private final String uploadId;
+        private final Semaphore uploadPermits = new Semaphore(maxPartsInFlight);
+        private final ConcurrentLinkedQueue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+        private final List<CompletableFuture<CompletedPart>> pendingParts = new ArrayList<>();
+        private volatile Throwable failure;
+        private byte[] current;
+        private int position;
+        private int nextPartNumber = 1;
+        private boolean closed;
+        private boolean abandoned;
+
+        PartUploadingOutputStream(String bucket, String key, String uploadId) {
+            this.bucket = bucket;
+            this.key = key;
+            this.uploadId = uploadId;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (abandoned) {
+                return;
+            }
+            ensureBuffer();
+            current[position++] = (byte) b;
+            if (position == partSize) {
+                uploadCurrentPart();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (abandoned) {
+                return;
+            }
+            while (len > 0) {
+                ensureBuffer();
+                int count = Math.min(len, partSize - position);
+                System.arraycopy(b, off, current, position, count);
+                position += count;
+                off += count;
+                len -= count;
+                if (position == partSize) {
+                    uploadCurrentPart();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed || abandoned) {
+                return;
+            }
+            closed = true;
+            if (position > 0 || nextPartNumber == 1) {
+                ensureBuffer();
+                uploadCurrentPart();
+            }
+        }
+
+        /**
+         * Waits for every part to finish uploading and returns the parts in part number order.
+         */
+        List<CompletedPart> completedParts() throws IOException {
+            try {
+                CompletableFuture.allOf(pendingParts.toArray(new CompletableFuture[0])).join();
+            } catch (CompletionException e) {
+                throw new IOException("Part upload failed for " + key, e.getCause());
+            }
+            return pendingParts.stream().map(CompletableFuture::join).toList();
+        }
+
+        void abandon() {
+            abandoned = true;
+            pendingParts.forEach(part -> part.cancel(false));
+            current = null;
+            freeBuffers.clear();
+        }
+
+        private void ensureBuffer() throws IOException {
+            if (failure != null) {
+                throw new IOException("Part upload failed for " + key, failure);
+            }
+            if (current == null) {
+                byte[] recycled = freeBuffers.poll();
+                current = recycled != null ? recycled : new byte[partSize];
+                position = 0;
+            }
+        }
+
+        private void uploadCurrentPart() throws IOException {
+            if (nextPartNumber > MAX_PARTS) {
+                throw new IOException("The archive " + key + " needs more than " + MAX_PARTS + " parts of "
+                    + partSize + " bytes; use a larger part size");
+            }
+            try {
+                uploadPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to upload part " + nextPartNumber);
+            }
+
+            byte[] buffer = current;
+            int length = position;
+            int partNumber = nextPartNumber++;
+            current = null;
+            position = 0;
+
+            UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                .bucket(bucket)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) length)
+                .build();
+
+            // The buffer is not copied; it is only reused after the upload has completed.
+            CompletableFuture<CompletedPart> part = s3AsyncClient
+                .uploadPart(uploadPartRequest, AsyncRequestBody.fromByteBufferUnsafe(ByteBuffer.wrap(buffer, 0, length)))
+                .thenApply(response -> CompletedPart.builder()
+                    .partNumber(partNumber)
+                    .eTag(response.eTag())
+                    .build())
+                .whenComplete((completedPart, error) -> {
+                    if (error != null) {
+                        failure = error;
+                    } else {
+                        freeBuffers.offer(buffer);
+                    }
+                    uploadPermits.release();
+                });
+            pendingParts.add(part);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.s3;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+class StreamingZipBundlerTest {
+    private static final int MIB = 1024 * 1024;
+
+    @Test
+    void bundleProducesReadableArchive() throws IOException {
+        try (LocalS3StandIn s3 = new LocalS3StandIn()) {
+            List<String> keys = List.of("pic1.jpg", "pic2.jpg", "pic3.jpg");
+            keys.forEach(key -> s3.putObject(key, 3 * MIB));
+
+            new StreamingZipBundler(s3, StreamingZipBundler.MIN_PART_SIZE, 2, 2)
+                .bundle("source", keys, "target", "bundle.zip");
+
+            List<String> entries = new ArrayList<>();
+            try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(s3.uploadedObject()))) {
+                ZipEntry entry;
+                while ((entry = zipInputStream.getNextEntry()) != null) {
+                    entries.add(entry.getName());
+                    assertArrayEquals(s3.objectContent(entry.getName()), zipInputStream.readAllBytes());
+                }
+            }
+            assertEquals(keys, entries);
+            assertTrue(s3.uploadedParts() > 1);
+            assertEquals(1, s3.completeCalls.get());
+            assertEquals(s3.getObjectCalls.get(), s3.releasedDownloads.get());
+        }
+    }
+
+    @Test
+    void failedDownloadAbortsWithoutUploadingTheLastPart() throws InterruptedException {
+        try (LocalS3StandIn s3 = new LocalS3StandIn()) {
+            s3.putObject("pic1.jpg", MIB);
+
+            // The first entry fits in the part buffer, so no part may be uploaded when the second download fails.
+            assertThrows(RuntimeException.class, () -> new StreamingZipBundler(s3, StreamingZipBundler.MIN_PART_SIZE, 2, 2)
+                .bundle("source", List.of("pic1.jpg", "missing.jpg"), "target", "bundle.zip"));
+
+            assertEquals(0, s3.uploadedParts());
+            assertEquals(0, s3.completeCalls.get());
+            assertEquals(1, s3.abortCalls.get());
+            s3.awaitReleasedDownloads();
+        }
+    }
+
+    @Test
+    void failedEntryReleasesItsDownload() throws InterruptedException {
+        try (LocalS3StandIn s3 = new LocalS3StandIn()) {
+            s3.putObject("pic1.jpg", MIB);
+            s3.putObject("pic2.jpg", MIB);
+
+            // The ZIP stream rejects the second entry with the same name when it is added.
+            assertThrows(RuntimeException.class, () -> new StreamingZipBundler(s3, StreamingZipBundler.MIN_PART_SIZE, 2, 2)
+                .bundle("source", List.of("pic1.jpg", "pic1.jpg", "pic2.jpg"), "target", "bundle.zip"));
+
+            assertEquals(0, s3.uploadedParts());
+            assertEquals(1, s3.abortCalls.get());
+            s3.awaitReleasedDownloads();
+        }
+    }
+
+    /**
+     * A minimal in-memory S3 stand-in. Object content is served as repeated slices of one shared 1 MiB
+     * random block, so large source objects don't occupy heap of their own. A download is released
+     * when its body has been read to the end or cancelled.
+     */
+    private static final class LocalS3StandIn implements S3AsyncClient {
+        private final ByteBuffer block;
+        private final Map<String, Integer> objectSizes = new ConcurrentHashMap<>();
+        private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+        private final AtomicInteger uploadedParts = new AtomicInteger();
+        private final AtomicInteger getObjectCalls = new AtomicInteger();
+        private final AtomicInteger releasedDownloads = new AtomicInteger();
+        private final AtomicInteger completeCalls = new AtomicInteger();
+        private final AtomicInteger abortCalls = new AtomicInteger();
+        private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        LocalS3StandIn() {
+            byte[] bytes = new byte[MIB];
+            new Random(42).nextBytes(bytes);
+            this.block = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        }
+
+        void putObject(String key, int size) {
+            objectSizes.put(key, size);
+        }
+
+        byte[] objectContent(String key) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            for (int remaining = objectSizes.get(key); remaining > 0; remaining -= MIB) {
+                ByteBuffer slice = block.duplicate();
+                byte[] bytes = new byte[Math.min(MIB, remaining)];
+                slice.get(bytes);
+                outputStream.writeBytes(bytes);
+            }
+            return outputStream.toByteArray();
+        }
+
+        // Waits until every download that was started has been released.
+        void awaitReleasedDownloads() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (releasedDownloads.get() < getObjectCalls.get() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(getObjectCalls.get(), releasedDownloads.get());
+        }
+
+        int uploadedParts() {
+            return uploadedParts.get();
+        }
+
+        byte[] uploadedObject() {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            parts.keySet().stream().sorted().forEach(partNumber -> outputStream.writeBytes(parts.get(partNumber)));
+            return outputStream.toByteArray();
+        }
+
+        @Override
+        public <T> CompletableFuture<T> getObject(GetObjectRequest getObjectRequest,
+                                                  AsyncResponseTransformer<GetObjectResponse, T> transformer) {
+            Integer size = objectSizes.get(getObjectRequest.key());
+            if (size == null) {
+                return CompletableFuture.failedFuture(NoSuchKeyException.builder().message("missing").build());
+            }
+            getObjectCalls.incrementAndGet();
+            CompletableFuture<T> result = transformer.prepare();
+            executor.execute(() -> {
+                List<ByteBuffer> slices = new ArrayList<>();
+                for (int remaining = size; remaining > 0; remaining -= MIB) {
+                    ByteBuffer slice = block.duplicate();
+                    slice.limit(Math.min(MIB, remaining));
+                    slices.add(slice);
+                }
+                transformer.onResponse(GetObjectResponse.builder().contentLength((long) size).build());
+                transformer.onStream(SdkPublisher.adapt(tracked(
+                    AsyncRequestBody.fromByteBuffersUnsafe(slices.toArray(new ByteBuffer[0])))));
+            });
+            return result;
+        }
+
+        private Publisher<ByteBuffer> tracked(Publisher<ByteBuffer> body) {
+            AtomicBoolean released = new AtomicBoolean();
+            Runnable release = () -> {
+                if (released.compareAndSet(false, true)) {
+                    releasedDownloads.incrementAndGet();
+                }
+            };
+            return subscriber -> body.subscribe(new Subscriber<>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    subscriber.onSubscribe(new Subscription() {
+                        @Override
+                        public void request(long n) {
+                            subscription.request(n);
+                        }
+
+                        @Override
+                        public void cancel() {
+                            release.run();
+                            subscription.cancel();
+                        }
+                    });
+                }
+
+                @Override
+                public void onNext(ByteBuffer byteBuffer) {
+                    subscriber.onNext(byteBuffer);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    subscriber.onError(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    release.run();
+                    subscriber.onComplete();
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(CreateMultipartUploadRequest request) {
+            return CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+        }
+
+        @Override
+        public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody body) {
+            CompletableFuture<UploadPartResponse> response = new CompletableFuture<>();
+            ByteArrayOutputStream retained = new ByteArrayOutputStream();
+            executor.execute(() -> body.subscribe(new Subscriber<>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer byteBuffer) {
+                    byte[] bytes = new byte[byteBuffer.remaining()];
+                    byteBuffer.get(bytes);
+                    retained.writeBytes(bytes);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    response.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    parts.put(request.partNumber(), retained.toByteArray());
+                    uploadedParts.incrementAndGet();
+                    response.complete(UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build());
+                }
+            }));
+            return response;
+        }
+
+        @Override
+        public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            List<Integer> partNumbers = request.multipartUpload().parts().stream().map(CompletedPart::partNumber).toList();
+            assertEquals(uploadedParts.get(), partNumbers.size());
+            completeCalls.incrementAndGet();
+            return CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder()
+                .bucket(request.bucket())
+                .key(request.key())
+                .build());
+        }
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(AbortMultipartUploadRequest request) {
+            abortCalls.incrementAndGet();
+            return CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build());
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,386 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.sesv2;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.*;
+
+/**
+ * Sends one email to each recipient of a campaign, such as every contact in a contact list.
+ *
+ * The emails are sent by a fixed number of threads. A token bucket keeps the sends under the
+ * maximum send rate of the account, which is read with GetAccount when the campaign starts and
+ * again every minute. A send that is throttled is retried with jittered exponential backoff.
+ *
+ * The outcome for every recipient is appended to a journal file, one short line each, so that
+ * a campaign that was interrupted can be run again with the same journal without sending
+ * twice. A recipient is written as attempted before the send and as sent or failed after it. A
+ * recipient that was attempted but has no outcome, because the process stopped during the
+ * send, may have received the email, so a resumed campaign skips it and reports it as in doubt.
+ */
+public class BulkEmailSender implements AutoCloseable {
+  // The sending rate of a new account in the sandbox, used when GetAccount returns no quota.
+  public static final double DEFAULT_MAX_SEND_RATE = 1.0;
+
+  private static final int MAX_THROTTLING_RETRIES = 8;
+  private static final long BASE_BACKOFF_MILLIS = 100;
+  private static final long MAX_BACKOFF_MILLIS = 10_000;
+  private static final long RATE_REFRESH_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final SesV2Client sesClient;
+  private final int concurrency;
+  private final ExecutorService senders;
+
+  /**
+   * @param sesClient   the client that sends every email
+   * @param concurrency the most sends to wait for at the same time
+   */
+  public BulkEmailSender(SesV2Client sesClient, int concurrency) {
+    this.sesClient = sesClient;
+    this.concurrency = concurrency;
+    this.senders = Executors.newFixedThreadPool(concurrency, runnable -> {
+      Thread thread = new Thread(runnable, "bulk-email-sender");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Returns the email addresses of a contact list, fetching the next page of ListContacts when
+   * the current one runs out. The first page is fetched right away, so a missing contact list
+   * fails here.
+   */
+  public static Iterator<String> contactList(SesV2Client sesClient, String contactListName) {
+    return new ContactListIterator(sesClient, contactListName);
+  }
+
+  /**
+   * Sends an email to each recipient that the journal has no outcome for.
+   *
+   * An error that stops every other send too, such as a paused or suspended account, an
+   * unverified sending domain, rejected content, or a reached daily quota, ends the campaign:
+   * the sends in progress finish and the error is thrown. Any other error is recorded as a
+   * failure for that recipient.
+   *
+   * @param recipients the email addresses to send to
+   * @param request    builds the request for one email address
+   * @param journal    the file that records the outcome for each recipient
+   * @param onSent     called with the email address and the message ID of every email sent
+   */
+  public CampaignResult send(Iterator<String> recipients, Function<String, SendEmailRequest> request, Path journal,
+      BiConsumer<String, String> onSent) throws IOException, InterruptedException {
+    CampaignResult result = new CampaignResult();
+    Map<String, Character> outcomes = readJournal(journal);
+    TokenBucket bucket = new TokenBucket(maxSendRate());
+    long rateCheckedNanos = System.nanoTime();
+    Semaphore inFlight = new Semaphore(concurrency);
+    AtomicReference<RuntimeException> fatal = new AtomicReference<>();
+    long start = System.nanoTime();
+
+    try (BufferedWriter writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      Journal log = new Journal(writer);
+      while (recipients.hasNext() && fatal.get() == null) {
+        String emailAddress = recipients.next();
+        Character outcome = outcomes.put(emailAddress, 'Q');
+        if (outcome != null && outcome == 'Q') {
+          // The address is in the list twice. It is already queued in this run.
+          continue;
+        }
+        if (outcome != null && outcome != 'U') {
+          outcomes.put(emailAddress, outcome);
+          if (outcome == 'S') {
+            result.alreadySent.increment();
+          } else if (outcome == 'F') {
+            result.alreadyFailed.increment();
+          } else {
+            result.inDoubt.increment();
+          }
+          continue;
+        }
+
+        if (System.nanoTime() - rateCheckedNanos > RATE_REFRESH_NANOS) {
+          bucket.setRate(maxSendRate());
+          rateCheckedNanos = System.nanoTime();
+        }
+        inFlight.acquire();
+        senders.execute(() -> {
+          try {
+            if (fatal.get() == null) {
+              sendOne(emailAddress, request.apply(emailAddress), bucket, log, result, onSent);
+            }
+          } catch (RuntimeException e) {
+            fatal.compareAndSet(null, e);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fatal.compareAndSet(null, new IllegalStateException("Interrupted while sending to " + emailAddress));
+          } finally {
+            inFlight.release();
+          }
+        });
+      }
+
+      // Wait for the sends in progress.
+      inFlight.acquire(concurrency);
+      inFlight.release(concurrency);
+    }
+    result.elapsedNanos = System.nanoTime() - start;
+    if (fatal.get() != null) {
+      throw fatal.get();
+    }
+    return result;
+  }
+
+  private void sendOne(String emailAddress, SendEmailRequest request, TokenBucket bucket, Journal log,
+      CampaignResult result, BiConsumer<String, String> onSent) throws InterruptedException {
+    log.write('A', emailAddress, null);
+    for (int attempt = 0;; attempt++) {
+      bucket.acquire();
+      try {
+        SendEmailResponse response = sesClient.sendEmail(request);
+        log.write('S', emailAddress, response.messageId());
+        result.sent.increment();
+        onSent.accept(emailAddress, response.messageId());
+        return;
+      } catch (TooManyRequestsException e) {
+        if (attempt >= MAX_THROTTLING_RETRIES) {
+          log.write('U', emailAddress, null);
+          throw e;
+        }
+        result.throttled.increment();
+        // Full jitter: a random time up to the exponential backoff.
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+        Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+      } catch (AccountSuspendedException | SendingPausedException | MailFromDomainNotVerifiedException
+          | MessageRejectedException | LimitExceededException | NotFoundException e) {
+        // The service did not send the email, so a resumed campaign may send it.
+        log.write('U', emailAddress, null);
+        throw e;
+      } catch (SesV2Exception e) {
+        log.write('F', emailAddress, e.getClass().getSimpleName());
+        result.failed.increment();
+        return;
+      }
+    }
+  }
+
+  private double maxSendRate() {
+    try {
+      GetAccountResponse account = sesClient.getAccount(GetAccountRequest.builder().build());
+      if (account != null && account.sendQuota() != null && account.sendQuota().maxSendRate() != null
+          && account.sendQuota().maxSendRate() > 0) {
+        return account.sendQuota().maxSendRate();
+      }
+    } catch (SesV2Exception e) {
+      System.err.println("Could not read the maximum send rate, using " + DEFAULT_MAX_SEND_RATE + ": "
+          + e.getMessage());
+    }
+    return DEFAULT_MAX_SEND_RATE;
+  }
+
+  // Returns the last outcome in the journal for each recipient. A line that was cut off
+  // by a crash has too few fields and is ignored.
+  private static Map<String, Character> readJournal(Path journal) throws IOException {
+    Map<String, Character> outcomes = new HashMap<>();
+    if (!Files.exists(journal)) {
+      return outcomes;
+    }
+    for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+      String[] fields = line.split(" ");
+      if (fields.length < 2 || fields[0].length() != 1) {
+        continue;
+      }
+      char status = fields[0].charAt(0);
+      if ((status == 'S' || status == 'F') && fields.length < 3) {
+        continue;
+      }
+      Character previous = outcomes.get(fields[1]);
+      // A final outcome is never replaced by a later attempt.
+      if (previous == null || (previous != 'S' && previous != 'F')) {
+        outcomes.put(fields[1], status);
+      }
+    }
+    return outcomes;
+  }
+
+  @Override
+  public void close() {
+    senders.shutdown();
+  }
+
+  /**
+   * The counts of one run of a campaign.
+   */
+  public static class CampaignResult {
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder alreadySent = new LongAdder();
+    private final LongAdder alreadyFailed = new LongAdder();
+    private final LongAdder inDoubt = new LongAdder();
+    private volatile long elapsedNanos;
+
+    public long getSent() {
+      return sent.sum();
+    }
+
+    public long getFailed() {
+      return failed.sum();
+    }
+
+    // Sends that were throttled and retried.
+    public long getThrottled() {
+      return throttled.sum();
+    }
+
+    // Recipients that an earlier run sent to.
+    public long getAlreadySent() {
+      return alreadySent.sum();
+    }
+
+    public long getAlreadyFailed() {
+      return alreadyFailed.sum();
+    }
+
+    // Recipients that an earlier run stopped sending to before it knew the outcome.
+    public long getInDoubt() {
+      return inDoubt.sum();
+    }
+
+    public long getElapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+  }
+
+  // Appends one line per outcome: a status letter, the email address, and the message ID or
+  // the error. Each line is flushed, so it survives the process stopping right after.
+  private static class Journal {
+    private final BufferedWriter writer;
+
+    Journal(BufferedWriter writer) {
+      this.writer = writer;
+    }
+
+    synchronized void write(char status, String emailAddress, String detail) {
+      try {
+        writer.write(status);
+        writer.write(' ');
+        writer.write(emailAddress);
+        if (detail != null) {
+          writer.write(' ');
+          writer.write(detail);
+        }
+        writer.write('\n');
+        writer.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  // Holds up to one second of sends and refills at the send rate.
+  private static class TokenBucket {
+    private double rate;
+    private double capacity;
+    private double tokens;
+    private long refilledNanos = System.nanoTime();
+
+    TokenBucket(double rate) {
+      setRate(rate);
+      tokens = 1;
+    }
+
+    synchronized void setRate(double rate) {
+      refill();
+      this.rate = rate;
+      this.capacity = Math.max(1, rate);
+      tokens = Math.min(tokens, capacity);
+    }
+
+    void acquire() throws InterruptedException {
+      while (true) {
+        long waitNanos;
+        synchronized (this) {
+          refill();
+          if (tokens >= 1) {
+            tokens -= 1;
+            return;
+          }
+          waitNanos = (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+        }
+        TimeUnit.NANOSECONDS.sleep(Math.max(1, waitNanos));
+      }
+    }
+
+    private void refill() {
+      long now = System.nanoTime();
+      tokens = Math.min(capacity, tokens + (now - refilledNanos) * rate / TimeUnit.SECONDS.toNanos(1));
+      refilledNanos = now;
+    }
+  }
+
+  private static class ContactListIterator implements Iterator<String> {
+    private final SesV2Client sesClient;
+    private final String contactListName;
+    private final ArrayDeque<String> page = new ArrayDeque<>();
+    private String nextToken;
+
+    ContactListIterator(SesV2Client sesClient, String contactListName) {
+      this.sesClient = sesClient;
+      this.contactListName = contactListName;
+      fetch();
+    }
+
+    private void fetch() {
+      ListContactsResponse response = sesClient.listContacts(ListContactsRequest.builder()
+          .contactListName(contactListName)
+          .nextToken(nextToken)
+          .build());
+      List<Contact> contacts = response.contacts();
+      for (Contact contact : contacts) {
+        page.add(contact.emailAddress());
+      }
+      nextToken = response.nextToken();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (page.isEmpty() && nextToken != null) {
+        fetch();
+      }
+      return !page.isEmpty();
+    }
+
+    @Override
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return page.poll();
+    }
+  }
+}
@@ -5,8 +5,10 @@ package com.example.sesv2;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Scanner;
 
@@ -32,8 +34,10 @@ public class NewsletterWorkflow {
 
       Let's get started!
       """;
+  private static final int SEND_CONCURRENCY = 16;
   private final SesV2Client sesClient;
   private String verifiedEmail = "";
+  private Path campaignJournal;
   private NewsletterScanner scanner;
 
   // This is a temporary workaround until ListContacts GET body issue is fixed
@@ -43,6 +47,14 @@ public class NewsletterWorkflow {
     this.verifiedEmail = verifiedEmail;
   }
 
+  /**
+   * Sets the journal of the newsletter campaign. Running the campaign again with the
+   * same journal only sends to the contacts that did not get the newsletter yet.
+   */
+  public void setCampaignJournal(Path campaignJournal) {
+    this.campaignJournal = campaignJournal;
+  }
+
   /**
    * Constructor for the Workflow class.
    *
@@ -254,45 +266,47 @@ public class NewsletterWorkflow {
   public void sendCouponNewsletter() {
     try {
       // Retrieve the list of contacts from the "weekly-coupons-newsletter" contact
-      // list
+      // list. The contacts are listed one page at a time while the emails are sent.
       // snippet-start:[sesv2.java2.newsletter.ListContacts]
-      ListContactsRequest contactListRequest = ListContactsRequest.builder()
-          .contactListName(CONTACT_LIST_NAME)
-          .build();
-
-      List<String> contactEmails;
+      Iterator<String> contactEmails;
       try {
-        ListContactsResponse contactListResponse = sesClient.listContacts(contactListRequest);
-
-        contactEmails = contactListResponse.contacts().stream()
-            .map(Contact::emailAddress)
-            .toList();
+        contactEmails = BulkEmailSender.contactList(sesClient, CONTACT_LIST_NAME);
+      } catch (NotFoundException e) {
+        throw e;
       } catch (Exception e) {
         // TODO: Remove when listContacts's GET body issue is resolved.
-        contactEmails = this.contacts;
+        contactEmails = this.contacts.iterator();
       }
 
       // snippet-end:[sesv2.java2.newsletter.ListContacts]
 
-      // Send an email using the "weekly-coupons" template to each contact in the list
+      // Send an email using the "weekly-coupons" template to each contact in the list.
+      // The sends run in parallel under the maximum send rate of the account, and each
+      // outcome is recorded in the journal so that an interrupted campaign can be resumed.
       // snippet-start:[sesv2.java2.newsletter.SendEmail.template]
       String coupons = Files.readString(Paths.get("resources/coupon_newsletter/sample_coupons.json"));
-      for (String emailAddress : contactEmails) {
-        SendEmailRequest newsletterRequest = SendEmailRequest.builder()
-            .destination(Destination.builder().toAddresses(emailAddress).build())
-            .content(EmailContent.builder()
-                .template(Template.builder()
-                    .templateName(TEMPLATE_NAME)
-                    .templateData(coupons)
+      Path journal = campaignJournal != null ? campaignJournal
+          : Files.createTempFile("weekly-coupons-", ".journal");
+      try (BulkEmailSender sender = new BulkEmailSender(sesClient, SEND_CONCURRENCY)) {
+        BulkEmailSender.CampaignResult result = sender.send(contactEmails,
+            emailAddress -> SendEmailRequest.builder()
+                .destination(Destination.builder().toAddresses(emailAddress).build())
+                .content(EmailContent.builder()
+                    .template(Template.builder()
+                        .templateName(TEMPLATE_NAME)
+                        .templateData(coupons)
+                        .build())
                     .build())
-                .build())
-            .fromEmailAddress(this.verifiedEmail)
-            .listManagementOptions(ListManagementOptions.builder()
-                .contactListName(CONTACT_LIST_NAME)
-                .build())
-            .build();
-        SendEmailResponse newsletterResponse = sesClient.sendEmail(newsletterRequest);
-        System.out.println("Newsletter sent to " + emailAddress + ": " + newsletterResponse.messageId());
+                .fromEmailAddress(this.verifiedEmail)
+                .listManagementOptions(ListManagementOptions.builder()
+                    .contactListName(CONTACT_LIST_NAME)
+                    .build())
+                .build(),
+            journal,
+            (emailAddress, messageId) -> System.out.println("Newsletter sent to " + emailAddress + ": " + messageId));
+        System.out.println("Newsletter campaign finished in " + result.getElapsedMillis() + " ms: "
+            + result.getSent() + " sent, " + result.getFailed() + " failed, " + result.getAlreadySent()
+            + " sent earlier. Outcomes are in " + journal);
       }
       // snippet-end:[sesv2.java2.newsletter.SendEmail.template]
     } catch (NotFoundException e) {
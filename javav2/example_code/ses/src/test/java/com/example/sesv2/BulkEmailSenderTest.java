@@ -0,0 +1,154 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.sesv2;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.sesv2.SesV2Client;
+import software.amazon.awssdk.services.sesv2.model.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class BulkEmailSenderTest {
+  private static final int CONTACTS = 2000;
+  // Long enough for the sends to overlap while the send rate limits them.
+  private static final int LATENCY_MILLIS = 5;
+  private static final double MAX_SEND_RATE = 1000;
+
+  @TempDir
+  Path folder;
+
+  @Test
+  public void test_send_paginatesPacesAndRetriesThrottledSends() throws Exception {
+    SesStub ses = new SesStub(-1);
+    Path journal = folder.resolve("campaign.journal");
+
+    BulkEmailSender.CampaignResult result;
+    try (BulkEmailSender sender = new BulkEmailSender(ses.client, 16)) {
+      result = sender.send(BulkEmailSender.contactList(ses.client, "list"), BulkEmailSenderTest::request,
+          journal, (emailAddress, messageId) -> {
+          });
+    }
+
+    assertEquals(CONTACTS, result.getSent());
+    assertEquals(CONTACTS / 100, result.getThrottled());
+    assertEquals(CONTACTS / 100 + 1, ses.listCalls.get());
+    assertTrue(ses.maxInFlight.get() > 1);
+    assertTrue(ses.maxInFlight.get() <= 16);
+    // The bucket holds one second of sends, so the rest take at least (n - rate) / rate seconds.
+    assertTrue(result.getElapsedMillis() >= (long) ((CONTACTS - MAX_SEND_RATE) * 1000 / MAX_SEND_RATE) - 50);
+    for (int i = 0; i < CONTACTS; i++) {
+      assertEquals(1, ses.delivered.get(address(i)).get());
+    }
+  }
+
+  @Test
+  public void test_send_resumesInterruptedCampaignWithoutSendingTwice() throws Exception {
+    Path journal = folder.resolve("resumed.journal");
+
+    // Sending is paused by the service after 700 emails, which stops the campaign.
+    SesStub paused = new SesStub(700);
+    try (BulkEmailSender sender = new BulkEmailSender(paused.client, 16)) {
+      assertThrows(SendingPausedException.class, () -> sender.send(BulkEmailSender.contactList(paused.client,
+          "list"), BulkEmailSenderTest::request, journal, (emailAddress, messageId) -> {
+          }));
+    }
+    assertEquals(700, paused.delivered.size());
+
+    SesStub resumed = new SesStub(-1);
+    BulkEmailSender.CampaignResult result;
+    try (BulkEmailSender sender = new BulkEmailSender(resumed.client, 16)) {
+      result = sender.send(BulkEmailSender.contactList(resumed.client, "list"), BulkEmailSenderTest::request,
+          journal, (emailAddress, messageId) -> {
+          });
+    }
+    assertEquals(700, result.getAlreadySent());
+    assertEquals(CONTACTS - 700, result.getSent());
+    assertEquals(0, result.getInDoubt());
+    for (int i = 0; i < CONTACTS; i++) {
+      String emailAddress = address(i);
+      int first = paused.delivered.containsKey(emailAddress) ? paused.delivered.get(emailAddress).get() : 0;
+      int second = resumed.delivered.containsKey(emailAddress) ? resumed.delivered.get(emailAddress).get() : 0;
+      assertEquals(1, first + second, emailAddress);
+    }
+  }
+
+  private static String address(int i) {
+    return "user+" + i + "@example.com";
+  }
+
+  private static SendEmailRequest request(String emailAddress) {
+    return SendEmailRequest.builder()
+        .destination(Destination.builder().toAddresses(emailAddress).build())
+        .fromEmailAddress("sender@example.com")
+        .build();
+  }
+
+  // A mocked client with a contact list of CONTACTS addresses in pages of 100. The first send to
+  // every 100th address is throttled, and after pauseAfter emails sending is paused.
+  private static class SesStub {
+    private final SesV2Client client = mock(SesV2Client.class);
+    private final Map<String, AtomicInteger> delivered = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> throttled = new ConcurrentHashMap<>();
+    private final AtomicInteger sends = new AtomicInteger();
+    private final AtomicInteger listCalls = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    SesStub(int pauseAfter) {
+      when(client.getAccount(any(GetAccountRequest.class))).thenReturn(GetAccountResponse.builder()
+          .sendQuota(SendQuota.builder().maxSendRate(MAX_SEND_RATE).max24HourSend(1_000_000.0).build())
+          .build());
+
+      when(client.listContacts(any(ListContactsRequest.class))).thenAnswer(invocation -> {
+        listCalls.incrementAndGet();
+        ListContactsRequest request = invocation.getArgument(0);
+        int first = request.nextToken() == null ? 0 : Integer.parseInt(request.nextToken());
+        List<Contact> contacts = new ArrayList<>();
+        for (int i = first; i < Math.min(CONTACTS, first + 100); i++) {
+          contacts.add(Contact.builder().emailAddress(address(i)).build());
+        }
+        return ListContactsResponse.builder()
+            .contacts(contacts)
+            .nextToken(first + 100 <= CONTACTS ? Integer.toString(first + 100) : null)
+            .build();
+      });
+
+      when(client.sendEmail(any(SendEmailRequest.class))).thenAnswer(invocation -> {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(LATENCY_MILLIS);
+          SendEmailRequest request = invocation.getArgument(0);
+          String emailAddress = request.destination().toAddresses().get(0);
+          if (emailAddress.matches("user\\+(0|\\d*00)@example.com") && throttled.putIfAbsent(emailAddress, true) == null) {
+            throw TooManyRequestsException.builder().message("Maximum sending rate exceeded.").build();
+          }
+          if (pauseAfter >= 0 && sends.incrementAndGet() > pauseAfter) {
+            throw SendingPausedException.builder().message("Sending is paused for this account.").build();
+          }
+          delivered.computeIfAbsent(emailAddress, key -> new AtomicInteger()).incrementAndGet();
+          return SendEmailResponse.builder().messageId("id-" + emailAddress).build();
+        } finally {
+          inFlight.decrementAndGet();
+        }
+      });
+    }
+  }
+}
@@ -40,14 +40,22 @@ public class DeadLetterQueues {
         }
 
         public static void setDeadLetterQueue(SqsClient sqs) {
+                setDeadLetterQueue(sqs, QueueName, DLQueueName, 5);
+        }
+
+        // Creates the source queue and the dead-letter queue, sets a redrive policy on the
+        // source queue, and returns the URL of the dead-letter queue. SqsWorkerPool can send
+        // poison messages to this URL after the same number of receives.
+        public static String setDeadLetterQueue(SqsClient sqs, String queueName, String dlQueueName,
+                        int maxReceiveCount) {
                 try {
                         CreateQueueRequest dlrequest = CreateQueueRequest.builder()
-                                        .queueName(DLQueueName)
+                                        .queueName(dlQueueName)
                                         .build();
 
                         sqs.createQueue(dlrequest);
                         GetQueueUrlRequest getRequest = GetQueueUrlRequest.builder()
-                                        .queueName(DLQueueName)
+                                        .queueName(dlQueueName)
                                         .build();
 
                         // Get dead-letter queue ARN
@@ -61,14 +69,17 @@ public class DeadLetterQueues {
                         String dlQueueArn = queueAttrs.attributes().get(QueueAttributeName.QUEUE_ARN);
 
                         // Set dead letter queue with redrive policy on source queue.
+                        sqs.createQueue(CreateQueueRequest.builder()
+                                        .queueName(queueName)
+                                        .build());
                         GetQueueUrlRequest getRequestSource = GetQueueUrlRequest.builder()
-                                        .queueName(DLQueueName)
+                                        .queueName(queueName)
                                         .build();
 
                         String srcQueueUrl = sqs.getQueueUrl(getRequestSource).queueUrl();
                         HashMap<QueueAttributeName, String> attributes = new HashMap<QueueAttributeName, String>();
                         attributes.put(QueueAttributeName.REDRIVE_POLICY,
-                                        "{\"maxReceiveCount\":\"5\", \"deadLetterTargetArn\":\""
+                                        "{\"maxReceiveCount\":\"" + maxReceiveCount + "\", \"deadLetterTargetArn\":\""
                                                         + dlQueueArn + "\"}");
 
                         SetQueueAttributesRequest setAttrRequest = SetQueueAttributesRequest.builder()
@@ -77,11 +88,13 @@ public class DeadLetterQueues {
                                         .build();
 
                         sqs.setQueueAttributes(setAttrRequest);
+                        return dlQueueUrl;
 
                 } catch (SqsException e) {
                         System.err.println(e.awsErrorDetails().errorMessage());
                         System.exit(1);
                 }
+                return "";
         }
 }
 // snippet-end:[sqs.java2.delete_letter_queues.main]
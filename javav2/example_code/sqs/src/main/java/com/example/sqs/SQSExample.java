@@ -9,7 +9,8 @@ import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
 import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
-import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlResponse;
 import software.amazon.awssdk.services.sqs.model.ListQueuesRequest;
@@ -20,6 +21,8 @@ import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
 import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
 import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 import software.amazon.awssdk.services.sqs.model.SqsException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 // snippet-end:[sqs.java2.sqs_example.import]
 
@@ -46,6 +49,7 @@ public class SQSExample {
         sendBatchMessages(sqsClient, queueUrl);
         changeMessages(sqsClient, queueUrl, messages);
         deleteMessages(sqsClient, queueUrl, messages);
+        processMessages(sqsClient, queueUrl);
         sqsClient.close();
     }
 
@@ -189,12 +193,21 @@ public class SQSExample {
 
         // snippet-start:[sqs.java2.sqs_example.delete_message]
         try {
-            for (Message message : messages) {
-                DeleteMessageRequest deleteMessageRequest = DeleteMessageRequest.builder()
+            // Delete up to 10 messages with each request.
+            for (int start = 0; start < messages.size(); start += 10) {
+                List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>();
+                for (Message message : messages.subList(start, Math.min(messages.size(), start + 10))) {
+                    entries.add(DeleteMessageBatchRequestEntry.builder()
+                            .id(message.messageId())
+                            .receiptHandle(message.receiptHandle())
+                            .build());
+                }
+                DeleteMessageBatchRequest deleteMessageBatchRequest = DeleteMessageBatchRequest.builder()
                         .queueUrl(queueUrl)
-                        .receiptHandle(message.receiptHandle())
+                        .entries(entries)
                         .build();
-                sqsClient.deleteMessage(deleteMessageRequest);
+                sqsClient.deleteMessageBatch(deleteMessageBatchRequest).failed().forEach(failed ->
+                        System.err.println("Could not delete message " + failed.id() + ": " + failed.message()));
             }
         } catch (SqsException e) {
             System.err.println(e.awsErrorDetails().errorMessage());
@@ -202,5 +215,21 @@ public class SQSExample {
         }
         // snippet-end:[sqs.java2.sqs_example.delete_message]
     }
+
+    // Receives and deletes the remaining messages with a pool of workers until the queue is empty.
+    public static void processMessages(SqsClient sqsClient, String queueUrl) {
+        System.out.println("\nProcess Messages");
+        SqsWorkerPool pool = new SqsWorkerPool(sqsClient, queueUrl,
+                message -> System.out.println("Processed message: " + message.body()))
+                .withTimeouts(5, 30);
+        pool.start();
+        try {
+            pool.awaitIdle(Duration.ofSeconds(10), Duration.ofMinutes(1));
+            pool.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("Processed " + pool.getProcessed() + " messages");
+    }
 }
 // snippet-end:[sqs.java2.sqs_example.main]
@@ -0,0 +1,409 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.sqs;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Processes the messages in an Amazon SQS queue with a pool of worker threads.
+ *
+ * Several receiver threads long-poll the queue for up to 10 messages at a time, but only
+ * receive as many messages as the workers have room for. Each handled message is deleted
+ * in a DeleteMessageBatch call with the other deletes that are waiting at that moment, or
+ * after the delete linger time if one is set. Until a message has been deleted, including
+ * while its handler is still working on it, its visibility timeout is extended with
+ * ChangeMessageVisibilityBatch so that no other consumer receives it.
+ *
+ * When a handler fails, the message becomes visible again after a backoff. Once a message
+ * has been received maxReceiveCount times, it is sent to the dead-letter queue and deleted.
+ */
+public class SqsWorkerPool implements AutoCloseable {
+    private static final int MAX_BATCH_SIZE = 10;
+
+    private final SqsClient sqsClient;
+    private final String queueUrl;
+    private final MessageHandler handler;
+    // The messages that are being handled or are waiting to be deleted, by receipt handle.
+    private final Map<String, Message> inProgress = new ConcurrentHashMap<>();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder visibilityExtensions = new LongAdder();
+    private final AtomicLong lastActivityNanos = new AtomicLong(System.nanoTime());
+    private int receivers = 4;
+    private int workers = 16;
+    private int waitTimeSeconds = 20;
+    private int visibilityTimeoutSeconds = 30;
+    private long deleteLingerMillis = 0;
+    private int maxReceiveCount = 5;
+    private String deadLetterQueueUrl;
+
+    private Semaphore capacity;
+    private BlockingQueue<DeleteMessageBatchRequestEntry> deletes;
+    private ExecutorService receiverPool;
+    private ExecutorService workerPool;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService deleteSenders;
+    private Semaphore deletePermits;
+    private Thread deleter;
+    private volatile boolean stopped;
+
+    public SqsWorkerPool(SqsClient sqsClient, String queueUrl, MessageHandler handler) {
+        this.sqsClient = sqsClient;
+        this.queueUrl = queueUrl;
+        this.handler = handler;
+    }
+
+    // Sets the number of receiver threads and the number of messages that are handled at once.
+    public SqsWorkerPool withConcurrency(int receivers, int workers) {
+        this.receivers = receivers;
+        this.workers = workers;
+        return this;
+    }
+
+    // Sets the long-polling wait and the visibility timeout that received messages get.
+    // The visibility timeout of a message is extended while its handler is running.
+    public SqsWorkerPool withTimeouts(int waitTimeSeconds, int visibilityTimeoutSeconds) {
+        this.waitTimeSeconds = waitTimeSeconds;
+        this.visibilityTimeoutSeconds = visibilityTimeoutSeconds;
+        return this;
+    }
+
+    // Sets how long a delete waits for more deletes before a partial batch is sent.
+    // By default, a batch is sent with the deletes that are waiting, without waiting for more.
+    public SqsWorkerPool withDeleteLinger(Duration deleteLinger) {
+        this.deleteLingerMillis = deleteLinger.toMillis();
+        return this;
+    }
+
+    // Sends messages that have been received maxReceiveCount times to the dead-letter queue.
+    // Use the same value as the maxReceiveCount of the queue's redrive policy.
+    public SqsWorkerPool withDeadLetterQueue(String deadLetterQueueUrl, int maxReceiveCount) {
+        this.deadLetterQueueUrl = deadLetterQueueUrl;
+        this.maxReceiveCount = maxReceiveCount;
+        return this;
+    }
+
+    public void start() {
+        // Each worker can hold one message, and one more batch can wait for each receiver.
+        capacity = new Semaphore(workers + receivers * MAX_BATCH_SIZE);
+        deletes = new ArrayBlockingQueue<>(Math.max(MAX_BATCH_SIZE, workers * 4));
+        receiverPool = Executors.newFixedThreadPool(receivers, named("sqs-receiver"));
+        workerPool = Executors.newFixedThreadPool(workers, named("sqs-worker"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(named("sqs-visibility"));
+        deleteSenders = Executors.newFixedThreadPool(receivers, named("sqs-delete"));
+        deletePermits = new Semaphore(receivers);
+
+        for (int i = 0; i < receivers; i++) {
+            receiverPool.execute(this::receive);
+        }
+        long heartbeatMillis = TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds) / 3;
+        scheduler.scheduleAtFixedRate(this::extendVisibility, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+        deleter = named("sqs-deleter").newThread(this::deleteInBatches);
+        deleter.start();
+    }
+
+    // Waits until no message has been received, handled, or deleted for the quiet period.
+    // Returns false if the queue did not become quiet within the timeout.
+    public boolean awaitIdle(Duration quietPeriod, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (inProgress.isEmpty() && System.nanoTime() - lastActivityNanos.get() >= quietPeriod.toNanos()) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getDeadLettered() {
+        return deadLettered.sum();
+    }
+
+    public long getDeleted() {
+        return deleted.sum();
+    }
+
+    public long getVisibilityExtensions() {
+        return visibilityExtensions.sum();
+    }
+
+    private void receive() {
+        while (!stopped) {
+            int permits = 0;
+            try {
+                // Only receive as many messages as there is room for.
+                capacity.acquire();
+                permits = 1 + drainPermits(MAX_BATCH_SIZE - 1);
+
+                ReceiveMessageRequest receiveRequest = ReceiveMessageRequest.builder()
+                        .queueUrl(queueUrl)
+                        .maxNumberOfMessages(permits)
+                        .waitTimeSeconds(waitTimeSeconds)
+                        .visibilityTimeout(visibilityTimeoutSeconds)
+                        .attributeNamesWithStrings(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT.toString())
+                        // The message attributes are kept when a message is sent to the dead-letter queue.
+                        .messageAttributeNames("All")
+                        .build();
+                List<Message> messages = sqsClient.receiveMessage(receiveRequest).messages();
+
+                capacity.release(permits - messages.size());
+                permits = 0;
+                if (!messages.isEmpty()) {
+                    lastActivityNanos.set(System.nanoTime());
+                }
+                for (Message message : messages) {
+                    inProgress.put(message.receiptHandle(), message);
+                    workerPool.execute(() -> handle(message));
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (SdkException e) {
+                if (!stopped) {
+                    System.err.println("Could not receive messages from " + queueUrl + ": " + e.getMessage());
+                    sleepQuietly(1_000);
+                }
+            } finally {
+                capacity.release(permits);
+            }
+        }
+    }
+
+    private int drainPermits(int max) {
+        int taken = 0;
+        while (taken < max && capacity.tryAcquire()) {
+            taken++;
+        }
+        return taken;
+    }
+
+    private void handle(Message message) {
+        boolean deleting = false;
+        try {
+            handler.handle(message);
+            processed.increment();
+            delete(message);
+            deleting = true;
+        } catch (Exception e) {
+            failed.increment();
+            deleting = handleFailure(message, e);
+        } finally {
+            // A message that waits for its delete stays in progress, so its visibility timeout is
+            // still extended. sendDeletes removes it.
+            if (!deleting) {
+                inProgress.remove(message.receiptHandle());
+            }
+            lastActivityNanos.set(System.nanoTime());
+            capacity.release();
+        }
+    }
+
+    // Returns true if the message was queued for deletion.
+    private boolean handleFailure(Message message, Exception error) {
+        int receiveCount = Integer.parseInt(
+                message.attributes().getOrDefault(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT, "1"));
+        try {
+            if (deadLetterQueueUrl != null && receiveCount >= maxReceiveCount) {
+                sqsClient.sendMessage(SendMessageRequest.builder()
+                        .queueUrl(deadLetterQueueUrl)
+                        .messageBody(message.body())
+                        .messageAttributes(message.messageAttributes())
+                        .build());
+                deadLettered.increment();
+                delete(message);
+                return true;
+            }
+
+            // Make the message visible again after a backoff that grows with every receive.
+            int backoffSeconds = Math.min(visibilityTimeoutSeconds, 1 << Math.min(receiveCount - 1, 10));
+            sqsClient.changeMessageVisibility(ChangeMessageVisibilityRequest.builder()
+                    .queueUrl(queueUrl)
+                    .receiptHandle(message.receiptHandle())
+                    .visibilityTimeout(backoffSeconds)
+                    .build());
+
+        } catch (SdkException | InterruptedException e) {
+            // The message becomes visible again when its visibility timeout expires.
+            System.err.println("Could not release message " + message.messageId() + ": " + e.getMessage());
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return false;
+    }
+
+    private void delete(Message message) throws InterruptedException {
+        deletes.put(DeleteMessageBatchRequestEntry.builder()
+                .id(message.messageId())
+                .receiptHandle(message.receiptHandle())
+                .build());
+    }
+
+    // Groups the deletes into batches of 10, or fewer when no more deletes are waiting after the
+    // linger time, and sends up to one batch per receiver at a time.
+    private void deleteInBatches() {
+        try {
+            while (!stopped || !deletes.isEmpty()) {
+                DeleteMessageBatchRequestEntry first = deletes.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<DeleteMessageBatchRequestEntry> batch = new ArrayList<>(MAX_BATCH_SIZE);
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deleteLingerMillis);
+                while (batch.size() < MAX_BATCH_SIZE) {
+                    long remaining = deadline - System.nanoTime();
+                    DeleteMessageBatchRequestEntry next = stopped || remaining <= 0
+                            ? deletes.poll()
+                            : deletes.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                deletePermits.acquire();
+                deleteSenders.execute(() -> {
+                    try {
+                        sendDeletes(batch);
+                    } finally {
+                        deletePermits.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendDeletes(List<DeleteMessageBatchRequestEntry> batch) {
+        // Message IDs must be unique within a batch, so use the position in the batch as the ID.
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            entries.add(batch.get(i).toBuilder().id(Integer.toString(i)).build());
+        }
+        try {
+            DeleteMessageBatchResponse response = sqsClient.deleteMessageBatch(DeleteMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build());
+            deleted.add(response.successful().size());
+            for (BatchResultErrorEntry error : response.failed()) {
+                System.err.println("Could not delete message " + batch.get(Integer.parseInt(error.id())).id()
+                        + ": " + error.code() + " " + error.message());
+            }
+        } catch (SdkException e) {
+            // The messages are received again after their visibility timeout expires.
+            System.err.println("Could not delete " + batch.size() + " messages: " + e.getMessage());
+        } finally {
+            for (DeleteMessageBatchRequestEntry entry : batch) {
+                inProgress.remove(entry.receiptHandle());
+            }
+            lastActivityNanos.set(System.nanoTime());
+        }
+    }
+
+    // Extends the visibility timeout of the messages that are being handled or waiting to be deleted.
+    // A message that was deleted since the list was taken fails in the batch, which is ignored.
+    private void extendVisibility() {
+        List<Message> messages = new ArrayList<>(inProgress.values());
+        for (int start = 0; start < messages.size(); start += MAX_BATCH_SIZE) {
+            List<ChangeMessageVisibilityBatchRequestEntry> entries = new ArrayList<>();
+            List<Message> chunk = messages.subList(start, Math.min(messages.size(), start + MAX_BATCH_SIZE));
+            for (int i = 0; i < chunk.size(); i++) {
+                entries.add(ChangeMessageVisibilityBatchRequestEntry.builder()
+                        .id(Integer.toString(i))
+                        .receiptHandle(chunk.get(i).receiptHandle())
+                        .visibilityTimeout(visibilityTimeoutSeconds)
+                        .build());
+            }
+            try {
+                visibilityExtensions.add(sqsClient.changeMessageVisibilityBatch(
+                        ChangeMessageVisibilityBatchRequest.builder()
+                                .queueUrl(queueUrl)
+                                .entries(entries)
+                                .build())
+                        .successful().size());
+            } catch (SdkException e) {
+                System.err.println("Could not extend the visibility timeout: " + e.getMessage());
+            }
+        }
+    }
+
+    // Stops receiving, waits for the handlers that are running, and sends the remaining deletes.
+    @Override
+    public void close() throws InterruptedException {
+        stopped = true;
+        receiverPool.shutdown();
+        receiverPool.awaitTermination(waitTimeSeconds + 5L, TimeUnit.SECONDS);
+        workerPool.shutdown();
+        workerPool.awaitTermination(1, TimeUnit.MINUTES);
+        deleter.join();
+        deleteSenders.shutdown();
+        deleteSenders.awaitTermination(1, TimeUnit.MINUTES);
+        // The visibility timeouts are extended until the last deletes have been sent.
+        scheduler.shutdownNow();
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory named(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Handles one message. A handler that throws leaves the message on the queue to be received again.
+    @FunctionalInterface
+    public interface MessageHandler {
+        void handle(Message message) throws Exception;
+    }
+}
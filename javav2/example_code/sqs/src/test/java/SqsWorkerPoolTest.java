@@ -0,0 +1,272 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.example.sqs.SqsWorkerPool;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResponse;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(60)
+public class SqsWorkerPoolTest {
+    private static final String QUEUE_URL = "https://sqs.us-west-2.amazonaws.com/123456789012/work";
+    private static final String DLQ_URL = "https://sqs.us-west-2.amazonaws.com/123456789012/work-dlq";
+
+    @Test
+    public void testEveryMessageIsHandledAndDeletedInBatches() throws InterruptedException {
+        InMemorySqs sqs = new InMemorySqs();
+        int count = 5_000;
+        for (int i = 0; i < count; i++) {
+            sqs.send(QUEUE_URL, "message " + i, Map.of());
+        }
+
+        AtomicInteger handled = new AtomicInteger();
+        SqsWorkerPool pool = new SqsWorkerPool(sqs, QUEUE_URL, message -> handled.incrementAndGet())
+                .withConcurrency(4, 16)
+                .withTimeouts(1, 30);
+        pool.start();
+        assertTrue(pool.awaitIdle(Duration.ofMillis(200), Duration.ofSeconds(30)));
+        pool.close();
+
+        assertEquals(count, handled.get());
+        assertEquals(count, pool.getProcessed());
+        assertEquals(count, pool.getDeleted());
+        assertEquals(0, sqs.inFlight.size());
+        assertTrue(sqs.queue(QUEUE_URL).isEmpty());
+        assertTrue(sqs.maxDeleteBatchSize.get() <= 10);
+        assertTrue(sqs.deleteRequests.get() < count);
+    }
+
+    @Test
+    public void testPoisonMessageGoesToDeadLetterQueueWithItsAttributes() throws InterruptedException {
+        InMemorySqs sqs = new InMemorySqs();
+        MessageAttributeValue source = MessageAttributeValue.builder()
+                .dataType("String")
+                .stringValue("orders")
+                .build();
+        sqs.send(QUEUE_URL, "poison", Map.of("source", source));
+        sqs.send(QUEUE_URL, "good", Map.of());
+
+        SqsWorkerPool pool = new SqsWorkerPool(sqs, QUEUE_URL, message -> {
+            if (message.body().equals("poison")) {
+                throw new IllegalArgumentException("Cannot parse " + message.body());
+            }
+        }).withConcurrency(1, 2).withTimeouts(1, 30).withDeadLetterQueue(DLQ_URL, 3);
+        pool.start();
+        assertTrue(pool.awaitIdle(Duration.ofMillis(500), Duration.ofSeconds(30)));
+        pool.close();
+
+        assertEquals(1, pool.getProcessed());
+        assertEquals(3, pool.getFailed());
+        assertEquals(1, pool.getDeadLettered());
+        Message deadLettered = sqs.queue(DLQ_URL).peek();
+        assertEquals("poison", deadLettered.body());
+        assertEquals(source, deadLettered.messageAttributes().get("source"));
+        assertTrue(sqs.queue(QUEUE_URL).isEmpty());
+        assertEquals(0, sqs.inFlight.size());
+    }
+
+    @Test
+    public void testVisibilityIsExtendedForSlowHandler() throws InterruptedException {
+        InMemorySqs sqs = new InMemorySqs();
+        sqs.send(QUEUE_URL, "slow", Map.of());
+
+        SqsWorkerPool pool = new SqsWorkerPool(sqs, QUEUE_URL, message -> Thread.sleep(2_500))
+                .withConcurrency(1, 1)
+                .withTimeouts(1, 3);
+        pool.start();
+        assertTrue(pool.awaitIdle(Duration.ofMillis(200), Duration.ofSeconds(30)));
+        pool.close();
+
+        assertEquals(1, pool.getProcessed());
+        assertTrue(pool.getVisibilityExtensions() >= 1);
+        assertEquals(1, pool.getDeleted());
+    }
+
+    @Test
+    public void testVisibilityIsExtendedWhileTheDeleteWaits() throws InterruptedException {
+        // The delete is held until the visibility of the handled message has been extended,
+        // as happens when DeleteMessageBatch is slow or the delete queue is long.
+        InMemorySqs sqs = new InMemorySqs();
+        sqs.send(QUEUE_URL, "quick", Map.of());
+        sqs.holdDeletesUntilExtended = true;
+
+        SqsWorkerPool pool = new SqsWorkerPool(sqs, QUEUE_URL, message -> {
+        }).withConcurrency(1, 1).withTimeouts(1, 3);
+        pool.start();
+        assertTrue(pool.awaitIdle(Duration.ofMillis(200), Duration.ofSeconds(30)));
+        pool.close();
+
+        assertEquals(1, pool.getProcessed());
+        assertEquals(1, pool.getDeleted());
+        assertTrue(pool.getVisibilityExtensions() >= 1);
+        assertEquals(0, sqs.inFlight.size());
+    }
+
+    // Keeps queues in memory. A message that is made visible again is returned to its queue at once.
+    private static class InMemorySqs implements SqsClient {
+        private final Map<String, Queue<Message>> queues = new ConcurrentHashMap<>();
+        private final Map<String, Message> inFlight = new ConcurrentHashMap<>();
+        private final Map<String, String> inFlightQueue = new ConcurrentHashMap<>();
+        private final CountDownLatch firstExtension = new CountDownLatch(1);
+        private final AtomicLong deleteRequests = new AtomicLong();
+        private final AtomicInteger maxDeleteBatchSize = new AtomicInteger();
+        private volatile boolean holdDeletesUntilExtended;
+
+        Queue<Message> queue(String queueUrl) {
+            return queues.computeIfAbsent(queueUrl, url -> new ConcurrentLinkedQueue<>());
+        }
+
+        void send(String queueUrl, String body, Map<String, MessageAttributeValue> attributes) {
+            queue(queueUrl).add(Message.builder()
+                    .messageId(UUID.randomUUID().toString())
+                    .body(body)
+                    .messageAttributes(attributes)
+                    .attributes(Map.of(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT, "0"))
+                    .build());
+        }
+
+        @Override
+        public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request) {
+            boolean withAttributes = request.messageAttributeNames().contains("All");
+            List<Message> messages = new ArrayList<>();
+            Queue<Message> queue = queue(request.queueUrl());
+            Message message;
+            while (messages.size() < request.maxNumberOfMessages() && (message = queue.poll()) != null) {
+                int receiveCount = Integer.parseInt(message.attributes().get(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT)) + 1;
+                // The queue keeps the message attributes, but only returns the ones that were asked for.
+                inFlight.put(message.messageId(), message.toBuilder()
+                        .attributes(Map.of(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT, Integer.toString(receiveCount)))
+                        .build());
+                Message received = message.toBuilder()
+                        .receiptHandle(message.messageId() + "/" + receiveCount)
+                        .messageAttributes(withAttributes ? message.messageAttributes() : Map.of())
+                        .attributes(Map.of(MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT, Integer.toString(receiveCount)))
+                        .build();
+                inFlightQueue.put(message.messageId(), request.queueUrl());
+                messages.add(received);
+            }
+            if (messages.isEmpty()) {
+                // Long polling: wait a little before returning an empty response.
+                pause(20);
+            }
+            return ReceiveMessageResponse.builder().messages(messages).build();
+        }
+
+        @Override
+        public DeleteMessageBatchResponse deleteMessageBatch(DeleteMessageBatchRequest request) {
+            if (holdDeletesUntilExtended) {
+                try {
+                    firstExtension.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            deleteRequests.incrementAndGet();
+            maxDeleteBatchSize.accumulateAndGet(request.entries().size(), Math::max);
+            List<DeleteMessageBatchResultEntry> successful = new ArrayList<>();
+            for (DeleteMessageBatchRequestEntry entry : request.entries()) {
+                String messageId = messageId(entry.receiptHandle());
+                inFlight.remove(messageId);
+                inFlightQueue.remove(messageId);
+                successful.add(DeleteMessageBatchResultEntry.builder().id(entry.id()).build());
+            }
+            return DeleteMessageBatchResponse.builder().successful(successful).build();
+        }
+
+        @Override
+        public ChangeMessageVisibilityResponse changeMessageVisibility(ChangeMessageVisibilityRequest request) {
+            String messageId = messageId(request.receiptHandle());
+            Message message = inFlight.remove(messageId);
+            String queueUrl = inFlightQueue.remove(messageId);
+            if (message != null) {
+                queue(queueUrl).add(message);
+            }
+            return ChangeMessageVisibilityResponse.builder().build();
+        }
+
+        @Override
+        public ChangeMessageVisibilityBatchResponse changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+            List<ChangeMessageVisibilityBatchResultEntry> successful = new ArrayList<>();
+            List<BatchResultErrorEntry> failed = new ArrayList<>();
+            for (ChangeMessageVisibilityBatchRequestEntry entry : request.entries()) {
+                if (inFlight.containsKey(messageId(entry.receiptHandle()))) {
+                    successful.add(ChangeMessageVisibilityBatchResultEntry.builder().id(entry.id()).build());
+                } else {
+                    failed.add(BatchResultErrorEntry.builder()
+                            .id(entry.id())
+                            .code("ReceiptHandleIsInvalid")
+                            .senderFault(true)
+                            .build());
+                }
+            }
+            if (!successful.isEmpty()) {
+                firstExtension.countDown();
+            }
+            return ChangeMessageVisibilityBatchResponse.builder()
+                    .successful(successful)
+                    .failed(failed)
+                    .build();
+        }
+
+        @Override
+        public SendMessageResponse sendMessage(SendMessageRequest request) {
+            send(request.queueUrl(), request.messageBody(), request.messageAttributes());
+            return SendMessageResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "sqs";
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private static String messageId(String receiptHandle) {
+            return receiptHandle.substring(0, receiptHandle.indexOf('/'));
+        }
+
+        private static void pause(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
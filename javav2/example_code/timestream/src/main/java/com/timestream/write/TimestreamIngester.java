@@ -0,0 +1,344 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.timestream.write;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.services.timestreamwrite.TimestreamWriteClient;
+import software.amazon.awssdk.services.timestreamwrite.model.Dimension;
+import software.amazon.awssdk.services.timestreamwrite.model.MeasureValueType;
+import software.amazon.awssdk.services.timestreamwrite.model.Record;
+import software.amazon.awssdk.services.timestreamwrite.model.RejectedRecord;
+import software.amazon.awssdk.services.timestreamwrite.model.RejectedRecordsException;
+import software.amazon.awssdk.services.timestreamwrite.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.timestreamwrite.model.TimeUnit;
+import software.amazon.awssdk.services.timestreamwrite.model.ValidationException;
+import software.amazon.awssdk.services.timestreamwrite.model.WriteRecordsRequest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Writes measurements to an Amazon Timestream table in WriteRecords batches.
+ *
+ * Points are grouped by their dimensions. The dimensions of a group are sent once per
+ * request as commonAttributes, and the records only carry the measure and time. A group is
+ * sent when it has 100 points, the WriteRecords limit, or when its first point has waited for
+ * the linger time. Each group has its own lock, so threads that write points with different
+ * dimensions do not wait for each other. The requests run on a fixed pool of threads with a
+ * short queue. When the queue is full, the thread that calls write() sends the group itself,
+ * which slows down writers that are faster than Timestream.
+ *
+ * Throttled requests and requests that fail on the client side are sent again after a
+ * backoff with full jitter. Requests for a missing table or with invalid records are not.
+ * Timestream rejects single records for a version conflict, for a time outside the memory
+ * store retention, or for exceeding a limit, and none of these succeed when the same record
+ * is sent again, so rejected records are counted and not sent again unless
+ * withRetryableRejections says otherwise.
+ */
+public class TimestreamIngester implements AutoCloseable {
+    public static final int MAX_RECORDS_PER_REQUEST = 100;
+
+    private final TimestreamWriteClient writeClient;
+    private final String databaseName;
+    private final String tableName;
+    private final long lingerNanos;
+    private final ThreadPoolExecutor senders;
+    private final ScheduledExecutorService lingerTimer;
+    private final ConcurrentHashMap<List<Dimension>, Group> groups = new ConcurrentHashMap<>();
+    // The groups that are not sent yet, completed when their request finishes.
+    private final Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+    private final LongAdder pointsWritten = new LongAdder();
+    private final LongAdder requestsSent = new LongAdder();
+    private final LongAdder pointsRetried = new LongAdder();
+    private final LongAdder pointsRejected = new LongAdder();
+    private final LongAdder versionConflicts = new LongAdder();
+    private final LongAdder pointsFailed = new LongAdder();
+    private Predicate<RejectedRecord> retryableRejection = rejected -> false;
+    private int maxAttempts = 5;
+    private long baseBackoffMillis = 100;
+    private long maxBackoffMillis = 5_000;
+    private volatile boolean closed;
+
+    public TimestreamIngester(TimestreamWriteClient writeClient, String databaseName, String tableName) {
+        this(writeClient, databaseName, tableName, Duration.ofMillis(200), 8);
+    }
+
+    public TimestreamIngester(TimestreamWriteClient writeClient, String databaseName, String tableName,
+                              Duration linger, int maxConcurrentRequests) {
+        this.writeClient = writeClient;
+        this.databaseName = databaseName;
+        this.tableName = tableName;
+        this.lingerNanos = linger.toNanos();
+        this.senders = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests, 0,
+                java.util.concurrent.TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxConcurrentRequests),
+                daemon("timestream-ingester-" + tableName), new ThreadPoolExecutor.CallerRunsPolicy());
+        this.lingerTimer = Executors.newSingleThreadScheduledExecutor(daemon("timestream-linger-" + tableName));
+        long period = Math.max(1, lingerNanos / 4);
+        this.lingerTimer.scheduleWithFixedDelay(this::sendExpiredGroups, period, period,
+                java.util.concurrent.TimeUnit.NANOSECONDS);
+    }
+
+    // Sets how often requests that fail are sent again, and the backoff between attempts.
+    public TimestreamIngester withRetries(int maxAttempts, Duration baseBackoff, Duration maxBackoff) {
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        return this;
+    }
+
+    // Sets which rejected records are sent again. By default, none are.
+    public TimestreamIngester withRetryableRejections(Predicate<RejectedRecord> retryableRejection) {
+        this.retryableRejection = retryableRejection;
+        return this;
+    }
+
+    /**
+     * Adds a point to its group. Points with equal dimensions are sent together, so callers
+     * should reuse the same dimension list.
+     *
+     * @param timeMillis the time of the point in milliseconds since the epoch
+     */
+    public void write(List<Dimension> dimensions, String measureName, MeasureValueType valueType, String value,
+                      long timeMillis) {
+        Record record = Record.builder()
+                .measureName(measureName)
+                .measureValueType(valueType)
+                .measureValue(value)
+                .time(Long.toString(timeMillis))
+                .build();
+        while (true) {
+            Group group = groups.computeIfAbsent(dimensions, Group::new);
+            boolean full;
+            synchronized (group) {
+                if (closed) {
+                    throw new IllegalStateException("The ingester is closed");
+                }
+                if (group.taken) {
+                    // The group was taken to be sent after it was looked up. Add the point to a new group.
+                    continue;
+                }
+                if (group.records.isEmpty()) {
+                    group.created = System.nanoTime();
+                    CompletableFuture<Void> sent = group.sent;
+                    inFlight.add(sent);
+                    sent.whenComplete((result, error) -> inFlight.remove(sent));
+                }
+                group.records.add(record);
+                full = group.records.size() == MAX_RECORDS_PER_REQUEST && take(group);
+            }
+            if (full) {
+                submit(group);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Sends the grouped points without waiting for the linger time and waits until every
+     * request has finished. A point that could not be written is counted as rejected or failed.
+     *
+     * @throws java.util.concurrent.CompletionException if a request stopped with an error
+     *         other than an exception, such as an OutOfMemoryError
+     */
+    public void flush() {
+        // Every group that has points so far, including the ones that are full or that the
+        // linger timer is about to send. A group is still in the map until it is taken.
+        CompletableFuture<?>[] requests = inFlight.toArray(new CompletableFuture<?>[0]);
+        for (Group group : groups.values()) {
+            boolean taken;
+            synchronized (group) {
+                taken = take(group);
+            }
+            if (taken) {
+                submit(group);
+            }
+        }
+        CompletableFuture.allOf(requests).join();
+    }
+
+    public long getPointsWritten() {
+        return pointsWritten.sum();
+    }
+
+    public long getRequestsSent() {
+        return requestsSent.sum();
+    }
+
+    public long getPointsRetried() {
+        return pointsRetried.sum();
+    }
+
+    // Points that Timestream rejected and that were not sent again.
+    public long getPointsRejected() {
+        return pointsRejected.sum();
+    }
+
+    // The rejected points that conflicted with a point Timestream already has.
+    public long getVersionConflicts() {
+        return versionConflicts.sum();
+    }
+
+    // Points that could not be written after all attempts.
+    public long getPointsFailed() {
+        return pointsFailed.sum();
+    }
+
+    /**
+     * Returns whether a record was rejected because Timestream already has a record with the
+     * same dimensions, time and measure name but a different value. Only these rejections
+     * carry the existing version.
+     */
+    public static boolean isVersionConflict(RejectedRecord rejected) {
+        return rejected.existingVersion() != null;
+    }
+
+    private void sendExpiredGroups() {
+        long now = System.nanoTime();
+        for (Group group : groups.values()) {
+            boolean expired;
+            synchronized (group) {
+                expired = !group.records.isEmpty() && now - group.created >= lingerNanos && take(group);
+            }
+            if (expired) {
+                submit(group);
+            }
+        }
+    }
+
+    // Removes a group from the map so that no more points are added to it. The caller holds
+    // the lock of the group. Returns false if another thread has already taken it.
+    private boolean take(Group group) {
+        if (group.taken) {
+            return false;
+        }
+        group.taken = true;
+        groups.remove(group.dimensions, group);
+        return true;
+    }
+
+    private void submit(Group group) {
+        if (group.records.isEmpty()) {
+            group.sent.complete(null);
+            return;
+        }
+        senders.execute(() -> {
+            try {
+                send(group.dimensions, group.records);
+                group.sent.complete(null);
+            } catch (Throwable e) {
+                group.sent.completeExceptionally(e);
+                throw e;
+            }
+        });
+    }
+
+    // Sends a group, sending it again after a backoff until it is written or the attempts run out.
+    private void send(List<Dimension> dimensions, List<Record> batch) {
+        Record commonAttributes = Record.builder()
+                .dimensions(dimensions)
+                .timeUnit(TimeUnit.MILLISECONDS)
+                .build();
+        List<Record> pending = batch;
+        String lastError = null;
+        try {
+            for (int attempt = 1; attempt <= maxAttempts && !pending.isEmpty(); attempt++) {
+                if (attempt > 1) {
+                    pointsRetried.add(pending.size());
+                    long cap = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 2, 20));
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+                }
+
+                WriteRecordsRequest request = WriteRecordsRequest.builder()
+                        .databaseName(databaseName)
+                        .tableName(tableName)
+                        .commonAttributes(commonAttributes)
+                        .records(pending)
+                        .build();
+                try {
+                    writeClient.writeRecords(request);
+                    requestsSent.increment();
+                    pointsWritten.add(pending.size());
+                    pending = List.of();
+                } catch (RejectedRecordsException e) {
+                    requestsSent.increment();
+                    // The other records of the request were written.
+                    List<Record> retry = new ArrayList<>();
+                    for (RejectedRecord rejected : e.rejectedRecords()) {
+                        if (retryableRejection.test(rejected)) {
+                            retry.add(pending.get(rejected.recordIndex()));
+                        } else {
+                            pointsRejected.increment();
+                            if (isVersionConflict(rejected)) {
+                                versionConflicts.increment();
+                            }
+                        }
+                        lastError = rejected.reason();
+                    }
+                    pointsWritten.add(pending.size() - e.rejectedRecords().size());
+                    pending = retry;
+                } catch (ValidationException | ResourceNotFoundException e) {
+                    lastError = e.getMessage();
+                    break;
+                } catch (SdkException e) {
+                    lastError = e.getMessage();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lastError = "interrupted";
+        } catch (RuntimeException e) {
+            lastError = e.toString();
+        } finally {
+            if (!pending.isEmpty()) {
+                System.err.println("Could not write " + pending.size() + " records to " + tableName + ": "
+                        + lastError);
+                pointsFailed.add(pending.size());
+            }
+        }
+    }
+
+    // Sends the remaining points and stops the ingester.
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flush();
+        } finally {
+            lingerTimer.shutdownNow();
+            senders.shutdown();
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static class Group {
+        private final List<Dimension> dimensions;
+        private final List<Record> records = new ArrayList<>(MAX_RECORDS_PER_REQUEST);
+        private final CompletableFuture<Void> sent = new CompletableFuture<>();
+        // The time the first point was added, and whether the group has been taken to be sent.
+        // Both are guarded by the lock of the group.
+        private long created;
+        private boolean taken;
+
+        Group(List<Dimension> dimensions) {
+            this.dimensions = dimensions;
+        }
+    }
+}
@@ -9,11 +9,6 @@ import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.timestreamwrite.TimestreamWriteClient;
 import software.amazon.awssdk.services.timestreamwrite.model.Dimension;
 import software.amazon.awssdk.services.timestreamwrite.model.MeasureValueType;
-import software.amazon.awssdk.services.timestreamwrite.model.Record;
-import software.amazon.awssdk.services.timestreamwrite.model.RejectedRecord;
-import software.amazon.awssdk.services.timestreamwrite.model.RejectedRecordsException;
-import software.amazon.awssdk.services.timestreamwrite.model.WriteRecordsRequest;
-import software.amazon.awssdk.services.timestreamwrite.model.WriteRecordsResponse;
 import java.util.ArrayList;
 import java.util.List;
 // snippet-end:[timestream.java2.write_table.import]
@@ -54,7 +49,6 @@ public class WriteData {
         public static void writeRecords(TimestreamWriteClient timestreamWriteClient, String dbName, String tableName) {
 
                 System.out.println("Writing records");
-                List<Record> records = new ArrayList<>();
                 final long time = System.currentTimeMillis();
 
                 List<Dimension> dimensions = new ArrayList<>();
@@ -76,45 +70,23 @@ public class WriteData {
                 dimensions.add(az);
                 dimensions.add(hostname);
 
-                Record cpuUtilization = Record.builder()
-                                .dimensions(dimensions)
-                                .measureValueType(MeasureValueType.DOUBLE)
-                                .measureName("cpu_utilization")
-                                .measureValue("13.5")
-                                .time(String.valueOf(time))
-                                .build();
-
-                Record memoryUtilization = Record.builder()
-                                .dimensions(dimensions)
-                                .measureValueType(MeasureValueType.DOUBLE)
-                                .measureName("memory_utilization")
-                                .measureValue("40")
-                                .time(String.valueOf(time))
-                                .build();
-
-                records.add(cpuUtilization);
-                records.add(memoryUtilization);
-
-                WriteRecordsRequest writeRecordsRequest = WriteRecordsRequest.builder()
-                                .databaseName(dbName)
-                                .tableName(tableName)
-                                .records(records)
-                                .build();
-
-                try {
-                        WriteRecordsResponse writeRecordsResponse = timestreamWriteClient
-                                        .writeRecords(writeRecordsRequest);
-                        System.out.println(
-                                        "WriteRecords Status: " + writeRecordsResponse.sdkHttpResponse().statusCode());
-
-                } catch (RejectedRecordsException e) {
-                        System.out.println("RejectedRecords: " + e);
-                        for (RejectedRecord rejectedRecord : e.rejectedRecords()) {
-                                System.out.println("Rejected Index " + rejectedRecord.recordIndex() + ": "
-                                                + rejectedRecord.reason());
+                // The ingester groups the points by their dimensions and sends each group in
+                // WriteRecords requests of up to 100 records, with the dimensions sent once per
+                // request as common attributes. Closing it sends the points that are still waiting.
+                try (TimestreamIngester ingester = new TimestreamIngester(timestreamWriteClient, dbName, tableName)) {
+                        ingester.write(dimensions, "cpu_utilization", MeasureValueType.DOUBLE, "13.5", time);
+                        ingester.write(dimensions, "memory_utilization", MeasureValueType.DOUBLE, "40", time);
+                        ingester.flush();
+
+                        System.out.println("Wrote " + ingester.getPointsWritten() + " records in "
+                                        + ingester.getRequestsSent() + " request(s)");
+                        if (ingester.getPointsRejected() > 0) {
+                                System.out.println("Rejected records: " + ingester.getPointsRejected());
+                        }
+                        if (ingester.getPointsFailed() > 0) {
+                                System.out.println("Records that could not be written: " + ingester.getPointsFailed());
                         }
                 }
-                System.out.println("Other records were written successfully.");
         }
         // snippet-end:[timestream.java2.write_table.main]
 }
@@ -0,0 +1,251 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.timestream.write.TimestreamIngester;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import software.amazon.awssdk.services.timestreamwrite.TimestreamWriteClient;
+import software.amazon.awssdk.services.timestreamwrite.model.Dimension;
+import software.amazon.awssdk.services.timestreamwrite.model.MeasureValueType;
+import software.amazon.awssdk.services.timestreamwrite.model.RejectedRecord;
+import software.amazon.awssdk.services.timestreamwrite.model.RejectedRecordsException;
+import software.amazon.awssdk.services.timestreamwrite.model.ThrottlingException;
+import software.amazon.awssdk.services.timestreamwrite.model.WriteRecordsRequest;
+import software.amazon.awssdk.services.timestreamwrite.model.WriteRecordsResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class TimestreamIngesterTest {
+    private static final List<Dimension> HOST1 = dimensions("host1");
+    private static final List<Dimension> HOST2 = dimensions("host2");
+
+    @Test
+    public void testGroupsPointsByDimensions() {
+        StubTable table = new StubTable(request -> null);
+        try (TimestreamIngester ingester = new TimestreamIngester(table, "db", "telemetry",
+                Duration.ofSeconds(10), 4)) {
+            for (int i = 0; i < 250; i++) {
+                ingester.write(i % 2 == 0 ? HOST1 : HOST2, "cpu", MeasureValueType.DOUBLE, "1.5", 1_000 + i);
+            }
+            ingester.flush();
+
+            assertEquals(250, ingester.getPointsWritten());
+            assertEquals(0, ingester.getPointsFailed());
+        }
+
+        // 125 points per host: one full request and one flushed request each.
+        assertEquals(4, table.requests.get());
+        assertEquals(250, table.recordsWritten.get());
+        assertTrue(table.maxRecordsPerRequest.get() <= TimestreamIngester.MAX_RECORDS_PER_REQUEST);
+        assertFalse(table.dimensionsOnRecords.get());
+        assertFalse(table.mixedHosts.get());
+    }
+
+    @Test
+    public void testConcurrentWritersKeepEveryPoint() throws Exception {
+        StubTable table = new StubTable(request -> null);
+        int threads = 8;
+        int pointsPerThread = 5_000;
+        try (TimestreamIngester ingester = new TimestreamIngester(table, "db", "telemetry",
+                Duration.ofMillis(5), 4)) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                // Two threads write to each host, so that they share a group.
+                List<Dimension> host = dimensions("host" + (t % (threads / 2)));
+                writers.add(new Thread(() -> {
+                    for (int i = 0; i < pointsPerThread; i++) {
+                        ingester.write(host, "cpu", MeasureValueType.DOUBLE, "1.5", 1_000 + i);
+                    }
+                }));
+            }
+            writers.forEach(Thread::start);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            ingester.flush();
+
+            assertEquals((long) threads * pointsPerThread, ingester.getPointsWritten());
+        }
+        assertEquals((long) threads * pointsPerThread, table.recordsWritten.get());
+        assertTrue(table.maxRecordsPerRequest.get() <= TimestreamIngester.MAX_RECORDS_PER_REQUEST);
+    }
+
+    @Test
+    public void testGroupIsSentAfterTheLingerTime() throws Exception {
+        StubTable table = new StubTable(request -> null);
+        try (TimestreamIngester ingester = new TimestreamIngester(table, "db", "telemetry",
+                Duration.ofMillis(20), 2)) {
+            ingester.write(HOST1, "cpu", MeasureValueType.DOUBLE, "1.5", 1_000);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (table.recordsWritten.get() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, table.recordsWritten.get());
+        }
+    }
+
+    @Test
+    public void testRejectedRecordsAreNotSentAgainByDefault() {
+        StubTable table = new StubTable(request -> List.of(
+                RejectedRecord.builder().recordIndex(0).existingVersion(1L)
+                        .reason("A record with this measure name already exists.").build(),
+                RejectedRecord.builder().recordIndex(1)
+                        .reason("The record timestamp is outside the time range of the data ingestion window.")
+                        .build()));
+        try (TimestreamIngester ingester = new TimestreamIngester(table, "db", "telemetry",
+                Duration.ofSeconds(10), 2)) {
+            for (int i = 0; i < 5; i++) {
+                ingester.write(HOST1, "cpu", MeasureValueType.DOUBLE, "1.5", 1_000 + i);
+            }
+            ingester.flush();
+
+            assertEquals(3, ingester.getPointsWritten());
+            assertEquals(2, ingester.getPointsRejected());
+            assertEquals(1, ingester.getVersionConflicts());
+            assertEquals(0, ingester.getPointsRetried());
+        }
+        assertEquals(1, table.requests.get());
+    }
+
+    @Test
+    public void testRetryableRejectionsAreSentAgain() {
+        AtomicBoolean first = new AtomicBoolean(true);
+        StubTable table = new StubTable(request -> first.getAndSet(false)
+                ? List.of(RejectedRecord.builder().recordIndex(2).reason("Try again.").build())
+                : null);
+        try (TimestreamIngester ingester = new TimestreamIngester(table, "db", "telemetry",
+                Duration.ofSeconds(10), 2)
+                .withRetries(3, Duration.ofMillis(1), Duration.ofMillis(1))
+                .withRetryableRejections(rejected -> rejected.existingVersion() == null)) {
+            for (int i = 0; i < 5; i++) {
+                ingester.write(HOST1, "cpu", MeasureValueType.DOUBLE, "1.5", 1_000 + i);
+            }
+            ingester.flush();
+
+            assertEquals(5, ingester.getPointsWritten());
+            assertEquals(1, ingester.getPointsRetried());
+        }
+        assertEquals(2, table.requests.get());
+        assertEquals(1, table.lastRequestSize.get());
+    }
+
+    @Test
+    public void testThrottledRequestIsSentAgain() {
+        AtomicInteger calls = new AtomicInteger();
+        StubTable table = new StubTable(request -> {
+            if (calls.incrementAndGet() == 1) {
+                throw ThrottlingException.builder().message("Rate exceeded").build();
+            }
+            return null;
+        });
+        try (TimestreamIngester ingester = new TimestreamIngester(table, "db", "telemetry",
+                Duration.ofSeconds(10), 2).withRetries(3, Duration.ofMillis(1), Duration.ofMillis(1))) {
+            ingester.write(HOST1, "cpu", MeasureValueType.DOUBLE, "1.5", 1_000);
+            ingester.flush();
+
+            assertEquals(1, ingester.getPointsWritten());
+            assertEquals(1, ingester.getPointsRetried());
+        }
+    }
+
+    @Test
+    public void testUnexpectedExceptionFailsTheGroupAndFlushReturns() {
+        StubTable table = new StubTable(request -> {
+            throw new IllegalStateException("broken");
+        });
+        try (TimestreamIngester ingester = new TimestreamIngester(table, "db", "telemetry",
+                Duration.ofSeconds(10), 2)) {
+            ingester.write(HOST1, "cpu", MeasureValueType.DOUBLE, "1.5", 1_000);
+            ingester.write(HOST2, "cpu", MeasureValueType.DOUBLE, "1.5", 1_000);
+            ingester.flush();
+
+            assertEquals(2, ingester.getPointsFailed());
+            assertEquals(0, ingester.getPointsWritten());
+        }
+    }
+
+    @Test
+    public void testWriteAfterCloseFails() {
+        TimestreamIngester ingester = new TimestreamIngester(new StubTable(request -> null), "db", "telemetry");
+        ingester.close();
+        assertThrows(IllegalStateException.class,
+                () -> ingester.write(HOST1, "cpu", MeasureValueType.DOUBLE, "1.5", 1_000));
+    }
+
+    @Test
+    public void testVersionConflict() {
+        assertTrue(TimestreamIngester.isVersionConflict(RejectedRecord.builder()
+                .recordIndex(0).existingVersion(1L).build()));
+        assertFalse(TimestreamIngester.isVersionConflict(RejectedRecord.builder()
+                .recordIndex(0).reason("Records with dimensions that exceed the limits").build()));
+    }
+
+    private static List<Dimension> dimensions(String host) {
+        return List.of(
+                Dimension.builder().name("region").value("us-east-1").build(),
+                Dimension.builder().name("hostname").value(host).build());
+    }
+
+    // Writes the records of every request except the ones the rejections function returns.
+    private static class StubTable implements TimestreamWriteClient {
+        private final Function<WriteRecordsRequest, List<RejectedRecord>> rejections;
+        private final AtomicLong recordsWritten = new AtomicLong();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger maxRecordsPerRequest = new AtomicInteger();
+        private final AtomicInteger lastRequestSize = new AtomicInteger();
+        private final AtomicBoolean dimensionsOnRecords = new AtomicBoolean();
+        private final AtomicBoolean mixedHosts = new AtomicBoolean();
+
+        StubTable(Function<WriteRecordsRequest, List<RejectedRecord>> rejections) {
+            this.rejections = rejections;
+        }
+
+        @Override
+        public WriteRecordsResponse writeRecords(WriteRecordsRequest request) {
+            List<RejectedRecord> rejected = rejections.apply(request);
+            requests.incrementAndGet();
+            maxRecordsPerRequest.accumulateAndGet(request.records().size(), Math::max);
+            lastRequestSize.set(request.records().size());
+            request.records().forEach(record -> {
+                if (!record.dimensions().isEmpty()) {
+                    dimensionsOnRecords.set(true);
+                }
+            });
+            List<Dimension> common = request.commonAttributes().dimensions();
+            if (!common.equals(HOST1) && !common.equals(HOST2)) {
+                mixedHosts.set(true);
+            }
+
+            if (rejected != null && !rejected.isEmpty()) {
+                recordsWritten.addAndGet(request.records().size() - rejected.size());
+                throw RejectedRecordsException.builder()
+                        .message("One or more records have been rejected.")
+                        .rejectedRecords(new ArrayList<>(rejected))
+                        .build();
+            }
+            recordsWritten.addAndGet(request.records().size());
+            return WriteRecordsResponse.builder().build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "timestream";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -7,103 +7,226 @@ package com.amazonaws.transcribe;
 // snippet-start:[transcribe.java2.bidir_streaming_audiopublisher.import]
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
-import software.amazon.awssdk.services.transcribestreaming.model.TranscribeStreamingException;
 // snippet-end:[transcribe.java2.bidir_streaming_audiopublisher.import]
 
 // snippet-start:[transcribe.java2.bidir_streaming_audiopublisher.class]
 
+/**
+ * Publishes audio from a file or an input stream as AudioEvent chunks.
+ *
+ * A subscription only reads a chunk when the subscriber has requested one, and it reads
+ * no more chunks than were requested. The reads run on a shared executor, so a stream
+ * does not own a thread while it waits for demand. Audio is read into direct buffers
+ * that are pooled by chunk size. A buffer is only held while a subscription is reading,
+ * so hundreds of streams share a few buffers. Each chunk is copied once from the buffer
+ * into the array of its AudioEvent, because the SDK encodes the event later.
+ *
+ * A file is read with its own FileChannel for each subscription. An input stream is
+ * shared by all subscriptions, so a new subscription cancels the previous one and
+ * continues where it stopped. Reading from a blocking source such as a microphone
+ * holds an executor thread until audio arrives. On Java 21 or later, pass
+ * Executors.newVirtualThreadPerTaskExecutor() to run each read on a virtual thread.
+ */
 public class AudioStreamPublisher implements Publisher<AudioStream> {
-    private final InputStream inputStream;
+    public static final int DEFAULT_CHUNK_SIZE_IN_BYTES = 1024;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "audio-stream-publisher-" + THREADS.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final ConcurrentMap<Integer, Queue<ByteBuffer>> BUFFER_POOLS = new ConcurrentHashMap<>();
+
+    private final ReadableByteChannel stream;
+    private final Path file;
+    private final int chunkSize;
+    private final Executor executor;
+    private final Queue<ByteBuffer> bufferPool;
+    private final AtomicReference<SubscriptionImpl> currentSubscription = new AtomicReference<>();
 
     public AudioStreamPublisher(InputStream inputStream) {
-        this.inputStream = inputStream;
+        this(inputStream, DEFAULT_CHUNK_SIZE_IN_BYTES, SHARED_EXECUTOR);
+    }
+
+    public AudioStreamPublisher(InputStream inputStream, int chunkSize, Executor executor) {
+        this(Channels.newChannel(inputStream), null, chunkSize, executor);
+    }
+
+    private AudioStreamPublisher(ReadableByteChannel stream, Path file, int chunkSize, Executor executor) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+        this.stream = stream;
+        this.file = file;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+        this.bufferPool = BUFFER_POOLS.computeIfAbsent(chunkSize, size -> new ConcurrentLinkedQueue<>());
+    }
+
+    public static AudioStreamPublisher fromFile(Path file) {
+        return fromFile(file, DEFAULT_CHUNK_SIZE_IN_BYTES, SHARED_EXECUTOR);
+    }
+
+    public static AudioStreamPublisher fromFile(Path file, int chunkSize, Executor executor) {
+        return new AudioStreamPublisher(null, file, chunkSize, executor);
     }
 
     @Override
     public void subscribe(Subscriber<? super AudioStream> s) {
-        s.onSubscribe(new SubscriptionImpl(s, inputStream));
+        Objects.requireNonNull(s, "subscriber");
+        SubscriptionImpl subscription = new SubscriptionImpl(s);
+        SubscriptionImpl previous = currentSubscription.getAndSet(subscription);
+        if (previous != null) {
+            previous.cancel();
+        }
+        s.onSubscribe(subscription);
     }
 
-    private class SubscriptionImpl implements Subscription {
-        private static final int CHUNK_SIZE_IN_BYTES = 1024 * 1;
-        private ExecutorService executor = Executors.newFixedThreadPool(1);
-        private AtomicLong demand = new AtomicLong(0);
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(chunkSize);
+    }
 
+    private class SubscriptionImpl implements Subscription, Runnable {
         private final Subscriber<? super AudioStream> subscriber;
-        private final InputStream inputStream;
-
-        private SubscriptionImpl(Subscriber<? super AudioStream> s, InputStream inputStream) {
+        private final AtomicLong demand = new AtomicLong();
+        // The number of signals that the read loop has not seen yet. Only the caller that
+        // raises it from zero starts the loop, so the subscriber is called by one thread at a time.
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile IllegalArgumentException invalidRequest;
+        // Only used by the read loop.
+        private ReadableByteChannel channel;
+        private boolean done;
+
+        private SubscriptionImpl(Subscriber<? super AudioStream> s) {
             this.subscriber = s;
-            this.inputStream = inputStream;
         }
 
         @Override
         public void request(long n) {
             if (n <= 0) {
-                subscriber.onError(new IllegalArgumentException("Demand must be positive"));
+                invalidRequest = new IllegalArgumentException("Demand must be positive, but was " + n);
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
             }
-
-            demand.getAndAdd(n);
-
-            executor.submit(() -> {
-                try {
-                    do {
-                        ByteBuffer audioBuffer = getNextEvent();
-                        if (audioBuffer.remaining() > 0) {
-                            AudioEvent audioEvent = audioEventFromBuffer(audioBuffer);
-                            subscriber.onNext(audioEvent);
-                        } else {
-                            subscriber.onComplete();
-                            break;
-                        }
-                    } while (demand.decrementAndGet() > 0);
-                } catch (TranscribeStreamingException e) {
-                    subscriber.onError(e);
-                }
-            });
+            signal();
         }
 
         @Override
         public void cancel() {
-
+            cancelled = true;
+            signal();
         }
 
-        private ByteBuffer getNextEvent() {
-            ByteBuffer audioBuffer;
-            byte[] audioBytes = new byte[CHUNK_SIZE_IN_BYTES];
+        private void signal() {
+            if (pendingSignals.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
 
-            int len = 0;
+        // Sends as many chunks as were requested, then returns the buffer to the pool.
+        @Override
+        public void run() {
+            ByteBuffer buffer = null;
+            int missed = 1;
             try {
-                len = inputStream.read(audioBytes);
-
-                if (len <= 0) {
-                    audioBuffer = ByteBuffer.allocate(0);
-                } else {
-                    audioBuffer = ByteBuffer.wrap(audioBytes, 0, len);
+                do {
+                    if (!done) {
+                        if (cancelled) {
+                            finish();
+                        } else if (invalidRequest != null) {
+                            finish();
+                            subscriber.onError(invalidRequest);
+                        } else {
+                            long requested = demand.get();
+                            long emitted = 0;
+                            while (emitted < requested && !cancelled) {
+                                if (buffer == null) {
+                                    buffer = acquireBuffer();
+                                }
+                                AudioEvent audioEvent = readChunk(buffer);
+                                if (audioEvent == null) {
+                                    finish();
+                                    subscriber.onComplete();
+                                    break;
+                                }
+                                subscriber.onNext(audioEvent);
+                                emitted++;
+                            }
+                            if (requested != Long.MAX_VALUE) {
+                                demand.addAndGet(-emitted);
+                            }
+                        }
+                    }
+                    missed = pendingSignals.addAndGet(-missed);
+                } while (missed != 0);
+            } catch (IOException | RuntimeException e) {
+                finish();
+                subscriber.onError(e);
+            } finally {
+                if (buffer != null) {
+                    bufferPool.offer(buffer);
                 }
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
             }
-
-            return audioBuffer;
         }
 
-        private AudioEvent audioEventFromBuffer(ByteBuffer bb) {
+        // Fills the buffer from the source and copies it into a new AudioEvent, or returns null at the end.
+        private AudioEvent readChunk(ByteBuffer buffer) throws IOException {
+            if (channel == null) {
+                channel = file != null ? FileChannel.open(file, StandardOpenOption.READ) : stream;
+            }
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the chunk is full or the source ends.
+            }
+            buffer.flip();
+            if (!buffer.hasRemaining()) {
+                return null;
+            }
+            byte[] chunk = new byte[buffer.remaining()];
+            buffer.get(chunk);
             return AudioEvent.builder()
-                    .audioChunk(SdkBytes.fromByteBuffer(bb))
+                    .audioChunk(SdkBytes.fromByteArrayUnsafe(chunk))
                     .build();
         }
+
+        // Marks the subscription as done and closes the channel of a file. An input stream stays open.
+        private void finish() {
+            done = true;
+            if (channel != null && channel != stream) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // The audio has been read, so there is nothing to recover.
+                }
+            }
+        }
     }
 }
 // snippet-end:[transcribe.java2.bidir_streaming_audiopublisher.class]
@@ -0,0 +1,96 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.amazonaws.transcribestreaming;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts non-negative values in buckets whose upper bounds are 0, 1, 2, 4, 8 and so on.
+ * Recording is lock free, so it can be called from SDK threads.
+ */
+public class Histogram {
+    private static final int BUCKETS = 64;
+
+    private final String unit;
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram(String unit) {
+        this.unit = unit;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long value) {
+        long clamped = Math.max(0, value);
+        counts[bucketOf(clamped)].increment();
+        sum.add(clamped);
+        max.accumulate(clamped);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : sum.sum() / (double) count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket that holds the given percentile, or 0 when
+     * nothing was recorded.
+     *
+     * @param percentile a value between 0 and 100
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i].sum();
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    // Returns the number of values in each bucket, from the bucket for 0 upwards.
+    public long[] getBucketCounts() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return snapshot;
+    }
+
+    private static int bucketOf(long value) {
+        return value == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value - 1) + 1);
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : 1L << Math.min(bucket - 1, 62);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1f p50<=%d p90<=%d p99<=%d max=%d %s", getCount(), getMean(),
+                getPercentile(50), getPercentile(90), getPercentile(99), getMax(), unit);
+    }
+}
@@ -0,0 +1,312 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.amazonaws.transcribestreaming;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps an audio publisher so that a stream can be started again without losing audio.
+ *
+ * The source is subscribed once. The audio it publishes is kept in a replay buffer until
+ * it is acknowledged, which the retry client does when Amazon Transcribe returns a final
+ * result that ends after it. A new subscription first receives the buffered audio from the
+ * last acknowledged byte, and then the audio that the source publishes next.
+ *
+ * The buffer holds at most maxReplayBytes. When the service falls further behind, the
+ * oldest audio is dropped and a new subscription starts at the oldest byte still buffered.
+ */
+class ResumableAudioPublisher implements Publisher<AudioStream> {
+    private final Publisher<AudioStream> source;
+    private final long maxReplayBytes;
+    private final Object lock = new Object();
+    // Buffered chunks by the offset of their first byte. Guarded by lock, as are the fields below.
+    private final TreeMap<Long, SdkBytes> replay = new TreeMap<>();
+    private long bufferStart;
+    private long received;
+    private long acknowledged;
+    private long resumeOffset;
+    private long droppedBytes;
+    private long replayedBytes;
+    private Subscription upstream;
+    private boolean upstreamSubscribed;
+    private boolean upstreamWanted;
+    private long upstreamOutstanding;
+    private boolean upstreamDone;
+    private Throwable upstreamError;
+    private ReplaySubscription current;
+
+    ResumableAudioPublisher(Publisher<AudioStream> source, long maxReplayBytes) {
+        this.source = source;
+        this.maxReplayBytes = maxReplayBytes;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super AudioStream> s) {
+        Objects.requireNonNull(s, "subscriber");
+        ReplaySubscription subscription;
+        ReplaySubscription previous;
+        synchronized (lock) {
+            long start = Math.max(acknowledged, bufferStart);
+            subscription = new ReplaySubscription(s, start);
+            replayedBytes += received - start;
+            resumeOffset = start;
+            previous = current;
+            current = subscription;
+        }
+        if (previous != null) {
+            previous.cancel();
+        }
+        s.onSubscribe(subscription);
+    }
+
+    /**
+     * Marks the audio of the current subscription up to the given byte as processed by the
+     * service, so that it is not sent again.
+     *
+     * @param sessionBytes the number of bytes since the start of the current subscription
+     */
+    void acknowledge(long sessionBytes) {
+        synchronized (lock) {
+            long offset = Math.min(received, resumeOffset + sessionBytes);
+            if (offset <= acknowledged) {
+                return;
+            }
+            acknowledged = offset;
+            while (!replay.isEmpty()) {
+                Map.Entry<Long, SdkBytes> first = replay.firstEntry();
+                if (first.getKey() + first.getValue().asByteBuffer().remaining() > acknowledged) {
+                    break;
+                }
+                replay.pollFirstEntry();
+            }
+            bufferStart = replay.isEmpty() ? received : replay.firstKey();
+        }
+    }
+
+    long getAcknowledgedOffset() {
+        synchronized (lock) {
+            return acknowledged;
+        }
+    }
+
+    // The offset where the current subscription started.
+    long getResumeOffset() {
+        synchronized (lock) {
+            return resumeOffset;
+        }
+    }
+
+    // Audio that was dropped from a full replay buffer before it was acknowledged.
+    long getDroppedBytes() {
+        synchronized (lock) {
+            return droppedBytes;
+        }
+    }
+
+    // Audio that was sent again to a new subscription.
+    long getReplayedBytes() {
+        synchronized (lock) {
+            return replayedBytes;
+        }
+    }
+
+    // Asks the source for one more chunk unless a chunk is already on its way.
+    private void requestUpstream() {
+        Subscription subscription;
+        boolean subscribe = false;
+        synchronized (lock) {
+            if (upstreamDone || upstreamError != null || upstreamOutstanding > 0) {
+                return;
+            }
+            if (upstream == null) {
+                upstreamWanted = true;
+                if (!upstreamSubscribed) {
+                    upstreamSubscribed = true;
+                    subscribe = true;
+                }
+                subscription = null;
+            } else {
+                upstreamOutstanding++;
+                subscription = upstream;
+            }
+        }
+        if (subscribe) {
+            source.subscribe(new UpstreamSubscriber());
+        } else if (subscription != null) {
+            subscription.request(1);
+        }
+    }
+
+    private void signalCurrent() {
+        ReplaySubscription subscription;
+        synchronized (lock) {
+            subscription = current;
+        }
+        if (subscription != null) {
+            subscription.signal();
+        }
+    }
+
+    private class UpstreamSubscriber implements Subscriber<AudioStream> {
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            boolean request;
+            synchronized (lock) {
+                upstream = subscription;
+                request = upstreamWanted;
+                if (request) {
+                    upstreamOutstanding++;
+                }
+            }
+            if (request) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onNext(AudioStream audioStream) {
+            SdkBytes chunk = ((AudioEvent) audioStream).audioChunk();
+            synchronized (lock) {
+                upstreamOutstanding = Math.max(0, upstreamOutstanding - 1);
+                int length = chunk.asByteBuffer().remaining();
+                if (length > 0) {
+                    replay.put(received, chunk);
+                    received += length;
+                }
+                while (received - bufferStart > maxReplayBytes && replay.size() > 1) {
+                    Map.Entry<Long, SdkBytes> dropped = replay.pollFirstEntry();
+                    long end = dropped.getKey() + dropped.getValue().asByteBuffer().remaining();
+                    droppedBytes += end - Math.max(dropped.getKey(), acknowledged);
+                    bufferStart = replay.firstKey();
+                }
+            }
+            signalCurrent();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (lock) {
+                upstreamError = t;
+            }
+            signalCurrent();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (lock) {
+                upstreamDone = true;
+            }
+            signalCurrent();
+        }
+    }
+
+    private class ReplaySubscription implements Subscription {
+        private final Subscriber<? super AudioStream> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        // Signals that the send loop has not seen yet. Only the caller that raises it from
+        // zero runs the loop, so the subscriber is called by one thread at a time.
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile IllegalArgumentException invalidRequest;
+        // Only used by the send loop.
+        private long position;
+        private boolean done;
+
+        ReplaySubscription(Subscriber<? super AudioStream> subscriber, long position) {
+            this.subscriber = subscriber;
+            this.position = position;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Demand must be positive, but was " + n);
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        void signal() {
+            if (pendingSignals.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                if (!done && !cancelled) {
+                    if (invalidRequest != null) {
+                        done = true;
+                        subscriber.onError(invalidRequest);
+                    } else {
+                        sendRequested();
+                    }
+                }
+                missed = pendingSignals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        // Sends buffered chunks while there is demand, and asks the source for more when the buffer runs out.
+        private void sendRequested() {
+            long requested = demand.get();
+            long emitted = 0;
+            while (emitted < requested && !cancelled) {
+                AudioEvent next = null;
+                Throwable error = null;
+                boolean complete = false;
+                synchronized (lock) {
+                    position = Math.max(position, bufferStart);
+                    Map.Entry<Long, SdkBytes> entry = replay.floorEntry(position);
+                    if (entry != null && position < entry.getKey() + entry.getValue().asByteBuffer().remaining()) {
+                        ByteBuffer bytes = entry.getValue().asByteBuffer();
+                        int skip = (int) (position - entry.getKey());
+                        bytes.position(bytes.position() + skip);
+                        next = AudioEvent.builder()
+                                .audioChunk(skip == 0 ? entry.getValue() : SdkBytes.fromByteBuffer(bytes))
+                                .build();
+                        position += bytes.remaining();
+                    } else if (upstreamError != null) {
+                        error = upstreamError;
+                    } else if (upstreamDone) {
+                        complete = true;
+                    }
+                }
+
+                if (next != null) {
+                    subscriber.onNext(next);
+                    emitted++;
+                } else if (error != null) {
+                    done = true;
+                    subscriber.onError(error);
+                    break;
+                } else if (complete) {
+                    done = true;
+                    subscriber.onComplete();
+                    break;
+                } else {
+                    requestUpstream();
+                    break;
+                }
+            }
+            if (requested != Long.MAX_VALUE) {
+                demand.addAndGet(-emitted);
+            }
+        }
+    }
+}
@@ -13,29 +13,57 @@ import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
 import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
 import software.amazon.awssdk.services.transcribestreaming.model.BadRequestException;
+import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
 import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
 import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponseHandler;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Build a client wrapper around the Amazon Transcribe client to retry
  * on an exception that can be retried.
+ *
+ * Retries are scheduled on a timer thread with decorrelated jitter, so no SDK
+ * thread sleeps. The audio is kept in a replay buffer until a final transcript
+ * result covers it, and a retried stream resumes from the end of the last
+ * final result instead of from the start of the audio. Resuming at a byte
+ * offset needs PCM audio. For other encodings the stream resumes from the
+ * oldest buffered audio.
  */
 // snippet-start:[transcribe.java-streaming-retry-client]
 public class TranscribeStreamingRetryClient {
 
     private static final int DEFAULT_MAX_RETRIES = 10;
     private static final int DEFAULT_MAX_SLEEP_TIME_MILLS = 100;
+    private static final int DEFAULT_MAX_BACKOFF_MILLS = 10_000;
+    private static final long DEFAULT_REPLAY_BUFFER_BYTES = 4L * 1024 * 1024;
     private static final Logger log = LoggerFactory.getLogger(TranscribeStreamingRetryClient.class);
     private final TranscribeStreamingAsyncClient client;
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "transcribe-streaming-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Histogram retryHistogram = new Histogram("retries");
+    private final Histogram reconnectLatencyHistogram = new Histogram("ms");
     List<Class<?>> nonRetriableExceptions = Arrays.asList(BadRequestException.class);
     private int maxRetries = DEFAULT_MAX_RETRIES;
     private int sleepTime = DEFAULT_MAX_SLEEP_TIME_MILLS;
+    private int maxSleepTime = DEFAULT_MAX_BACKOFF_MILLS;
+    private long replayBufferSize = DEFAULT_REPLAY_BUFFER_BYTES;
 
     /**
      * Create a TranscribeStreamingRetryClient with given credential and
@@ -77,19 +105,63 @@ public class TranscribeStreamingRetryClient {
     }
 
     /**
-     * Get sleep time
+     * Get the base sleep time between retries
      */
     public int getSleepTime() {
         return sleepTime;
     }
 
     /**
-     * Set sleep time between retries
+     * Set the base sleep time between retries. Each sleep is a random time
+     * between this and three times the previous sleep.
      */
     public void setSleepTime(int sleepTime) {
         this.sleepTime = sleepTime;
     }
 
+    /**
+     * Get the longest sleep time between retries
+     */
+    public int getMaxSleepTime() {
+        return maxSleepTime;
+    }
+
+    /**
+     * Set the longest sleep time between retries
+     */
+    public void setMaxSleepTime(int maxSleepTime) {
+        this.maxSleepTime = maxSleepTime;
+    }
+
+    /**
+     * Get the number of audio bytes kept for resuming a stream
+     */
+    public long getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
+    /**
+     * Set the number of audio bytes kept for resuming a stream. Audio that the
+     * service has not covered with a final result is dropped beyond this size.
+     */
+    public void setReplayBufferSize(long replayBufferSize) {
+        this.replayBufferSize = replayBufferSize;
+    }
+
+    /**
+     * Get the number of retries that each finished stream needed
+     */
+    public Histogram getRetryHistogram() {
+        return retryHistogram;
+    }
+
+    /**
+     * Get the time from a failed attempt to the response of the next attempt
+     */
+    public Histogram getReconnectLatencyHistogram() {
+        return reconnectLatencyHistogram;
+    }
+
     /**
      * Initiate a Stream Transcription with retry.
      */
@@ -99,56 +171,78 @@ public class TranscribeStreamingRetryClient {
             final StreamTranscriptionBehavior responseHandler) {
 
         CompletableFuture<Void> finalFuture = new CompletableFuture<>();
+        StreamState state = new StreamState(rebuildRequestWithSession(request),
+                new ResumableAudioPublisher(publisher, replayBufferSize), responseHandler, finalFuture);
 
-        recursiveStartStream(rebuildRequestWithSession(request), publisher, responseHandler, finalFuture, 0);
+        startAttempt(state);
 
         return finalFuture;
     }
 
     /**
-     * Recursively call startStreamTranscription() until the request is completed or
-     * we run out of retries.
-     *
+     * Start one attempt of the stream. When it fails with an exception that can
+     * be retried, the next attempt is scheduled on the retry timer.
      */
-    private void recursiveStartStream(final StartStreamTranscriptionRequest request,
-            final Publisher<AudioStream> publisher,
-            final StreamTranscriptionBehavior responseHandler,
-            final CompletableFuture<Void> finalFuture,
-            final int retryAttempt) {
-        CompletableFuture<Void> result = client.startStreamTranscription(request, publisher,
-                getResponseHandler(responseHandler));
+    private void startAttempt(final StreamState state) {
+        final int attempt = state.attempt;
+        CompletableFuture<Void> result;
+        try {
+            result = client.startStreamTranscription(state.request, state.publisher,
+                    getResponseHandler(state, attempt));
+        } catch (RuntimeException e) {
+            // An exception thrown before the stream starts fails the attempt like any other error.
+            // On the retry timer thread it would otherwise be lost and the stream never finish.
+            result = CompletableFuture.failedFuture(e);
+        }
         result.whenComplete((r, e) -> {
             if (e != null) {
-                log.debug("Error occured:", e);
+                Throwable cause = unwrap(e);
+                log.debug("Error occured:", cause);
 
-                if (retryAttempt <= maxRetries && isExceptionRetriable(e)) {
-                    log.debug("Retriable error occurred and will be retried.");
-                    log.debug("Sleeping for sometime before retrying...");
+                if (state.attempt < maxRetries && isExceptionRetriable(cause)) {
+                    long delay = nextSleepTime(state);
+                    log.debug("Retriable error occurred. Retry attempt {} in {} ms from audio byte {}.",
+                            state.attempt + 1, delay, state.publisher.getAcknowledgedOffset());
+                    state.failedAtNanos = System.nanoTime();
+                    state.attempt++;
                     try {
-                        Thread.sleep(sleepTime);
-                    } catch (InterruptedException e1) {
-                        log.debug("Unable to sleep. Failed with exception: ", e);
-                        e1.printStackTrace();
+                        retryScheduler.schedule(() -> startAttempt(state), delay, TimeUnit.MILLISECONDS);
+                    } catch (RejectedExecutionException rejected) {
+                        // The client was closed while the stream was running.
+                        fail(state, cause);
                     }
-                    log.debug("Making retry attempt: " + (retryAttempt + 1));
-                    recursiveStartStream(request, publisher, responseHandler, finalFuture, retryAttempt + 1);
                 } else {
                     log.error("Encountered unretriable exception or ran out of retries. ");
-                    responseHandler.onError(e);
-                    finalFuture.completeExceptionally(e);
+                    fail(state, cause);
                 }
             } else {
-                responseHandler.onComplete();
-                finalFuture.complete(null);
+                retryHistogram.record(state.attempt);
+                state.responseHandler.onComplete();
+                state.finalFuture.complete(null);
             }
         });
     }
 
+    private void fail(StreamState state, Throwable cause) {
+        retryHistogram.record(state.attempt);
+        try {
+            state.responseHandler.onError(cause);
+        } finally {
+            state.finalFuture.completeExceptionally(cause);
+        }
+    }
+
+    // Decorrelated jitter: a random time between the base sleep time and three times the previous sleep.
+    private long nextSleepTime(StreamState state) {
+        long previous = Math.max(sleepTime, state.previousSleepTime);
+        long upper = Math.min(maxSleepTime, previous * 3);
+        long sleep = upper <= sleepTime ? upper : ThreadLocalRandom.current().nextLong(sleepTime, upper + 1);
+        state.previousSleepTime = sleep;
+        return sleep;
+    }
+
     private StartStreamTranscriptionRequest rebuildRequestWithSession(StartStreamTranscriptionRequest request) {
-        return StartStreamTranscriptionRequest.builder()
-                .languageCode(request.languageCode())
-                .mediaEncoding(request.mediaEncoding())
-                .mediaSampleRateHertz(request.mediaSampleRateHertz())
+        return request.toBuilder()
                 .sessionId(UUID.randomUUID().toString())
                 .build();
     }
@@ -159,10 +253,15 @@ public class TranscribeStreamingRetryClient {
      * Output is printed to standard output
      */
     private StartStreamTranscriptionResponseHandler getResponseHandler(
-            StreamTranscriptionBehavior transcriptionBehavior) {
+            StreamState state, int attempt) {
         final StartStreamTranscriptionResponseHandler build = StartStreamTranscriptionResponseHandler.builder()
                 .onResponse(r -> {
-                    transcriptionBehavior.onResponse(r);
+                    if (attempt > 0 && state.failedAtNanos != 0) {
+                        reconnectLatencyHistogram.record(
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - state.failedAtNanos));
+                        state.failedAtNanos = 0;
+                    }
+                    state.responseHandler.onResponse(r);
                 })
                 .onError(e -> {
                     // Do nothing here. Don't close any streams that shouldn't be cleaned up yet.
@@ -171,24 +270,77 @@ public class TranscribeStreamingRetryClient {
                     // Do nothing here. Don't close any streams that shouldn't be cleaned up yet.
                 })
 
-                .subscriber(event -> transcriptionBehavior.onStream(event))
+                .subscriber(event -> {
+                    if (attempt == state.attempt) {
+                        acknowledgeFinalResults(state, event);
+                    }
+                    state.responseHandler.onStream(event);
+                })
                 .build();
         return build;
     }
 
+    // Marks the audio up to the end of the last final result as processed. Result times
+    // are in seconds from the start of the attempt.
+    private void acknowledgeFinalResults(StreamState state, TranscriptResultStream event) {
+        if (state.bytesPerSecond <= 0 || !(event instanceof TranscriptEvent)) {
+            return;
+        }
+        double endTime = 0;
+        for (Result result : ((TranscriptEvent) event).transcript().results()) {
+            if (!Boolean.TRUE.equals(result.isPartial()) && result.endTime() != null) {
+                endTime = Math.max(endTime, result.endTime());
+            }
+        }
+        if (endTime > 0) {
+            long frames = Math.round(endTime * state.bytesPerSecond / state.frameSize);
+            state.publisher.acknowledge(frames * state.frameSize);
+        }
+    }
+
     /**
      * Check if the exception can be retried.
      *
      */
     private boolean isExceptionRetriable(Throwable e) {
-        e.printStackTrace();
+        return !nonRetriableExceptions.contains(e.getClass());
+    }
 
-        return nonRetriableExceptions.contains(e.getClass());
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
     }
 
     public void close() {
+        this.retryScheduler.shutdownNow();
         this.client.close();
     }
 
+    // The attempts of one stream and the audio they share.
+    private static class StreamState {
+        private final StartStreamTranscriptionRequest request;
+        private final ResumableAudioPublisher publisher;
+        private final StreamTranscriptionBehavior responseHandler;
+        private final CompletableFuture<Void> finalFuture;
+        private final int frameSize;
+        private final long bytesPerSecond;
+        private volatile int attempt;
+        private volatile long failedAtNanos;
+        private long previousSleepTime;
+
+        StreamState(StartStreamTranscriptionRequest request, ResumableAudioPublisher publisher,
+                StreamTranscriptionBehavior responseHandler, CompletableFuture<Void> finalFuture) {
+            this.request = request;
+            this.publisher = publisher;
+            this.responseHandler = responseHandler;
+            this.finalFuture = finalFuture;
+            // 16-bit samples for each channel. Only PCM audio maps result times to byte offsets.
+            int channels = Boolean.TRUE.equals(request.enableChannelIdentification())
+                    && request.numberOfChannels() != null ? request.numberOfChannels() : 1;
+            this.frameSize = 2 * channels;
+            this.bytesPerSecond = request.mediaEncoding() == MediaEncoding.PCM && request.mediaSampleRateHertz() != null
+                    ? (long) request.mediaSampleRateHertz() * frameSize : 0;
+        }
+    }
+
 }
 // snippet-end:[transcribe.java-streaming-retry-client]
@@ -0,0 +1,225 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.amazonaws.transcribe.AudioStreamPublisher;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs many audio streams from a file at once and reports the allocation rate and the CPU
+ * time per stream. The subscribers stand in for the SDK, which requests a batch of events and
+ * the next batch when the current one has arrived, so no AWS resources are needed. Two
+ * publishers are compared:
+ *
+ *   thread per stream   what AudioStreamPublisher did before: a new single-thread pool for
+ *                       every subscription, a new array for every chunk, and another copy
+ *                       in SdkBytes.fromByteBuffer. The pools are shut down after the
+ *                       run is measured; the earlier publisher never shut them down.
+ *   shared publisher    AudioStreamPublisher.fromFile: reads on a shared executor into
+ *                       pooled direct buffers, and copies each chunk once
+ *
+ * The allocations and the CPU time are those of the whole JVM while the streams run. The
+ * arguments are the number of streams and the size of the audio in KB. Both are optional;
+ * the default is 300 streams of 1 MB.
+ */
+public class AudioStreamPublisherBenchmark {
+    private static final int CHUNK_SIZE = AudioStreamPublisher.DEFAULT_CHUNK_SIZE_IN_BYTES;
+
+    public static void main(String[] args) throws Exception {
+        int streams = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int audioBytes = (args.length > 1 ? Integer.parseInt(args[1]) : 1024) * 1024;
+
+        Path file = Files.createTempFile("AudioStreamPublisherBenchmark", ".pcm");
+        try {
+            byte[] audio = new byte[audioBytes];
+            new Random(42).nextBytes(audio);
+            Files.write(file, audio);
+
+            System.out.printf("%d streams of %,d bytes in %d byte chunks%n", streams, audioBytes, CHUNK_SIZE);
+            run("thread per stream", file, streams, audioBytes, path -> new ThreadPerStreamPublisher(path));
+            run("shared publisher", file, streams, audioBytes, AudioStreamPublisher::fromFile);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void run(String mode, Path file, int streams, long audioBytes,
+                            Function<Path, Publisher<AudioStream>> publishers) throws Exception {
+        // Warm up the executor, the buffer pool and the JIT.
+        runStreams(file, 20, publishers);
+        ThreadPerStreamPublisher.shutdownPools();
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        threads.resetPeakThreadCount();
+        long allocatedBefore = allocatedBytes(threads);
+        long cpuBefore = os.getProcessCpuTime();
+        long start = System.nanoTime();
+        long received = runStreams(file, streams, publishers);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocated = allocatedBytes(threads) - allocatedBefore;
+        long cpuNanos = os.getProcessCpuTime() - cpuBefore;
+        int peakThreads = threads.getPeakThreadCount();
+        ThreadPerStreamPublisher.shutdownPools();
+
+        long expected = streams * audioBytes;
+        System.out.printf("%-18s %6.2f s  %,7.0f MB/s  %6.2f bytes allocated per audio byte  %,8.0f MB/s allocated  "
+                        + "%6.2f ms CPU per stream  %4d peak threads%s%n",
+                mode, seconds, expected / seconds / 1e6, allocated / (double) expected, allocated / seconds / 1e6,
+                cpuNanos / 1e6 / streams, peakThreads,
+                received == expected ? "" : "  received " + received + " of " + expected + " bytes");
+    }
+
+    // Returns the number of bytes that the subscribers received.
+    private static long runStreams(Path file, int streams, Function<Path, Publisher<AudioStream>> publishers)
+            throws InterruptedException {
+        List<CountingSubscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < streams; i++) {
+            CountingSubscriber subscriber = new CountingSubscriber();
+            publishers.apply(file).subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+        long received = 0;
+        for (CountingSubscriber subscriber : subscribers) {
+            subscriber.done.await();
+            received += subscriber.bytes;
+        }
+        return received;
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+
+    // Requests 8 events and the next 8 when they have arrived.
+    private static class CountingSubscriber implements Subscriber<AudioStream> {
+        private static final int BATCH = 8;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private Subscription subscription;
+        private int outstanding;
+        private long bytes;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            outstanding = BATCH;
+            subscription.request(BATCH);
+        }
+
+        @Override
+        public void onNext(AudioStream audioStream) {
+            bytes += ((AudioEvent) audioStream).audioChunk().asByteArrayUnsafe().length;
+            if (--outstanding == 0) {
+                outstanding = BATCH;
+                subscription.request(BATCH);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            t.printStackTrace();
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+
+    // The publisher as it was before, reading from its own stream of the file.
+    private static class ThreadPerStreamPublisher implements Publisher<AudioStream> {
+        // The pools stay alive until the run is measured, so that the allocations of their threads are counted.
+        private static final List<ExecutorService> POOLS = new CopyOnWriteArrayList<>();
+        private final Path file;
+
+        ThreadPerStreamPublisher(Path file) {
+            this.file = file;
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super AudioStream> s) {
+            try {
+                s.onSubscribe(new SubscriptionImpl(s, Files.newInputStream(file)));
+            } catch (IOException e) {
+                s.onError(e);
+            }
+        }
+
+        static void shutdownPools() {
+            POOLS.forEach(ExecutorService::shutdown);
+            POOLS.clear();
+        }
+
+        private static class SubscriptionImpl implements Subscription {
+            private final ExecutorService executor = Executors.newFixedThreadPool(1);
+            private final AtomicLong demand = new AtomicLong(0);
+            private final Subscriber<? super AudioStream> subscriber;
+            private final InputStream inputStream;
+            // Requests that were queued before the end of the file do nothing.
+            private boolean finished;
+
+            SubscriptionImpl(Subscriber<? super AudioStream> s, InputStream inputStream) {
+                this.subscriber = s;
+                this.inputStream = inputStream;
+                POOLS.add(executor);
+            }
+
+            @Override
+            public void request(long n) {
+                demand.getAndAdd(n);
+                executor.submit(() -> {
+                    if (finished) {
+                        return;
+                    }
+                    try {
+                        do {
+                            byte[] audioBytes = new byte[CHUNK_SIZE];
+                            int len = inputStream.read(audioBytes);
+                            if (len <= 0) {
+                                finished = true;
+                                inputStream.close();
+                                subscriber.onComplete();
+                                break;
+                            }
+                            subscriber.onNext(AudioEvent.builder()
+                                    .audioChunk(SdkBytes.fromByteBuffer(ByteBuffer.wrap(audioBytes, 0, len)))
+                                    .build());
+                        } while (demand.decrementAndGet() > 0);
+                    } catch (IOException e) {
+                        finished = true;
+                        subscriber.onError(e);
+                    }
+                });
+            }
+
+            @Override
+            public void cancel() {
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.amazonaws.transcribe.AudioStreamPublisher;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(60)
+public class AudioStreamPublisherTest {
+    private static final int STREAMS = 50;
+    private static final int AUDIO_BYTES = 1024 * 1024 + 100;
+    private static final int READERS = 4;
+    // Not used by the other tests, so the buffer pool of this chunk size starts empty.
+    private static final int CHUNK_SIZE = 2048;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testConcurrentStreamsCopyEachChunkOnce() throws Exception {
+        Path file = directory.resolve("audio.pcm");
+        byte[] audio = new byte[AUDIO_BYTES];
+        new Random(42).nextBytes(audio);
+        Files.write(file, audio);
+        CRC32 expected = new CRC32();
+        expected.update(audio);
+
+        // The reads run on threads of this executor, so only their allocations are counted.
+        List<Thread> readers = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(READERS, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            readers.add(thread);
+            return thread;
+        });
+        BufferPoolMXBean directBuffers = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .findFirst()
+                .orElseThrow();
+        long directBuffersBefore = directBuffers.getCount();
+        try {
+            // Warm up the executor, the buffer pool and the JIT.
+            runStreams(file, 20, executor);
+
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            Map<Long, Long> allocatedBefore = allocatedBytes(threads, readers);
+            List<RecordingSubscriber> subscribers = runStreams(file, STREAMS, executor);
+            long allocated = 0;
+            for (Map.Entry<Long, Long> reader : allocatedBytes(threads, readers).entrySet()) {
+                allocated += reader.getValue() - allocatedBefore.getOrDefault(reader.getKey(), 0L);
+            }
+
+            long audioBytes = (long) STREAMS * AUDIO_BYTES;
+            for (RecordingSubscriber subscriber : subscribers) {
+                assertEquals(null, subscriber.error.get());
+                assertEquals(AUDIO_BYTES, subscriber.bytes);
+                assertEquals(expected.getValue(), subscriber.crc.getValue());
+            }
+            // Each chunk is copied once into its event, so the allocations stay close to the audio size.
+            assertTrue(allocated < 2 * audioBytes, "Allocated " + allocated + " bytes for " + audioBytes + " audio bytes");
+            // A buffer is only held while a stream is reading, so there are never more buffers than readers.
+            assertTrue(directBuffers.getCount() - directBuffersBefore <= READERS,
+                    "Created " + (directBuffers.getCount() - directBuffersBefore) + " direct buffers for " + READERS + " readers");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDemandIsHonored() throws Exception {
+        Path file = directory.resolve("demand.pcm");
+        Files.write(file, new byte[64 * 1024]);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        AudioStreamPublisher.fromFile(file).subscribe(subscriber);
+
+        subscriber.subscription.request(5);
+        Thread.sleep(200);
+        assertEquals(5, subscriber.events.get());
+        subscriber.subscription.request(3);
+        Thread.sleep(200);
+        assertEquals(8, subscriber.events.get());
+
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(10);
+        Thread.sleep(200);
+        assertEquals(8, subscriber.events.get());
+        assertEquals(1, subscriber.done.getCount());
+    }
+
+    @Test
+    public void testNonPositiveRequestFails() throws Exception {
+        Path file = directory.resolve("invalid.pcm");
+        Files.write(file, new byte[4096]);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        AudioStreamPublisher.fromFile(file).subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.done.await(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalArgumentException.class, subscriber.error.get());
+        assertEquals(0, subscriber.events.get());
+    }
+
+    private static List<RecordingSubscriber> runStreams(Path file, int streams, Executor executor)
+            throws InterruptedException {
+        List<RecordingSubscriber> subscribers = new ArrayList<>();
+        for (int i = 0; i < streams; i++) {
+            RecordingSubscriber subscriber = new RecordingSubscriber(8);
+            AudioStreamPublisher.fromFile(file, CHUNK_SIZE, executor).subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+        for (RecordingSubscriber subscriber : subscribers) {
+            assertTrue(subscriber.done.await(60, TimeUnit.SECONDS));
+        }
+        return subscribers;
+    }
+
+    private static Map<Long, Long> allocatedBytes(com.sun.management.ThreadMXBean threads, List<Thread> readers) {
+        Map<Long, Long> allocated = new HashMap<>();
+        for (Thread reader : readers) {
+            allocated.put(reader.getId(), threads.getThreadAllocatedBytes(reader.getId()));
+        }
+        return allocated;
+    }
+
+    // Requests a batch of events and the next batch when the current one has arrived, like the
+    // SDK does. Fails the stream if it receives more events than it requested.
+    private static class RecordingSubscriber implements Subscriber<AudioStream> {
+        private final int batch;
+        private final CRC32 crc = new CRC32();
+        private final AtomicInteger events = new AtomicInteger();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Subscription subscription;
+        private long outstanding;
+        private long bytes;
+
+        RecordingSubscriber(int batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+            if (batch > 0) {
+                outstanding = batch;
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onNext(AudioStream audioStream) {
+            events.incrementAndGet();
+            byte[] chunk = ((AudioEvent) audioStream).audioChunk().asByteArrayUnsafe();
+            crc.update(chunk);
+            bytes += chunk.length;
+            if (batch > 0) {
+                if (--outstanding < 0) {
+                    error.compareAndSet(null, new IllegalStateException("Received more events than requested"));
+                }
+                if (outstanding == 0) {
+                    outstanding = batch;
+                    subscription.request(batch);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error.compareAndSet(null, t);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.amazonaws.transcribe.AudioStreamPublisher;
+import com.amazonaws.transcribestreaming.StreamTranscriptionBehavior;
+import com.amazonaws.transcribestreaming.TranscribeStreamingRetryClient;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.transcribestreaming.TranscribeStreamingAsyncClient;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.AudioStream;
+import software.amazon.awssdk.services.transcribestreaming.model.BadRequestException;
+import software.amazon.awssdk.services.transcribestreaming.model.InternalFailureException;
+import software.amazon.awssdk.services.transcribestreaming.model.LanguageCode;
+import software.amazon.awssdk.services.transcribestreaming.model.MediaEncoding;
+import software.amazon.awssdk.services.transcribestreaming.model.Result;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionRequest;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponse;
+import software.amazon.awssdk.services.transcribestreaming.model.StartStreamTranscriptionResponseHandler;
+import software.amazon.awssdk.services.transcribestreaming.model.Transcript;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptEvent;
+import software.amazon.awssdk.services.transcribestreaming.model.TranscriptResultStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class TranscribeStreamingRetryClientTest {
+    private static final int SAMPLE_RATE = 16_000;
+    private static final int BYTES_PER_SECOND = SAMPLE_RATE * 2;
+    private static final int AUDIO_BYTES = 400 * 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testRetriesResumeFromLastFinalResult() throws Exception {
+        byte[] audio = new byte[AUDIO_BYTES];
+        new Random(7).nextBytes(audio);
+        Path file = directory.resolve("audio.pcm");
+        Files.write(file, audio);
+
+        // The first three attempts fail after these numbers of bytes, the last one succeeds.
+        StubTranscribe stub = new StubTranscribe(100 * 1024, 50 * 1024, 0);
+        TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(stub);
+        client.setSleepTime(20);
+        client.setMaxSleepTime(200);
+        RecordingBehavior behavior = new RecordingBehavior();
+
+        client.startStreamTranscription(request(), AudioStreamPublisher.fromFile(file), behavior)
+                .get(30, TimeUnit.SECONDS);
+
+        assertEquals(4, stub.attempts.size());
+        assertEquals(1, behavior.completed.get());
+        assertEquals(0, behavior.errors.get());
+        assertEquals(1, client.getRetryHistogram().getCount());
+        assertEquals(3, client.getRetryHistogram().getMax());
+        assertEquals(3, client.getReconnectLatencyHistogram().getCount());
+        assertTrue(client.getReconnectLatencyHistogram().getPercentile(50) >= 20);
+
+        // Each attempt starts where the audio acknowledged by the previous ones ends, and the last reaches the end.
+        long expectedStart = 0;
+        for (Attempt attempt : stub.attempts) {
+            byte[] received = attempt.audio.toByteArray();
+            assertArrayEquals(Arrays.copyOfRange(audio, (int) expectedStart, (int) expectedStart + received.length),
+                    received, "Audio of attempt " + stub.attempts.indexOf(attempt));
+            assertTrue(attempt.acknowledged <= received.length);
+            if (attempt.failed) {
+                expectedStart += attempt.acknowledged;
+            } else {
+                assertEquals(AUDIO_BYTES, expectedStart + received.length);
+            }
+        }
+        assertTrue(stub.attempts.get(1).audio.size() < AUDIO_BYTES - 64 * 1024, "The second attempt restarted the audio");
+
+        // The failing callbacks schedule the retry instead of sleeping on the SDK thread.
+        assertTrue(stub.longestFailureCallbackMillis.get() < 20,
+                "A failure callback took " + stub.longestFailureCallbackMillis.get() + " ms");
+        client.close();
+    }
+
+    @Test
+    public void testNonRetriableErrorIsNotRetried() throws Exception {
+        Path file = directory.resolve("short.pcm");
+        Files.write(file, new byte[32 * 1024]);
+        StubTranscribe stub = new StubTranscribe(-1);
+        TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(stub);
+        RecordingBehavior behavior = new RecordingBehavior();
+
+        CompletableFuture<Void> result = client.startStreamTranscription(request(),
+                AudioStreamPublisher.fromFile(file), behavior);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(BadRequestException.class, e.getCause());
+        assertEquals(1, stub.attempts.size());
+        assertEquals(1, behavior.errors.get());
+        assertEquals(0, client.getRetryHistogram().getMax());
+        client.close();
+    }
+
+    @Test
+    public void testSynchronousExceptionIsRetried() throws Exception {
+        Path file = directory.resolve("short.pcm");
+        Files.write(file, new byte[32 * 1024]);
+        StubTranscribe stub = new StubTranscribe();
+        stub.throwingAttempts = 2;
+        TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(stub);
+        client.setSleepTime(10);
+        RecordingBehavior behavior = new RecordingBehavior();
+
+        client.startStreamTranscription(request(), AudioStreamPublisher.fromFile(file), behavior)
+                .get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, stub.thrown.get());
+        assertEquals(1, stub.attempts.size());
+        assertEquals(1, behavior.completed.get());
+        assertEquals(2, client.getRetryHistogram().getMax());
+        client.close();
+    }
+
+    @Test
+    public void testSynchronousExceptionCompletesStreamWhenRetriesRunOut() throws Exception {
+        Path file = directory.resolve("short.pcm");
+        Files.write(file, new byte[32 * 1024]);
+        StubTranscribe stub = new StubTranscribe();
+        stub.throwingAttempts = Integer.MAX_VALUE;
+        TranscribeStreamingRetryClient client = new TranscribeStreamingRetryClient(stub);
+        client.setSleepTime(10);
+        client.setMaxRetries(2);
+        RecordingBehavior behavior = new RecordingBehavior();
+
+        CompletableFuture<Void> result = client.startStreamTranscription(request(),
+                AudioStreamPublisher.fromFile(file), behavior);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(SdkClientException.class, e.getCause());
+        assertEquals(3, stub.thrown.get());
+        assertEquals(1, behavior.errors.get());
+        assertEquals(2, client.getRetryHistogram().getMax());
+        client.close();
+    }
+
+    private static StartStreamTranscriptionRequest request() {
+        return StartStreamTranscriptionRequest.builder()
+                .languageCode(LanguageCode.EN_US)
+                .mediaEncoding(MediaEncoding.PCM)
+                .mediaSampleRateHertz(SAMPLE_RATE)
+                .build();
+    }
+
+    private static class RecordingBehavior implements StreamTranscriptionBehavior {
+        private final AtomicInteger errors = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+
+        @Override
+        public void onError(Throwable e) {
+            errors.incrementAndGet();
+        }
+
+        @Override
+        public void onStream(TranscriptResultStream e) {
+        }
+
+        @Override
+        public void onResponse(StartStreamTranscriptionResponse r) {
+        }
+
+        @Override
+        public void onComplete() {
+            completed.incrementAndGet();
+        }
+    }
+
+    private static class Attempt {
+        private final ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        private volatile long acknowledged;
+        private volatile boolean failed;
+    }
+
+    // Reads the audio of each attempt and fails attempt i after failAfterBytes[i] bytes. A negative
+    // value fails the attempt with BadRequestException, the others fail with InternalFailureException.
+    // The first throwingAttempts calls throw SdkClientException instead of returning a future.
+    private static class StubTranscribe implements TranscribeStreamingAsyncClient {
+        private static final int RESULT_INTERVAL_BYTES = 8 * 1024;
+        private static final int RESULT_LAG_BYTES = 3 * 1024;
+
+        private final long[] failAfterBytes;
+        private final List<Attempt> attempts = new ArrayList<>();
+        private final AtomicLong longestFailureCallbackMillis = new AtomicLong();
+        private final AtomicInteger thrown = new AtomicInteger();
+        private volatile int throwingAttempts;
+
+        StubTranscribe(long... failAfterBytes) {
+            this.failAfterBytes = failAfterBytes;
+        }
+
+        @Override
+        public CompletableFuture<Void> startStreamTranscription(StartStreamTranscriptionRequest request,
+                Publisher<AudioStream> audioPublisher, StartStreamTranscriptionResponseHandler handler) {
+            if (thrown.get() < throwingAttempts) {
+                thrown.incrementAndGet();
+                throw SdkClientException.create("Unable to connect");
+            }
+            int index;
+            Attempt attempt = new Attempt();
+            synchronized (attempts) {
+                index = attempts.size();
+                attempts.add(attempt);
+            }
+            long failAfter = index < failAfterBytes.length ? failAfterBytes[index] : Long.MAX_VALUE;
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            EventPublisher events = new EventPublisher();
+
+            handler.responseReceived(StartStreamTranscriptionResponse.builder().sessionId(request.sessionId()).build());
+            handler.onEventStream(SdkPublisher.adapt(events));
+            audioPublisher.subscribe(new Subscriber<AudioStream>() {
+                private Subscription subscription;
+                private long bytes;
+                private long nextResult = RESULT_INTERVAL_BYTES;
+
+                @Override
+                public void onSubscribe(Subscription s) {
+                    subscription = s;
+                    if (failAfter < 0) {
+                        fail(BadRequestException.builder().message("Invalid sample rate").build());
+                    } else if (failAfter == 0) {
+                        fail(InternalFailureException.builder().message("Injected failure").build());
+                    } else {
+                        s.request(4);
+                    }
+                }
+
+                @Override
+                public void onNext(AudioStream audioStream) {
+                    byte[] chunk = ((AudioEvent) audioStream).audioChunk().asByteArray();
+                    attempt.audio.write(chunk, 0, chunk.length);
+                    bytes += chunk.length;
+                    if (bytes >= nextResult) {
+                        long acknowledged = bytes - RESULT_LAG_BYTES;
+                        attempt.acknowledged = acknowledged;
+                        events.emit(finalResult(acknowledged / (double) BYTES_PER_SECOND));
+                        nextResult += RESULT_INTERVAL_BYTES;
+                    }
+                    if (bytes >= failAfter) {
+                        fail(InternalFailureException.builder().message("Injected failure").build());
+                    } else {
+                        subscription.request(1);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    future.completeExceptionally(t);
+                }
+
+                @Override
+                public void onComplete() {
+                    handler.complete();
+                    future.complete(null);
+                }
+
+                private void fail(Throwable t) {
+                    subscription.cancel();
+                    attempt.failed = true;
+                    handler.exceptionOccurred(t);
+                    long start = System.nanoTime();
+                    future.completeExceptionally(t);
+                    longestFailureCallbackMillis.accumulateAndGet(
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), Math::max);
+                }
+            });
+            return future;
+        }
+
+        private static TranscriptEvent finalResult(double endTime) {
+            return TranscriptEvent.builder()
+                    .transcript(Transcript.builder()
+                            .results(Result.builder().isPartial(false).startTime(0.0).endTime(endTime).build())
+                            .build())
+                    .build();
+        }
+
+        @Override
+        public String serviceName() {
+            return "transcribe";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // Delivers transcript events in order as the subscriber requests them.
+    private static class EventPublisher implements Publisher<TranscriptResultStream> {
+        private final Queue<TranscriptResultStream> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingSignals = new AtomicInteger();
+        private volatile Subscriber<? super TranscriptResultStream> subscriber;
+
+        @Override
+        public void subscribe(Subscriber<? super TranscriptResultStream> s) {
+            subscriber = s;
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    demand.addAndGet(n);
+                    drain();
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+
+        void emit(TranscriptResultStream event) {
+            queue.add(event);
+            drain();
+        }
+
+        private void drain() {
+            if (pendingSignals.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (subscriber != null && demand.get() > 0 && !queue.isEmpty()) {
+                    demand.decrementAndGet();
+                    subscriber.onNext(queue.poll());
+                }
+                missed = pendingSignals.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -18,8 +18,7 @@ import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.CompletableFuture;
 
 @ComponentScan(basePackages = { "com.aws.rest" })
 @CrossOrigin(origins = "*")
@@ -34,18 +33,16 @@ public class MainController {
         this.repository = repository;
     }
 
+    // The request thread is released while the statement runs; Spring writes the
+    // response when the future completes.
     @GetMapping("")
-    public List<WorkItem> getItems(@RequestParam(required = false) String archived) {
-        Iterable<WorkItem> result;
+    public CompletableFuture<List<WorkItem>> getItems(@RequestParam(required = false) String archived) {
         if (archived != null && archived.compareTo("false") == 0)
-            result = repository.getData("0");
+            return repository.getDataAsync("0");
         else if (archived != null && archived.compareTo("true") == 0)
-            result = repository.getData("1");
+            return repository.getDataAsync("1");
         else
-            result = repository.getData("");
-
-        return StreamSupport.stream(result.spliterator(), false)
-                .collect(Collectors.toUnmodifiableList());
+            return repository.getDataAsync("");
     }
 
     // Notice the : character which is used for custom methods. More information can
@@ -75,4 +72,4 @@ public class MainController {
         item.setStatus(status);
         return repository.injectNewSubmission(item);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
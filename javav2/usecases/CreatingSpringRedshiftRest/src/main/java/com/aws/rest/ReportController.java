@@ -3,16 +3,19 @@
 
 package com.aws.rest;
 
-import jxl.write.WriteException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @CrossOrigin(origins = "*")
 @RestController
@@ -25,26 +28,50 @@ public class ReportController {
 
     private final WriteExcel.SendMessages sm;
 
+    private final ReportUploader uploader;
+
+    private final ExecutorService reportExecutor = Executors.newFixedThreadPool(2);
+
     @Autowired()
     ReportController(
             WorkItemRepository repository,
             WriteExcel writeExcel,
-            WriteExcel.SendMessages sm) {
+            WriteExcel.SendMessages sm,
+            ReportUploader uploader) {
         this.repository = repository;
         this.writeExcel = writeExcel;
         this.sm = sm;
+        this.uploader = uploader;
     }
 
+    // The report is built on a separate executor after the statement has finished,
+    // reading result pages as the rows are written. A report that is too large to attach
+    // is uploaded to Amazon S3 and the email carries a link to it.
     @PostMapping("")
-    public String sendReport(@RequestBody Map<String, String> body) {
-        var list = repository.getData("0");
-        try {
-            InputStream is = writeExcel.write(list);
-            sm.sendReport(is, body.get("email"));
-            return "Report generated & sent";
-        } catch (IOException | WriteException e) {
-            e.printStackTrace();
-        }
-        return "Failed to generate report";
+    public CompletableFuture<String> sendReport(@RequestBody Map<String, String> body) {
+        return repository.streamData("0")
+                .thenApplyAsync(items -> {
+                    try (WriteExcel.Report report = writeExcel.write(items)) {
+                        Path file = report.finish();
+                        if (sm.canAttach(file)) {
+                            sm.sendReport(file, body.get("email"));
+                        } else {
+                            sm.sendReportLink(uploader.upload(file), body.get("email"));
+                        }
+                        return "Report generated & sent";
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    return "Failed to generate report";
+                }, reportExecutor)
+                .exceptionally(e -> {
+                    e.printStackTrace();
+                    return "Failed to generate report";
+                });
+    }
+
+    @PreDestroy
+    public void close() {
+        reportExecutor.shutdown();
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,154 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.aws.rest;
+
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.core.retry.RetryUtils;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Tracks Amazon Redshift Data API statements until they finish.
+// One scheduler thread polls every in-flight statement with DescribeStatement, starting with a
+// short delay and backing off while the statement is still running, so no request thread waits on a query.
+// A DescribeStatement call that is throttled or fails with a server or network error is retried on the
+// same schedule. Only other errors, or more than MAX_CONSECUTIVE_ERRORS retryable errors in a row, fail the statement.
+public class StatementTracker implements AutoCloseable {
+    static final int MAX_CONSECUTIVE_ERRORS = 10;
+
+    private final RedshiftDataAsyncClient client;
+    private final ScheduledExecutorService scheduler;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final double backoffMultiplier;
+    private final ConcurrentHashMap<String, CompletableFuture<DescribeStatementResponse>> inFlight = new ConcurrentHashMap<>();
+
+    public StatementTracker(RedshiftDataAsyncClient client) {
+        this(client, Duration.ofMillis(100), Duration.ofSeconds(5), 1.5);
+    }
+
+    public StatementTracker(RedshiftDataAsyncClient client, Duration initialDelay, Duration maxDelay, double backoffMultiplier) {
+        this.client = client;
+        this.initialDelayMillis = initialDelay.toMillis();
+        this.maxDelayMillis = maxDelay.toMillis();
+        this.backoffMultiplier = backoffMultiplier;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redshift-statement-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Returns a future that completes when the statement has finished, or completes
+    // exceptionally with a StatementFailedException if the statement fails or is aborted.
+    // Tracking the same statement twice returns the same future.
+    public CompletableFuture<DescribeStatementResponse> track(String statementId) {
+        return inFlight.computeIfAbsent(statementId, id -> {
+            CompletableFuture<DescribeStatementResponse> future = new CompletableFuture<>();
+            schedule(id, future, initialDelayMillis, 0);
+            future.whenComplete((response, error) -> inFlight.remove(id));
+            return future;
+        });
+    }
+
+    // Returns the number of statements that are being polled.
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    private void schedule(String statementId, CompletableFuture<DescribeStatementResponse> future, long delayMillis,
+                          int errors) {
+        scheduler.schedule(() -> poll(statementId, future, delayMillis, errors), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Errors counts the DescribeStatement calls in a row that failed with a retryable error.
+    private void poll(String statementId, CompletableFuture<DescribeStatementResponse> future, long delayMillis,
+                      int errors) {
+        if (future.isDone()) {
+            return;
+        }
+
+        DescribeStatementRequest statementRequest = DescribeStatementRequest.builder()
+                .id(statementId)
+                .build();
+
+        CompletableFuture<DescribeStatementResponse> describe;
+        try {
+            describe = client.describeStatement(statementRequest);
+        } catch (RuntimeException e) {
+            describe = CompletableFuture.failedFuture(e);
+        }
+        describe.whenComplete((response, error) -> {
+            long nextDelay = Math.min(maxDelayMillis, (long) (delayMillis * backoffMultiplier));
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (isRetryable(cause) && errors + 1 < MAX_CONSECUTIVE_ERRORS) {
+                    schedule(statementId, future, nextDelay, errors + 1);
+                } else {
+                    future.completeExceptionally(cause);
+                }
+                return;
+            }
+
+            switch (response.status()) {
+                case FINISHED:
+                    future.complete(response);
+                    break;
+                case FAILED:
+                case ABORTED:
+                    future.completeExceptionally(new StatementFailedException(statementId, response.statusAsString(), response.error()));
+                    break;
+                default:
+                    schedule(statementId, future, nextDelay, 0);
+            }
+        });
+    }
+
+    // True for throttling, server errors, clock skew, timeouts of a single attempt, and network errors.
+    static boolean isRetryable(Throwable error) {
+        if (!(error instanceof SdkException sdkException)) {
+            return false;
+        }
+        if (sdkException.retryable() || RetryUtils.isThrottlingException(sdkException)
+                || RetryUtils.isClockSkewException(sdkException)) {
+            return true;
+        }
+        if (sdkException instanceof SdkServiceException serviceException) {
+            return serviceException.statusCode() >= 500;
+        }
+        return sdkException instanceof ApiCallAttemptTimeoutException
+                || sdkException instanceof SdkClientException && sdkException.getCause() instanceof IOException;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        inFlight.values().forEach(future -> future.cancel(false));
+    }
+
+    // Thrown when a statement ends with the FAILED or ABORTED status.
+    public static class StatementFailedException extends RuntimeException {
+        private final String statementId;
+
+        StatementFailedException(String statementId, String status, String error) {
+            super("Statement " + statementId + " " + status + (error != null ? ": " + error : ""));
+            this.statementId = statementId;
+        }
+
+        public String getStatementId() {
+            return statementId;
+        }
+    }
+}
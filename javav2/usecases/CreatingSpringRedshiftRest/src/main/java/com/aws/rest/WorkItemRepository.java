@@ -6,23 +6,26 @@ package com.aws.rest;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
 import software.amazon.awssdk.services.redshiftdata.RedshiftDataClient;
-import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementRequest;
 import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementResponse;
 import software.amazon.awssdk.services.redshiftdata.model.ExecuteStatementRequest;
 import software.amazon.awssdk.services.redshiftdata.model.ExecuteStatementResponse;
 import software.amazon.awssdk.services.redshiftdata.model.GetStatementResultRequest;
-import software.amazon.awssdk.services.redshiftdata.model.GetStatementResultResponse;
 import software.amazon.awssdk.services.redshiftdata.model.RedshiftDataException;
 import software.amazon.awssdk.services.redshiftdata.model.SqlParameter;
+import software.amazon.awssdk.services.redshiftdata.paginators.GetStatementResultIterable;
+import javax.annotation.PreDestroy;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
 @Component
 public class WorkItemRepository {
@@ -34,27 +37,52 @@ public class WorkItemRepository {
     private static final String dbUser = "awsuser";
     private static final String clusterId = "redshift-cluster-1";
 
-    RedshiftDataClient getClient() {
+    private final RedshiftDataClient client;
+    private final RedshiftDataAsyncClient asyncClient;
+    private final StatementTracker tracker;
+
+    public WorkItemRepository() {
         Region region = Region.US_WEST_2;
-        return RedshiftDataClient.builder()
+        this.client = RedshiftDataClient.builder()
                 .region(region)
                 .credentialsProvider(ProfileCredentialsProvider.create())
                 .build();
+        this.asyncClient = RedshiftDataAsyncClient.builder()
+                .region(region)
+                .credentialsProvider(ProfileCredentialsProvider.create())
+                .build();
+        this.tracker = new StatementTracker(asyncClient);
+    }
+
+    RedshiftDataClient getClient() {
+        return client;
     }
 
     // Return items from the work table.
     public List<WorkItem> getData(String arch) {
+        return getDataAsync(arch).join();
+    }
+
+    // Return items from the work table without blocking the calling thread.
+    // The future completes after the statement has finished and every result page has been read.
+    public CompletableFuture<List<WorkItem>> getDataAsync(String arch) {
+        return executeAndTrack(arch).thenCompose(this::getResultsAsync);
+    }
+
+    // Return items from the work table as a lazy Iterable.
+    // Result pages are requested from GetStatementResult only as the caller iterates.
+    public CompletableFuture<Iterable<WorkItem>> streamData(String arch) {
+        return executeAndTrack(arch).thenApply(this::getResults);
+    }
+
+    private CompletableFuture<String> executeAndTrack(String arch) {
         String sqlStatement;
         List<SqlParameter> parameters;
 
         // Get all records from the Amazon Redshift table.
         if (arch.compareTo("") == 0) {
             sqlStatement = "SELECT idwork, date, description, guide, status, username, archive FROM work";
-            ExecuteStatementResponse response = executeAll(sqlStatement);
-            String id = response.id();
-            System.out.println("The identifier of the statement is " + id);
-            checkStatement(id);
-            return getResults(id);
+            parameters = null;
         } else {
             sqlStatement = "SELECT idwork, date, description, guide, status, username, archive " +
                     "FROM work WHERE username = :username and archive = :arch ;";
@@ -62,32 +90,45 @@ public class WorkItemRepository {
             parameters = List.of(
                     param("username", username),
                     param("arch", arch));
-            ExecuteStatementResponse response = execute(sqlStatement, parameters);
-            String id = response.id();
-            System.out.println("The identifier of the statement is " + id);
-            checkStatement(id);
-            return getResults(id);
         }
+
+        ExecuteStatementRequest sqlRequest = ExecuteStatementRequest.builder()
+                .clusterIdentifier(clusterId)
+                .database(database)
+                .dbUser(dbUser)
+                .sql(sqlStatement)
+                .parameters(parameters)
+                .build();
+
+        return asyncClient.executeStatement(sqlRequest)
+                .thenCompose(response -> {
+                    String id = response.id();
+                    System.out.println("The identifier of the statement is " + id);
+                    return tracker.track(id);
+                })
+                .thenApply(DescribeStatementResponse::id);
     }
 
-    List<WorkItem> getResults(String statementId) {
-        try {
-            GetStatementResultRequest resultRequest = GetStatementResultRequest.builder()
-                    .id(statementId)
-                    .build();
+    Iterable<WorkItem> getResults(String statementId) {
+        GetStatementResultRequest resultRequest = GetStatementResultRequest.builder()
+                .id(statementId)
+                .build();
 
-            GetStatementResultResponse response = getClient().getStatementResult(resultRequest);
-            return response
-                    .records()
-                    .stream()
-                    .map(WorkItem::from)
-                    .collect(Collectors.toUnmodifiableList());
+        GetStatementResultIterable pages = getClient().getStatementResultPaginator(resultRequest);
+        return () -> pages.records().stream()
+                .map(WorkItem::from)
+                .iterator();
+    }
 
-        } catch (RedshiftDataException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
-        }
-        return null;
+    CompletableFuture<List<WorkItem>> getResultsAsync(String statementId) {
+        GetStatementResultRequest resultRequest = GetStatementResultRequest.builder()
+                .id(statementId)
+                .build();
+
+        List<WorkItem> items = new ArrayList<>();
+        return asyncClient.getStatementResultPaginator(resultRequest)
+                .subscribe(page -> page.records().forEach(record -> items.add(WorkItem.from(record))))
+                .thenApply(done -> Collections.unmodifiableList(items));
     }
 
     // Update the work table.
@@ -105,33 +146,7 @@ public class WorkItemRepository {
 
         } catch (RedshiftDataException e) {
             System.err.println(e.getMessage());
-            System.exit(1);
-        }
-    }
-
-    void checkStatement(String sqlId) {
-        try {
-            DescribeStatementRequest statementRequest = DescribeStatementRequest.builder()
-                    .id(sqlId)
-                    .build();
-
-            // Wait until the sql statement processing is finished.
-            String status;
-            while (true) {
-                DescribeStatementResponse response = getClient().describeStatement(statementRequest);
-                status = response.statusAsString();
-                System.out.println("..." + status);
-
-                if (status.compareTo("FINISHED") == 0) {
-                    break;
-                }
-                Thread.sleep(500);
-            }
-            System.out.println("The statement is finished!");
-
-        } catch (RedshiftDataException | InterruptedException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
+            throw e;
         }
     }
 
@@ -146,16 +161,6 @@ public class WorkItemRepository {
         return getClient().executeStatement(sqlRequest);
     }
 
-    ExecuteStatementResponse executeAll(String sqlStatement) {
-        ExecuteStatementRequest sqlRequest = ExecuteStatementRequest.builder()
-                .clusterIdentifier(clusterId)
-                .database(database)
-                .dbUser(dbUser)
-                .sql(sqlStatement)
-                .build();
-        return getClient().executeStatement(sqlRequest);
-    }
-
     SqlParameter param(String name, String value) {
         return SqlParameter.builder().name(name).value(value).build();
     }
@@ -171,6 +176,13 @@ public class WorkItemRepository {
         flipItemArchive(sqlStatement, parameters);
     }
 
+    @PreDestroy
+    public void close() {
+        tracker.close();
+        asyncClient.close();
+        client.close();
+    }
+
     public String injectNewSubmission(WorkItem item) {
         try {
             String name = item.getName();
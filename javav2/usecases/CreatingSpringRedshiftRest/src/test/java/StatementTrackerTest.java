@@ -0,0 +1,118 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.aws.rest.StatementTracker;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+import software.amazon.awssdk.services.redshiftdata.RedshiftDataAsyncClient;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementRequest;
+import software.amazon.awssdk.services.redshiftdata.model.DescribeStatementResponse;
+import software.amazon.awssdk.services.redshiftdata.model.StatusString;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Tag("UnitTest")
+@Timeout(30)
+public class StatementTrackerTest {
+
+    @Test
+    public void testRetryableErrorsArePolledAgain() throws Exception {
+        StubClient client = new StubClient(List.of(
+                () -> CompletableFuture.failedFuture(error(429)),
+                () -> CompletableFuture.failedFuture(error(500)),
+                () -> CompletableFuture.completedFuture(response(StatusString.STARTED)),
+                () -> CompletableFuture.completedFuture(response(StatusString.FINISHED))));
+
+        try (StatementTracker tracker = tracker(client)) {
+            assertEquals(StatusString.FINISHED, tracker.track("statement").get().status());
+        }
+        assertEquals(4, client.calls.get());
+    }
+
+    @Test
+    public void testNonRetryableErrorFailsTheStatement() {
+        SdkServiceException denied = error(400);
+        StubClient client = new StubClient(List.of(() -> CompletableFuture.failedFuture(denied)));
+
+        try (StatementTracker tracker = tracker(client)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> tracker.track("statement").get());
+            assertSame(denied, e.getCause());
+        }
+        assertEquals(1, client.calls.get());
+    }
+
+    @Test
+    public void testSynchronousExceptionFailsTheStatement() {
+        IllegalStateException broken = new IllegalStateException("broken");
+        StubClient client = new StubClient(List.of(() -> {
+            throw broken;
+        }));
+
+        try (StatementTracker tracker = tracker(client)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> tracker.track("statement").get());
+            assertSame(broken, e.getCause());
+        }
+    }
+
+    @Test
+    public void testRetryableErrorsStopAfterTheLimit() {
+        StubClient client = new StubClient(List.of(() -> CompletableFuture.failedFuture(error(503))));
+
+        try (StatementTracker tracker = tracker(client)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> tracker.track("statement").get());
+            assertEquals(503, ((SdkServiceException) e.getCause()).statusCode());
+        }
+        assertEquals(10, client.calls.get());
+    }
+
+    private static StatementTracker tracker(RedshiftDataAsyncClient client) {
+        return new StatementTracker(client, Duration.ofMillis(1), Duration.ofMillis(5), 2);
+    }
+
+    private static SdkServiceException error(int statusCode) {
+        return SdkServiceException.builder()
+                .statusCode(statusCode)
+                .message("Status " + statusCode)
+                .build();
+    }
+
+    private static DescribeStatementResponse response(StatusString status) {
+        return DescribeStatementResponse.builder()
+                .status(status)
+                .build();
+    }
+
+    // Answers each DescribeStatement call with the next reply, repeating the last one.
+    private static class StubClient implements RedshiftDataAsyncClient {
+        private final List<Supplier<CompletableFuture<DescribeStatementResponse>>> replies;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        StubClient(List<Supplier<CompletableFuture<DescribeStatementResponse>>> replies) {
+            this.replies = replies;
+        }
+
+        @Override
+        public CompletableFuture<DescribeStatementResponse> describeStatement(DescribeStatementRequest request) {
+            int call = calls.getAndIncrement();
+            return replies.get(Math.min(call, replies.size() - 1)).get();
+        }
+
+        @Override
+        public String serviceName() {
+            return "redshift-data";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
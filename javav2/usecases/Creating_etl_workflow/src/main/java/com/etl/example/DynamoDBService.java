@@ -20,11 +20,13 @@ import java.io.StringReader;
 public class DynamoDBService {
     int recNum = 1;
 
-    private DynamoDbClient getClient() {
-        return DynamoDbClient.builder()
-                .region(Region.US_EAST_1)
-                .build();
-    }
+    // The table schema is built once because building it introspects the Population bean.
+    private final DynamoDbTable<Population> workTable = DynamoDbEnhancedClient.builder()
+            .dynamoDbClient(DynamoDbClient.builder()
+                    .region(Region.US_EAST_1)
+                    .build())
+            .build()
+            .table("Country", TableSchema.fromBean(Population.class));
 
     public void injectETLData(String myDom) throws JDOMException, IOException {
         SAXBuilder builder = new SAXBuilder();
@@ -51,16 +53,7 @@ public class DynamoDBService {
     }
 
     public void setItem(PopData pop) {
-        // Create a DynamoDbEnhancedClient.
-        DynamoDbClient ddb = getClient();
-        DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-                .dynamoDbClient(ddb)
-                .build();
         try {
-            // Create a DynamoDbTable object.
-            DynamoDbTable<Population> workTable = enhancedClient.table("Country",
-                    TableSchema.fromBean(Population.class));
-
             // Populate the table.
             Population record = new Population();
             String name = pop.getName();
@@ -11,11 +11,13 @@ import java.io.IOException;
 
 public class HandlerStoreData implements RequestHandler<String, String> {
 
+    // Built once per execution environment and reused by every invocation.
+    private final DynamoDBService storeData = new DynamoDBService();
+
     @Override
     public String handleRequest(String event, Context context) {
         LambdaLogger logger = context.getLogger();
         String xml = event;
-        DynamoDBService storeData = new DynamoDBService();
         try {
             storeData.injectETLData(xml);
             logger.log("data stored:");
@@ -9,16 +9,17 @@ import java.sql.SQLException;
 
 public class ConnectionHelper {
 
+    public static String getUrl(String host) {
+        return "jdbc:mysql://" + host + ":3306/mydb?useSSL=false";
+    }
+
     public static Connection getConnection(String host, String user, String password) throws SQLException {
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
-            String url2 = "jdbc:mysql://" + host + ":3306/mydb?useSSL=false";
-            return DriverManager.getConnection(url2, user, password);
-
-        } catch (SQLException | ClassNotFoundException e) {
-            e.getStackTrace();
+        } catch (ClassNotFoundException e) {
+            throw new SQLException("The MySQL JDBC driver is not on the classpath", e);
         }
-        return null;
+        return DriverManager.getConnection(getUrl(host), user, password);
     }
 
     public static void close(Connection connection) {
@@ -31,4 +32,4 @@ public class ConnectionHelper {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,82 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.aws.rest;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+// Provides the DataSource that DatabaseService uses.
+// By default, connections come from a HikariCP pool with MySQL prepared statement caching turned on.
+// Set itemtracker.pool.enabled=false to open a new connection through ConnectionHelper for every call.
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    public PoolMetrics poolMetrics() {
+        return new PoolMetrics();
+    }
+
+    @Bean
+    public DataSource dataSource(SecretCache secretCache,
+                                 PoolMetrics poolMetrics,
+                                 @Value("${itemtracker.pool.enabled:true}") boolean pooled,
+                                 @Value("${itemtracker.pool.max-size:10}") int maxPoolSize) {
+        if (!pooled) {
+            return new DriverManagerMode(secretCache);
+        }
+
+        User user = secretCache.get();
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("itemtracker");
+        config.setJdbcUrl(ConnectionHelper.getUrl(user.getHost()));
+        config.setUsername(user.getUsername());
+        config.setPassword(user.getPassword());
+        config.setMaximumPoolSize(maxPoolSize);
+        config.setMetricsTrackerFactory(poolMetrics);
+
+        // Cache prepared statements in the MySQL driver so repeated queries are not parsed again.
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "true");
+
+        HikariDataSource dataSource = new HikariDataSource(config);
+
+        // When the secret is rotated, new connections use the new password and
+        // connections that were opened with the old one are retired once they are returned.
+        secretCache.addRotationListener(rotated -> {
+            dataSource.getHikariConfigMXBean().setUsername(rotated.getUsername());
+            dataSource.getHikariConfigMXBean().setPassword(rotated.getPassword());
+            dataSource.getHikariPoolMXBean().softEvictConnections();
+        });
+        return dataSource;
+    }
+
+    // Opens a new connection for every call, using the cached credentials.
+    static class DriverManagerMode extends AbstractDataSource {
+        private final SecretCache secretCache;
+
+        DriverManagerMode(SecretCache secretCache) {
+            this.secretCache = secretCache;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            User user = secretCache.get();
+            return getConnection(user.getUsername(), user.getPassword());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return ConnectionHelper.getConnection(secretCache.get().getHost(), username, password);
+        }
+    }
+}
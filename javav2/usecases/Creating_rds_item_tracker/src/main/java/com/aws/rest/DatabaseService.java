@@ -3,13 +3,9 @@
 
 package com.aws.rest;
 
-import com.google.gson.Gson;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
-import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.secretsmanager.SecretsManagerClient;
-import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueRequest;
-import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueResponse;
+import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -22,126 +18,116 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @Component
 public class DatabaseService {
+    // The SQLState that MySQL returns when it rejects the user name or password.
+    private static final String ACCESS_DENIED = "28000";
 
-    private SecretsManagerClient getSecretClient() {
-        Region region = Region.US_WEST_2;
-        return SecretsManagerClient.builder()
-                .region(region)
-                .credentialsProvider(ProfileCredentialsProvider.create())
-                .build();
-    }
-
-    private String getSecretValues() {
-        // Get the Amazon RDS creds from Secrets Manager.
-        SecretsManagerClient secretClient = getSecretClient();
-        String secretName = "itemtracker/mysql";
+    private final DataSource dataSource;
+    private final SecretCache secretCache;
 
-        GetSecretValueRequest valueRequest = GetSecretValueRequest.builder()
-                .secretId(secretName)
-                .build();
+    @Autowired
+    DatabaseService(DataSource dataSource, SecretCache secretCache) {
+        this.dataSource = dataSource;
+        this.secretCache = secretCache;
+    }
 
-        GetSecretValueResponse valueResponse = secretClient.getSecretValue(valueRequest);
-        return valueResponse.secretString();
+    // Gets a connection from the configured DataSource.
+    // If the database rejects the cached credentials, the secret may have been rotated,
+    // so the secret is fetched again and the connection is retried once.
+    private Connection getConnection() throws SQLException {
+        // Refreshes the cached secret when its TTL has expired.
+        secretCache.get();
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException e) {
+            if (!ACCESS_DENIED.equals(e.getSQLState())) {
+                throw e;
+            }
+            secretCache.refresh();
+            return dataSource.getConnection();
+        }
     }
 
     // Set the specified item to archive.
     public void flipItemArchive(String id) {
-        Connection c = null;
-        String query;
-        // Get the Amazon RDS credentials from AWS Secrets Manager.
-        Gson gson = new Gson();
-        User user = gson.fromJson(String.valueOf(getSecretValues()), User.class);
-        try {
-            c = ConnectionHelper.getConnection(user.getHost(), user.getUsername(), user.getPassword());
-            query = "update work set archive = ? where idwork ='" + id + "' ";
-            assert c != null;
-            PreparedStatement updateForm = c.prepareStatement(query);
+        String query = "update work set archive = ? where idwork = ?";
+        try (Connection c = getConnection();
+             PreparedStatement updateForm = c.prepareStatement(query)) {
             updateForm.setBoolean(1, true);
+            updateForm.setString(2, id);
             updateForm.execute();
 
         } catch (SQLException e) {
             e.printStackTrace();
-        } finally {
-            ConnectionHelper.close(c);
         }
     }
 
     // Get Items data from MySQL.
     public List<WorkItem> getItemsDataSQLReport(int flag) {
-        Connection c = null;
         List<WorkItem> itemList = new ArrayList<>();
+        try {
+            queryItems(flag, 0, itemList::add);
+            return itemList;
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // Passes each item to the action as the row is read, so the items do not have to be held in memory.
+    // MySQL Connector/J only streams the result set instead of reading all of it into memory when the
+    // statement is forward-only and read-only and the fetch size is Integer.MIN_VALUE.
+    public void forEachItem(int flag, Consumer<WorkItem> action) throws SQLException {
+        queryItems(flag, Integer.MIN_VALUE, action);
+    }
+
+    private void queryItems(int flag, int fetchSize, Consumer<WorkItem> action) throws SQLException {
         String query;
         String username = "user";
         WorkItem item;
 
-        // Get the Amazon RDS credentials from AWS Secrets Manager.
-        Gson gson = new Gson();
-        User user = gson.fromJson(String.valueOf(getSecretValues()), User.class);
-        try {
-            c = ConnectionHelper.getConnection(user.getHost(), user.getUsername(), user.getPassword());
-            ResultSet rs = null;
-            PreparedStatement pstmt = null;
-            if (flag == 0) {
-                // Retrieves active data from the MySQL database
-                int arch = 0;
-                query = "Select idwork,username,date,description,guide,status,archive FROM work where username=? and archive=?;";
-                assert c != null;
-                pstmt = c.prepareStatement(query);
-                pstmt.setString(1, username);
-                pstmt.setInt(2, arch);
-                rs = pstmt.executeQuery();
-            } else if (flag == 1) {
-                // Retrieves archive data from the MySQL database
-                int arch = 1;
-                query = "Select idwork,username,date,description,guide,status,archive  FROM work where username=? and archive=?;";
-                assert c != null;
-                pstmt = c.prepareStatement(query);
+        if (flag == 0 || flag == 1) {
+            // Retrieves active (0) or archive (1) data from the MySQL database
+            query = "Select idwork,username,date,description,guide,status,archive FROM work where username=? and archive=?;";
+        } else {
+            // Retrieves all data from the MySQL database
+            query = "Select idwork,username,date,description,guide,status, archive FROM work";
+        }
+
+        try (Connection c = getConnection();
+             PreparedStatement pstmt = c.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            if (flag == 0 || flag == 1) {
                 pstmt.setString(1, username);
-                pstmt.setInt(2, arch);
-                rs = pstmt.executeQuery();
-            } else {
-                // Retrieves all data from the MySQL database
-                query = "Select idwork,username,date,description,guide,status, archive FROM work";
-                assert c != null;
-                pstmt = c.prepareStatement(query);
-                rs = pstmt.executeQuery();
+                pstmt.setInt(2, flag);
             }
-
-            while (rs.next()) {
-                item = new WorkItem();
-                item.setId(rs.getString(1));
-                item.setName(rs.getString(2));
-                item.setDate(rs.getDate(3).toString().trim());
-                item.setDescription(rs.getString(4));
-                item.setGuide(rs.getString(5));
-                item.setStatus(rs.getString(6));
-                item.setArchived(rs.getBoolean(7));
-
-                // Push the WorkItem Object to the list.
-                itemList.add(item);
+            pstmt.setFetchSize(fetchSize);
+
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    item = new WorkItem();
+                    item.setId(rs.getString(1));
+                    item.setName(rs.getString(2));
+                    item.setDate(rs.getDate(3).toString().trim());
+                    item.setDescription(rs.getString(4));
+                    item.setGuide(rs.getString(5));
+                    item.setStatus(rs.getString(6));
+                    item.setArchived(rs.getBoolean(7));
+
+                    action.accept(item);
+                }
             }
-            return itemList;
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-        } finally {
-            ConnectionHelper.close(c);
         }
-        return null;
     }
 
     // Inject a new submission.
     public void injestNewSubmission(WorkItem item) {
-        Connection c = null;
-        // Get the Amazon RDS credentials from AWS Secrets Manager.
-        Gson gson = new Gson();
-        User user = gson.fromJson(String.valueOf(getSecretValues()), User.class);
-        try {
-            c = ConnectionHelper.getConnection(user.getHost(), user.getUsername(), user.getPassword());
-            PreparedStatement ps;
+        String insert = "INSERT INTO work (idwork, username,date,description, guide, status, archive) VALUES(?,?, ?,?,?,?,?);";
+        try (Connection c = getConnection();
+             PreparedStatement ps = c.prepareStatement(insert)) {
 
             // Convert rev to int.
             String name = item.getName();
@@ -161,9 +147,6 @@ public class DatabaseService {
             java.sql.Date sqlDate = new java.sql.Date(date1.getTime());
 
             // Inject an item into the system.
-            String insert = "INSERT INTO work (idwork, username,date,description, guide, status, archive) VALUES(?,?, ?,?,?,?,?);";
-            assert c != null;
-            ps = c.prepareStatement(insert);
             ps.setString(1, workId);
             ps.setString(2, name);
             ps.setDate(3, sqlDate);
@@ -175,8 +158,6 @@ public class DatabaseService {
 
         } catch (SQLException | ParseException e) {
             e.printStackTrace();
-        } finally {
-            ConnectionHelper.close(c);
         }
     }
 }
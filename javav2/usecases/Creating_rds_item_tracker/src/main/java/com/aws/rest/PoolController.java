@@ -0,0 +1,29 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.aws.rest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import java.util.Map;
+
+@CrossOrigin(origins = "*")
+@RestController
+@RequestMapping("api/pool")
+public class PoolController {
+    private final PoolMetrics poolMetrics;
+
+    @Autowired
+    PoolController(PoolMetrics poolMetrics) {
+        this.poolMetrics = poolMetrics;
+    }
+
+    // Returns the active, idle and pending connection counts and the connection wait times.
+    @GetMapping("metrics")
+    public Map<String, Object> getMetrics() {
+        return poolMetrics.snapshot();
+    }
+}
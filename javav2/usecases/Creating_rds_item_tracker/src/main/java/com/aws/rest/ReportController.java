@@ -4,7 +4,6 @@
 package com.aws.rest;
 
 import com.google.gson.Gson;
-import jxl.write.WriteException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -12,8 +11,9 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.List;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
 import java.util.Map;
 
 @CrossOrigin(origins = "*")
@@ -24,27 +24,36 @@ public class ReportController {
     private final DatabaseService dbService;
     private final WriteExcel writeExcel;
     private final WriteExcel.SendMessages sm;
+    private final ReportUploader uploader;
 
     @Autowired()
     ReportController(
             DatabaseService dbService,
             WriteExcel writeExcel,
-            WriteExcel.SendMessages sm) {
+            WriteExcel.SendMessages sm,
+            ReportUploader uploader) {
         this.dbService = dbService;
         this.writeExcel = writeExcel;
         this.sm = sm;
+        this.uploader = uploader;
     }
 
+    // Rows are written to the report as they are read from the database.
+    // A report that is too large to attach is uploaded to Amazon S3 and the email carries a link to it.
     @PostMapping("")
     public String sendReport(@RequestBody Map<String, String> body) {
-        List<WorkItem> list = dbService.getItemsDataSQLReport(0);
-        try {
-            InputStream is = writeExcel.write(list);
-            sm.sendReport(is, body.get("email"));
-            Gson gson = new Gson();
+        Gson gson = new Gson();
+        try (WriteExcel.Report report = writeExcel.startReport()) {
+            dbService.forEachItem(0, report::add);
+            Path file = report.finish();
+            if (sm.canAttach(file)) {
+                sm.sendReport(file, body.get("email"));
+            } else {
+                sm.sendReportLink(uploader.upload(file), body.get("email"));
+            }
             return gson.toJson("ok");
 
-        } catch (IOException | WriteException e) {
+        } catch (IOException | UncheckedIOException | SQLException e) {
             e.printStackTrace();
         }
         return gson.toJson("error");
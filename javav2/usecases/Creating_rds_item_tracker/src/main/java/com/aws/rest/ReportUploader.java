@@ -0,0 +1,127 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.aws.rest;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/*
+ Uploads reports that are too large to attach to an email to the Amazon S3 bucket named by the
+ report.bucket property, and returns a presigned link to them. The report is sent in 8 MiB parts of
+ a multipart upload, each read from the report file while it is sent, so no more than one part
+ is held by the SDK at a time. A part that fails is retried from the file by the SDK, and the
+ upload is aborted if it cannot be completed.
+*/
+@Component
+public class ReportUploader implements AutoCloseable {
+    static final long PART_SIZE = 8L * 1024 * 1024;
+    private static final String CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    private static final Duration LINK_DURATION = Duration.ofHours(24);
+
+    private final String bucketName;
+    private final String prefix;
+    private S3Client client;
+    private S3Presigner presigner;
+
+    public ReportUploader(@Value("${report.bucket:}") String bucketName,
+                          @Value("${report.s3-prefix:reports/}") String prefix) {
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+    }
+
+    // Create the S3Client and S3Presigner objects once and reuse them for every report.
+    private synchronized S3Client getClient() {
+        if (client == null) {
+            client = S3Client.builder().region(Region.US_WEST_2).build();
+        }
+        return client;
+    }
+
+    private synchronized S3Presigner getPresigner() {
+        if (presigner == null) {
+            presigner = S3Presigner.builder().region(Region.US_WEST_2).build();
+        }
+        return presigner;
+    }
+
+    public String upload(Path report) throws IOException {
+        if (bucketName.isEmpty()) {
+            throw new IOException("The report is " + Files.size(report)
+                    + " bytes, which is too large to attach, and no report.bucket is set to upload it to");
+        }
+
+        String key = prefix + UUID.randomUUID() + ".xlsx";
+        S3Client s3 = getClient();
+        String uploadId = s3.createMultipartUpload(r -> r.bucket(bucketName).key(key).contentType(CONTENT_TYPE))
+                .uploadId();
+        try {
+            long size = Files.size(report);
+            List<CompletedPart> parts = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += PART_SIZE) {
+                int partNumber = parts.size() + 1;
+                long start = offset;
+                long length = Math.min(PART_SIZE, size - offset);
+                RequestBody body = RequestBody.fromContentProvider(() -> openPart(report, start, length),
+                        length, CONTENT_TYPE);
+                String eTag = s3.uploadPart(r -> r.bucket(bucketName).key(key)
+                        .uploadId(uploadId).partNumber(partNumber).contentLength(length), body).eTag();
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+            }
+            s3.completeMultipartUpload(r -> r.bucket(bucketName).key(key)
+                    .uploadId(uploadId).multipartUpload(u -> u.parts(parts)));
+        } catch (RuntimeException e) {
+            try {
+                s3.abortMultipartUpload(r -> r.bucket(bucketName).key(key).uploadId(uploadId));
+            } catch (S3Exception abortError) {
+                e.addSuppressed(abortError);
+            }
+            throw e;
+        }
+
+        return getPresigner().presignGetObject(r -> r.signatureDuration(LINK_DURATION)
+                .getObjectRequest(g -> g.bucket(bucketName).key(key))).url().toString();
+    }
+
+    // Opens a stream over one part of the report. The SDK opens a new stream for each attempt.
+    private static InputStream openPart(Path report, long offset, long length) {
+        try {
+            InputStream in = Files.newInputStream(report);
+            try {
+                in.skipNBytes(offset);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return new BoundedInputStream(in, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (client != null) {
+            client.close();
+        }
+        if (presigner != null) {
+            presigner.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.aws.rest;
+
+import com.google.gson.Gson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.secretsmanager.SecretsManagerClient;
+import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueRequest;
+import software.amazon.awssdk.services.secretsmanager.model.GetSecretValueResponse;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// Caches the Amazon RDS credentials that are stored in AWS Secrets Manager.
+// The secret is fetched again after the TTL expires or when refresh() is called
+// (for example, after the database rejects the cached password because the secret was rotated).
+// Listeners are notified when a refresh returns a new secret version.
+@Component
+public class SecretCache {
+    private static final String SECRET_NAME = "itemtracker/mysql";
+
+    private final SecretsManagerClient secretClient;
+    private final Duration ttl;
+    private final List<Consumer<User>> rotationListeners = new CopyOnWriteArrayList<>();
+    private final Gson gson = new Gson();
+
+    private volatile User user;
+    private volatile Instant expiresAt = Instant.MIN;
+    private String versionId;
+
+    @Autowired
+    public SecretCache(@Value("${itemtracker.secret.ttl-seconds:300}") long ttlSeconds) {
+        this(SecretsManagerClient.builder()
+                .region(Region.US_WEST_2)
+                .credentialsProvider(ProfileCredentialsProvider.create())
+                .build(), Duration.ofSeconds(ttlSeconds));
+    }
+
+    SecretCache(SecretsManagerClient secretClient, Duration ttl) {
+        this.secretClient = secretClient;
+        this.ttl = ttl;
+    }
+
+    // Returns the cached credentials, fetching them when the TTL has expired.
+    public User get() {
+        User cached = user;
+        if (cached != null && Instant.now().isBefore(expiresAt)) {
+            return cached;
+        }
+        synchronized (this) {
+            if (user == null || Instant.now().isAfter(expiresAt)) {
+                fetch();
+            }
+            return user;
+        }
+    }
+
+    // Fetches the secret regardless of the TTL and returns the current credentials.
+    public synchronized User refresh() {
+        fetch();
+        return user;
+    }
+
+    public void addRotationListener(Consumer<User> listener) {
+        rotationListeners.add(listener);
+    }
+
+    private void fetch() {
+        GetSecretValueRequest valueRequest = GetSecretValueRequest.builder()
+                .secretId(SECRET_NAME)
+                .build();
+
+        GetSecretValueResponse valueResponse = secretClient.getSecretValue(valueRequest);
+        User fetched = gson.fromJson(valueResponse.secretString(), User.class);
+        boolean rotated = versionId != null && !Objects.equals(versionId, valueResponse.versionId());
+        user = fetched;
+        versionId = valueResponse.versionId();
+        expiresAt = Instant.now().plus(ttl);
+        if (rotated) {
+            rotationListeners.forEach(listener -> listener.accept(fetched));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        secretClient.close();
+    }
+}
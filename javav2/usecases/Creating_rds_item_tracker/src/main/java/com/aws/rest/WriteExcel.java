@@ -3,17 +3,11 @@
 
 package com.aws.rest;
 
-import jxl.CellView;
-import jxl.Workbook;
-import jxl.WorkbookSettings;
-import jxl.format.UnderlineStyle;
-import jxl.write.Label;
-import jxl.write.WritableCellFormat;
-import jxl.write.WritableFont;
-import jxl.write.WritableSheet;
-import jxl.write.WritableWorkbook;
-import jxl.write.WriteException;
-import org.apache.commons.io.IOUtils;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.regions.Region;
@@ -22,7 +16,7 @@ import software.amazon.awssdk.services.ses.model.RawMessage;
 import software.amazon.awssdk.services.ses.model.SendRawEmailRequest;
 import software.amazon.awssdk.services.ses.model.SesException;
 import javax.activation.DataHandler;
-import javax.activation.DataSource;
+import javax.activation.FileDataSource;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Session;
@@ -30,130 +24,194 @@ import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
-import javax.mail.util.ByteArrayDataSource;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.util.Locale;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Properties;
 
+// Writes the work item report as an .xlsx workbook with the Apache POI streaming API (SXSSF).
+// Only the last rows are kept in memory; the rows before them are written to a temporary file.
 @Component
 public class WriteExcel {
-    static WritableCellFormat times;
-    static WritableCellFormat timesBoldUnderline;
+    private static final String[] HEADERS = { "Writer", "Date", "Guide", "Description", "Status" };
+    private static final int[] COLUMN_WIDTHS = { 20, 12, 20, 80, 15 };
+    // The number of rows that SXSSF keeps in memory.
+    private static final int ROW_WINDOW = 100;
 
-    static {
+    // Writes the items to a finished report. The caller closes the report after it has been sent.
+    public Report write(Iterable<WorkItem> items) throws IOException {
+        Report report = startReport();
         try {
-            WritableFont times10pt = new WritableFont(WritableFont.TIMES, 10);
-            times = new WritableCellFormat(times10pt);
-            times.setWrap(true);
-
-            WritableFont times10ptBoldUnderline = new WritableFont(WritableFont.TIMES, 10, WritableFont.BOLD, false,
-                    UnderlineStyle.SINGLE);
-            timesBoldUnderline = new WritableCellFormat(times10ptBoldUnderline);
-            timesBoldUnderline.setWrap(true);
-        } catch (WriteException e) {
-            e.printStackTrace();
+            for (WorkItem item : items) {
+                report.add(item);
+            }
+            report.finish();
+            return report;
+        } catch (IOException | RuntimeException e) {
+            report.close();
+            throw e;
         }
     }
 
-    public InputStream write(Iterable<WorkItem> items) throws IOException, WriteException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        WorkbookSettings wbSettings = new WorkbookSettings();
-        wbSettings.setLocale(new Locale("en", "US"));
-
-        WritableWorkbook workbook = Workbook.createWorkbook(os, wbSettings);
-        workbook.createSheet("Work Item Report", 0);
-        WritableSheet excelSheet = workbook.getSheet(0);
-
-        addLabels(excelSheet);
-        fillContent(excelSheet, items);
-
-        workbook.write();
-        workbook.close();
-
-        return new ByteArrayInputStream(os.toByteArray());
+    // Starts a report that items are added to one at a time, for example while a query result is read.
+    public Report startReport() {
+        return new Report();
     }
 
-    private void addLabels(WritableSheet sheet) throws WriteException {
-        CellView cv = new CellView();
-        cv.setFormat(timesBoldUnderline);
-        cv.setAutosize(true);
+    // A Report is not thread-safe; add items from a single thread.
+    public static class Report implements Closeable {
+        private final SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+        private final Sheet sheet;
+        private int nextRow;
+        private Path file;
 
-        addCaption(sheet, 0, 0, "Writer");
-        addCaption(sheet, 1, 0, "Date");
-        addCaption(sheet, 2, 0, "Guide");
-        addCaption(sheet, 3, 0, "Description");
-        addCaption(sheet, 4, 0, "Status");
-    }
+        private Report() {
+            workbook.setCompressTempFiles(true);
+            sheet = workbook.createSheet("Work Item Report");
+            for (int i = 0; i < COLUMN_WIDTHS.length; i++) {
+                sheet.setColumnWidth(i, COLUMN_WIDTHS[i] * 256);
+            }
 
-    private void addCaption(WritableSheet sheet, int column, int row, String s) throws WriteException {
-        Label label = new Label(column, row, s, timesBoldUnderline);
-        int cc = s.length();
-        sheet.setColumnView(column, cc);
-        sheet.addCell(label);
-    }
+            Font font = workbook.createFont();
+            font.setBold(true);
+            font.setUnderline(Font.U_SINGLE);
+            CellStyle headerStyle = workbook.createCellStyle();
+            headerStyle.setFont(font);
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < HEADERS.length; i++) {
+                header.createCell(i).setCellValue(HEADERS[i]);
+                header.getCell(i).setCellStyle(headerStyle);
+            }
+            // The items start on the third row.
+            nextRow = 2;
+        }
 
-    private void addField(WritableSheet sheet, int column, int row, String s) throws WriteException {
-        Label label = new Label(column, row, s, timesBoldUnderline);
-        int cc = s.length();
-        cc = cc > 200 ? 150 : cc + 6;
-        sheet.setColumnView(column, cc);
-        sheet.addCell(label);
-    }
+        public void add(WorkItem item) {
+            Row row = sheet.createRow(nextRow++);
+            row.createCell(0).setCellValue(item.getName());
+            row.createCell(1).setCellValue(item.getDate());
+            row.createCell(2).setCellValue(item.getGuide());
+            row.createCell(3).setCellValue(item.getDescription());
+            row.createCell(4).setCellValue(item.getStatus());
+        }
 
-    private void fillContent(WritableSheet sheet, Iterable<WorkItem> items) throws WriteException {
-        int row = 2;
-        for (WorkItem item : items) {
-            addField(sheet, 0, row, item.getName());
-            addField(sheet, 1, row, item.getDate());
-            addField(sheet, 2, row, item.getGuide());
-            addField(sheet, 3, row, item.getDescription());
-            addField(sheet, 4, row, item.getStatus());
-            row += 1;
+        // Writes the workbook to a temporary file and returns it. The file is deleted when the report is closed.
+        public Path finish() throws IOException {
+            if (file == null) {
+                Path out = Files.createTempFile("WorkReport", ".xlsx");
+                try (OutputStream stream = Files.newOutputStream(out)) {
+                    workbook.write(stream);
+                } catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(out);
+                    throw e;
+                }
+                file = out;
+                workbook.dispose();
+            }
+            return file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                workbook.dispose();
+                workbook.close();
+            } finally {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            }
         }
     }
 
     @Component
-    public static class SendMessages {
+    public static class SendMessages implements AutoCloseable {
+        // Amazon SES does not accept raw messages larger than 10 MB, including the Base64 encoded attachment.
+        static final long MAX_MESSAGE_SIZE = 10L * 1024 * 1024;
+        // Room for the headers and the text and HTML parts of the message.
+        private static final int MESSAGE_OVERHEAD = 16 * 1024;
+        private static final String CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
         private static String sender = "scmacdon@amazon.com";
         private static String subject = "Weekly AWS Status Report";
         private static String bodyText = "Hello,\r\n\r\nPlease see the attached file for a weekly update.";
         private static String bodyHTML = "<!DOCTYPE html><html lang=\"en-US\"><body><h1>Hello!</h1><p>Please see the attached file for a weekly update.</p></body></html>";
-        private static String attachmentName = "WorkReport.xls";
+        private static String attachmentName = "WorkReport.xlsx";
 
-        public void sendReport(InputStream is, String emailAddress) throws IOException {
-            byte[] fileContent = IOUtils.toByteArray(is);
+        private SesClient client;
 
+        // Create the SesClient object once and reuse it for every report.
+        private synchronized SesClient getClient() {
+            if (client == null) {
+                client = SesClient.builder().region(Region.US_WEST_2).build();
+            }
+            return client;
+        }
+
+        // Returns whether the report is small enough to be sent as an attachment.
+        public boolean canAttach(Path report) throws IOException {
+            return encodedSize(Files.size(report)) + MESSAGE_OVERHEAD <= MAX_MESSAGE_SIZE;
+        }
+
+        public void sendReport(Path report, String emailAddress) throws IOException {
+            if (!canAttach(report)) {
+                throw new IOException("The report is " + Files.size(report)
+                        + " bytes, which is too large to send as an attachment through Amazon SES");
+            }
+
+            try {
+                send(makeEmail(attachment(report), bodyText, bodyHTML, emailAddress),
+                        (int) encodedSize(Files.size(report)) + MESSAGE_OVERHEAD);
+            } catch (MessagingException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Sends a link to a report that is too large to attach.
+        public void sendReportLink(String url, String emailAddress) throws IOException {
+            String href = url.replace("&", "&amp;");
             try {
-                send(makeEmail(fileContent, emailAddress));
+                send(makeEmail(null, "Hello,\r\n\r\nThe weekly update can be downloaded from " + url,
+                        "<!DOCTYPE html><html lang=\"en-US\"><body><h1>Hello!</h1><p>The weekly update can be downloaded from "
+                                + "<a href=\"" + href + "\">this link</a>.</p></body></html>",
+                        emailAddress));
             } catch (MessagingException e) {
                 e.printStackTrace();
             }
         }
 
         public void send(MimeMessage message) throws MessagingException, IOException {
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            message.writeTo(outputStream);
-            ByteBuffer buf = ByteBuffer.wrap(outputStream.toByteArray());
-            byte[] arr = new byte[buf.remaining()];
-            buf.get(arr);
-            SdkBytes data = SdkBytes.fromByteArray(arr);
-            RawMessage rawMessage = RawMessage.builder().data(data).build();
+            send(message, MESSAGE_OVERHEAD);
+        }
+
+        // SendRawEmail carries the whole message in the request, so the message is written once
+        // into a buffer sized for it. The bytes are copied once more only if the buffer is not full.
+        private void send(MimeMessage message, int expectedSize) throws MessagingException, IOException {
+            MessageBuffer buffer = new MessageBuffer(expectedSize);
+            message.writeTo(buffer);
+            RawMessage rawMessage = RawMessage.builder().data(buffer.toSdkBytes()).build();
             SendRawEmailRequest rawEmailRequest = SendRawEmailRequest.builder().rawMessage(rawMessage).build();
 
             try {
                 System.out.println("Attempting to send an email through Amazon SES...");
-                SesClient client = SesClient.builder().region(Region.US_WEST_2).build();
-                client.sendRawEmail(rawEmailRequest);
+                getClient().sendRawEmail(rawEmailRequest);
             } catch (SesException e) {
                 e.printStackTrace();
             }
         }
 
-        private MimeMessage makeEmail(byte[] attachment, String emailAddress) throws MessagingException {
+        // Base64 turns every 3 bytes of the attachment into 4 characters, in lines of 76 characters.
+        private static long encodedSize(long size) {
+            long encoded = (size + 2) / 3 * 4;
+            return encoded + encoded / 76 * 2;
+        }
+
+        private MimeMessage makeEmail(MimeBodyPart attachment, String text, String html, String emailAddress)
+                throws MessagingException {
             Session session = Session.getDefaultInstance(new Properties());
             MimeMessage message = new MimeMessage(session);
 
@@ -162,10 +220,10 @@ public class WriteExcel {
             message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(emailAddress));
 
             MimeBodyPart textPart = new MimeBodyPart();
-            textPart.setContent(bodyText, "text/plain; charset=UTF-8");
+            textPart.setContent(text, "text/plain; charset=UTF-8");
 
             MimeBodyPart htmlPart = new MimeBodyPart();
-            htmlPart.setContent(bodyHTML, "text/html; charset=UTF-8");
+            htmlPart.setContent(html, "text/html; charset=UTF-8");
 
             MimeMultipart msgBody = new MimeMultipart("alternative");
             msgBody.addBodyPart(textPart);
@@ -176,16 +234,43 @@ public class WriteExcel {
 
             MimeMultipart msg = new MimeMultipart("mixed");
             msg.addBodyPart(wrap);
+            if (attachment != null) {
+                msg.addBodyPart(attachment);
+            }
+            message.setContent(msg);
+            return message;
+        }
 
+        // The attachment is read from the report file while the message is written.
+        // Setting the encoding up front stops JavaMail from reading the report once more to choose one.
+        private static MimeBodyPart attachment(Path report) throws MessagingException {
             MimeBodyPart att = new MimeBodyPart();
-            DataSource fds = new ByteArrayDataSource(attachment,
-                    "application/vnc.openxmlformats-officedocument.spreadsheetml.sheet");
-            att.setDataHandler(new DataHandler(fds));
+            att.setDataHandler(new DataHandler(new FileDataSource(report.toFile()) {
+                @Override
+                public String getContentType() {
+                    return CONTENT_TYPE;
+                }
+            }));
             att.setFileName(attachmentName);
+            att.setHeader("Content-Transfer-Encoding", "base64");
+            return att;
+        }
 
-            msg.addBodyPart(att);
-            message.setContent(msg);
-            return message;
+        @Override
+        public synchronized void close() {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    private static class MessageBuffer extends ByteArrayOutputStream {
+        MessageBuffer(int size) {
+            super(size);
+        }
+
+        SdkBytes toSdkBytes() {
+            return SdkBytes.fromByteArrayUnsafe(count == buf.length ? buf : Arrays.copyOf(buf, count));
         }
     }
-}
\ No newline at end of file
+}
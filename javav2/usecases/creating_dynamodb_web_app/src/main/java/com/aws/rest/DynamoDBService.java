@@ -3,242 +3,397 @@
 
 package com.aws.rest;
 
+import jakarta.annotation.PreDestroy;
+import software.amazon.awssdk.core.pagination.sync.SdkIterable;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
 import software.amazon.awssdk.enhanced.dynamodb.Expression;
 import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.enhanced.dynamodb.model.ScanEnhancedRequest;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.StreamSupport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.QueryRequest;
+import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
 
 /*
  Before running this code example, create an Amazon DynamoDB table named Work with a primary key named id.
+ To query open and closed items without scanning the table, also create a global secondary index
+ with a partition key named archive (Number) and a sort key named date (String). The index is named
+ archive-index unless the dynamodb.archive-index property names another one.
  */
 @Component
 public class DynamoDBService {
+    private static final String TABLE_NAME = "Work";
+    private static final String ALL_ITEMS = "all";
+    private static final String OPEN_ITEMS = "open";
+    private static final String CLOSED_ITEMS = "closed";
+
+    private static final TableSchema<Work> WORK_SCHEMA = TableSchema.fromBean(Work.class);
+
+    private final DynamoDbClient client;
+    private final DynamoDbEnhancedClient enhancedClient;
+    private final DynamoDbTable<Work> table;
+    private final int scanSegments;
+    private final ExecutorService scanExecutor;
+    private final Duration cacheTtl;
+    private final String archiveIndexName;
+    private volatile boolean useArchiveIndex;
+
+    // Results are cached per query and dropped when an item is added or archived.
+    // The generation counter stops a query that started before a write from caching its stale result.
+    private final Map<String, CachedResult> cache = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    // Writes that a read might not see yet, because the archive index is eventually consistent.
+    // A result is cached only when it reflects all of them.
+    private final Map<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    @Autowired
+    public DynamoDBService(@Value("${dynamodb.scan-segments:4}") int scanSegments,
+                           @Value("${dynamodb.cache-ttl-seconds:30}") long cacheTtlSeconds,
+                           @Value("${dynamodb.archive-index:archive-index}") String archiveIndexName) {
+        this(DynamoDbClient.builder()
+                .region(Region.US_EAST_1)
+                .build(), scanSegments, Duration.ofSeconds(cacheTtlSeconds), archiveIndexName);
+    }
 
-    private DynamoDbClient getClient() {
-        Region region = Region.US_EAST_1;
-        return DynamoDbClient.builder()
-                .region(region)
+    DynamoDBService(DynamoDbClient client, int scanSegments, Duration cacheTtl, String archiveIndexName) {
+        this.client = client;
+        this.enhancedClient = DynamoDbEnhancedClient.builder()
+                .dynamoDbClient(client)
                 .build();
+        this.table = enhancedClient.table(TABLE_NAME, WORK_SCHEMA);
+        this.scanSegments = Math.max(1, scanSegments);
+        this.scanExecutor = Executors.newFixedThreadPool(this.scanSegments);
+        this.cacheTtl = cacheTtl;
+        this.archiveIndexName = archiveIndexName;
+        this.useArchiveIndex = archiveIndexName != null && !archiveIndexName.isEmpty();
     }
 
     // Get All items from the DynamoDB table.
     public List<WorkItem> getAllItems() {
-        DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-                .dynamoDbClient(getClient())
-                .build();
-
-        try {
-            DynamoDbTable<Work> table = enhancedClient.table("Work", TableSchema.fromBean(Work.class));
-            Iterator<Work> results = table.scan().items().iterator();
-            WorkItem workItem;
-            ArrayList<WorkItem> itemList = new ArrayList<>();
-
-            while (results.hasNext()) {
-                workItem = new WorkItem();
-                Work work = results.next();
-                workItem.setName(work.getName());
-                workItem.setGuide(work.getGuide());
-                workItem.setDescription(work.getDescription());
-                workItem.setStatus(work.getStatus());
-                workItem.setDate(work.getDate());
-                workItem.setId(work.getId());
-                workItem.setArchived(work.getArchive());
-
-                // Push the workItem to the list.
-                itemList.add(workItem);
-            }
-            return itemList;
-
-        } catch (DynamoDbException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
-        }
-        return null;
+        return cached(ALL_ITEMS, null, () -> parallelScan(null));
     }
 
     // Archives an item based on the key.
     public void archiveItemEC(String id) {
         try {
-            DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-                    .dynamoDbClient(getClient())
-                    .build();
-
-            DynamoDbTable<Work> workTable = enhancedClient.table("Work", TableSchema.fromBean(Work.class));
-
             // Get the Key object.
             Key key = Key.builder()
                     .partitionValue(id)
                     .build();
 
             // Get the item by using the key.
-            Work work = workTable.getItem(r -> r.key(key));
+            Work work = table.getItem(r -> r.key(key));
             work.setArchive(1);
-            workTable.updateItem(r -> r.item(work));
+            table.updateItem(r -> r.item(work));
+            addPendingWrite(id, 1);
 
         } catch (DynamoDbException e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw e;
+        } finally {
+            invalidate();
         }
     }
 
     // Get Open items from the DynamoDB table.
     public List<WorkItem> getOpenItems() {
-        DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-                .dynamoDbClient(getClient())
-                .build();
-
-        try {
-            DynamoDbTable<Work> table = enhancedClient.table("Work", TableSchema.fromBean(Work.class));
-            AttributeValue attr = AttributeValue.builder()
-                    .n("0")
-                    .build();
+        return cached(OPEN_ITEMS, 0, () -> getItemsByArchive(0));
+    }
 
-            Map<String, AttributeValue> myMap = new HashMap<>();
-            myMap.put(":val1", attr);
+    // Get Open items as a lazy Iterable, so the report can write each page of items as it is read
+    // instead of holding all of them. A cached result is returned if there is one.
+    // Like getItemsByArchive, falls back to a scan with a filter if the table does not have the index.
+    public Iterable<WorkItem> streamOpenItems() {
+        CachedResult cachedResult = cache.get(OPEN_ITEMS);
+        if (cachedResult != null && !cachedResult.isExpired()) {
+            return copies(cachedResult.items());
+        }
 
-            Map<String, String> myExMap = new HashMap<>();
-            myExMap.put("#archive", "archive");
+        return () -> {
+            if (useArchiveIndex) {
+                Iterator<Page<Work>> pages = queryArchiveIndex(0).iterator();
+                try {
+                    // Reads the first page, so a missing index is found before any item is returned.
+                    pages.hasNext();
+                    return workItemIterator(pages);
+
+                } catch (DynamoDbException e) {
+                    if (!isMissingIndex(e)) {
+                        System.err.println(e.getMessage());
+                        throw e;
+                    }
+                    System.err.println("Cannot query " + archiveIndexName + ", scanning the table instead: " + e.getMessage());
+                    useArchiveIndex = false;
+                }
+            }
 
-            // Set the Expression so only active items are queried from the Work table.
-            Expression expression = Expression.builder()
-                    .expressionValues(myMap)
-                    .expressionNames(myExMap)
-                    .expression("#archive = :val1")
-                    .build();
+            return workItemIterator(table.scan(ScanEnhancedRequest.builder()
+                    .filterExpression(archiveFilter(0))
+                    .build())
+                    .iterator());
+        };
+    }
 
-            ScanEnhancedRequest enhancedRequest = ScanEnhancedRequest.builder()
-                    .filterExpression(expression)
-                    .limit(15)
-                    .build();
+    // Get Closed Items from the DynamoDB table.
+    public List<WorkItem> getClosedItems() {
+        return cached(CLOSED_ITEMS, 1, () -> getItemsByArchive(1));
+    }
 
-            // Scan items.
-            Iterator<Work> results = table.scan(enhancedRequest).items().iterator();
-            WorkItem workItem;
-            ArrayList<WorkItem> itemList = new ArrayList<>();
-
-            while (results.hasNext()) {
-                workItem = new WorkItem();
-                Work work = results.next();
-                workItem.setName(work.getName());
-                workItem.setGuide(work.getGuide());
-                workItem.setDescription(work.getDescription());
-                workItem.setStatus(work.getStatus());
-                workItem.setDate(work.getDate());
-                workItem.setId(work.getId());
-                workItem.setArchived(work.getArchive());
+    public void setItem(WorkItem item) {
+        try {
+            putRecord(enhancedClient, item);
+        } finally {
+            invalidate();
+        }
+    }
 
-                // Push the workItem to the list.
-                itemList.add(workItem);
-            }
-            return itemList;
+    // Put an item into a DynamoDB table.
+    public void putRecord(DynamoDbEnhancedClient enhancedClient, WorkItem item) {
+        try {
+            DynamoDbTable<Work> workTable = enhancedClient.table(TABLE_NAME, WORK_SCHEMA);
+            String myGuid = java.util.UUID.randomUUID().toString();
+            Work record = new Work();
+            record.setUsername(item.getName());
+            record.setId(myGuid);
+            record.setDescription(item.getDescription());
+            record.setDate(now());
+            record.setStatus(item.getStatus());
+            record.setArchive(0);
+            record.setGuide(item.getGuide());
+            workTable.putItem(record);
+            addPendingWrite(myGuid, 0);
 
         } catch (DynamoDbException e) {
             System.err.println(e.getMessage());
-            System.exit(1);
+            throw e;
         }
-        return null;
     }
 
-    // Get Closed Items from the DynamoDB table.
-    public List<WorkItem> getClosedItems() {
-        DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-                .dynamoDbClient(getClient())
+    // Queries the archive index for the items with the given archive value.
+    // If the table does not have the index, falls back to a parallel scan with a filter.
+    // Other errors, such as throttling, are rethrown and the index is used again next time.
+    private List<WorkItem> getItemsByArchive(int archive) {
+        if (useArchiveIndex) {
+            try {
+                return toWorkItems(queryArchiveIndex(archive));
+
+            } catch (DynamoDbException e) {
+                if (!isMissingIndex(e)) {
+                    System.err.println(e.getMessage());
+                    throw e;
+                }
+                System.err.println("Cannot query " + archiveIndexName + ", scanning the table instead: " + e.getMessage());
+                useArchiveIndex = false;
+            }
+        }
+
+        return parallelScan(archiveFilter(archive));
+    }
+
+    // Queries the archive index by its configured name. The Work schema does not declare the index,
+    // so that its name is not fixed in an annotation. The pages are requested with the low-level
+    // client as they are read, and their items are mapped with the schema of the table.
+    private SdkIterable<Page<Work>> queryArchiveIndex(int archive) {
+        QueryRequest request = QueryRequest.builder()
+                .tableName(TABLE_NAME)
+                .indexName(archiveIndexName)
+                .keyConditionExpression("#archive = :archive")
+                .expressionAttributeNames(Map.of("#archive", "archive"))
+                .expressionAttributeValues(Map.of(":archive", AttributeValue.builder()
+                        .n(String.valueOf(archive))
+                        .build()))
                 .build();
+        return () -> StreamSupport.stream(client.queryPaginator(request).spliterator(), false)
+                .map(response -> Page.create(response.items().stream()
+                        .map(WORK_SCHEMA::mapToItem)
+                        .toList(), response.lastEvaluatedKey()))
+                .iterator();
+    }
 
-        try {
-            // Create a DynamoDbTable object.
-            DynamoDbTable<Work> table = enhancedClient.table("Work", TableSchema.fromBean(Work.class));
-            AttributeValue attr = AttributeValue.builder()
-                    .n("1")
-                    .build();
+    // True if the query failed because the table or the archive index does not exist.
+    private boolean isMissingIndex(DynamoDbException e) {
+        if (e instanceof ResourceNotFoundException) {
+            return true;
+        }
+        return e.awsErrorDetails() != null
+                && "ValidationException".equals(e.awsErrorDetails().errorCode())
+                && e.getMessage() != null
+                && e.getMessage().contains(archiveIndexName);
+    }
 
-            Map<String, AttributeValue> myMap = new HashMap<>();
-            myMap.put(":val1", attr);
-            Map<String, String> myExMap = new HashMap<>();
-            myExMap.put("#archive", "archive");
+    // Returns an Expression so only items with the given archive value are returned.
+    private Expression archiveFilter(int archive) {
+        AttributeValue attr = AttributeValue.builder()
+                .n(String.valueOf(archive))
+                .build();
 
-            // Set the Expression so only Closed items are queried from the Work table.
-            Expression expression = Expression.builder()
-                    .expressionValues(myMap)
-                    .expressionNames(myExMap)
-                    .expression("#archive = :val1")
-                    .build();
+        Map<String, AttributeValue> myMap = new HashMap<>();
+        myMap.put(":val1", attr);
+
+        Map<String, String> myExMap = new HashMap<>();
+        myExMap.put("#archive", "archive");
+
+        return Expression.builder()
+                .expressionValues(myMap)
+                .expressionNames(myExMap)
+                .expression("#archive = :val1")
+                .build();
+    }
 
+    // Scans the table in segments on separate threads and combines the results.
+    private List<WorkItem> parallelScan(Expression filterExpression) {
+        List<CompletableFuture<List<WorkItem>>> segments = new ArrayList<>();
+        for (int segment = 0; segment < scanSegments; segment++) {
             ScanEnhancedRequest enhancedRequest = ScanEnhancedRequest.builder()
-                    .filterExpression(expression)
-                    .limit(15)
+                    .filterExpression(filterExpression)
+                    .segment(segment)
+                    .totalSegments(scanSegments)
                     .build();
+            segments.add(CompletableFuture.supplyAsync(() -> toWorkItems(table.scan(enhancedRequest)), scanExecutor));
+        }
+
+        try {
+            List<WorkItem> itemList = new ArrayList<>();
+            segments.forEach(segment -> itemList.addAll(segment.join()));
+            return itemList;
 
-            // Get items.
-            Iterator<Work> results = table.scan(enhancedRequest).items().iterator();
-            WorkItem workItem;
-            ArrayList<WorkItem> itemList = new ArrayList<>();
-
-            while (results.hasNext()) {
-                workItem = new WorkItem();
-                Work work = results.next();
-                workItem.setName(work.getName());
-                workItem.setGuide(work.getGuide());
-                workItem.setDescription(work.getDescription());
-                workItem.setStatus(work.getStatus());
-                workItem.setDate(work.getDate());
-                workItem.setId(work.getId());
-                workItem.setArchived(work.getArchive());
+        } catch (CompletionException e) {
+            System.err.println(e.getCause().getMessage());
+            if (e.getCause() instanceof DynamoDbException dynamoDbException) {
+                throw dynamoDbException;
+            }
+            throw e;
+        }
+    }
 
+    private List<WorkItem> toWorkItems(SdkIterable<Page<Work>> pages) {
+        ArrayList<WorkItem> itemList = new ArrayList<>();
+        for (Page<Work> page : pages) {
+            for (Work work : page.items()) {
                 // Push the workItem to the list.
-                itemList.add(workItem);
+                itemList.add(toWorkItem(work));
             }
-            return itemList;
+        }
+        return itemList;
+    }
 
-        } catch (DynamoDbException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
+    // Converts the items of each page as the pages are read.
+    private static Iterator<WorkItem> workItemIterator(Iterator<Page<Work>> pages) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED), false)
+                .flatMap(page -> page.items().stream())
+                .map(DynamoDBService::toWorkItem)
+                .iterator();
+    }
+
+    private static WorkItem toWorkItem(Work work) {
+        WorkItem workItem = new WorkItem();
+        workItem.setName(work.getName());
+        workItem.setGuide(work.getGuide());
+        workItem.setDescription(work.getDescription());
+        workItem.setStatus(work.getStatus());
+        workItem.setDate(work.getDate());
+        workItem.setId(work.getId());
+        workItem.setArchived(work.getArchive());
+        return workItem;
+    }
+
+    // The cached WorkItem objects are never handed out, so a caller cannot change them.
+    private static List<WorkItem> copies(List<WorkItem> items) {
+        List<WorkItem> copies = new ArrayList<>(items.size());
+        for (WorkItem item : items) {
+            copies.add(copy(item));
         }
-        return null;
+        return copies;
     }
 
-    public void setItem(WorkItem item) {
-        DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-                .dynamoDbClient(getClient())
-                .build();
+    private static WorkItem copy(WorkItem item) {
+        WorkItem copy = new WorkItem();
+        copy.setName(item.getName());
+        copy.setGuide(item.getGuide());
+        copy.setDescription(item.getDescription());
+        copy.setStatus(item.getStatus());
+        copy.setDate(item.getDate());
+        copy.setId(item.getId());
+        copy.setArchived(item.getArchived());
+        return copy;
+    }
 
-        putRecord(enhancedClient, item);
+    // archive is the archive value that the query returns, or null for all items.
+    private List<WorkItem> cached(String query, Integer archive, Supplier<List<WorkItem>> loader) {
+        CachedResult cachedResult = cache.get(query);
+        if (cachedResult != null && !cachedResult.isExpired()) {
+            return copies(cachedResult.items());
+        }
+
+        long startGeneration = generation.get();
+        List<WorkItem> items = loader.get();
+        if (reflectsPendingWrites(archive, items) && generation.get() == startGeneration) {
+            cache.put(query, new CachedResult(Collections.unmodifiableList(copies(items)),
+                    System.nanoTime() + cacheTtl.toNanos()));
+        }
+        return items;
     }
 
-    // Put an item into a DynamoDB table.
-    public void putRecord(DynamoDbEnhancedClient enhancedClient, WorkItem item) {
+    private void addPendingWrite(String id, int archive) {
+        pendingWrites.put(id, new PendingWrite(archive, System.nanoTime() + cacheTtl.toNanos()));
+    }
 
-        try {
-            DynamoDbTable<Work> workTable = enhancedClient.table("Work", TableSchema.fromBean(Work.class));
-            String myGuid = java.util.UUID.randomUUID().toString();
-            Work record = new Work();
-            record.setUsername(item.getName());
-            record.setId(myGuid);
-            record.setDescription(item.getDescription());
-            record.setDate(now());
-            record.setStatus(item.getStatus());
-            record.setArchive(0);
-            record.setGuide(item.getGuide());
-            workTable.putItem(record);
+    // True if every recent write is visible in the result of a query for the given archive value.
+    // A write that is still not visible after the cache TTL is no longer waited for.
+    private boolean reflectsPendingWrites(Integer archive, List<WorkItem> items) {
+        pendingWrites.values().removeIf(PendingWrite::isExpired);
+        if (pendingWrites.isEmpty()) {
+            return true;
+        }
 
-        } catch (DynamoDbException e) {
-            System.err.println(e.getMessage());
-            System.exit(1);
+        Map<String, Integer> found = new HashMap<>();
+        for (WorkItem item : items) {
+            found.put(item.getId(), item.getArchived());
+        }
+        for (Map.Entry<String, PendingWrite> write : pendingWrites.entrySet()) {
+            int expected = write.getValue().archive();
+            Integer seen = found.get(write.getKey());
+            boolean visible = (archive == null || archive == expected)
+                    ? seen != null && seen == expected
+                    : seen == null;
+            if (!visible) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    private void invalidate() {
+        generation.incrementAndGet();
+        cache.clear();
     }
 
     private String now() {
@@ -247,4 +402,22 @@ public class DynamoDBService {
         SimpleDateFormat sdf = new SimpleDateFormat(dateFormatNow);
         return sdf.format(cal.getTime());
     }
-}
\ No newline at end of file
+
+    @PreDestroy
+    public void close() {
+        scanExecutor.shutdown();
+        client.close();
+    }
+
+    private record CachedResult(List<WorkItem> items, long expiresAtNanos) {
+        boolean isExpired() {
+            return System.nanoTime() - expiresAtNanos > 0;
+        }
+    }
+
+    private record PendingWrite(int archive, long expiresAtNanos) {
+        boolean isExpired() {
+            return System.nanoTime() - expiresAtNanos > 0;
+        }
+    }
+}
@@ -3,7 +3,6 @@
 
 package com.aws.rest;
 
-import jxl.write.WriteException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -11,7 +10,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.Map;
 
 @CrossOrigin(origins = "*")
@@ -22,25 +21,33 @@ public class ReportController {
     private final DynamoDBService dynamoDBService;
     private final WriteExcel writeExcel;
     private final WriteExcel.SendMessages sm;
+    private final ReportUploader uploader;
 
     @Autowired()
     ReportController(
             DynamoDBService dynamoDBService,
             WriteExcel writeExcel,
-            WriteExcel.SendMessages sm) {
+            WriteExcel.SendMessages sm,
+            ReportUploader uploader) {
         this.dynamoDBService = dynamoDBService;
         this.writeExcel = writeExcel;
         this.sm = sm;
+        this.uploader = uploader;
     }
 
+    // Rows are written to the report as result pages are read from the table.
+    // A report that is too large to attach is uploaded to Amazon S3 and the email carries a link to it.
     @PostMapping("")
     public String sendReport(@RequestBody Map<String, String> body) {
-        var list = dynamoDBService.getOpenItems();
-        try {
-            InputStream is = writeExcel.write(list);
-            sm.sendReport(is, body.get("email"));
+        try (WriteExcel.Report report = writeExcel.write(dynamoDBService.streamOpenItems())) {
+            Path file = report.finish();
+            if (sm.canAttach(file)) {
+                sm.sendReport(file, body.get("email"));
+            } else {
+                sm.sendReportLink(uploader.upload(file), body.get("email"));
+            }
             return "Report generated & sent";
-        } catch (IOException | WriteException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
         return "Failed to generate report";
@@ -0,0 +1,109 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+import com.aws.rest.WorkItem;
+import com.aws.rest.WriteExcel;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the time and peak heap of writing a work item report with many rows. Two ways
+ * of writing the report are compared:
+ *
+ *   sxssf   WriteExcel: the POI streaming workbook, which keeps a window of rows in memory
+ *           and writes the rows before them to a temporary file
+ *   xssf    the POI workbook that keeps every row in memory until it is written
+ *
+ * The rows are generated, so no table or AWS account is needed. The same WriteExcel is used
+ * by the RDS and Amazon Redshift item tracker apps. Run each mode in its own JVM with a fixed
+ * heap to compare them, for example with -Xmx256m. The arguments are the mode (sxssf, xssf
+ * or both) and the number of rows. Both are optional; the default is both modes with
+ * 1,000,000 rows.
+ */
+public class WriteExcelBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "both";
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+        if (mode.equals("sxssf") || mode.equals("both")) {
+            resetPeakHeap();
+            long start = System.nanoTime();
+            try (WriteExcel.Report report = new WriteExcel().startReport()) {
+                for (int i = 0; i < rows; i++) {
+                    report.add(item(i));
+                }
+                Path file = report.finish();
+                report("sxssf", rows, System.nanoTime() - start, Files.size(file));
+            }
+        }
+
+        if (mode.equals("xssf") || mode.equals("both")) {
+            resetPeakHeap();
+            long start = System.nanoTime();
+            Path file = Files.createTempFile("WorkReport", ".xlsx");
+            try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+                Sheet sheet = workbook.createSheet("Work Item Report");
+                for (int i = 0; i < rows; i++) {
+                    WorkItem item = item(i);
+                    Row row = sheet.createRow(i + 2);
+                    row.createCell(0).setCellValue(item.getName());
+                    row.createCell(1).setCellValue(item.getDate());
+                    row.createCell(2).setCellValue(item.getGuide());
+                    row.createCell(3).setCellValue(item.getDescription());
+                    row.createCell(4).setCellValue(item.getStatus());
+                }
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    workbook.write(out);
+                }
+                report("xssf", rows, System.nanoTime() - start, Files.size(file));
+            } catch (OutOfMemoryError e) {
+                System.out.printf("%-6s %,10d rows  OutOfMemoryError with a %,d MB heap%n",
+                        "xssf", rows, Runtime.getRuntime().maxMemory() / (1024 * 1024));
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static WorkItem item(int i) {
+        WorkItem item = new WorkItem();
+        item.setId(Integer.toString(i));
+        item.setName("user" + (i % 50));
+        item.setDate("2024-01-" + (10 + i % 20));
+        item.setGuide("Java");
+        item.setDescription("Update the example code and the guide for work item " + i + ".");
+        item.setStatus(i % 3 == 0 ? "Closed" : "Open");
+        return item;
+    }
+
+    private static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    // The sum of the peak of each heap pool, which is an upper bound of the heap used at any one time.
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void report(String mode, int rows, long nanos, long fileSize) {
+        System.out.printf("%-6s %,10d rows  %6.2f s  peak heap %,5d MB  file %,6.1f MB%n",
+                mode, rows, nanos / 1e9, peakHeap() / (1024 * 1024), fileSize / (1024.0 * 1024));
+    }
+}
@@ -19,14 +19,13 @@ import java.util.List;
 
 public class AnalyzePhotos {
 
+    private final RekognitionClient rekClient = RekognitionClient.builder()
+            .region(Region.US_EAST_2)
+            .build();
+
     // Returns a list of GearItem objects that contains PPE information.
     public ArrayList<GearItem> detectLabels(byte[] bytes, String key) {
 
-        Region region = Region.US_EAST_2;
-        RekognitionClient rekClient = RekognitionClient.builder()
-                .region(region)
-                .build();
-
         ArrayList<GearItem> gearList = new ArrayList<>();
 
         try {
@@ -18,28 +18,18 @@ import java.util.UUID;
 
 public class DynamoDBService {
 
-    private DynamoDbClient getClient() {
-
-        // Create a DynamoDbClient object.
-        Region region = Region.US_EAST_1;
-        DynamoDbClient ddb = DynamoDbClient.builder()
-                .region(region)
-                .build();
-
-        return ddb;
-    }
+    // The table schema is built once because building it introspects the Gear bean.
+    private final DynamoDbTable<Gear> gearTable = DynamoDbEnhancedClient.builder()
+            .dynamoDbClient(DynamoDbClient.builder()
+                    .region(Region.US_EAST_1)
+                    .build())
+            .build()
+            .table("Gear", TableSchema.fromBean(Gear.class));
 
     // Persist the PPE Items into the Gear table.
     public void persistItem(List<ArrayList<GearItem>> gearList) {
-        DynamoDbClient ddb = getClient();
-
         try {
 
-            DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-                    .dynamoDbClient(ddb)
-                    .build();
-
-            DynamoDbTable<Gear> gearTable = enhancedClient.table("Gear", TableSchema.fromBean(Gear.class));
             Gear gearRecord;
 
             // Create an Instant.
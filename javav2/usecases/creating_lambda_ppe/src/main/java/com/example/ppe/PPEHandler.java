@@ -14,16 +14,19 @@ import java.util.HashSet;
 
 public class PPEHandler implements RequestHandler<Map<String, String>, String> {
 
+    // Lambda creates the handler once per execution environment, so the services and their
+    // clients are built once and reused by every invocation.
+    private final S3Service s3Service = new S3Service();
+    private final DynamoDBService ddb = new DynamoDBService();
+    private final AnalyzePhotos photos = new AnalyzePhotos();
+    private final SendEmail email = new SendEmail();
+
     @Override
     public String handleRequest(Map<String, String> event, Context context) {
         LambdaLogger logger = context.getLogger();
         String bucketName = event.get("bucketName");
         logger.log("Bucket name is: " + bucketName);
 
-        S3Service s3Service = new S3Service();
-        DynamoDBService ddb = new DynamoDBService();
-        AnalyzePhotos photos = new AnalyzePhotos();
-        SendEmail email = new SendEmail();
 
         List<String> items = s3Service.listBucketObjects(bucketName);
         List<ArrayList<GearItem>> myList = new ArrayList<>();
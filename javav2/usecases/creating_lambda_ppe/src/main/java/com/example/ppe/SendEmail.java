@@ -15,12 +15,11 @@ import java.util.Set;
 
 public class SendEmail {
 
-        public void sendMsg(Set<String> unqiueKeys) {
+        private final SesClient client = SesClient.builder()
+                        .region(Region.US_EAST_1)
+                        .build();
 
-                Region region = Region.US_EAST_1;
-                SesClient client = SesClient.builder()
-                                .region(region)
-                                .build();
+        public void sendMsg(Set<String> unqiueKeys) {
 
                 String sender = "<Enter the sender email address>";
                 String recipient = "<Enter the recipient email address>";
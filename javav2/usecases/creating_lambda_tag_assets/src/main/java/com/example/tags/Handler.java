@@ -12,13 +12,16 @@ import java.util.Map;
 
 public class Handler implements RequestHandler<Map<String, String>, String> {
 
+    // Lambda creates the handler once per execution environment, so the services and their
+    // clients are built once and reused by every invocation.
+    private final S3Service s3Service = new S3Service();
+    private final AnalyzePhotos photos = new AnalyzePhotos();
+
     @Override
     public String handleRequest(Map<String, String> event, Context context) {
         LambdaLogger logger = context.getLogger();
         String delFag = event.get("flag");
         logger.log("FLAG IS: " + delFag);
-        S3Service s3Service = new S3Service();
-        AnalyzePhotos photos = new AnalyzePhotos();
 
         String bucketName = "<Enter your bucket name>";
         List<String> myKeys = s3Service.listBucketObjects(bucketName);
@@ -23,12 +23,12 @@ import software.amazon.awssdk.services.s3.model.DeleteObjectTaggingRequest;
 
 public class S3Service {
 
-    private S3Client getClient() {
+    private final S3Client s3Client = S3Client.builder()
+            .region(Region.US_WEST_2)
+            .build();
 
-        Region region = Region.US_WEST_2;
-        return S3Client.builder()
-                .region(region)
-                .build();
+    private S3Client getClient() {
+        return s3Client;
     }
 
     public byte[] getObjectBytes(String bucketName, String keyName) {
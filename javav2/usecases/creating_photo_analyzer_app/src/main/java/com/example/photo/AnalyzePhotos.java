@@ -14,17 +14,28 @@ import software.amazon.awssdk.services.rekognition.model.Label;
 import software.amazon.awssdk.services.rekognition.model.RekognitionException;
 import java.util.ArrayList;
 import java.util.List;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 public class AnalyzePhotos {
+    // The client is thread-safe, so it is created once and shared by the report pipeline threads.
+    private final RekognitionClient rekClient;
+
+    @Autowired
+    public AnalyzePhotos() {
+        this(RekognitionClient.builder()
+                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(Region.US_EAST_2)
+                .build());
+    }
+
+    AnalyzePhotos(RekognitionClient rekClient) {
+        this.rekClient = rekClient;
+    }
+
     public ArrayList<WorkItem> DetectLabels(byte[] bytes, String key) {
         try {
-            RekognitionClient rekClient = RekognitionClient.builder()
-                    .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
-                    .region(Region.US_EAST_2)
-                    .build();
-
             SdkBytes sourceBytes = SdkBytes.fromByteArray(bytes);
             Image souImage = Image.builder()
                     .bytes(sourceBytes)
@@ -51,8 +62,7 @@ public class AnalyzePhotos {
 
         } catch (RekognitionException e) {
             System.out.println(e.getMessage());
-            System.exit(1);
+            throw e;
         }
-        return null;
     }
 }
@@ -4,6 +4,7 @@
 package com.example.photo;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -14,12 +15,11 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.view.RedirectView;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.List;
 
 @Controller
 public class PhotoController {
@@ -27,22 +27,15 @@ public class PhotoController {
     private final String bucketName = "<Enter your S3 bucket name>";
 
     private final S3Service s3Service;
-    private final AnalyzePhotos photos;
 
-    private final WriteExcel excel;
-
-    private final SendMessages sendMessage;
+    private final PhotoReportPipeline reportPipeline;
 
     @Autowired
     PhotoController(
             S3Service s3Service,
-            AnalyzePhotos photos,
-            WriteExcel excel,
-            SendMessages sendMessage) {
+            PhotoReportPipeline reportPipeline) {
         this.s3Service = s3Service;
-        this.photos = photos;
-        this.excel = excel;
-        this.sendMessage = sendMessage;
+        this.reportPipeline = reportPipeline;
     }
 
     @GetMapping("/")
@@ -66,30 +59,25 @@ public class PhotoController {
         return s3Service.ListAllObjects(bucketName);
     }
 
-    // Generates a report that analyzes photos in a given bucket.
+    // Starts a report that analyzes photos in a given bucket.
+    // The report is built in the background and emailed when it is complete.
     @RequestMapping(value = "/report", method = RequestMethod.POST)
     @ResponseBody
     String report(HttpServletRequest request, HttpServletResponse response) {
-        // Get a list of key names in the given bucket.
         String email = request.getParameter("email");
-        ArrayList<String> myKeys = s3Service.ListBucketObjects(bucketName);
-        ArrayList<List<WorkItem>> myList = new ArrayList<>();
-        for (String myKey : myKeys) {
-            byte[] keyData = s3Service.getObjectBytes(bucketName, myKey);
-            ArrayList<WorkItem> item = photos.DetectLabels(keyData, myKey);
-            myList.add(item);
-        }
-
-        // Now we have a list of WorkItems describing the photos in the S3 bucket.
-        InputStream excelData = excel.exportExcel(myList);
-        try {
-            // Email the report.
-            sendMessage.sendReport(excelData, email);
+        ReportJob job = reportPipeline.submit(bucketName, email);
+        return "The photos are being analyzed and the report will be sent. Report job ID: " + job.getId();
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Returns the progress of a report job.
+    @RequestMapping(value = "/report/status", method = RequestMethod.GET)
+    @ResponseBody
+    ReportJob reportStatus(@RequestParam("id") String id) {
+        ReportJob job = reportPipeline.getJob(id);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No report job " + id);
         }
-        return "The photos have been analyzed and the report is sent";
+        return job;
     }
 
     // Upload a video to analyze.
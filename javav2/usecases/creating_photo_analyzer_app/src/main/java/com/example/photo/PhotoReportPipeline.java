@@ -0,0 +1,216 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.photo;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import javax.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Builds the photo analysis report in the background.
+// Each report runs three stages that are connected by bounded queues:
+//   1. Download threads read the photos from the Amazon S3 bucket.
+//   2. Label threads call Amazon Rekognition, limited by a token bucket that is shared by all reports.
+//   3. One writer thread adds a sheet to the Excel report for each analyzed photo.
+// The bounded queues keep only a few photos in memory when one stage is slower than the others.
+// A report that is too large to attach to an email is uploaded to the bucket under the report prefix,
+// and a link to it is emailed instead.
+// A finished job can be looked up for photo.report.job-ttl-minutes (60 by default), and is then removed.
+@Component
+public class PhotoReportPipeline {
+    private static final List<WorkItem> END_OF_LABELS = new ArrayList<>(0);
+    private static final Photo END_OF_PHOTOS = new Photo(null, null);
+
+    private final S3Service s3Service;
+    private final AnalyzePhotos photos;
+    private final WriteExcel excel;
+    private final SendMessages sendMessage;
+    private final TokenBucket rekognitionLimiter;
+    private final int downloadThreads;
+    private final int labelThreads;
+    private final int queueCapacity;
+    private final String reportPrefix;
+    private final Duration jobTtl;
+    private final ExecutorService jobExecutor = Executors.newCachedThreadPool();
+    private final Map<String, ReportJob> jobs = new ConcurrentHashMap<>();
+
+    @Autowired
+    PhotoReportPipeline(
+            S3Service s3Service,
+            AnalyzePhotos photos,
+            WriteExcel excel,
+            SendMessages sendMessage,
+            @Value("${photo.report.download-threads:4}") int downloadThreads,
+            @Value("${photo.report.label-threads:4}") int labelThreads,
+            @Value("${photo.report.queue-capacity:16}") int queueCapacity,
+            @Value("${photo.report.rekognition-tps:5}") double rekognitionTps,
+            @Value("${photo.report.s3-prefix:reports/}") String reportPrefix,
+            @Value("${photo.report.job-ttl-minutes:60}") long jobTtlMinutes) {
+        this.s3Service = s3Service;
+        this.photos = photos;
+        this.excel = excel;
+        this.sendMessage = sendMessage;
+        this.downloadThreads = downloadThreads;
+        this.labelThreads = labelThreads;
+        this.queueCapacity = queueCapacity;
+        this.reportPrefix = reportPrefix;
+        this.jobTtl = Duration.ofMinutes(jobTtlMinutes);
+        this.rekognitionLimiter = new TokenBucket(rekognitionTps, Math.max(1, (int) rekognitionTps));
+    }
+
+    // Starts a report for the photos in the bucket and returns the job that tracks it.
+    // The report is emailed when it is complete.
+    public ReportJob submit(String bucketName, String email) {
+        removeExpiredJobs();
+        ReportJob job = new ReportJob(UUID.randomUUID().toString());
+        jobs.put(job.getId(), job);
+        jobExecutor.execute(() -> {
+            try (WriteExcel.Report report = build(job, bucketName)) {
+                Path file = report.finish();
+                if (sendMessage.canAttach(file)) {
+                    sendMessage.sendReport(file, email);
+                } else {
+                    String key = reportPrefix + job.getId() + ".xlsx";
+                    String url = s3Service.uploadReport(file, bucketName, key, Duration.ofHours(24));
+                    sendMessage.sendReportLink(url, email);
+                }
+                job.complete();
+            } catch (Exception e) {
+                e.printStackTrace();
+                job.fail(e);
+            }
+        });
+        return job;
+    }
+
+    public ReportJob getJob(String id) {
+        removeExpiredJobs();
+        return jobs.get(id);
+    }
+
+    // Removes the jobs that finished longer ago than the TTL, so that the map only holds
+    // running jobs and the jobs that finished recently.
+    private void removeExpiredJobs() {
+        long now = System.nanoTime();
+        jobs.values().removeIf(job -> job.finishedBefore(now, jobTtl));
+    }
+
+    // Returns the finished report. The caller closes it.
+    private WriteExcel.Report build(ReportJob job, String bucketName) throws Exception {
+        List<String> keys = s3Service.ListBucketObjects(bucketName);
+        // Reports from earlier jobs are not photos.
+        keys.removeIf(key -> key.startsWith(reportPrefix));
+        job.setTotal(keys.size());
+
+        ConcurrentLinkedQueue<String> pendingKeys = new ConcurrentLinkedQueue<>(keys);
+        BlockingQueue<Photo> downloaded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<WorkItem>> labeled = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        ExecutorService stages = Executors.newFixedThreadPool(downloadThreads + labelThreads);
+
+        try {
+            // Stage 1: download photos until no keys are left, then tell the label threads to stop.
+            CountDownLatch downloadsDone = new CountDownLatch(downloadThreads);
+            for (int i = 0; i < downloadThreads; i++) {
+                stages.execute(() -> runStage(failure, stages, () -> {
+                    try {
+                        String key;
+                        while ((key = pendingKeys.poll()) != null) {
+                            downloaded.put(new Photo(key, s3Service.getObjectBytes(bucketName, key)));
+                        }
+                    } finally {
+                        downloadsDone.countDown();
+                    }
+                    if (downloadsDone.getCount() == 0) {
+                        for (int j = 0; j < labelThreads; j++) {
+                            downloaded.put(END_OF_PHOTOS);
+                        }
+                    }
+                }));
+            }
+
+            // Stage 2: label photos at the rate that Amazon Rekognition allows.
+            CountDownLatch labelsDone = new CountDownLatch(labelThreads);
+            for (int i = 0; i < labelThreads; i++) {
+                stages.execute(() -> runStage(failure, stages, () -> {
+                    try {
+                        Photo photo;
+                        while ((photo = downloaded.take()) != END_OF_PHOTOS) {
+                            rekognitionLimiter.acquire();
+                            labeled.put(photos.DetectLabels(photo.bytes(), photo.key()));
+                        }
+                    } finally {
+                        labelsDone.countDown();
+                    }
+                    if (labelsDone.getCount() == 0) {
+                        labeled.put(END_OF_LABELS);
+                    }
+                }));
+            }
+
+            // Stage 3: write one sheet per photo on this thread, because the workbook is not thread-safe.
+            WriteExcel.Report report = excel.startReport();
+            try {
+                List<WorkItem> items;
+                while ((items = labeled.poll(1, TimeUnit.SECONDS)) != END_OF_LABELS) {
+                    if (failure.get() != null) {
+                        throw failure.get();
+                    }
+                    if (items != null) {
+                        report.addPhoto(items);
+                        job.photoProcessed();
+                    }
+                }
+                report.finish();
+                return report;
+            } catch (Exception e) {
+                report.close();
+                throw e;
+            }
+
+        } finally {
+            stages.shutdownNow();
+        }
+    }
+
+    // Runs a stage and stops the other stages of the report if it fails.
+    private void runStage(AtomicReference<Exception> failure, ExecutorService stages, Stage stage) {
+        try {
+            stage.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (failure.compareAndSet(null, e)) {
+                stages.shutdownNow();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        jobExecutor.shutdownNow();
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    private record Photo(String key, byte[] bytes) {
+    }
+}
@@ -0,0 +1,69 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.photo;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Tracks the progress of a report that is built in the background.
+public class ReportJob {
+    public enum Status { RUNNING, COMPLETE, FAILED }
+
+    private final String id;
+    private final AtomicInteger processed = new AtomicInteger();
+    private volatile int total = -1;
+    private volatile Status status = Status.RUNNING;
+    private volatile String error;
+    // The System.nanoTime() at which the report completed or failed.
+    private volatile long finishedNanos;
+
+    public ReportJob(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public int getProcessed() {
+        return processed.get();
+    }
+
+    // Returns the number of photos in the report, or -1 before the bucket has been listed.
+    public int getTotal() {
+        return total;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    void setTotal(int total) {
+        this.total = total;
+    }
+
+    void photoProcessed() {
+        processed.incrementAndGet();
+    }
+
+    void complete() {
+        finishedNanos = System.nanoTime();
+        status = Status.COMPLETE;
+    }
+
+    void fail(Throwable cause) {
+        error = cause.getMessage();
+        finishedNanos = System.nanoTime();
+        status = Status.FAILED;
+    }
+
+    // True if the report finished more than ttl before now. A running report never expires.
+    boolean finishedBefore(long nowNanos, Duration ttl) {
+        return status != Status.RUNNING && nowNanos - finishedNanos > ttl.toNanos();
+    }
+}
@@ -2,6 +2,7 @@
 // SPDX-License-Identifier: Apache-2.0
 package com.example.photo;
 
+import org.apache.commons.io.input.BoundedInputStream;
 import org.springframework.stereotype.Component;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -11,6 +12,8 @@ import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -21,27 +24,38 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 
 @Component
 public class S3Service {
+    private static final long PART_SIZE = 8L * 1024 * 1024;
+    private static final String REPORT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
 
-    S3Client s3;
+    private S3Client s3;
 
-    // Create the S3Client object.
-    private S3Client getClient() {
-        return S3Client.builder()
-                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
-                .region(Region.US_WEST_2)
-                .build();
+    // Create the S3Client object once; it is thread-safe and shared by the report pipeline threads.
+    private synchronized S3Client getClient() {
+        if (s3 == null) {
+            s3 = S3Client.builder()
+                    .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                    .region(Region.US_WEST_2)
+                    .build();
+        }
+        return s3;
     }
 
     // Get the byte[] from this Amazon S3 object.
     public byte[] getObjectBytes(String bucketName, String keyName) {
-        s3 = getClient();
+        S3Client s3 = getClient();
         try {
             GetObjectRequest objectRequest = GetObjectRequest
                     .builder()
@@ -54,14 +68,13 @@ public class S3Service {
 
         } catch (S3Exception e) {
             System.err.println(e.awsErrorDetails().errorMessage());
-            System.exit(1);
+            throw e;
         }
-        return null;
     }
 
     // Returns the names of all images and data within an XML document.
     public String ListAllObjects(String bucketName) {
-        s3 = getClient();
+        S3Client s3 = getClient();
         long sizeLg;
         Instant DateIn;
         BucketItem myItem;
@@ -100,7 +113,7 @@ public class S3Service {
 
     // Returns the names of all images in the given bucket.
     public ArrayList<String> ListBucketObjects(String bucketName) {
-        s3 = getClient();
+        S3Client s3 = getClient();
         String keyName;
         ArrayList<String> keys = new ArrayList<String>();
         try {
@@ -126,7 +139,7 @@ public class S3Service {
 
     // Places an image into a S3 bucket.
     public void putObject(byte[] data, String bucketName, String objectKey) {
-        s3 = getClient();
+        S3Client s3 = getClient();
         try {
             s3.putObject(PutObjectRequest.builder()
                     .bucket(bucketName)
@@ -140,6 +153,65 @@ public class S3Service {
         }
     }
 
+    // Uploads a report file and returns a presigned URL that can be used to download it for the given time.
+    // The report is sent in 8 MiB parts of a multipart upload. Each part is read from the file while it is
+    // sent and is retried from the file, and the upload is aborted if it cannot be completed.
+    public String uploadReport(Path report, String bucketName, String key, Duration linkDuration) throws IOException {
+        S3Client s3 = getClient();
+        String uploadId = s3.createMultipartUpload(r -> r.bucket(bucketName).key(key).contentType(REPORT_TYPE))
+                .uploadId();
+        try {
+            long size = Files.size(report);
+            List<CompletedPart> parts = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += PART_SIZE) {
+                int partNumber = parts.size() + 1;
+                long start = offset;
+                long length = Math.min(PART_SIZE, size - offset);
+                RequestBody body = RequestBody.fromContentProvider(() -> openPart(report, start, length),
+                        length, REPORT_TYPE);
+                String eTag = s3.uploadPart(r -> r.bucket(bucketName).key(key)
+                        .uploadId(uploadId).partNumber(partNumber).contentLength(length), body).eTag();
+                parts.add(CompletedPart.builder().partNumber(partNumber).eTag(eTag).build());
+            }
+            s3.completeMultipartUpload(r -> r.bucket(bucketName).key(key)
+                    .uploadId(uploadId).multipartUpload(u -> u.parts(parts)));
+        } catch (RuntimeException e) {
+            try {
+                s3.abortMultipartUpload(r -> r.bucket(bucketName).key(key).uploadId(uploadId));
+            } catch (S3Exception abortError) {
+                e.addSuppressed(abortError);
+            }
+            throw e;
+        }
+
+        try (S3Presigner presigner = S3Presigner.builder()
+                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                .region(Region.US_WEST_2)
+                .build()) {
+            GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
+                    .signatureDuration(linkDuration)
+                    .getObjectRequest(r -> r.bucket(bucketName).key(key))
+                    .build();
+            return presigner.presignGetObject(presignRequest).url().toString();
+        }
+    }
+
+    // Opens a stream over one part of the report. The SDK opens a new stream for each attempt.
+    private static InputStream openPart(Path report, long offset, long length) {
+        try {
+            InputStream in = Files.newInputStream(report);
+            try {
+                in.skipNBytes(offset);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            return new BoundedInputStream(in, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     // Convert items into XML to pass back to the view.
     private Document toXml(List<BucketItem> itemList) {
         try {
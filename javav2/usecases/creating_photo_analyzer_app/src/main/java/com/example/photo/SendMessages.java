@@ -3,12 +3,11 @@
 
 package com.example.photo;
 
-import org.apache.commons.io.IOUtils;
 import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.ses.SesClient;
 import javax.activation.DataHandler;
-import javax.activation.DataSource;
+import javax.activation.FileDataSource;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.Session;
@@ -16,11 +15,11 @@ import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import javax.mail.internet.MimeBodyPart;
-import javax.mail.util.ByteArrayDataSource;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Properties;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.ses.model.SendRawEmailRequest;
@@ -29,18 +28,78 @@ import software.amazon.awssdk.services.ses.model.SesException;
 import org.springframework.stereotype.Component;
 
 @Component
-public class SendMessages {
+public class SendMessages implements AutoCloseable {
+    // Amazon SES does not accept raw messages larger than 10 MB, including the Base64 encoded attachment.
+    static final long MAX_MESSAGE_SIZE = 10L * 1024 * 1024;
+    // Room for the headers and the text and HTML parts of the message.
+    private static final int MESSAGE_OVERHEAD = 16 * 1024;
+    private static final String CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+    private static final String REPORT_NAME = "PhotoReport.xlsx";
+
+    private SesClient client;
+
+    // Create the SesClient object once and reuse it for every report.
+    private synchronized SesClient getClient() {
+        if (client == null) {
+            client = SesClient.builder()
+                    .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
+                    .region(Region.US_WEST_2)
+                    .build();
+        }
+        return client;
+    }
+
+    // Returns whether the report is small enough to be sent as an attachment.
+    public boolean canAttach(Path report) throws IOException {
+        return encodedSize(Files.size(report)) < MAX_MESSAGE_SIZE;
+    }
+
+    public void sendReport(Path report, String emailAddress) throws IOException {
+        if (!canAttach(report)) {
+            throw new IOException("The report is " + Files.size(report)
+                    + " bytes, which is too large to send as an attachment through Amazon SES");
+        }
+        try {
+            // The attachment is read from the report file while the message is written.
+            // Setting the encoding up front stops JavaMail from reading the report once more to choose one.
+            MimeBodyPart att = new MimeBodyPart();
+            att.setDataHandler(new DataHandler(new FileDataSource(report.toFile()) {
+                @Override
+                public String getContentType() {
+                    return CONTENT_TYPE;
+                }
+            }));
+            att.setFileName(REPORT_NAME);
+            att.setHeader("Content-Transfer-Encoding", "base64");
+
+            send(emailAddress, "Please see the attached file for the analyzed photos report.",
+                    "<p>Please see the attached file for the report that analyzed photos in the S3 bucket.</p>", att,
+                    (int) encodedSize(Files.size(report)));
+        } catch (MessagingException e) {
+            throw new IOException("Could not create the email", e);
+        }
+    }
 
-    public void sendReport(InputStream is, String emailAddress) throws IOException {
-        byte[] fileContent = IOUtils.toByteArray(is);
+    // Sends a link to a report that is too large to attach.
+    public void sendReportLink(String url, String emailAddress) throws IOException {
+        String href = url.replace("&", "&amp;");
         try {
-            send(fileContent, emailAddress);
+            send(emailAddress, "The analyzed photos report can be downloaded from " + url,
+                    "<p>The report that analyzed photos in the S3 bucket can be downloaded from "
+                            + "<a href=\"" + href + "\">this link</a>.</p>", null, 0);
         } catch (MessagingException e) {
-            e.getStackTrace();
+            throw new IOException("Could not create the email", e);
         }
     }
 
-    public void send(byte[] attachment, String emailAddress) throws MessagingException, IOException {
+    // Base64 turns every 3 bytes of the attachment into 4 characters, in lines of 76 characters.
+    private static long encodedSize(long size) {
+        long encoded = (size + 2) / 3 * 4;
+        return encoded + encoded / 76 * 2;
+    }
+
+    private void send(String emailAddress, String text, String html, MimeBodyPart attachment, int attachmentSize)
+            throws MessagingException, IOException {
         MimeMessage message = null;
         Session session = Session.getDefaultInstance(new Properties());
         message = new MimeMessage(session);
@@ -59,14 +118,14 @@ public class SendMessages {
         // Define the text part.
         MimeBodyPart textPart = new MimeBodyPart();
         // The email body for recipients with non-HTML email clients.
-        String bodyText = "Hello,\r\n" + "Please see the attached file for the analyzed photos report.";
+        String bodyText = "Hello,\r\n" + text;
         textPart.setContent(bodyText, "text/plain; charset=UTF-8");
 
         // Define the HTML part.
         MimeBodyPart htmlPart = new MimeBodyPart();
         // The HTML body of the email.
         String bodyHTML = "<html>" + "<head></head>" + "<body>" + "<h1>Hello!</h1>"
-                + "<p>Please see the attached file for the report that analyzed photos in the S3 bucket.</p>"
+                + html
                 + "</body>" + "</html>";
         htmlPart.setContent(bodyHTML, "text/html; charset=UTF-8");
 
@@ -86,47 +145,49 @@ public class SendMessages {
         // Add the multipart/alternative part to the message.
         msg.addBodyPart(wrap);
 
-        // Define the attachment
-        MimeBodyPart att = new MimeBodyPart();
-        DataSource fds = new ByteArrayDataSource(attachment,
-                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-        att.setDataHandler(new DataHandler(fds));
-        String reportName = "PhotoReport.xls";
-        att.setFileName(reportName);
-
         // Add the attachment to the message.
-        msg.addBodyPart(att);
+        if (attachment != null) {
+            msg.addBodyPart(attachment);
+        }
 
         // Try to send the email.
         try {
             System.out.println("Attempting to send an email through Amazon SES " + "using the AWS SDK for Java...");
-            SesClient client = SesClient.builder()
-                    .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
-                    .region(Region.US_WEST_2)
-                    .build();
-
-            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-            message.writeTo(outputStream);
-
-            ByteBuffer buf = ByteBuffer.wrap(outputStream.toByteArray());
-            byte[] arr = new byte[buf.remaining()];
-            buf.get(arr);
-
-            SdkBytes data = SdkBytes.fromByteArray(arr);
+            // SendRawEmail carries the whole message in the request, so the message is written once
+            // into a buffer sized for it. The bytes are copied once more only if the buffer is not full.
+            MessageBuffer buffer = new MessageBuffer(attachmentSize + MESSAGE_OVERHEAD);
+            message.writeTo(buffer);
             RawMessage rawMessage = RawMessage.builder()
-                    .data(data)
+                    .data(buffer.toSdkBytes())
                     .build();
 
             SendRawEmailRequest rawEmailRequest = SendRawEmailRequest.builder()
                     .rawMessage(rawMessage)
                     .build();
 
-            client.sendRawEmail(rawEmailRequest);
+            getClient().sendRawEmail(rawEmailRequest);
 
         } catch (SesException e) {
             System.err.println(e.awsErrorDetails().errorMessage());
-            System.exit(1);
+            throw new IOException("Could not send the report to " + emailAddress, e);
+        }
+        System.out.println("Email sent");
+    }
+
+    @Override
+    public synchronized void close() {
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    private static class MessageBuffer extends ByteArrayOutputStream {
+        MessageBuffer(int size) {
+            super(size);
+        }
+
+        SdkBytes toSdkBytes() {
+            return SdkBytes.fromByteArrayUnsafe(count == buf.length ? buf : Arrays.copyOf(buf, count));
         }
-        System.out.println("Email sent with attachment");
     }
 }
\ No newline at end of file
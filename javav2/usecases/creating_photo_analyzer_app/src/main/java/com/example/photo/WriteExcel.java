@@ -3,139 +3,121 @@
 
 package com.example.photo;
 
-import jxl.CellView;
-import jxl.Workbook;
-import jxl.WorkbookSettings;
-import jxl.format.UnderlineStyle;
-import jxl.write.Label;
-import jxl.write.WritableCellFormat;
-import jxl.write.WritableFont;
-import jxl.write.WritableSheet;
-import jxl.write.WritableWorkbook;
-import jxl.write.WriteException;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.springframework.stereotype.Component;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Locale;
 
+// Writes the photo analysis report as an .xlsx workbook with one sheet for each photo, using the
+// Apache POI streaming API (SXSSF). Only the last rows are kept in memory; the rows before them
+// are written to a temporary file.
 @Component
 public class WriteExcel {
+    private static final String[] HEADERS = { "Photo", "Label", "Confidence" };
+    private static final int[] COLUMN_WIDTHS = { 40, 30, 12 };
+    // The number of rows of each sheet that SXSSF keeps in memory.
+    private static final int ROW_WINDOW = 100;
 
-    private WritableCellFormat timesBoldUnderline;
-    private WritableCellFormat times;
-
-    // Returns an InputStream that represents the Excel Report.
-    public InputStream exportExcel(List<List<WorkItem>> list) {
+    // Returns the finished report, or null if it could not be written. The caller closes the report.
+    public Report exportExcel(List<List<WorkItem>> list) {
         try {
             return write(list);
-        } catch (WriteException | IOException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
-    // Generates the report and returns an inputstream.
-    public InputStream write(List<List<WorkItem>> list) throws IOException, WriteException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        WorkbookSettings wbSettings = new WorkbookSettings();
-        wbSettings.setLocale(new Locale("en", "EN"));
-        WritableWorkbook workbook = Workbook.createWorkbook(os, wbSettings);
-
-        int size = list.size();
-        for (int i = 0; i < size; i++) {
-            // Get the WorkItem from each list.
-            List<WorkItem> innerList = list.get(i);
-            workbook.createSheet("Sheet " + (i + 1), i);
-            WritableSheet excelSheet = workbook.getSheet(i);
-            createLabel(excelSheet);
-            createContent(excelSheet, innerList);
+    // Generates the report. The caller closes the report after it has been sent.
+    public Report write(List<List<WorkItem>> list) throws IOException {
+        Report report = startReport();
+        try {
+            for (List<WorkItem> innerList : list) {
+                report.addPhoto(innerList);
+            }
+            report.finish();
+            return report;
+        } catch (IOException | RuntimeException e) {
+            report.close();
+            throw e;
         }
-
-        // Close the workbook.
-        workbook.write();
-        workbook.close();
-
-        // Get an InputStream that represents the Report.
-        byte[] myBytes = os.toByteArray();
-        return new ByteArrayInputStream(myBytes);
     }
 
-    // Create Headings in the Excel spreadsheet.
-    private void createLabel(WritableSheet sheet) throws WriteException {
-        // Create a times font.
-        WritableFont times10pt = new WritableFont(WritableFont.TIMES, 10);
-        // Define the cell format.
-        times = new WritableCellFormat(times10pt);
-        // Let's automatically wrap the cells.
-        times.setWrap(true);
-
-        // Create a bold font with underlines.
-        WritableFont times10ptBoldUnderline = new WritableFont(WritableFont.TIMES, 10, WritableFont.BOLD, false,
-                UnderlineStyle.SINGLE);
-        timesBoldUnderline = new WritableCellFormat(times10ptBoldUnderline);
-
-        // Let's automatically wrap the cells.
-        timesBoldUnderline.setWrap(true);
-
-        CellView cv = new CellView();
-        cv.setFormat(times);
-        cv.setFormat(timesBoldUnderline);
-        cv.setAutosize(true);
-
-        // Write a few headers.
-        addCaption(sheet, 0, 0, "Photo");
-        addCaption(sheet, 1, 0, "Label");
-        addCaption(sheet, 2, 0, "Confidence");
+    // Starts a report that photos are added to one at a time, as they are analyzed.
+    // A Report is not thread-safe; add photos from a single thread.
+    public Report startReport() {
+        return new Report();
     }
 
-    // Write the WorkItem Data to the Excel Report.
-    private void createContent(WritableSheet sheet, List<WorkItem> list) throws WriteException {
-        int size = list.size();
-        for (int i = 0; i < size; i++) {
-            WorkItem wi = list.get(i);
-            String key = wi.getKey();
-            String label = wi.getName();
-            String confidence = wi.getConfidence();
-
-            // First column.
-            addLabel(sheet, 0, i + 1, key);
+    public static class Report implements Closeable {
+        private final SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+        private final CellStyle headerStyle;
+        private Path file;
+
+        private Report() {
+            workbook.setCompressTempFiles(true);
+            Font font = workbook.createFont();
+            font.setBold(true);
+            font.setUnderline(Font.U_SINGLE);
+            headerStyle = workbook.createCellStyle();
+            headerStyle.setFont(font);
+        }
 
-            // Second column.
-            addLabel(sheet, 1, i + 1, label);
+        // Adds a sheet with the labels of one photo.
+        public void addPhoto(List<WorkItem> items) {
+            Sheet sheet = workbook.createSheet("Sheet " + (workbook.getNumberOfSheets() + 1));
+            for (int i = 0; i < COLUMN_WIDTHS.length; i++) {
+                sheet.setColumnWidth(i, COLUMN_WIDTHS[i] * 256);
+            }
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < HEADERS.length; i++) {
+                header.createCell(i).setCellValue(HEADERS[i]);
+                header.getCell(i).setCellStyle(headerStyle);
+            }
 
-            // Third column.
-            addLabel(sheet, 2, i + 1, confidence);
+            int rowIndex = 1;
+            for (WorkItem item : items) {
+                Row row = sheet.createRow(rowIndex++);
+                row.createCell(0).setCellValue(item.getKey());
+                row.createCell(1).setCellValue(item.getName());
+                row.createCell(2).setCellValue(item.getConfidence());
+            }
         }
-    }
-
-    private void addCaption(WritableSheet sheet, int column, int row, String s) throws WriteException {
-        Label label = new Label(column, row, s, timesBoldUnderline);
-        int cc = countString(s);
-        sheet.setColumnView(column, cc);
-        sheet.addCell(label);
-    }
 
-    private void addLabel(WritableSheet sheet, int column, int row, String s) throws WriteException {
-        Label label = new Label(column, row, s, times);
-        int cc = countString(s);
-        if (cc > 200) {
-            sheet.setColumnView(column, 150);
-        } else {
-            sheet.setColumnView(column, cc + 6);
+        // Writes the workbook to a temporary file and returns it. The file is deleted when the report is closed.
+        public Path finish() throws IOException {
+            if (file == null) {
+                Path out = Files.createTempFile("PhotoReport", ".xlsx");
+                try (OutputStream stream = Files.newOutputStream(out)) {
+                    workbook.write(stream);
+                } catch (IOException | RuntimeException e) {
+                    Files.deleteIfExists(out);
+                    throw e;
+                }
+                file = out;
+                workbook.dispose();
+            }
+            return file;
         }
-        sheet.addCell(label);
-    }
 
-    private int countString(String ss) {
-        int count = 0;
-        for (int i = 0; i < ss.length(); i++) {
-            if (ss.charAt(i) != ' ') {
-                count++;
+        @Override
+        public void close() throws IOException {
+            try {
+                workbook.dispose();
+                workbook.close();
+            } finally {
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
             }
         }
-        return count;
     }
-}
\ No newline at end of file
+}
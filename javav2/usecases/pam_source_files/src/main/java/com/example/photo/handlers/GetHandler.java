@@ -4,7 +4,6 @@
 package com.example.photo.handlers;
 
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.example.photo.WorkCount;
@@ -15,12 +14,22 @@ import java.util.TreeMap;
 
 import static com.example.photo.PhotoApplicationResources.makeResponse;
 
-public class GetHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+public class GetHandler extends WarmHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private final DynamoDBService dbService;
+
+    public GetHandler() {
+        this(new DynamoDBService());
+    }
+
+    GetHandler(DynamoDBService dbService) {
+        this.dbService = dbService;
+        warmUp(dbService::prime);
+    }
+
     @Override
-    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+    protected APIGatewayProxyResponseEvent handle(APIGatewayProxyRequestEvent input, Context context) {
         context.getLogger().log("In Labels handler");
 
-        DynamoDBService dbService = new DynamoDBService();
         Map<String, WorkCount> map = dbService.scanPhotoTable();
 
         context.getLogger().log("Retrieved photos: " + map.size());
@@ -4,7 +4,6 @@
 package com.example.photo.handlers;
 
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.example.photo.endpoints.DownloadEndpoint;
 import com.example.photo.services.DynamoDBService;
 import com.example.photo.services.S3Service;
@@ -17,9 +16,20 @@ import java.util.stream.Collectors;
 
 import static com.example.photo.PhotoApplicationResources.toJson;
 
-public class RestoreHandler implements RequestHandler<Map<String, Object>, String> {
+public class RestoreHandler extends WarmHandler<Map<String, Object>, String> {
+    private final DownloadEndpoint downloadEndpoint;
+
+    public RestoreHandler() {
+        this(new DynamoDBService(), new S3Service(), new SnsService());
+    }
+
+    RestoreHandler(DynamoDBService dbService, S3Service s3Service, SnsService snsService) {
+        this.downloadEndpoint = new DownloadEndpoint(dbService, s3Service, snsService);
+        warmUp(dbService::prime, s3Service::prime, snsService::prime);
+    }
+
     @Override
-    public String handleRequest(Map<String, Object> input, Context context) {
+    protected String handle(Map<String, Object> input, Context context) {
         try {
             context.getLogger().log("RestoreHandler handleRequest" + toJson(input));
             JSONObject body = new JSONObject(input);
@@ -31,8 +41,6 @@ public class RestoreHandler implements RequestHandler<Map<String, Object>, Strin
                     .collect(Collectors.toList());
             context.getLogger().log("Restoring labels " + toJson(labels));
 
-            DownloadEndpoint downloadEndpoint = new DownloadEndpoint(new DynamoDBService(), new S3Service(),
-                    new SnsService());
             String url = downloadEndpoint.download(labels);
             context.getLogger().log("Labels archived to URL " + url);
 
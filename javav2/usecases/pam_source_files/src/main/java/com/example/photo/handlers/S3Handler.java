@@ -5,7 +5,6 @@ package com.example.photo.handlers;
 
 import com.amazonaws.services.lambda.runtime.events.S3Event;
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.example.photo.LabelCount;
 import com.example.photo.PhotoApplicationResources;
 import com.example.photo.services.AnalyzePhotos;
@@ -13,9 +12,22 @@ import com.example.photo.services.DynamoDBService;
 import java.util.List;
 
 // Tags the object after it's uploaded into the storage bucket.
-public class S3Handler implements RequestHandler<S3Event, String> {
+public class S3Handler extends WarmHandler<S3Event, String> {
+    private final AnalyzePhotos photos;
+    private final DynamoDBService dbService;
+
+    public S3Handler() {
+        this(new AnalyzePhotos(), new DynamoDBService());
+    }
+
+    S3Handler(AnalyzePhotos photos, DynamoDBService dbService) {
+        this.photos = photos;
+        this.dbService = dbService;
+        warmUp(photos::prime, dbService::prime);
+    }
+
     @Override
-    public String handleRequest(S3Event event, Context context) {
+    protected String handle(S3Event event, Context context) {
         // Get the Amazon Simple Storage Service (Amazon S3) bucket and object key from
         // the Amazon S3 event.
         String bucketName = event.getRecords().get(0).getS3().getBucket().getName();
@@ -23,8 +35,6 @@ public class S3Handler implements RequestHandler<S3Event, String> {
 
         // Log the S3 bucket and object key in the log file.
         context.getLogger().log("S3 object name: s3://" + bucketName + "/" + objectKey);
-        AnalyzePhotos photos = new AnalyzePhotos();
-        DynamoDBService dbService = new DynamoDBService();
 
         // Tag the file.
         List<LabelCount> labels = photos.detectLabels(PhotoApplicationResources.STORAGE_BUCKET, objectKey);
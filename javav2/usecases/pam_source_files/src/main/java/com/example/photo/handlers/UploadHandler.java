@@ -3,7 +3,6 @@
 package com.example.photo.handlers;
 
 import com.amazonaws.services.lambda.runtime.Context;
-import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.example.photo.services.S3Service;
@@ -12,10 +11,21 @@ import org.json.JSONObject;
 import static com.example.photo.PhotoApplicationResources.makeResponse;
 import static com.example.photo.PhotoApplicationResources.CORS_HEADER_MAP;
 
-public class UploadHandler implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+public class UploadHandler extends WarmHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
+    private final S3Service s3Service;
+
+    public UploadHandler() {
+        this(new S3Service());
+    }
+
+    UploadHandler(S3Service s3Service) {
+        this.s3Service = s3Service;
+        // Presigning makes no call, but it resolves the credentials and loads the signer.
+        warmUp(() -> s3Service.signObjectToUpload("prime"));
+    }
 
     @Override
-    public APIGatewayProxyResponseEvent handleRequest(APIGatewayProxyRequestEvent input, Context context) {
+    protected APIGatewayProxyResponseEvent handle(APIGatewayProxyRequestEvent input, Context context) {
         JSONObject body = new JSONObject(input.getBody());
         context.getLogger().log("Got body: " + body);
         String fileName = body.getString("file_name");
@@ -31,7 +41,6 @@ public class UploadHandler implements RequestHandler<APIGatewayProxyRequestEvent
         UUID uuid = UUID.randomUUID();
         String uniqueFileName = uuid + "-" + fileName;
 
-        S3Service s3Service = new S3Service();
         String signedURL = s3Service.signObjectToUpload(uniqueFileName);
         UploadResponse data = UploadResponse.from(signedURL);
 
@@ -0,0 +1,99 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.photo.handlers;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import org.crac.Core;
+import org.crac.Resource;
+import software.amazon.awssdk.core.exception.SdkException;
+
+/**
+ * Base class for handlers that build their services once per execution environment instead
+ * of once per invocation.
+ *
+ * Lambda creates one handler object per execution environment and reuses it for every
+ * invocation, so a subclass builds its services in its constructor and then passes their
+ * prime methods to warmUp. Priming makes a cheap call through each client, which resolves the
+ * credentials, opens a connection, and loads the classes of the request path during the init
+ * phase. A priming call that fails is logged and does not stop the handler.
+ *
+ * With SnapStart, the init phase runs before the snapshot is taken. The primers run again
+ * after each restore, because the connections in the snapshot are closed by then.
+ *
+ * The first invocation in an execution environment logs the init (or restore) time, and
+ * every invocation logs its own time.
+ */
+public abstract class WarmHandler<I, O> implements RequestHandler<I, O>, Resource {
+    private final long createdNanos = System.nanoTime();
+    private Runnable[] primers = new Runnable[0];
+    private long initMillis;
+    private long restoreMillis = -1;
+    private boolean firstInvocation = true;
+
+    @Override
+    public final O handleRequest(I input, Context context) {
+        long start = System.nanoTime();
+        try {
+            return handle(input, context);
+        } finally {
+            LambdaLogger logger = context.getLogger();
+            if (firstInvocation) {
+                firstInvocation = false;
+                if (restoreMillis >= 0) {
+                    logger.log("Restore: " + restoreMillis + " ms");
+                } else {
+                    logger.log("Init: " + initMillis + " ms");
+                }
+            }
+            logger.log("Invoke: " + millisSince(start) + " ms");
+        }
+    }
+
+    protected abstract O handle(I input, Context context);
+
+    /**
+     * Runs the primers and records the init time, which starts when the handler object is
+     * created. Subclasses call this at the end of their constructor.
+     */
+    protected final void warmUp(Runnable... primers) {
+        this.primers = primers;
+        prime();
+        initMillis = millisSince(createdNanos);
+        Core.getGlobalContext().register(this);
+    }
+
+    // The time from the creation of the handler until it was primed.
+    public long getInitMillis() {
+        return initMillis;
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        // The primers already ran in the constructor, before the snapshot is taken.
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        long start = System.nanoTime();
+        prime();
+        restoreMillis = millisSince(start);
+        firstInvocation = true;
+    }
+
+    private void prime() {
+        for (Runnable primer : primers) {
+            try {
+                primer.run();
+            } catch (SdkException e) {
+                System.out.println("Priming call failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+}
@@ -10,16 +10,34 @@ import software.amazon.awssdk.services.rekognition.model.Image;
 import software.amazon.awssdk.services.rekognition.model.DetectLabelsRequest;
 import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
 import software.amazon.awssdk.services.rekognition.model.Label;
+import software.amazon.awssdk.services.rekognition.model.ListCollectionsRequest;
 import software.amazon.awssdk.services.rekognition.model.RekognitionException;
 import java.util.ArrayList;
 import java.util.List;
 import software.amazon.awssdk.services.rekognition.model.S3Object;
 
 public class AnalyzePhotos {
-    public ArrayList<LabelCount> detectLabels(String bucketName, String key) {
-        RekognitionClient rekClient = RekognitionClient.builder()
+    private final RekognitionClient rekClient;
+
+    public AnalyzePhotos() {
+        this(RekognitionClient.builder()
                 .region(PhotoApplicationResources.REGION)
-                .build();
+                .build());
+    }
+
+    public AnalyzePhotos(RekognitionClient rekClient) {
+        this.rekClient = rekClient;
+    }
+
+    // Makes a cheap call so that the credentials are resolved and a connection is open
+    // before the first request.
+    public void prime() {
+        rekClient.listCollections(ListCollectionsRequest.builder()
+                .maxResults(1)
+                .build());
+    }
+
+    public ArrayList<LabelCount> detectLabels(String bucketName, String key) {
         try {
             S3Object s3Object = S3Object.builder()
                     .bucket(bucketName)
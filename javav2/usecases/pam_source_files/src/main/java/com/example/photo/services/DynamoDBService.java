@@ -10,80 +10,197 @@ import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
 import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
-import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class DynamoDBService {
-    private DynamoDbClient getClient() {
-        return DynamoDbClient.builder()
+    // DynamoDB allows at most 100 operations in one transaction.
+    private static final int MAX_TRANSACTION_ITEMS = 100;
+    private static final int MAX_TRANSACTION_ATTEMPTS = 6;
+    private static final long BASE_BACKOFF_MILLIS = 25;
+
+    // Appends an image to the list of a label and counts it, creating the item if needed.
+    private static final String ADD_IMAGE = "SET #images = list_append(if_not_exists(#images, :empty), :image), "
+        + "#count = if_not_exists(#count, :zero) + :one";
+    // Makes the update a no-op for an image that the label already lists, so a retried
+    // update does not add the image twice.
+    private static final String IMAGE_NOT_LISTED = "attribute_not_exists(#images) OR NOT contains(#images, :key)";
+    private static final Map<String, String> ATTRIBUTE_NAMES = Map.of(
+        "#images", "images",
+        "#count", "count");
+
+    // Shared by every instance, so a service that is never closed does not keep threads
+    // alive. The pool grows with the updates in flight, and idle threads end after a minute.
+    private static final ExecutorService UPDATES = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "label-update");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DynamoDbClient client;
+    private final String tableName;
+    private final DynamoDbTable<Label> table;
+
+    public DynamoDBService() {
+        this(DynamoDbClient.builder()
             .region(PhotoApplicationResources.REGION)
-            .build();
+            .build());
     }
 
-    // Insert label data into an Amazon DynamoDB table.
-    public void putRecord(List<LabelCount> list) {
+    public DynamoDBService(DynamoDbClient client) {
+        this(client, PhotoApplicationResources.LABELS_TABLE);
+    }
+
+    // The client and the table schema are built once. Building the schema introspects the
+    // Label bean, which is slow enough to matter on every request.
+    public DynamoDBService(DynamoDbClient client, String tableName) {
+        this.client = client;
+        this.tableName = tableName;
         DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-            .dynamoDbClient(getClient())
+            .dynamoDbClient(client)
             .build();
+        this.table = enhancedClient.table(tableName, TableSchema.fromBean(Label.class));
+    }
 
-        DynamoDbTable<com.example.photo.Label> table = enhancedClient.table(PhotoApplicationResources.LABELS_TABLE,
-            TableSchema.fromBean(Label.class));
+    // Makes a cheap call to the labels table and maps an item, so that the credentials are
+    // resolved, a connection is open, and the request path is loaded before the first request.
+    public void prime() {
+        Label label = new Label();
+        label.setId("prime");
+        label.setImages(List.of());
+        table.tableSchema().mapToItem(table.tableSchema().itemToMap(label, true));
+        client.describeTable(DescribeTableRequest.builder()
+            .tableName(tableName)
+            .build());
+    }
 
+    // Insert label data into an Amazon DynamoDB table. Each label is added with a single
+    // conditional UpdateItem that appends the image on the server, so concurrent uploads
+    // cannot overwrite each other's images. The labels of a photo are updated in parallel.
+    public void putRecord(List<LabelCount> list) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
         for (LabelCount count : list) {
-            addSingleRecord(table, count.getName(), count.getKey());
+            futures.add(CompletableFuture.runAsync(() -> addImage(count.getName(), count.getKey()), UPDATES));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    // Adds the labels of a photo in one transaction, so that either every label lists the
+    // photo or none does. Transactions cost twice the write capacity of single updates and
+    // are cancelled when another transaction updates the same label at the same time, which
+    // is retried here.
+    public void putRecordAtomically(List<LabelCount> list) {
+        // A transaction cannot update the same item twice.
+        Map<String, LabelCount> labels = new LinkedHashMap<>();
+        for (LabelCount count : list) {
+            labels.putIfAbsent(count.getName(), count);
+        }
+        if (labels.size() > MAX_TRANSACTION_ITEMS) {
+            throw new IllegalArgumentException("A photo can have at most " + MAX_TRANSACTION_ITEMS + " labels");
+        }
+
+        List<TransactWriteItem> items = new ArrayList<>();
+        for (LabelCount count : labels.values()) {
+            items.add(TransactWriteItem.builder()
+                .update(Update.builder()
+                    .tableName(tableName)
+                    .key(labelKey(count.getName()))
+                    .updateExpression(ADD_IMAGE)
+                    .conditionExpression(IMAGE_NOT_LISTED)
+                    .expressionAttributeNames(ATTRIBUTE_NAMES)
+                    .expressionAttributeValues(imageValues(count.getKey()))
+                    .build())
+                .build());
+        }
+        TransactWriteItemsRequest request = TransactWriteItemsRequest.builder()
+            .transactItems(items)
+            .build();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                client.transactWriteItems(request);
+                return;
+            } catch (TransactionCanceledException e) {
+                Set<String> reasons = new HashSet<>();
+                for (CancellationReason reason : e.cancellationReasons()) {
+                    if (!"None".equals(reason.code())) {
+                        reasons.add(reason.code());
+                    }
+                }
+                if (reasons.equals(Set.of("ConditionalCheckFailed"))) {
+                    // Some labels already list the photo, from an earlier attempt. The single
+                    // updates skip those labels and add the rest.
+                    putRecord(new ArrayList<>(labels.values()));
+                    return;
+                }
+                reasons.removeAll(Set.of("TransactionConflict", "ThrottlingError", "ProvisionedThroughputExceeded"));
+                if (!reasons.isEmpty() || attempt == MAX_TRANSACTION_ATTEMPTS) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(BASE_BACKOFF_MILLIS << attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
         }
     }
 
-    private void addSingleRecord(DynamoDbTable<Label> table, String label, String key) {
-        // Check to see if the label exists in the Amazon DynamoDB table.
-        // The count item uses an @DynamoDbAtomicCounter which means it is
-        // updated automatically. No need to manually set this value when the record is
-        // created or updated.
-        if (!checkLabelExists(table, label)) {
-            Label photoRec = new Label();
-            photoRec.setId(label);
-            List<String> keyList = new ArrayList<>();
-            keyList.add(key);
-            photoRec.setImages(keyList);
-            table.putItem(photoRec);
-        } else {
-            // The label exists in the table.
-            Key myKey = Key.builder()
-                .partitionValue(label)
-                .build();
-
-            // Add the file name to the list.
-            Label myPhoto = table.getItem(myKey);
-            Label updatedPhoto = new Label();
-            List<String> imageList = myPhoto.getImages();
-            imageList.add(key);
-            updatedPhoto.setId(label);
-            updatedPhoto.setImages(imageList);
-            table.updateItem(updatedPhoto);
+    private void addImage(String label, String key) {
+        try {
+            client.updateItem(UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(labelKey(label))
+                .updateExpression(ADD_IMAGE)
+                .conditionExpression(IMAGE_NOT_LISTED)
+                .expressionAttributeNames(ATTRIBUTE_NAMES)
+                .expressionAttributeValues(imageValues(key))
+                .build());
+        } catch (ConditionalCheckFailedException e) {
+            // The label already lists the image.
         }
     }
 
-    private Boolean checkLabelExists(DynamoDbTable<Label> table, String label) {
-        QueryConditional queryConditional = QueryConditional.keyEqualTo(Key.builder()
-            .partitionValue(label)
-            .build());
+    private static Map<String, AttributeValue> labelKey(String label) {
+        return Map.of("Label", AttributeValue.builder().s(label).build());
+    }
 
-        Iterator<Label> results = table.query(queryConditional).items().iterator();
-        return results.hasNext();
+    private static Map<String, AttributeValue> imageValues(String key) {
+        AttributeValue image = AttributeValue.builder().s(key).build();
+        return Map.of(
+            ":image", AttributeValue.builder().l(image).build(),
+            ":empty", AttributeValue.builder().l(List.of()).build(),
+            ":key", image,
+            ":zero", AttributeValue.builder().n("0").build(),
+            ":one", AttributeValue.builder().n("1").build());
     }
 
     public List<String> getImagesByLabel(String label) {
-        DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-            .dynamoDbClient(getClient())
-            .build();
-
-        DynamoDbTable<com.example.photo.Label> table = enhancedClient.table(PhotoApplicationResources.LABELS_TABLE,
-            TableSchema.fromBean(Label.class));
         Key key = Key.builder()
             .partitionValue(label)
             .build();
@@ -96,13 +213,6 @@ public class DynamoDBService {
     // Scan the table and send data back to the client.
     public Map<String, WorkCount> scanPhotoTable() {
         Map<String, WorkCount> myMap = new HashMap<>();
-        DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-            .dynamoDbClient(getClient())
-            .build();
-
-        DynamoDbTable<Label> table = enhancedClient.table(PhotoApplicationResources.LABELS_TABLE,
-            TableSchema.fromBean(Label.class));
-
         for (Label photo : table.scan().items()) {
             WorkCount wc = new WorkCount();
             wc.setCount(photo.getCount());
@@ -10,6 +10,7 @@ import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
 import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
@@ -32,11 +33,37 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 public class S3Service {
-    // Create the S3Client object.
-    private S3Client getClient() {
-        return S3Client.builder()
+    private final S3Client s3Client;
+    private final S3Presigner downloadPresigner;
+    private final S3Presigner uploadPresigner;
+
+    public S3Service() {
+        this(S3Client.builder()
+                .region(PhotoApplicationResources.REGION)
+                .build());
+    }
+
+    public S3Service(S3Client s3Client) {
+        this.s3Client = s3Client;
+        this.downloadPresigner = S3Presigner.builder()
                 .region(PhotoApplicationResources.REGION)
+                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
                 .build();
+        this.uploadPresigner = S3Presigner.builder()
+                .region(PhotoApplicationResources.REGION)
+                .build();
+    }
+
+    private S3Client getClient() {
+        return s3Client;
+    }
+
+    // Makes a cheap call to the storage bucket so that the credentials are resolved and a
+    // connection is open before the first request.
+    public void prime() {
+        getClient().headBucket(HeadBucketRequest.builder()
+                .bucket(PhotoApplicationResources.STORAGE_BUCKET)
+                .build());
     }
 
     public byte[] getObjectBytes(String bucketName, String keyName) {
@@ -138,11 +165,6 @@ public class S3Service {
 
     // New method to sign an object prior to uploading it.
     public String signObjectToDownload(String bucketName, String keyName) {
-        S3Presigner presignerOb = S3Presigner.builder()
-                .region(PhotoApplicationResources.REGION)
-                .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
-                .build();
-
         try {
             GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                     .bucket(bucketName)
@@ -154,7 +176,7 @@ public class S3Service {
                     .getObjectRequest(getObjectRequest)
                     .build();
 
-            PresignedGetObjectRequest presignedGetObjectRequest = presignerOb.presignGetObject(getObjectPresignRequest);
+            PresignedGetObjectRequest presignedGetObjectRequest = downloadPresigner.presignGetObject(getObjectPresignRequest);
 
             return presignedGetObjectRequest.url().toString();
         } catch (S3Exception e) {
@@ -165,10 +187,6 @@ public class S3Service {
     }
 
     public String signObjectToUpload(String keyName) {
-        S3Presigner presigner = S3Presigner.builder()
-                .region(PhotoApplicationResources.REGION)
-                .build();
-
         try {
             PutObjectRequest objectRequest = PutObjectRequest.builder()
                     .bucket(PhotoApplicationResources.STORAGE_BUCKET)
@@ -181,7 +199,7 @@ public class S3Service {
                     .putObjectRequest(objectRequest)
                     .build();
 
-            PresignedPutObjectRequest presignedRequest = presigner.presignPutObject(presignRequest);
+            PresignedPutObjectRequest presignedRequest = uploadPresigner.presignPutObject(presignRequest);
             return presignedRequest.url().toString();
         } catch (S3Exception e) {
             System.err.println(e.getMessage());
@@ -8,17 +8,36 @@ import software.amazon.awssdk.auth.credentials.EnvironmentVariableCredentialsPro
 import software.amazon.awssdk.services.sns.SnsClient;
 import software.amazon.awssdk.services.sns.model.CreateTopicRequest;
 import software.amazon.awssdk.services.sns.model.CreateTopicResponse;
+import software.amazon.awssdk.services.sns.model.GetTopicAttributesRequest;
 import software.amazon.awssdk.services.sns.model.PublishRequest;
 import software.amazon.awssdk.services.sns.model.PublishResponse;
 import software.amazon.awssdk.services.sns.model.SnsException;
 import software.amazon.awssdk.services.sns.model.SubscribeRequest;
 
 public class SnsService {
-    private SnsClient getClient() {
-        return SnsClient.builder()
+    private final SnsClient snsClient;
+
+    public SnsService() {
+        this(SnsClient.builder()
                 .credentialsProvider(EnvironmentVariableCredentialsProvider.create())
                 .region(PhotoApplicationResources.REGION)
-                .build();
+                .build());
+    }
+
+    public SnsService(SnsClient snsClient) {
+        this.snsClient = snsClient;
+    }
+
+    private SnsClient getClient() {
+        return snsClient;
+    }
+
+    // Makes a cheap call to the notification topic so that a connection is open before the
+    // first request.
+    public void prime() {
+        getClient().getTopicAttributes(GetTopicAttributesRequest.builder()
+                .topicArn(PhotoApplicationResources.TOPIC_ARN)
+                .build());
     }
 
     public String createNotificationTopic(String notify, String jobId) {
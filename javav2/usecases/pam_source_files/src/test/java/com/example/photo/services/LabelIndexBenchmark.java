@@ -0,0 +1,211 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: Apache-2.0
+
+package com.example.photo.services;
+
+import com.example.photo.Label;
+import com.example.photo.LabelCount;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
+import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
+import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
+import software.amazon.awssdk.services.dynamodb.model.KeyType;
+import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Measures the label index when many photos with the same labels are indexed at once, as
+ * happens when S3Handler runs in many execution environments after a bulk upload. Three ways
+ * of indexing are compared:
+ *
+ *   read-modify-write    what putRecord did before: a query, a get, and a rewrite of the
+ *                        whole image list for every label
+ *   conditional updates  putRecord: one conditional UpdateItem per label, in parallel
+ *   transactions         putRecordAtomically: one TransactWriteItems call per photo
+ *
+ * Each uploader thread has its own DynamoDBService, like an execution environment. Every
+ * run uses a new on-demand table. After the run, the table is scanned and every label is
+ * checked for lost and duplicated images, and then the table is deleted.
+ *
+ * Pass the endpoint of DynamoDB Local as the first argument, or no argument to use Amazon
+ * DynamoDB in the Region of the default profile. Running against DynamoDB creates and
+ * deletes tables and might result in charges to your AWS account.
+ */
+public class LabelIndexBenchmark {
+    private static final int PHOTOS = 500;
+    private static final int UPLOADERS = 32;
+    private static final int LABELS_PER_PHOTO = 5;
+    private static final List<String> VOCABULARY = List.of("Person", "Outdoors", "Nature", "Plant", "Tree",
+            "Animal", "Dog", "Building");
+
+    public static void main(String[] args) throws Exception {
+        DynamoDbClientBuilder builder = DynamoDbClient.builder()
+                .httpClientBuilder(ApacheHttpClient.builder()
+                        .maxConnections(UPLOADERS * LABELS_PER_PHOTO));
+        if (args.length > 0) {
+            builder.endpointOverride(URI.create(args[0]))
+                    .region(Region.US_EAST_1);
+        }
+
+        System.out.printf("%d photos with %d of %d labels each, %d uploaders%n", PHOTOS, LABELS_PER_PHOTO,
+                VOCABULARY.size(), UPLOADERS);
+        try (DynamoDbClient client = builder.build()) {
+            for (String mode : List.of("read-modify-write", "conditional updates", "transactions")) {
+                run(client, mode);
+            }
+        }
+    }
+
+    private static void run(DynamoDbClient client, String mode) throws Exception {
+        String tableName = "LabelIndexBenchmark-" + UUID.randomUUID();
+        createTable(client, tableName);
+        ExecutorService uploaders = Executors.newFixedThreadPool(UPLOADERS);
+        try {
+            DynamoDbTable<Label> table = DynamoDbEnhancedClient.builder()
+                    .dynamoDbClient(client)
+                    .build()
+                    .table(tableName, TableSchema.fromBean(Label.class));
+            ThreadLocal<DynamoDBService> services = ThreadLocal.withInitial(
+                    () -> new DynamoDBService(client, tableName));
+            Consumer<List<LabelCount>> indexer = switch (mode) {
+                case "read-modify-write" -> labels -> readModifyWrite(table, labels);
+                case "conditional updates" -> labels -> services.get().putRecord(labels);
+                default -> labels -> services.get().putRecordAtomically(labels);
+            };
+
+            long[] micros = new long[PHOTOS];
+            AtomicInteger failures = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < PHOTOS; i++) {
+                int photo = i;
+                futures.add(uploaders.submit(() -> {
+                    long photoStart = System.nanoTime();
+                    try {
+                        indexer.accept(labels(photo));
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                    micros[photo] = (System.nanoTime() - photoStart) / 1000;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            // Compare the index with the labels of every photo.
+            Map<String, Set<String>> expected = new HashMap<>();
+            for (int i = 0; i < PHOTOS; i++) {
+                for (LabelCount count : labels(i)) {
+                    expected.computeIfAbsent(count.getName(), name -> new HashSet<>()).add(count.getKey());
+                }
+            }
+            int lost = 0;
+            int duplicated = 0;
+            int wrongCounts = 0;
+            for (Label label : table.scan().items()) {
+                List<String> images = label.getImages();
+                Set<String> distinct = new HashSet<>(images);
+                duplicated += images.size() - distinct.size();
+                Set<String> missing = new HashSet<>(expected.remove(label.getId()));
+                missing.removeAll(distinct);
+                lost += missing.size();
+                if (label.getCount() == null || label.getCount() != images.size()) {
+                    wrongCounts++;
+                }
+            }
+            for (Set<String> images : expected.values()) {
+                lost += images.size();
+            }
+
+            Arrays.sort(micros);
+            System.out.printf("%-20s %6d ms  %6.0f photos/s  p50 %7.1f ms  p99 %7.1f ms  failed %d  lost %d  "
+                    + "duplicated %d  wrong counts %d%n", mode, elapsedMillis, PHOTOS * 1000.0 / elapsedMillis,
+                    micros[PHOTOS / 2] / 1000.0, micros[(int) (PHOTOS * 0.99)] / 1000.0, failures.get(), lost,
+                    duplicated, wrongCounts);
+        } finally {
+            uploaders.shutdownNow();
+            client.deleteTable(r -> r.tableName(tableName));
+        }
+    }
+
+    // What putRecord did before this change.
+    private static void readModifyWrite(DynamoDbTable<Label> table, List<LabelCount> labels) {
+        for (LabelCount count : labels) {
+            Key key = Key.builder()
+                    .partitionValue(count.getName())
+                    .build();
+            if (!table.query(QueryConditional.keyEqualTo(key)).items().iterator().hasNext()) {
+                Label label = new Label();
+                label.setId(count.getName());
+                List<String> images = new ArrayList<>();
+                images.add(count.getKey());
+                label.setImages(images);
+                table.putItem(label);
+            } else {
+                List<String> images = table.getItem(key).getImages();
+                images.add(count.getKey());
+                Label label = new Label();
+                label.setId(count.getName());
+                label.setImages(images);
+                table.updateItem(label);
+            }
+        }
+    }
+
+    // The same labels for a photo on every run.
+    private static List<LabelCount> labels(int photo) {
+        List<String> names = new ArrayList<>(VOCABULARY);
+        Collections.shuffle(names, new Random(photo));
+        List<LabelCount> labels = new ArrayList<>();
+        for (String name : names.subList(0, LABELS_PER_PHOTO)) {
+            LabelCount count = new LabelCount();
+            count.setKey("photo-" + photo + ".jpg");
+            count.setName(name);
+            labels.add(count);
+        }
+        return labels;
+    }
+
+    private static void createTable(DynamoDbClient client, String tableName) {
+        client.createTable(CreateTableRequest.builder()
+                .tableName(tableName)
+                .attributeDefinitions(AttributeDefinition.builder()
+                        .attributeName("Label")
+                        .attributeType(ScalarAttributeType.S)
+                        .build())
+                .keySchema(KeySchemaElement.builder()
+                        .attributeName("Label")
+                        .keyType(KeyType.HASH)
+                        .build())
+                .billingMode(BillingMode.PAY_PER_REQUEST)
+                .build());
+        client.waiter().waitUntilTableExists(r -> r.tableName(tableName));
+    }
+}
@@ -3,15 +3,18 @@
 
 package com.example.resilient;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import software.amazon.awssdk.core.waiters.WaiterResponse;
-import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
-import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeDefinition;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
 import software.amazon.awssdk.services.dynamodb.model.CreateTableRequest;
 import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
 import software.amazon.awssdk.services.dynamodb.model.DescribeTableResponse;
@@ -19,14 +22,33 @@ import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
 import software.amazon.awssdk.services.dynamodb.model.KeySchemaElement;
 import software.amazon.awssdk.services.dynamodb.model.KeyType;
 import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughput;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
 import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
+import software.amazon.awssdk.services.dynamodb.model.ReturnConsumedCapacity;
 import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 import software.amazon.awssdk.services.dynamodb.waiters.DynamoDbWaiter;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 // snippet-start:[javav2.example_code.workflow.ResilientService_RecommendationService]
 public class Database {
+    private static final int MAX_BATCH_SIZE = 25;
+    private static final int WRITERS = 4;
+    private static final int MAX_ATTEMPTS = 10;
+    private static final long BASE_BACKOFF_MILLIS = 50;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
 
     private static DynamoDbClient dynamoDbClient;
 
@@ -121,35 +143,125 @@ public class Database {
         System.out.println("Table " + tableName + " deleted.");
     }
 
-    // Populates the table with data located in a JSON file using the DynamoDB
-    // enhanced client.
+    // Populates the table with data located in a JSON file. The file is read one
+    // record at a time, and the records are written in BatchWriteItem calls of up to
+    // 25 items by several writers at once.
     public void populateTable(String fileName, String tableName) throws IOException {
-        DynamoDbEnhancedClient enhancedClient = DynamoDbEnhancedClient.builder()
-                .dynamoDbClient(getDynamoDbClient())
-                .build();
-        ObjectMapper objectMapper = new ObjectMapper();
-        File jsonFile = new File(fileName);
-        JsonNode rootNode = objectMapper.readTree(jsonFile);
-
-        DynamoDbTable<Recommendation> mappedTable = enhancedClient.table(tableName,
-                TableSchema.fromBean(Recommendation.class));
-        for (JsonNode currentNode : rootNode) {
-            String mediaType = currentNode.path("MediaType").path("S").asText();
-            int itemId = currentNode.path("ItemId").path("N").asInt();
-            String title = currentNode.path("Title").path("S").asText();
-            String creator = currentNode.path("Creator").path("S").asText();
-
-            // Create a Recommendation object and set its properties.
-            Recommendation rec = new Recommendation();
-            rec.setMediaType(mediaType);
-            rec.setItemId(itemId);
-            rec.setTitle(title);
-            rec.setCreator(creator);
-
-            // Put the item into the DynamoDB table.
-            mappedTable.putItem(rec); // Add the Recommendation to the list.
+        populateTable(fileName, tableName, WRITERS);
+    }
+
+    public void populateTable(String fileName, String tableName, int writers) throws IOException {
+        DynamoDbClient ddb = getDynamoDbClient();
+        TableSchema<Recommendation> schema = TableSchema.fromBean(Recommendation.class);
+        LoadStats stats = new LoadStats();
+        ExecutorService writerPool = Executors.newFixedThreadPool(writers);
+        // Bounds the batches that wait for a writer, so the file is not read far ahead of the writes.
+        Semaphore waitingBatches = new Semaphore(2 * writers);
+        List<Future<?>> writes = new ArrayList<>();
+
+        try (JsonParser parser = new ObjectMapper().getFactory().createParser(new File(fileName))) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array in " + fileName);
+            }
+
+            // The keys in the file are unique, so a batch never holds two writes of one item.
+            List<WriteRequest> batch = new ArrayList<>(MAX_BATCH_SIZE);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                JsonNode currentNode = parser.readValueAsTree();
+
+                // Create a Recommendation object and set its properties.
+                Recommendation rec = new Recommendation();
+                rec.setMediaType(currentNode.path("MediaType").path("S").asText());
+                rec.setItemId(currentNode.path("ItemId").path("N").asInt());
+                rec.setTitle(currentNode.path("Title").path("S").asText());
+                rec.setCreator(currentNode.path("Creator").path("S").asText());
+
+                batch.add(WriteRequest.builder()
+                        .putRequest(PutRequest.builder().item(schema.itemToMap(rec, true)).build())
+                        .build());
+                if (batch.size() == MAX_BATCH_SIZE) {
+                    writes.add(submit(writerPool, waitingBatches, ddb, tableName, batch, stats));
+                    batch = new ArrayList<>(MAX_BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                writes.add(submit(writerPool, waitingBatches, ddb, tableName, batch, stats));
+            }
+
+            for (Future<?> write : writes) {
+                write.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while adding records to " + tableName, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Could not add records to " + tableName, e.getCause());
+        } finally {
+            writerPool.shutdownNow();
+        }
+        System.out.println("Added " + stats + " to the " + tableName + " table.");
+    }
+
+    private static Future<?> submit(ExecutorService writerPool, Semaphore waitingBatches, DynamoDbClient ddb,
+            String tableName, List<WriteRequest> batch, LoadStats stats) throws InterruptedException {
+        waitingBatches.acquire();
+        return writerPool.submit(() -> {
+            try {
+                writeBatch(ddb, tableName, batch, stats);
+                return null;
+            } finally {
+                waitingBatches.release();
+            }
+        });
+    }
+
+    // Writes one batch, sending the unprocessed items again after a backoff with full jitter.
+    private static void writeBatch(DynamoDbClient ddb, String tableName, List<WriteRequest> batch,
+            LoadStats stats) throws InterruptedException {
+        List<WriteRequest> pending = batch;
+        for (int attempt = 1; ; attempt++) {
+            BatchWriteItemResponse response = ddb.batchWriteItem(BatchWriteItemRequest.builder()
+                    .requestItems(Map.of(tableName, pending))
+                    .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                    .build());
+            for (ConsumedCapacity capacity : response.consumedCapacity()) {
+                if (capacity.capacityUnits() != null) {
+                    stats.consumedWcu.add(capacity.capacityUnits());
+                }
+            }
+
+            List<WriteRequest> unprocessed = response.unprocessedItems().getOrDefault(tableName, List.of());
+            stats.items.add(pending.size() - unprocessed.size());
+            if (unprocessed.isEmpty()) {
+                return;
+            }
+            if (attempt == MAX_ATTEMPTS) {
+                throw new IllegalStateException(unprocessed.size() + " records were not added to "
+                        + tableName + " after " + MAX_ATTEMPTS + " attempts");
+            }
+            stats.retries.increment();
+            long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (attempt - 1));
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            pending = unprocessed;
+        }
+    }
+
+    // The totals of a load, which the writers update at the same time.
+    private static class LoadStats {
+        private final long startNanos = System.nanoTime();
+        private final LongAdder items = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final DoubleAdder consumedWcu = new DoubleAdder();
+
+        @Override
+        public String toString() {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            return String.format("%d records in %.1f s (%.0f items/sec, %.1f WCU consumed, %d retries)",
+                    items.sum(), seconds, items.sum() / seconds, consumedWcu.sum(), retries.sum());
         }
-        System.out.println("Added all records to the " + tableName);
     }
 }
 // snippet-end:[javav2.example_code.workflow.ResilientService_RecommendationService]
\ No newline at end of file